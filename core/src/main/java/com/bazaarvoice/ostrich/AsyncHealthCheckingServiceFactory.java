@@ -0,0 +1,30 @@
+package com.bazaarvoice.ostrich;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * A service factory that can health check an end point without blocking the calling thread, for example by using a
+ * client that performs its I/O asynchronously.
+ * <p/>
+ * When a service pool's factory implements this interface the pool uses {@link #isHealthyAsync} to check whether its
+ * bad end points have recovered.  No thread is tied up while a check is in progress, so a few threads are enough to
+ * health check a large number of bad end points.  The synchronous {@link #isHealthy} is still used whenever the caller
+ * asked for health check results and waits for them, for example by
+ * {@link ServicePool#checkForHealthyEndPoint()}.
+ *
+ * @param <S> The type of the service.
+ */
+public interface AsyncHealthCheckingServiceFactory<S> extends ServiceFactory<S> {
+    /**
+     * Starts a health check of an end point.  This is called from the service pool's health check executor, and
+     * should return as soon as the check has been started.
+     * <p/>
+     * Completing the returned stage exceptionally, or throwing an exception, is treated the same as the end point
+     * being unhealthy.  A check that doesn't complete within the service pool's health check timeout is treated as
+     * failed, and its result ignored once it does complete.
+     *
+     * @param endPoint The end point to check the health of.
+     * @return A stage that completes with {@code true} if the health check succeeded, {@code false} otherwise.
+     */
+    CompletionStage<Boolean> isHealthyAsync(ServiceEndPoint endPoint);
+}
@@ -34,6 +34,46 @@ public interface AsyncServicePool<S> extends Closeable {
      */
     <R> Future<R> execute(PartitionContext partitionContext, RetryPolicy retryPolicy, ServiceCallback<S, R> callback);
 
+    /**
+     * Execute a request asynchronously against one of the remote services in this {@code ServicePool}, giving up once
+     * the deadline passes, see {@link ServicePool#execute(Deadline, RetryPolicy, ServiceCallback)}.  The deadline
+     * includes the time the request waits to be run.
+     *
+     * @param deadline    The deadline of the request.
+     * @param retryPolicy The retry policy for the operation.
+     * @param callback    The user provided callback to invoke.
+     * @param <R>         The return type for the call.
+     * @return            A future representing the call.
+     */
+    default <R> Future<R> execute(Deadline deadline, RetryPolicy retryPolicy, ServiceCallback<S, R> callback) {
+        return execute(deadline, PartitionContextBuilder.empty(), retryPolicy, callback);
+    }
+
+    /**
+     * Execute a request asynchronously against one of the remote services in this {@code ServicePool} using the
+     * specified partition information to narrow down the suitable service end points, giving up once the deadline
+     * passes, see {@link ServicePool#execute(Deadline, RetryPolicy, ServiceCallback)}.
+     * <p/>
+     * The default implementation only stops retrying once the deadline has passed.  Implementations should override
+     * it to also stop checking out service instances past the deadline and to pass the deadline to callbacks.
+     *
+     * @param deadline         The deadline of the request.
+     * @param partitionContext The partition context.
+     * @param retryPolicy      The retry policy for the operation.
+     * @param callback         The user provided callback to invoke with a service end point.
+     * @param <R>              The return type for the call.
+     * @return                 A future representing the call.
+     */
+    default <R> Future<R> execute(Deadline deadline, PartitionContext partitionContext, RetryPolicy retryPolicy,
+                                  ServiceCallback<S, R> callback) {
+        return execute(partitionContext, new RetryPolicy() {
+            @Override
+            public boolean allowRetry(int numAttempts, long elapsedTimeMs) {
+                return retryPolicy.allowRetry(numAttempts, elapsedTimeMs, deadline);
+            }
+        }, callback);
+    }
+
     /**
      * Execute a request asynchronously against <b>ALL</b> of the remote services in this {@code ServicePool},
      * returning a future for each asynchronous call.
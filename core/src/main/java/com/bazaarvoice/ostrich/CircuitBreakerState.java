@@ -0,0 +1,23 @@
+package com.bazaarvoice.ostrich;
+
+/**
+ * The state of the circuit breaker that a {@link ServicePool} keeps for one of its end points.
+ */
+public enum CircuitBreakerState {
+    /**
+     * Requests are sent to the end point as usual.  This is also the state of every end point of a pool that doesn't
+     * use circuit breakers.
+     */
+    CLOSED,
+
+    /**
+     * Too many requests to the end point failed recently, so no requests are sent to it for the time being.
+     */
+    OPEN,
+
+    /**
+     * The end point's circuit was open for long enough that a small share of requests is sent to it again, to find out
+     * whether it has recovered.
+     */
+    HALF_OPEN
+}
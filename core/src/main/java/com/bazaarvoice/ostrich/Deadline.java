@@ -0,0 +1,78 @@
+package com.bazaarvoice.ostrich;
+
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The point in time by which the caller of a request has given up on it.  A service pool doesn't check out service
+ * instances, retry or sleep between retries for a request past its deadline, and passes the deadline on to a
+ * {@link DeadlineServiceCallback} so that it can bound its own work, for example by setting a socket timeout.
+ */
+public final class Deadline {
+    /** A deadline that never passes. */
+    public static final Deadline NONE = new Deadline(null, Long.MAX_VALUE);
+
+    private final Ticker _ticker;
+    private final long _deadlineNanos;
+
+    /**
+     * Returns a deadline that passes once the given amount of time has passed.
+     *
+     * @param timeout The time until the deadline passes.
+     * @param unit    The unit of time the {@code timeout} is in.
+     * @return The deadline.
+     */
+    public static Deadline after(long timeout, TimeUnit unit) {
+        return after(timeout, unit, Ticker.systemTicker());
+    }
+
+    /**
+     * Returns a deadline that passes once the given amount of time has passed according to the given ticker.
+     *
+     * @param timeout The time until the deadline passes.
+     * @param unit    The unit of time the {@code timeout} is in.
+     * @param ticker  The source of time.
+     * @return The deadline.
+     */
+    public static Deadline after(long timeout, TimeUnit unit, Ticker ticker) {
+        checkArgument(timeout >= 0);
+        checkNotNull(unit);
+        checkNotNull(ticker);
+
+        return new Deadline(ticker, ticker.read() + unit.toNanos(timeout));
+    }
+
+    private Deadline(Ticker ticker, long deadlineNanos) {
+        _ticker = ticker;
+        _deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * Returns how much time is left until the deadline passes, which is 0 if it already has.  A deadline that never
+     * passes always has {@link Long#MAX_VALUE} left.
+     */
+    public long getRemaining(TimeUnit unit) {
+        if (this == NONE) {
+            return Long.MAX_VALUE;
+        }
+        return unit.convert(Math.max(0, _deadlineNanos - _ticker.read()), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns {@code true} once the deadline has passed.
+     */
+    public boolean isExpired() {
+        return this != NONE && _deadlineNanos - _ticker.read() <= 0;
+    }
+
+    @Override
+    public String toString() {
+        return (this == NONE)
+                ? "Deadline[none]"
+                : "Deadline[" + getRemaining(TimeUnit.MILLISECONDS) + " ms remaining]";
+    }
+}
@@ -0,0 +1,16 @@
+package com.bazaarvoice.ostrich;
+
+import com.bazaarvoice.ostrich.exceptions.ServiceException;
+
+/**
+ * A {@link ServiceCallback} that is told the deadline of the request it's called for, so that it can bound its own
+ * work, for example by setting a socket timeout to the time that's left.
+ */
+public interface DeadlineServiceCallback<S, RETURN> extends ServiceCallback<S, RETURN> {
+    RETURN call(S service, Deadline deadline) throws ServiceException;
+
+    @Override
+    default RETURN call(S service) throws ServiceException {
+        return call(service, Deadline.NONE);
+    }
+}
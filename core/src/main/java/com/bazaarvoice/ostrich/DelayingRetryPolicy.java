@@ -0,0 +1,19 @@
+package com.bazaarvoice.ostrich;
+
+/**
+ * A {@link RetryPolicy} that can say how long to wait before retrying an operation instead of waiting itself, so that
+ * an {@link AsyncServicePool} can schedule the retry rather than hold a thread while it waits.
+ */
+public interface DelayingRetryPolicy extends RetryPolicy {
+    /**
+     * Called when an operation has failed for some reason, to decide whether and when it will be retried.  Unlike
+     * {@link #allowRetry(int, long, Deadline)} this never waits.  Operations are never retried once their deadline has
+     * passed, so the delay shouldn't run past it.
+     *
+     * @param numAttempts   The number of attempts that have happened so far.  This must be greater than zero.
+     * @param elapsedTimeMs The amount of time in milliseconds that the operation has been attempted.
+     * @param deadline      The deadline of the operation, {@link Deadline#NONE} if it doesn't have one.
+     * @return How long to wait in milliseconds before retrying the operation, or -1 if it can't be tried again.
+     */
+    long getRetryDelayMs(int numAttempts, long elapsedTimeMs, Deadline deadline);
+}
@@ -15,6 +15,17 @@ public interface HostDiscovery extends Closeable {
      */
     Iterable<ServiceEndPoint> getHosts();
 
+    /**
+     * Whether the available hosts may be out of date because the source they are discovered from can't currently be
+     * reached.  While it is, end points that the source reports as removed may be kept around for a while, since they
+     * are likely still there.
+     *
+     * @return {@code true} if the available hosts may be out of date.
+     */
+    default boolean isStale() {
+        return false;
+    }
+
     /**
      * Add an end point listener.
      *
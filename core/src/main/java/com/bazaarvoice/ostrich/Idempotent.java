@@ -0,0 +1,22 @@
+package com.bazaarvoice.ostrich;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Marks a method of a service interface as safe to call more than once for the same request, so that service pool
+ * proxies may hedge calls to it, see {@link IdempotentServiceCallback}.
+ */
+@Target({METHOD})
+@Retention(RUNTIME)
+public @interface Idempotent {
+    /**
+     * Whether concurrent calls with equal arguments may share a single request and its result, see
+     * {@link SingleFlightServiceCallback}.  Only turn this on for methods whose results are safe to hand to several
+     * callers, which mutable results aren't.
+     */
+    boolean singleFlight() default false;
+}
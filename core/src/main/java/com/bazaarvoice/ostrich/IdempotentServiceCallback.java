@@ -0,0 +1,12 @@
+package com.bazaarvoice.ostrich;
+
+/**
+ * A {@link ServiceCallback} that is safe to call more than once for the same request.
+ * <p/>
+ * If the service pool is configured to hedge requests, an idempotent callback that hasn't completed within the hedge
+ * delay is called a second time against a different end point, and whichever call completes first provides the
+ * result.  This applies to both {@link ServicePool#execute} and {@link AsyncServicePool#execute}.  Other callbacks are
+ * never hedged.
+ */
+public interface IdempotentServiceCallback<S, RETURN> extends ServiceCallback<S, RETURN> {
+}
@@ -0,0 +1,25 @@
+package com.bazaarvoice.ostrich;
+
+/**
+ * A service factory that can tell an end point that's overloaded apart from one that's failing, for example because
+ * it answered with an HTTP 503 and a Retry-After header.
+ * <p/>
+ * When a service pool's factory implements this interface, an end point that's overloaded isn't marked as bad, health
+ * checked or counted against its circuit breaker, and its cached service instances are kept.  Instead the pool backs
+ * off from it for the interval it asked for, and sends requests to the other end points in the meantime.  Requests
+ * that failed because of an overload are retried if their retry policy allows, but no request of the pool is retried
+ * before the interval has passed, so that retries don't add to the load.
+ *
+ * @param <S> The type of the service.
+ */
+public interface OverloadAwareServiceFactory<S> extends ServiceFactory<S> {
+    /**
+     * Determine whether an exception means that the end point is overloaded rather than failing, and if so, how long
+     * it asked to be backed off from.  The exception is one that {@link #isRetriableException} is also asked about.
+     *
+     * @param exception An exception encountered during an attempt to execute a service callback.
+     * @return The time to back off from the end point in milliseconds, 0 if the end point is overloaded but didn't say
+     * for how long, or -1 if the exception doesn't mean the end point is overloaded.
+     */
+    long getOverloadBackoffMillis(Exception exception);
+}
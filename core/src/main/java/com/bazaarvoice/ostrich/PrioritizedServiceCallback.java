@@ -0,0 +1,12 @@
+package com.bazaarvoice.ostrich;
+
+/**
+ * A {@link ServiceCallback} with a {@link Priority} class.
+ * <p/>
+ * If the async service pool is configured to shed load, requests are queued by class once it's saturated, and run
+ * highest class first.  Requests that have waited in the queue for too long are shed rather than run.  Other
+ * callbacks are of the {@link Priority#DEFAULT} class.
+ */
+public interface PrioritizedServiceCallback<S, RETURN> extends ServiceCallback<S, RETURN> {
+    Priority getPriority();
+}
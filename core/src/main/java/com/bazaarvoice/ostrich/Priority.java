@@ -0,0 +1,17 @@
+package com.bazaarvoice.ostrich;
+
+/**
+ * The priority class of a request made through an {@link AsyncServicePool}, see {@link PrioritizedServiceCallback}.
+ * When the pool is saturated, requests of a higher class run first, so requests of lower classes are the first to
+ * wait too long and be shed.
+ */
+public enum Priority {
+    /** Requests that something user facing is waiting for. */
+    CRITICAL,
+
+    /** Requests that don't say what class they are. */
+    DEFAULT,
+
+    /** Requests, such as batch traffic, that can wait or be retried later. */
+    BEST_EFFORT
+}
@@ -11,4 +11,18 @@ public interface RetryPolicy {
      * @return <code>true</code> if the operation can be tried again, <code>false</code> otherwise.
      */
     boolean allowRetry(int numAttempts, long elapsedTimeMs);
+
+    /**
+     * Called when an operation that has a deadline has failed for some reason.  If this method returns
+     * <code>true</code> then the operation will be retried.  Operations are never retried once their deadline has
+     * passed, and policies that wait before retrying shouldn't wait past it.
+     *
+     * @param numAttempts   The number of attempts that have happened so far.  This must be greater than zero.
+     * @param elapsedTimeMs The amount of time in milliseconds that the operation has been attempted.
+     * @param deadline      The deadline of the operation.
+     * @return <code>true</code> if the operation can be tried again, <code>false</code> otherwise.
+     */
+    default boolean allowRetry(int numAttempts, long elapsedTimeMs, Deadline deadline) {
+        return !deadline.isExpired() && allowRetry(numAttempts, elapsedTimeMs);
+    }
 }
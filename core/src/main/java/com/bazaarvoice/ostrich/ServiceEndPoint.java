@@ -14,4 +14,13 @@ public interface ServiceEndPoint {
 
     /** An optional payload provided by the user that registered the service. */
     String getPayload();
+
+    /**
+     * The number of requests per second the end point declared it can serve, over all of its clients, or 0 if it
+     * didn't declare a capacity.  Service pools with a {@link com.bazaarvoice.ostrich.pool.RateLimitPolicy} don't send
+     * the end point more than their share of it.
+     */
+    default double getCapacity() {
+        return 0;
+    }
 }
@@ -21,6 +21,7 @@ public class ServiceEndPointBuilder {
     private String _serviceName = null;
     private String _id = null;
     private String _payload = null;
+    private double _capacity = 0;
 
     public ServiceEndPointBuilder withServiceName(String serviceName) {
         Preconditions.checkArgument(getCheckExpression(serviceName));
@@ -45,6 +46,13 @@ public class ServiceEndPointBuilder {
         return this;
     }
 
+    public ServiceEndPointBuilder withCapacity(double requestsPerSecond) {
+        Preconditions.checkArgument(requestsPerSecond >= 0);
+
+        _capacity = requestsPerSecond;
+        return this;
+    }
+
     public ServiceEndPoint build() {
         Preconditions.checkState(getCheckExpression(_serviceName));
         final String serviceName = _serviceName;
@@ -53,6 +61,7 @@ public class ServiceEndPointBuilder {
         final String id = _id;
 
         final String payload = _payload;
+        final double capacity = _capacity;
 
         return new ServiceEndPoint() {
             @Override
@@ -70,6 +79,11 @@ public class ServiceEndPointBuilder {
                 return payload;
             }
 
+            @Override
+            public double getCapacity() {
+                return capacity;
+            }
+
             @Override
             public int hashCode() {
                 return Objects.hash(serviceName, id);
@@ -13,6 +13,9 @@ public final class ServiceEndPointJsonCodec {
         data.put("name", endPoint.getServiceName());
         data.put("id", endPoint.getId());
         data.put("payload", endPoint.getPayload());
+        if (endPoint.getCapacity() > 0) {
+            data.put("capacity", endPoint.getCapacity());
+        }
         return JsonHelper.toJson(data);
     }
 
@@ -25,11 +28,13 @@ public final class ServiceEndPointJsonCodec {
         String name = (String) checkNotNull(data.get("name"));
         String id = (String) checkNotNull(data.get("id"));
         String payload = (String) data.get("payload");
+        Number capacity = (Number) data.get("capacity");
 
         return new ServiceEndPointBuilder()
                 .withServiceName(name)
                 .withId(id)
                 .withPayload(payload)
+                .withCapacity((capacity != null) ? capacity.doubleValue() : 0)
                 .build();
     }
 
@@ -53,6 +53,48 @@ public interface ServicePool<S> extends Closeable {
      */
     <R> R execute(PartitionContext partitionContext, RetryPolicy retryPolicy, ServiceCallback<S, R> callback);
 
+    /**
+     * Execute a request synchronously against one of the remote services in this <code>ServicePool</code>, giving up
+     * once the deadline passes.  No service instances are checked out and no attempts are retried past the deadline,
+     * and a {@link DeadlineServiceCallback} is passed the deadline so that it can bound its own work.
+     *
+     * @param deadline The deadline of the request.
+     * @param retryPolicy The retry policy for the operation.
+     * @param callback The user provided callback to invoke with a service end point.
+     * @param <R> The return type for the call.
+     * @return The result provided by the callback.
+     * @throws com.bazaarvoice.ostrich.exceptions.DeadlineExceededException if the deadline passes first.
+     */
+    default <R> R execute(Deadline deadline, RetryPolicy retryPolicy, ServiceCallback<S, R> callback) {
+        return execute(deadline, PartitionContextBuilder.empty(), retryPolicy, callback);
+    }
+
+    /**
+     * Execute a request synchronously against one of the remote services in this <code>ServicePool</code> using
+     * the specified partition information to narrow down the suitable service end points, giving up once the deadline
+     * passes, see {@link #execute(Deadline, RetryPolicy, ServiceCallback)}.
+     * <p/>
+     * The default implementation only stops retrying once the deadline has passed.  Implementations should override
+     * it to also stop checking out service instances past the deadline and to pass the deadline to callbacks.
+     *
+     * @param deadline The deadline of the request.
+     * @param partitionContext The partition context.
+     * @param retryPolicy The retry policy for the operation.
+     * @param callback The user provided callback to invoke with a service end point.
+     * @param <R> The return type for the call.
+     * @return The result provided by the callback.
+     * @throws com.bazaarvoice.ostrich.exceptions.DeadlineExceededException if the deadline passes first.
+     */
+    default <R> R execute(Deadline deadline, PartitionContext partitionContext, RetryPolicy retryPolicy,
+                          ServiceCallback<S, R> callback) {
+        return execute(partitionContext, new RetryPolicy() {
+            @Override
+            public boolean allowRetry(int numAttempts, long elapsedTimeMs) {
+                return retryPolicy.allowRetry(numAttempts, elapsedTimeMs, deadline);
+            }
+        }, callback);
+    }
+
     /**
      * Attempts to find a healthy end point. Performs health checks until a healthy end point is found, all available
      * end points are exhausted, or execution of a health check throws an exception that is deemed not retriable.
@@ -22,4 +22,14 @@ public interface ServicePoolStatistics {
      * @return The number of service instances actively serving callbacks for the given end point.
      */
     int getNumActiveInstances(ServiceEndPoint endPoint);
+
+    /**
+     * The state of the circuit breaker that the pool keeps for a single end point.  Pools that don't use circuit
+     * breakers always report {@link CircuitBreakerState#CLOSED}.
+     * @param endPoint The end point to get the circuit breaker state for.
+     * @return The state of the end point's circuit breaker.
+     */
+    default CircuitBreakerState getCircuitBreakerState(ServiceEndPoint endPoint) {
+        return CircuitBreakerState.CLOSED;
+    }
 }
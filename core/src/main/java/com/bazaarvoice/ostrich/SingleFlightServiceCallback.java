@@ -0,0 +1,18 @@
+package com.bazaarvoice.ostrich;
+
+/**
+ * An {@link IdempotentServiceCallback} for a read whose result only depends on a key, so that concurrent requests with
+ * the same key can share a single call to the service.
+ * <p/>
+ * If the service pool is configured for single-flight requests, a request made with this callback while another one
+ * with an equal key is in flight isn't sent to the service.  It waits for the request in flight instead, and gets
+ * the same result or exception.  Results aren't kept once the request in flight completes, so a request made after
+ * that is sent to the service again.  Other callbacks, and callbacks whose key is {@code null}, are never coalesced.
+ */
+public interface SingleFlightServiceCallback<S, RETURN> extends IdempotentServiceCallback<S, RETURN> {
+    /**
+     * Returns the key of the request, which must implement {@code equals} and {@code hashCode}.  Requests with equal
+     * keys must return the same result when they're made at the same time.
+     */
+    Object getSingleFlightKey();
+}
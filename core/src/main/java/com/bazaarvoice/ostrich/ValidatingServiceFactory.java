@@ -0,0 +1,25 @@
+package com.bazaarvoice.ostrich;
+
+/**
+ * A service factory that can tell whether a service instance it created is still usable, for example whether its
+ * underlying connection is still open.
+ * <p/>
+ * Service caches periodically validate the instances they are holding on to while those instances are idle, and
+ * discard the ones that are no longer valid.  This way a broken instance is replaced before it gets used for a real
+ * request, and its end point isn't marked as bad because of a problem with a single instance.
+ *
+ * @param <S> The type of the service.
+ */
+public interface ValidatingServiceFactory<S> extends ServiceFactory<S> {
+    /**
+     * Checks whether a cached service instance may continue to be used.  This is called from a background thread, and
+     * never while the instance is checked out.  It should be cheap, and should not make remote calls if possible.
+     * <p/>
+     * Throwing an exception is treated the same as returning {@code false}.
+     *
+     * @param endPoint The end point the instance was created for.
+     * @param service  The service instance to validate.
+     * @return {@code true} if the instance is still usable, {@code false} if it should be destroyed.
+     */
+    boolean isValid(ServiceEndPoint endPoint, S service);
+}
@@ -0,0 +1,27 @@
+package com.bazaarvoice.ostrich.exceptions;
+
+/**
+ * An exception to be thrown when a request isn't sent to the service because the concurrency limit of its
+ * {@link com.bazaarvoice.ostrich.ServicePool} was reached, see
+ * {@link com.bazaarvoice.ostrich.pool.ConcurrencyLimitPolicy}, or because the end points it could be sent to all have
+ * as many requests in flight as they may.
+ */
+public class ConcurrencyLimitExceededException extends ServiceException {
+    private static final long serialVersionUID = 0;
+
+    public ConcurrencyLimitExceededException() {
+        super();
+    }
+
+    public ConcurrencyLimitExceededException(String message) {
+        super(message);
+    }
+
+    public ConcurrencyLimitExceededException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public ConcurrencyLimitExceededException(Throwable cause) {
+        super(cause);
+    }
+}
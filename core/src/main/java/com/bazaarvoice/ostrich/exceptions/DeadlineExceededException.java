@@ -0,0 +1,25 @@
+package com.bazaarvoice.ostrich.exceptions;
+
+/**
+ * An exception to be thrown when the {@link com.bazaarvoice.ostrich.Deadline} of a request passes before it could be
+ * completed.  If attempts of the request failed before that, the last failure is the cause.
+ */
+public class DeadlineExceededException extends ServiceException {
+    private static final long serialVersionUID = 0;
+
+    public DeadlineExceededException() {
+        super();
+    }
+
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+
+    public DeadlineExceededException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public DeadlineExceededException(Throwable cause) {
+        super(cause);
+    }
+}
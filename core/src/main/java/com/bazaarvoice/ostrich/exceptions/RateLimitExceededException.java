@@ -0,0 +1,27 @@
+package com.bazaarvoice.ostrich.exceptions;
+
+/**
+ * An exception to be thrown when a request isn't sent to the service because the rate limit of its
+ * {@link com.bazaarvoice.ostrich.ServicePool} was reached, see {@link com.bazaarvoice.ostrich.pool.RateLimitPolicy},
+ * or because the end points it could be sent to have all used up the capacity they declared.  Like any other
+ * {@link ConcurrencyLimitExceededException}, it isn't retried.
+ */
+public class RateLimitExceededException extends ConcurrencyLimitExceededException {
+    private static final long serialVersionUID = 0;
+
+    public RateLimitExceededException() {
+        super();
+    }
+
+    public RateLimitExceededException(String message) {
+        super(message);
+    }
+
+    public RateLimitExceededException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public RateLimitExceededException(Throwable cause) {
+        super(cause);
+    }
+}
@@ -0,0 +1,26 @@
+package com.bazaarvoice.ostrich.exceptions;
+
+/**
+ * An exception to be thrown when an {@link com.bazaarvoice.ostrich.AsyncServicePool} sheds a request rather than run
+ * it, because the pool is saturated and the request waited in its queue for too long, or the queue is full, see
+ * {@link com.bazaarvoice.ostrich.pool.LoadSheddingPolicy}.
+ */
+public class RequestShedException extends ServiceException {
+    private static final long serialVersionUID = 0;
+
+    public RequestShedException() {
+        super();
+    }
+
+    public RequestShedException(String message) {
+        super(message);
+    }
+
+    public RequestShedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public RequestShedException(Throwable cause) {
+        super(cause);
+    }
+}
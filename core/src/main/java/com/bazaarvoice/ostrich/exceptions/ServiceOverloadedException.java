@@ -0,0 +1,25 @@
+package com.bazaarvoice.ostrich.exceptions;
+
+/**
+ * An exception to be thrown when a request isn't sent to the service because all of the end points it could be sent
+ * to are overloaded and asked to be backed off from, see {@link com.bazaarvoice.ostrich.OverloadAwareServiceFactory}.
+ */
+public class ServiceOverloadedException extends ServiceException {
+    private static final long serialVersionUID = 0;
+
+    public ServiceOverloadedException() {
+        super();
+    }
+
+    public ServiceOverloadedException(String message) {
+        super(message);
+    }
+
+    public ServiceOverloadedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public ServiceOverloadedException(Throwable cause) {
+        super(cause);
+    }
+}
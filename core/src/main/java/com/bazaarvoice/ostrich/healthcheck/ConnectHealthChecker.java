@@ -0,0 +1,289 @@
+package com.bazaarvoice.ostrich.healthcheck;
+
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.google.common.base.Throwables;
+import com.google.common.net.HostAndPort;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Health checks end points by checking that they accept TCP connections.
+ * <p/>
+ * All checks are multiplexed on a single thread: each one opens a non-blocking connection to the end point, and the
+ * thread waits for all of the connections at once with a {@link Selector}.  A check succeeds as soon as its connection
+ * is established, and fails if it is refused or isn't established within the timeout.  The connection is closed right
+ * away either way.  This makes it cheap to check a large number of end points at the same time.
+ * <p/>
+ * A service factory can use this as its health check, for example by implementing
+ * {@link com.bazaarvoice.ostrich.AsyncHealthCheckingServiceFactory#isHealthyAsync} with {@link #isHealthyAsync}, or as a
+ * quick check that an end point is reachable at all before running a more expensive application level check.
+ * <p/>
+ * The futures returned by {@link #isHealthyAsync} are completed on the checker's thread, so anything chained onto them
+ * without an executor must not block.
+ */
+public class ConnectHealthChecker implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(ConnectHealthChecker.class);
+
+    /**
+     * Finds the address to connect to for an end point.
+     */
+    public interface AddressResolver {
+        /**
+         * @param endPoint The end point to health check.
+         * @return The address that the end point accepts connections on.
+         */
+        InetSocketAddress getAddress(ServiceEndPoint endPoint);
+    }
+
+    /**
+     * Resolves end points whose ID is of the form {@code host:port}.  Note that this resolves the host name on the
+     * thread that starts the health check.
+     */
+    public static final AddressResolver HOST_AND_PORT_FROM_ID = new AddressResolver() {
+        @Override
+        public InetSocketAddress getAddress(ServiceEndPoint endPoint) {
+            HostAndPort hostAndPort = HostAndPort.fromString(endPoint.getId());
+            return new InetSocketAddress(hostAndPort.getHost(), hostAndPort.getPort());
+        }
+    };
+
+    private final AddressResolver _addressResolver;
+    private final long _timeoutNanos;
+    private final Selector _selector;
+    private final Queue<Probe> _pendingProbes = new ConcurrentLinkedQueue<>();
+    private volatile boolean _closed;
+
+    /**
+     * Creates a checker for end points whose ID is of the form {@code host:port}.
+     *
+     * @param timeout How long to wait for a connection to be established.
+     * @param unit    The unit of time the {@code timeout} is in.
+     */
+    public ConnectHealthChecker(long timeout, TimeUnit unit) {
+        this(HOST_AND_PORT_FROM_ID, timeout, unit);
+    }
+
+    /**
+     * @param addressResolver Finds the address to connect to for an end point.
+     * @param timeout         How long to wait for a connection to be established.
+     * @param unit            The unit of time the {@code timeout} is in.
+     */
+    public ConnectHealthChecker(AddressResolver addressResolver, long timeout, TimeUnit unit) {
+        checkArgument(timeout > 0);
+
+        _addressResolver = checkNotNull(addressResolver);
+        _timeoutNanos = unit.toNanos(timeout);
+
+        try {
+            _selector = Selector.open();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        Thread thread = new ThreadFactoryBuilder()
+                .setNameFormat("ConnectHealthChecker-%d")
+                .setDaemon(true)
+                .build()
+                .newThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        select();
+                    }
+                });
+        thread.start();
+    }
+
+    /**
+     * Starts checking whether an end point accepts connections, without waiting for the result.
+     *
+     * @return A future that completes with {@code true} once a connection was established, or {@code false} if it
+     *         was refused, timed out or the checker was closed.  The future fails if the end point's address can't be
+     *         resolved.
+     */
+    public CompletableFuture<Boolean> isHealthyAsync(ServiceEndPoint endPoint) {
+        checkState(!_closed, "Connect health checker is closed");
+
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        InetSocketAddress address;
+        try {
+            address = _addressResolver.getAddress(endPoint);
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+
+        _pendingProbes.add(new Probe(address, future, System.nanoTime() + _timeoutNanos));
+        _selector.wakeup();
+
+        if (_closed) {
+            // The selector thread may have stopped before it could see this probe.
+            failPendingProbes();
+        }
+        return future;
+    }
+
+    /**
+     * Checks whether an end point accepts connections, blocking for at most the timeout.
+     *
+     * @return {@code true} if a connection was established, {@code false} otherwise.
+     */
+    public boolean isHealthy(ServiceEndPoint endPoint) {
+        try {
+            return isHealthyAsync(endPoint).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Stops the checker's thread.  Checks that are still in progress complete with {@code false}.
+     */
+    @Override
+    public void close() {
+        _closed = true;
+        _selector.wakeup();
+    }
+
+    private void select() {
+        try {
+            while (!_closed) {
+                try {
+                    connectPendingProbes();
+                    _selector.select(getSelectTimeoutMillis());
+                    finishConnects();
+                    expireProbes();
+                } catch (Throwable t) {
+                    // Should never happen, but log just in case. Swallow exception so the thread doesn't die.
+                    LOG.warn("Error running connect health checks.", t);
+                }
+            }
+        } finally {
+            for (SelectionKey key : _selector.keys()) {
+                ((Probe) key.attachment()).complete(false);
+            }
+            failPendingProbes();
+
+            try {
+                _selector.close();
+            } catch (IOException e) {
+                // NOP
+            }
+        }
+    }
+
+    private void connectPendingProbes() {
+        Probe probe;
+        while ((probe = _pendingProbes.poll()) != null) {
+            try {
+                probe._channel = SocketChannel.open();
+                probe._channel.configureBlocking(false);
+                if (probe._channel.connect(probe._address)) {
+                    probe.complete(true);
+                } else {
+                    probe._channel.register(_selector, SelectionKey.OP_CONNECT, probe);
+                }
+            } catch (Exception e) {
+                // Refused right away, or the address is unresolved or unreachable.
+                LOG.debug("Unable to connect to {}.", probe._address, e);
+                probe.complete(false);
+            }
+        }
+    }
+
+    private long getSelectTimeoutMillis() {
+        long now = System.nanoTime();
+        long timeoutNanos = Long.MAX_VALUE;
+        for (SelectionKey key : _selector.keys()) {
+            if (!key.isValid()) {
+                continue;
+            }
+            timeoutNanos = Math.min(timeoutNanos, ((Probe) key.attachment())._deadlineNanos - now);
+        }
+
+        // Zero waits forever, so wait at least a millisecond for probes that are about to time out.
+        return (timeoutNanos == Long.MAX_VALUE) ? 0 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(timeoutNanos));
+    }
+
+    private void finishConnects() {
+        Iterator<SelectionKey> keys = _selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+
+            Probe probe = (Probe) key.attachment();
+            boolean connected;
+            try {
+                connected = probe._channel.finishConnect();
+            } catch (IOException e) {
+                LOG.debug("Unable to connect to {}.", probe._address, e);
+                connected = false;
+            }
+            probe.complete(connected);
+        }
+    }
+
+    private void expireProbes() {
+        long now = System.nanoTime();
+        for (SelectionKey key : _selector.keys()) {
+            Probe probe = (Probe) key.attachment();
+            if (key.isValid() && now - probe._deadlineNanos >= 0) {
+                probe.complete(false);
+            }
+        }
+    }
+
+    private void failPendingProbes() {
+        Probe probe;
+        while ((probe = _pendingProbes.poll()) != null) {
+            probe.complete(false);
+        }
+    }
+
+    private static final class Probe {
+        private final InetSocketAddress _address;
+        private final CompletableFuture<Boolean> _future;
+        private final long _deadlineNanos;
+        private SocketChannel _channel;
+
+        Probe(InetSocketAddress address, CompletableFuture<Boolean> future, long deadlineNanos) {
+            _address = address;
+            _future = future;
+            _deadlineNanos = deadlineNanos;
+        }
+
+        void complete(boolean healthy) {
+            if (_channel != null) {
+                try {
+                    // Also cancels the channel's selection key.
+                    _channel.close();
+                } catch (IOException e) {
+                    // NOP
+                }
+            }
+            _future.complete(healthy);
+        }
+    }
+}
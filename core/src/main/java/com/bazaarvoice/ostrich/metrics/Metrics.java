@@ -155,6 +155,19 @@ public abstract class Metrics implements Closeable {
             return _metrics.timer(name(name));
         }
 
+        /**
+         * Removes a single metric before this instance is closed.  Useful for metrics that track something with a
+         * shorter lifetime than the instance itself, for example a single end point.
+         */
+        public synchronized void remove(String name) {
+            checkNotNullOrEmpty(name);
+
+            String fullName = MetricRegistry.name(_prefix, _serviceName, name);
+            if (_names.remove(fullName)) {
+                _metrics.remove(fullName);
+            }
+        }
+
         @Override
         public synchronized void close() {
             _instanceCounter.dec();
@@ -0,0 +1,250 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.metrics.Metrics;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Maps;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Adapts the number of service instances that a {@link SingleThreadedClientServiceCache} allows to be in use for each
+ * end point.  Every end point starts out limited to the ceiling, and on each call to {@link #adjust} its limit is moved,
+ * never leaving the range between the floor and the ceiling, based on what was observed since the previous adjustment:
+ * <ul>
+ * <li>If at least {@link #GROW_MISS_RATE} of check outs found the end point at its limit, or check outs waited on
+ * average at least {@link #GROW_WAIT_MILLIS} for an instance, the limit grows by half.</li>
+ * <li>Otherwise if the peak number of instances in use stayed below {@link #SHRINK_UTILIZATION} of the limit, the
+ * limit shrinks by one.</li>
+ * </ul>
+ * Shrinking is deliberately slower than growing, a limit that is too low fails requests while a limit that is too high
+ * only holds on to a few extra idle instances until they are released.
+ * <p/>
+ * The limit of every end point is published as a {@code target-num-instances-per-end-point.<id>} gauge.  A limit that
+ * is removed while reservations are still made against it is only dropped, along with its gauge, once the last of them
+ * is released, so that a reservation racing with the removal can't leave a limit behind for an end point that's gone.
+ */
+class AdaptiveInstanceSizer {
+    /** How often the limits for each end point are adjusted. */
+    @VisibleForTesting
+    static final long ADJUSTMENT_INTERVAL_IN_SECONDS = 10;
+
+    @VisibleForTesting
+    static final double GROW_MISS_RATE = 0.01;
+
+    @VisibleForTesting
+    static final long GROW_WAIT_MILLIS = 5;
+
+    @VisibleForTesting
+    static final double SHRINK_UTILIZATION = 0.5;
+
+    private final int _floor;
+    private final int _ceiling;
+    private final ServiceCachingPolicy.ExhaustionAction _exhaustionAction;
+    private final Metrics.InstanceMetrics _metrics;
+    private final ConcurrentMap<ServiceEndPoint, EndPointLimit> _limits = Maps.newConcurrentMap();
+
+    AdaptiveInstanceSizer(int floor, int ceiling, ServiceCachingPolicy.ExhaustionAction exhaustionAction,
+                          Metrics.InstanceMetrics metrics) {
+        checkArgument(floor > 0);
+        checkArgument(ceiling >= floor);
+
+        _floor = floor;
+        _ceiling = ceiling;
+        _exhaustionAction = checkNotNull(exhaustionAction);
+        _metrics = checkNotNull(metrics);
+    }
+
+    /**
+     * Reserves room for one in-use service instance for an end point.  Depending on the exhaustion action this will
+     * either fail, go over the limit, or block when the end point is already at its limit.
+     *
+     * @return The limit that the reservation was made against, which must later be passed to {@link #release}, or
+     *         {@code null} if the end point is at its limit and the exhaustion action is to fail.
+     */
+    EndPointLimit acquire(ServiceEndPoint endPoint) throws InterruptedException {
+        EndPointLimit limit = getLimit(endPoint);
+        return limit.acquire(_exhaustionAction) ? limit : null;
+    }
+
+    void release(EndPointLimit limit) {
+        if (limit.release() && limit.isRemoved()) {
+            drop(limit);
+        }
+    }
+
+    /**
+     * Returns the current limit for an end point.
+     */
+    int getTarget(ServiceEndPoint endPoint) {
+        EndPointLimit limit = _limits.get(endPoint);
+        return (limit != null) ? limit.getTarget() : _ceiling;
+    }
+
+    /**
+     * Forgets everything learned about an end point.  Reservations made before this call are still released against
+     * the old limit, while new ones start over from the ceiling.
+     */
+    synchronized void remove(ServiceEndPoint endPoint) {
+        EndPointLimit limit = _limits.get(endPoint);
+        if (limit != null) {
+            remove(limit);
+        }
+    }
+
+    /**
+     * Forgets everything learned by a limit that reservations were made against, unless that already happened.  This
+     * is for reservations that turn out to have raced with the removal of their end point, and may have been made
+     * against a limit that was created after the end point was removed.
+     */
+    synchronized void remove(EndPointLimit limit) {
+        if (limit.markRemoved()) {
+            drop(limit);
+        }
+    }
+
+    /**
+     * Grows or shrinks the limit of every end point based on what was observed since the previous adjustment.
+     */
+    void adjust() {
+        for (EndPointLimit limit : _limits.values()) {
+            limit.adjust(_floor, _ceiling);
+        }
+    }
+
+    private EndPointLimit getLimit(final ServiceEndPoint endPoint) {
+        EndPointLimit limit = _limits.get(endPoint);
+        if (limit != null && !limit.isRemoved()) {
+            return limit;
+        }
+
+        synchronized (this) {
+            limit = _limits.get(endPoint);
+            if (limit == null || limit.isRemoved()) {
+                // A removed limit that still has reservations is replaced, and the gauge, which looks the limit up,
+                // stays registered.
+                limit = new EndPointLimit(endPoint, _ceiling);
+                _limits.put(endPoint, limit);
+                _metrics.gauge(gaugeName(endPoint), new Gauge<Integer>() {
+                    @Override
+                    public Integer getValue() {
+                        return getTarget(endPoint);
+                    }
+                });
+            }
+            return limit;
+        }
+    }
+
+    /**
+     * Drops a removed limit that no reservations are made against anymore, unless it was already replaced.
+     */
+    private synchronized void drop(EndPointLimit limit) {
+        if (_limits.remove(limit.getEndPoint(), limit)) {
+            _metrics.remove(gaugeName(limit.getEndPoint()));
+        }
+    }
+
+    private static String gaugeName(ServiceEndPoint endPoint) {
+        return MetricRegistry.name("target-num-instances-per-end-point", endPoint.getId());
+    }
+
+    @VisibleForTesting
+    static final class EndPointLimit {
+        private final ServiceEndPoint _endPoint;
+        private boolean _removed;
+        private int _target;
+        private int _numInUse;
+        private int _peakNumInUse;
+        private long _numCheckOuts;
+        private long _numMisses;
+        private long _waitNanos;
+
+        EndPointLimit(ServiceEndPoint endPoint, int target) {
+            _endPoint = endPoint;
+            _target = target;
+        }
+
+        ServiceEndPoint getEndPoint() {
+            return _endPoint;
+        }
+
+        synchronized boolean acquire(ServiceCachingPolicy.ExhaustionAction exhaustionAction)
+                throws InterruptedException {
+            _numCheckOuts++;
+
+            if (_numInUse >= _target) {
+                switch (exhaustionAction) {
+                    case FAIL:
+                        _numMisses++;
+                        return false;
+                    case GROW:
+                        _numMisses++;
+                        break;
+                    case WAIT:
+                        long start = System.nanoTime();
+                        try {
+                            while (_numInUse >= _target) {
+                                wait();
+                            }
+                        } finally {
+                            _waitNanos += System.nanoTime() - start;
+                        }
+                        break;
+                }
+            }
+
+            _numInUse++;
+            _peakNumInUse = Math.max(_peakNumInUse, _numInUse);
+            return true;
+        }
+
+        /**
+         * @return {@code true} if this was the last reservation made against the limit.
+         */
+        synchronized boolean release() {
+            _numInUse--;
+            notify();
+            return _numInUse == 0;
+        }
+
+        /**
+         * @return {@code true} if no reservations are made against the limit, so that it can be dropped right away.
+         */
+        synchronized boolean markRemoved() {
+            _removed = true;
+            return _numInUse == 0;
+        }
+
+        synchronized boolean isRemoved() {
+            return _removed;
+        }
+
+        synchronized int getTarget() {
+            return _target;
+        }
+
+        synchronized void adjust(int floor, int ceiling) {
+            double missRate = (_numCheckOuts == 0) ? 0 : (double) _numMisses / _numCheckOuts;
+            long averageWaitMillis = (_numCheckOuts == 0) ? 0 : TimeUnit.NANOSECONDS.toMillis(_waitNanos / _numCheckOuts);
+
+            if (missRate >= GROW_MISS_RATE || averageWaitMillis >= GROW_WAIT_MILLIS) {
+                _target = Math.min(ceiling, _target + Math.max(1, _target / 2));
+                notifyAll();
+            } else if (_peakNumInUse < _target * SHRINK_UTILIZATION) {
+                _target = Math.max(floor, _target - 1);
+            }
+
+            _numCheckOuts = 0;
+            _numMisses = 0;
+            _waitNanos = 0;
+            _peakNumInUse = _numInUse;
+        }
+    }
+}
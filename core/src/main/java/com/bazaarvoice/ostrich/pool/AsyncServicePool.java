@@ -1,10 +1,16 @@
 package com.bazaarvoice.ostrich.pool;
 
+import com.bazaarvoice.ostrich.Deadline;
+import com.bazaarvoice.ostrich.DelayingRetryPolicy;
 import com.bazaarvoice.ostrich.PartitionContext;
+import com.bazaarvoice.ostrich.PartitionContextBuilder;
+import com.bazaarvoice.ostrich.PrioritizedServiceCallback;
+import com.bazaarvoice.ostrich.Priority;
 import com.bazaarvoice.ostrich.RetryPolicy;
 import com.bazaarvoice.ostrich.ServiceCallback;
 import com.bazaarvoice.ostrich.ServiceEndPoint;
 import com.bazaarvoice.ostrich.ServiceEndPointPredicate;
+import com.bazaarvoice.ostrich.exceptions.ConcurrencyLimitExceededException;
 import com.bazaarvoice.ostrich.exceptions.MaxRetriesException;
 import com.bazaarvoice.ostrich.exceptions.NoAvailableHostsException;
 import com.bazaarvoice.ostrich.metrics.Metrics;
@@ -15,14 +21,21 @@ import com.codahale.metrics.Timer;
 import com.google.common.base.Ticker;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -42,29 +55,69 @@ class AsyncServicePool<S> implements com.bazaarvoice.ostrich.AsyncServicePool<S>
     private final boolean _shutdownPoolOnClose;
     private final ExecutorService _executor;
     private final boolean _shutdownExecutorOnClose;
+    private final ScheduledExecutorService _retryExecutor;
+    private final LoadShedder _loadShedder;
     private final Metrics.InstanceMetrics _metrics;
     private final Timer _executionTime;
     private final Meter _numExecuteSuccesses;
     private final Meter _numExecuteFailures;
     private final Histogram _executeBatchSize;
+    private final Set<ScheduledRetries<?>> _waitingRetries = Sets.newConcurrentHashSet();
+    private volatile boolean _closed;
 
     AsyncServicePool(Ticker ticker, ServicePool<S> pool, boolean shutdownPoolOnClose,
                             ExecutorService executor, boolean shutdownExecutorOnClose, MetricRegistry metrics) {
+        this(ticker, pool, shutdownPoolOnClose, executor, shutdownExecutorOnClose, null, metrics);
+    }
+
+    /**
+     * Builds an async service pool that schedules the retries of requests made with a {@link DelayingRetryPolicy} on
+     * the {@code retryExecutor}, so that no thread of the {@code executor} is held while waiting to retry them.  Each
+     * attempt of such a request runs as a task of its own on the {@code executor}.  The retry executor isn't shut down
+     * when the pool is closed, but requests still waiting to be retried fail the way they would if they were out of
+     * retries.  If it's {@code null}, retry policies wait before retrying on the {@code executor}.
+     */
+    AsyncServicePool(Ticker ticker, ServicePool<S> pool, boolean shutdownPoolOnClose,
+                     ExecutorService executor, boolean shutdownExecutorOnClose,
+                     ScheduledExecutorService retryExecutor, MetricRegistry metrics) {
+        this(ticker, pool, shutdownPoolOnClose, executor, shutdownExecutorOnClose, retryExecutor, null, metrics);
+    }
+
+    /**
+     * Builds an async service pool that runs at most a fixed number of requests on the {@code executor} at once, and
+     * queues the rest by the {@link Priority} of their callback, shedding lower priority requests first once they wait
+     * too long, see {@link LoadSheddingPolicy}.  If the {@code loadSheddingPolicy} is {@code null}, requests are handed
+     * to the executor right away.
+     */
+    AsyncServicePool(Ticker ticker, ServicePool<S> pool, boolean shutdownPoolOnClose,
+                     ExecutorService executor, boolean shutdownExecutorOnClose,
+                     ScheduledExecutorService retryExecutor, LoadSheddingPolicy loadSheddingPolicy,
+                     MetricRegistry metrics) {
         _ticker = checkNotNull(ticker);
         _pool = checkNotNull(pool);
         _shutdownPoolOnClose = shutdownPoolOnClose;
         _executor = checkNotNull(executor);
         _shutdownExecutorOnClose = shutdownExecutorOnClose;
+        _retryExecutor = retryExecutor;
 
         _metrics = Metrics.forInstance(metrics, this, _pool.getServiceName());
         _executionTime = _metrics.timer("execution-time");
         _numExecuteSuccesses = _metrics.meter("num-execute-successes");
         _numExecuteFailures = _metrics.meter("num-execute-failures");
         _executeBatchSize = _metrics.histogram("execute-batch-size");
+        _loadShedder = (loadSheddingPolicy != null)
+                ? new LoadShedder(loadSheddingPolicy, _executor, _ticker, _metrics)
+                : null;
     }
 
     @Override
     public void close() throws IOException {
+        // Requests waiting to be retried would never complete once the executors they wait on are shut down.
+        _closed = true;
+        for (ScheduledRetries<?> retries : _waitingRetries) {
+            retries.abandon();
+        }
+
         if (_shutdownExecutorOnClose) {
             _executor.shutdown();
         }
@@ -78,7 +131,12 @@ class AsyncServicePool<S> implements com.bazaarvoice.ostrich.AsyncServicePool<S>
 
     @Override
     public <R> Future<R> execute(final RetryPolicy retryPolicy, final ServiceCallback<S, R> callback) {
-        return _executor.submit(new Callable<R>() {
+        if (isScheduledRetry(retryPolicy)) {
+            return executeWithScheduledRetries(Deadline.NONE, PartitionContextBuilder.empty(),
+                    (DelayingRetryPolicy) retryPolicy, callback);
+        }
+
+        return submit(getPriority(callback), new Callable<R>() {
             @Override
             public R call() throws Exception {
                 return _pool.execute(retryPolicy, callback);
@@ -89,7 +147,12 @@ class AsyncServicePool<S> implements com.bazaarvoice.ostrich.AsyncServicePool<S>
     @Override
     public <R> Future<R> execute(final PartitionContext partitionContext, final RetryPolicy retryPolicy,
                                  final ServiceCallback<S, R> callback) {
-        return _executor.submit(new Callable<R>() {
+        if (isScheduledRetry(retryPolicy)) {
+            return executeWithScheduledRetries(Deadline.NONE, partitionContext, (DelayingRetryPolicy) retryPolicy,
+                    callback);
+        }
+
+        return submit(getPriority(callback), new Callable<R>() {
             @Override
             public R call() throws Exception {
                 return _pool.execute(partitionContext, retryPolicy, callback);
@@ -97,6 +160,38 @@ class AsyncServicePool<S> implements com.bazaarvoice.ostrich.AsyncServicePool<S>
         });
     }
 
+    @Override
+    public <R> Future<R> execute(final Deadline deadline, final RetryPolicy retryPolicy,
+                                 final ServiceCallback<S, R> callback) {
+        if (isScheduledRetry(retryPolicy)) {
+            return executeWithScheduledRetries(deadline, PartitionContextBuilder.empty(),
+                    (DelayingRetryPolicy) retryPolicy, callback);
+        }
+
+        return submit(getPriority(callback), new Callable<R>() {
+            @Override
+            public R call() throws Exception {
+                return _pool.execute(deadline, retryPolicy, callback);
+            }
+        });
+    }
+
+    @Override
+    public <R> Future<R> execute(final Deadline deadline, final PartitionContext partitionContext,
+                                 final RetryPolicy retryPolicy, final ServiceCallback<S, R> callback) {
+        if (isScheduledRetry(retryPolicy)) {
+            return executeWithScheduledRetries(deadline, partitionContext, (DelayingRetryPolicy) retryPolicy,
+                    callback);
+        }
+
+        return submit(getPriority(callback), new Callable<R>() {
+            @Override
+            public R call() throws Exception {
+                return _pool.execute(deadline, partitionContext, retryPolicy, callback);
+            }
+        });
+    }
+
     @Override
     public <R> Collection<Future<R>> executeOnAll(RetryPolicy retry, ServiceCallback<S, R> callback) {
         return executeOn(ALL_END_POINTS, retry, callback);
@@ -117,7 +212,12 @@ class AsyncServicePool<S> implements com.bazaarvoice.ostrich.AsyncServicePool<S>
                 continue;
             }
 
-            Future<R> future = _executor.submit(new Callable<R>() {
+            if (isScheduledRetry(retry)) {
+                futures.add(executeOnWithScheduledRetries(endPoint, (DelayingRetryPolicy) retry, callback));
+                continue;
+            }
+
+            Future<R> future = submit(getPriority(callback), new Callable<R>() {
                 @Override
                 public R call() throws Exception {
                     Timer.Context timer = _executionTime.time();
@@ -129,19 +229,9 @@ class AsyncServicePool<S> implements com.bazaarvoice.ostrich.AsyncServicePool<S>
 
                         do {
                             try {
-                                R result = _pool.executeOnEndPoint(endPoint, callback);
-                                _numExecuteSuccesses.mark();
-                                return result;
-                            } catch (Exception e) {
-                                _numExecuteFailures.mark();
-
-                                // Don't retry if exception is too severe.
-                                if (!_pool.isRetriableException(e)) {
-                                    throw e;
-                                }
-
-                                lastException = e;
-                                LOG.info("Retriable exception from end point: " + endPoint, e);
+                                return executeAttemptOn(endPoint, callback);
+                            } catch (ExecutionException e) {
+                                lastException = (Exception) e.getCause();
                             }
                         } while (retry.allowRetry(++numAttempts, TimeUnit.NANOSECONDS.toMillis(_ticker.read() - start)));
 
@@ -159,6 +249,128 @@ class AsyncServicePool<S> implements com.bazaarvoice.ostrich.AsyncServicePool<S>
         return futures;
     }
 
+    /**
+     * Runs a request on the executor, through the load shedder if there is one.
+     */
+    private <R> Future<R> submit(Priority priority, final Callable<R> task) {
+        if (_loadShedder == null) {
+            return _executor.submit(task);
+        }
+
+        final SettableFuture<R> future = SettableFuture.create();
+        _loadShedder.execute(priority, new Runnable() {
+            @Override
+            public void run() {
+                // A request that was cancelled while it was queued isn't made anymore.
+                if (future.isDone()) {
+                    return;
+                }
+
+                try {
+                    future.set(task.call());
+                } catch (Throwable t) {
+                    future.setException(t);
+                }
+            }
+        }, future);
+        return future;
+    }
+
+    private void execute(Priority priority, Runnable task, SettableFuture<?> future) {
+        if (_loadShedder == null) {
+            _executor.execute(task);
+        } else {
+            _loadShedder.execute(priority, task, future);
+        }
+    }
+
+    private static Priority getPriority(ServiceCallback<?, ?> callback) {
+        return (callback instanceof PrioritizedServiceCallback)
+                ? ((PrioritizedServiceCallback<?, ?>) callback).getPriority()
+                : Priority.DEFAULT;
+    }
+
+    private boolean isScheduledRetry(RetryPolicy retry) {
+        return _retryExecutor != null && retry instanceof DelayingRetryPolicy;
+    }
+
+    private <R> Future<R> executeWithScheduledRetries(final Deadline deadline,
+                                                      final PartitionContext partitionContext,
+                                                      final DelayingRetryPolicy retry,
+                                                      final ServiceCallback<S, R> callback) {
+        checkNotNull(deadline);
+        _pool.recordRequest();
+
+        return new ScheduledRetries<R>(getPriority(callback)) {
+            @Override
+            R attempt(Exception lastException) throws Exception {
+                return _pool.executeAttempt(deadline, partitionContext, callback, lastException);
+            }
+
+            @Override
+            long getRetryDelayMs(int numAttempts, long elapsedTimeMs) {
+                return _pool.getRetryDelayMs(retry, numAttempts, elapsedTimeMs, deadline);
+            }
+
+            @Override
+            Exception retriesExhausted(Exception lastException) {
+                return ServicePool.retriesExhausted(deadline, lastException);
+            }
+        }.start();
+    }
+
+    private <R> Future<R> executeOnWithScheduledRetries(final ServiceEndPoint endPoint,
+                                                        final DelayingRetryPolicy retry,
+                                                        final ServiceCallback<S, R> callback) {
+        final Timer.Context timer = _executionTime.time();
+
+        Future<R> future = new ScheduledRetries<R>(getPriority(callback)) {
+            @Override
+            R attempt(Exception lastException) throws Exception {
+                return executeAttemptOn(endPoint, callback);
+            }
+
+            @Override
+            long getRetryDelayMs(int numAttempts, long elapsedTimeMs) {
+                return retry.getRetryDelayMs(numAttempts, elapsedTimeMs, Deadline.NONE);
+            }
+
+            @Override
+            Exception retriesExhausted(Exception lastException) {
+                return new MaxRetriesException(lastException);
+            }
+        }.start(new Runnable() {
+            @Override
+            public void run() {
+                timer.stop();
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Makes a single attempt at executing a callback against a specific end point.
+     *
+     * @throws ExecutionException If the attempt failed in a way that may be retried, with the failure as its cause.
+     */
+    private <R> R executeAttemptOn(ServiceEndPoint endPoint, ServiceCallback<S, R> callback) throws Exception {
+        try {
+            R result = _pool.executeOnEndPoint(endPoint, callback);
+            _numExecuteSuccesses.mark();
+            return result;
+        } catch (Exception e) {
+            _numExecuteFailures.mark();
+
+            // Don't retry if exception is too severe, or if the pool's concurrency limit was reached.
+            if (e instanceof ConcurrencyLimitExceededException || !_pool.isRetriableException(e)) {
+                throw e;
+            }
+
+            LOG.info("Retriable exception from end point: " + endPoint, e);
+            throw new ExecutionException(e);
+        }
+    }
+
     @Override
     public int getNumValidEndPoints() {
         return _pool.getNumValidEndPoints();
@@ -168,4 +380,105 @@ class AsyncServicePool<S> implements com.bazaarvoice.ostrich.AsyncServicePool<S>
     public int getNumBadEndPoints() {
         return _pool.getNumBadEndPoints();
     }
+
+    /**
+     * A request whose attempts each run as a task of their own on the executor, with the wait before each retry
+     * scheduled on the retry executor, so that no thread is held while waiting.
+     */
+    private abstract class ScheduledRetries<R> implements Runnable {
+        private final SettableFuture<R> _future = SettableFuture.create();
+        private final long _start = _ticker.read();
+        private final Priority _priority;
+        private int _numAttempts;
+        private Exception _lastException;
+
+        ScheduledRetries(Priority priority) {
+            _priority = checkNotNull(priority);
+        }
+
+        /**
+         * Makes an attempt at the request.
+         *
+         * @throws ExecutionException If the attempt failed in a way that may be retried, with the failure as its cause.
+         */
+        abstract R attempt(Exception lastException) throws Exception;
+
+        /**
+         * Returns how long to wait in milliseconds before retrying the request, or -1 if it can't be tried again.
+         */
+        abstract long getRetryDelayMs(int numAttempts, long elapsedTimeMs);
+
+        /**
+         * Returns the exception the request fails with once it can't be tried again.
+         */
+        abstract Exception retriesExhausted(Exception lastException);
+
+        Future<R> start() {
+            execute(_priority, this, _future);
+            return _future;
+        }
+
+        Future<R> start(Runnable listener) {
+            Future<R> future = start();
+            _future.addListener(listener, MoreExecutors.directExecutor());
+            return future;
+        }
+
+        @Override
+        public void run() {
+            // A request that was cancelled while waiting to be retried isn't tried again.
+            if (_future.isDone()) {
+                return;
+            }
+
+            try {
+                R result = attempt(_lastException);
+                _future.set(result);
+                return;
+            } catch (ExecutionException e) {
+                _lastException = (Exception) e.getCause();
+            } catch (Throwable t) {
+                _future.setException(t);
+                return;
+            }
+
+            try {
+                long delayMs = getRetryDelayMs(++_numAttempts, TimeUnit.NANOSECONDS.toMillis(_ticker.read() - _start));
+                if (delayMs < 0) {
+                    _future.setException(retriesExhausted(_lastException));
+                    return;
+                }
+
+                // If the pool is closed before the retry is scheduled, the retry is abandoned right away.
+                _waitingRetries.add(this);
+                if (_closed) {
+                    abandon();
+                    return;
+                }
+
+                _retryExecutor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        _waitingRetries.remove(ScheduledRetries.this);
+                        try {
+                            execute(_priority, ScheduledRetries.this, _future);
+                        } catch (RejectedExecutionException e) {
+                            _future.setException(e);
+                        }
+                    }
+                }, delayMs, TimeUnit.MILLISECONDS);
+            } catch (Throwable t) {
+                _waitingRetries.remove(this);
+                _future.setException(t);
+            }
+        }
+
+        /**
+         * Fails a request that is waiting to be retried because the pool is closed.
+         */
+        void abandon() {
+            _waitingRetries.remove(this);
+            _future.setException(retriesExhausted(_lastException));
+        }
+    }
 }
@@ -0,0 +1,57 @@
+package com.bazaarvoice.ostrich.pool;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A policy for when a {@link ServicePool} stops sending requests to an end point because requests to it keep failing,
+ * and how it finds out that the end point has recovered.
+ * <p/>
+ * Each end point has a circuit breaker that keeps track of the outcome of the most recent requests to it.  While its
+ * circuit is closed requests are sent to it as usual.  Once too many of them fail in a way that the service factory
+ * considers retriable the circuit opens, and no requests are sent to the end point for a while.  After that the
+ * circuit is half open, and a small share of requests is sent to the end point as trials.  Enough successful trials
+ * close the circuit again, while a single failed one opens it again.
+ */
+public interface CircuitBreakerPolicy {
+    /**
+     * Returns how many of the most recent requests to an end point the failure ratio is measured over.
+     */
+    int getWindowSize();
+
+    /**
+     * Returns how many requests to an end point need to be in the window before the failure ratio can open its
+     * circuit, so that a couple of failures right after the end point was added don't.
+     */
+    int getMinNumRequests();
+
+    /**
+     * Returns the ratio of failed requests in the window that opens an end point's circuit.
+     * <p/>
+     * NOTE: A value of 0 indicates that the failure ratio never opens a circuit.
+     */
+    double getFailureRatioThreshold();
+
+    /**
+     * Returns the number of requests to an end point in a row that need to fail to open its circuit, regardless of the
+     * failure ratio.
+     * <p/>
+     * NOTE: A value of 0 indicates that consecutive failures never open a circuit.
+     */
+    int getConsecutiveFailureThreshold();
+
+    /**
+     * Returns how long an end point's circuit stays open before trial requests are sent to it.
+     */
+    long getOpenDuration(TimeUnit unit);
+
+    /**
+     * Returns the share of the requests routed to an end point with a half open circuit that are sent to it as trials.
+     * The other requests are sent to end points with a closed circuit if there are any.
+     */
+    double getHalfOpenTrialRatio();
+
+    /**
+     * Returns how many trial requests to an end point with a half open circuit need to succeed to close it again.
+     */
+    int getNumTrialSuccesses();
+}
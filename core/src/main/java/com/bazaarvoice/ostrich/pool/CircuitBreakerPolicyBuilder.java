@@ -0,0 +1,143 @@
+package com.bazaarvoice.ostrich.pool;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+public class CircuitBreakerPolicyBuilder {
+    private int _windowSize = 20;
+    private int _minNumRequests = 10;
+    private double _failureRatioThreshold = 0.5;
+    private int _consecutiveFailureThreshold = 5;
+    private long _openDurationNanos = TimeUnit.SECONDS.toNanos(10);
+    private double _halfOpenTrialRatio = 0.1;
+    private int _numTrialSuccesses = 3;
+
+    /**
+     * Set the failure ratio that opens an end point's circuit, and how many of the most recent requests to the end
+     * point it is measured over.  If never called, a circuit opens once half of the last 20 requests failed, provided
+     * that there were at least 10 of them.
+     *
+     * @param failureRatioThreshold The ratio of failed requests that opens a circuit, or 0 to not open circuits based
+     *                              on the failure ratio.
+     * @param windowSize            The number of most recent requests the ratio is measured over.
+     * @param minNumRequests        The number of requests there need to be in the window for the ratio to count.
+     * @return this
+     */
+    public CircuitBreakerPolicyBuilder withFailureRatioThreshold(double failureRatioThreshold, int windowSize,
+                                                                 int minNumRequests) {
+        checkState(failureRatioThreshold >= 0 && failureRatioThreshold <= 1);
+        checkState(windowSize > 0);
+        checkState(minNumRequests > 0 && minNumRequests <= windowSize);
+
+        _failureRatioThreshold = failureRatioThreshold;
+        _windowSize = windowSize;
+        _minNumRequests = minNumRequests;
+        return this;
+    }
+
+    /**
+     * Set the number of requests to an end point in a row that need to fail to open its circuit.  If never called, a
+     * circuit opens after 5 failures in a row.
+     *
+     * @param consecutiveFailureThreshold The number of failures in a row that opens a circuit, or 0 to not open
+     *                                    circuits based on failures in a row.
+     * @return this
+     */
+    public CircuitBreakerPolicyBuilder withConsecutiveFailureThreshold(int consecutiveFailureThreshold) {
+        checkState(consecutiveFailureThreshold >= 0);
+
+        _consecutiveFailureThreshold = consecutiveFailureThreshold;
+        return this;
+    }
+
+    /**
+     * Set how long an end point's circuit stays open before trial requests are sent to it.  If never called, circuits
+     * stay open for 10 seconds.
+     *
+     * @param openDuration The time a circuit stays open for.
+     * @param unit         The unit of time the {@code openDuration} is in.
+     * @return this
+     */
+    public CircuitBreakerPolicyBuilder withOpenDuration(long openDuration, TimeUnit unit) {
+        checkState(openDuration > 0);
+        checkNotNull(unit);
+
+        _openDurationNanos = unit.toNanos(openDuration);
+        return this;
+    }
+
+    /**
+     * Set the share of requests routed to an end point with a half open circuit that are sent to it as trials, and how
+     * many of those need to succeed to close the circuit.  If never called, one in ten requests is sent as a trial and
+     * 3 successful trials close the circuit.
+     *
+     * @param halfOpenTrialRatio The share of requests that are sent as trials.
+     * @param numTrialSuccesses  The number of successful trials that close a circuit.
+     * @return this
+     */
+    public CircuitBreakerPolicyBuilder withHalfOpenTrials(double halfOpenTrialRatio, int numTrialSuccesses) {
+        checkState(halfOpenTrialRatio > 0 && halfOpenTrialRatio <= 1);
+        checkState(numTrialSuccesses > 0);
+
+        _halfOpenTrialRatio = halfOpenTrialRatio;
+        _numTrialSuccesses = numTrialSuccesses;
+        return this;
+    }
+
+    /**
+     * Build the {@code CircuitBreakerPolicy} specified by this builder.
+     *
+     * @return The {@code CircuitBreakerPolicy} that was constructed.
+     */
+    public CircuitBreakerPolicy build() {
+        // A circuit that can never open would just be overhead.
+        checkState(_failureRatioThreshold > 0 || _consecutiveFailureThreshold > 0);
+
+        final int windowSize = _windowSize;
+        final int minNumRequests = _minNumRequests;
+        final double failureRatioThreshold = _failureRatioThreshold;
+        final int consecutiveFailureThreshold = _consecutiveFailureThreshold;
+        final long openDurationNanos = _openDurationNanos;
+        final double halfOpenTrialRatio = _halfOpenTrialRatio;
+        final int numTrialSuccesses = _numTrialSuccesses;
+
+        return new CircuitBreakerPolicy() {
+            @Override
+            public int getWindowSize() {
+                return windowSize;
+            }
+
+            @Override
+            public int getMinNumRequests() {
+                return minNumRequests;
+            }
+
+            @Override
+            public double getFailureRatioThreshold() {
+                return failureRatioThreshold;
+            }
+
+            @Override
+            public int getConsecutiveFailureThreshold() {
+                return consecutiveFailureThreshold;
+            }
+
+            @Override
+            public long getOpenDuration(TimeUnit unit) {
+                return unit.convert(openDurationNanos, TimeUnit.NANOSECONDS);
+            }
+
+            @Override
+            public double getHalfOpenTrialRatio() {
+                return halfOpenTrialRatio;
+            }
+
+            @Override
+            public int getNumTrialSuccesses() {
+                return numTrialSuccesses;
+            }
+        };
+    }
+}
@@ -0,0 +1,254 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.CircuitBreakerState;
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.metrics.Metrics;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Predicate;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Maps;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The circuit breakers that a {@link ServicePool} keeps for its end points, see {@link CircuitBreakerPolicy}.
+ * <p/>
+ * An end point only gets a circuit breaker once a request to it has completed, until then its circuit is considered
+ * closed.  Open circuits become half open the first time their state is looked at after the open duration has passed.
+ * <p/>
+ * The number of times circuits were opened is published as a {@code num-circuit-breaker-trips} meter, and the number
+ * of open and half open circuits as {@code num-open-circuits} and {@code num-half-open-circuits} gauges.
+ */
+class CircuitBreakers {
+    private final CircuitBreakerPolicy _policy;
+    private final long _openDurationNanos;
+    private final Ticker _ticker;
+    private final Random _random;
+    private final ConcurrentMap<ServiceEndPoint, Circuit> _circuits = Maps.newConcurrentMap();
+    private final Meter _numTrips;
+
+    private final Predicate<ServiceEndPoint> _notOpenFilter = new Predicate<ServiceEndPoint>() {
+        @Override
+        public boolean apply(ServiceEndPoint endPoint) {
+            return getState(endPoint) != CircuitBreakerState.OPEN;
+        }
+    };
+
+    private final Predicate<ServiceEndPoint> _closedFilter = new Predicate<ServiceEndPoint>() {
+        @Override
+        public boolean apply(ServiceEndPoint endPoint) {
+            return getState(endPoint) == CircuitBreakerState.CLOSED;
+        }
+    };
+
+    CircuitBreakers(CircuitBreakerPolicy policy, Ticker ticker, Metrics.InstanceMetrics metrics) {
+        this(policy, ticker, null, metrics);
+    }
+
+    /**
+     * @param random The source of randomness for choosing trial requests, or {@code null} to use the current thread's.
+     */
+    @VisibleForTesting
+    CircuitBreakers(CircuitBreakerPolicy policy, Ticker ticker, Random random, Metrics.InstanceMetrics metrics) {
+        _policy = checkNotNull(policy);
+        _openDurationNanos = policy.getOpenDuration(TimeUnit.NANOSECONDS);
+        _ticker = checkNotNull(ticker);
+        _random = random;
+
+        _numTrips = metrics.meter("num-circuit-breaker-trips");
+        metrics.gauge("num-open-circuits", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return getNumCircuits(CircuitBreakerState.OPEN);
+            }
+        });
+        metrics.gauge("num-half-open-circuits", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return getNumCircuits(CircuitBreakerState.HALF_OPEN);
+            }
+        });
+    }
+
+    CircuitBreakerState getState(ServiceEndPoint endPoint) {
+        Circuit circuit = _circuits.get(endPoint);
+        return (circuit != null) ? circuit.getState() : CircuitBreakerState.CLOSED;
+    }
+
+    /**
+     * Returns a filter that only lets through end points whose circuit isn't open.
+     */
+    Predicate<ServiceEndPoint> notOpenFilter() {
+        return _notOpenFilter;
+    }
+
+    /**
+     * Returns a filter that only lets through end points whose circuit is closed.
+     */
+    Predicate<ServiceEndPoint> closedFilter() {
+        return _closedFilter;
+    }
+
+    /**
+     * Returns whether a request that was routed to an end point may be sent to it.  That's always the case unless the
+     * end point's circuit is half open, in which case only the configured share of requests are let through as trials.
+     */
+    boolean allowRequest(ServiceEndPoint endPoint) {
+        if (getState(endPoint) != CircuitBreakerState.HALF_OPEN) {
+            return true;
+        }
+
+        Random random = (_random != null) ? _random : ThreadLocalRandom.current();
+        return random.nextDouble() < _policy.getHalfOpenTrialRatio();
+    }
+
+    void recordSuccess(ServiceEndPoint endPoint) {
+        getCircuit(endPoint).recordSuccess();
+    }
+
+    /**
+     * Records that a request to an end point failed in a way that suggests the end point isn't healthy.
+     *
+     * @return {@code true} if this failure opened the end point's circuit.
+     */
+    boolean recordFailure(ServiceEndPoint endPoint) {
+        boolean opened = getCircuit(endPoint).recordFailure();
+        if (opened) {
+            _numTrips.mark();
+        }
+        return opened;
+    }
+
+    /**
+     * Forgets about an end point, for example because host discovery removed it.
+     */
+    void remove(ServiceEndPoint endPoint) {
+        _circuits.remove(endPoint);
+    }
+
+    private Circuit getCircuit(ServiceEndPoint endPoint) {
+        Circuit circuit = _circuits.get(endPoint);
+        if (circuit == null) {
+            Circuit newCircuit = new Circuit();
+            circuit = _circuits.putIfAbsent(endPoint, newCircuit);
+            if (circuit == null) {
+                circuit = newCircuit;
+            }
+        }
+        return circuit;
+    }
+
+    private int getNumCircuits(CircuitBreakerState state) {
+        int count = 0;
+        for (Circuit circuit : _circuits.values()) {
+            if (circuit.getState() == state) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private final class Circuit {
+        /** The outcome of the most recent requests, {@code true} for the ones that failed. */
+        private final boolean[] _window = new boolean[_policy.getWindowSize()];
+        private int _next;
+        private int _numRequests;
+        private int _numFailures;
+        private int _numConsecutiveFailures;
+        private int _numTrialSuccesses;
+        private CircuitBreakerState _state = CircuitBreakerState.CLOSED;
+        private long _openedNanos;
+
+        synchronized CircuitBreakerState getState() {
+            if (_state == CircuitBreakerState.OPEN && _ticker.read() - _openedNanos >= _openDurationNanos) {
+                _state = CircuitBreakerState.HALF_OPEN;
+                _numTrialSuccesses = 0;
+            }
+            return _state;
+        }
+
+        synchronized void recordSuccess() {
+            switch (getState()) {
+                case CLOSED:
+                    record(false);
+                    _numConsecutiveFailures = 0;
+                    break;
+                case HALF_OPEN:
+                    if (++_numTrialSuccesses >= _policy.getNumTrialSuccesses()) {
+                        close();
+                    }
+                    break;
+                default:
+                    // A request that was sent before the circuit opened, it doesn't tell us anything new.
+                    break;
+            }
+        }
+
+        synchronized boolean recordFailure() {
+            switch (getState()) {
+                case CLOSED:
+                    record(true);
+                    _numConsecutiveFailures++;
+                    if (shouldOpen()) {
+                        open();
+                        return true;
+                    }
+                    return false;
+                case HALF_OPEN:
+                    // The end point hasn't recovered yet.
+                    open();
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        private void record(boolean failed) {
+            if (_numRequests == _window.length) {
+                if (_window[_next]) {
+                    _numFailures--;
+                }
+            } else {
+                _numRequests++;
+            }
+
+            _window[_next] = failed;
+            if (failed) {
+                _numFailures++;
+            }
+            _next = (_next + 1) % _window.length;
+        }
+
+        private boolean shouldOpen() {
+            int consecutiveFailureThreshold = _policy.getConsecutiveFailureThreshold();
+            if (consecutiveFailureThreshold > 0 && _numConsecutiveFailures >= consecutiveFailureThreshold) {
+                return true;
+            }
+
+            double failureRatioThreshold = _policy.getFailureRatioThreshold();
+            return failureRatioThreshold > 0
+                    && _numRequests >= _policy.getMinNumRequests()
+                    && _numFailures >= failureRatioThreshold * _numRequests;
+        }
+
+        private void open() {
+            _state = CircuitBreakerState.OPEN;
+            _openedNanos = _ticker.read();
+        }
+
+        private void close() {
+            _state = CircuitBreakerState.CLOSED;
+            _next = 0;
+            _numRequests = 0;
+            _numFailures = 0;
+            _numConsecutiveFailures = 0;
+        }
+    }
+}
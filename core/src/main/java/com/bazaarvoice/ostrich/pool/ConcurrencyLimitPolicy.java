@@ -0,0 +1,49 @@
+package com.bazaarvoice.ostrich.pool;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A policy for limiting how many requests a {@link ServicePool} has in flight at once, with a limit that adapts to the
+ * latency of the service.
+ * <p/>
+ * The latency of recent requests is compared against the long term average.  As long as it stays within the tolerance,
+ * the limit grows, and once requests start taking longer than that because they queue up at the service, the limit
+ * shrinks in proportion.  Requests made while the limit is reached wait for a while for another one to complete, and
+ * are rejected if none does.
+ */
+public interface ConcurrencyLimitPolicy {
+    /**
+     * Returns the limit to start out with, before any requests have completed.
+     */
+    int getInitialLimit();
+
+    /**
+     * Returns the lowest the limit can get.
+     */
+    int getMinLimit();
+
+    /**
+     * Returns the highest the limit can get.
+     */
+    int getMaxLimit();
+
+    /**
+     * Returns how many times the long term average latency recent requests may take before the limit shrinks.
+     */
+    double getLatencyTolerance();
+
+    /**
+     * Returns how much of the way to a new limit is taken for every request, between 0 and 1.
+     */
+    double getSmoothing();
+
+    /**
+     * Returns about how many of the most recent requests the long term average latency is taken over.
+     */
+    int getWindowSize();
+
+    /**
+     * Returns how long a request waits for another one to complete once the limit is reached, before it's rejected.
+     */
+    long getMaxQueueTime(TimeUnit unit);
+}
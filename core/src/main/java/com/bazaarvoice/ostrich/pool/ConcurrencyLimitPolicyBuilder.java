@@ -0,0 +1,145 @@
+package com.bazaarvoice.ostrich.pool;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+public class ConcurrencyLimitPolicyBuilder {
+    private int _initialLimit = 20;
+    private int _minLimit = 1;
+    private int _maxLimit = 1000;
+    private double _latencyTolerance = 1.5;
+    private double _smoothing = 0.2;
+    private int _windowSize = 600;
+    private long _maxQueueTimeNanos;
+
+    /**
+     * Set the limit to start out with and the range the limit stays within.  If never called, the limit starts at 20
+     * and stays between 1 and 1000.
+     *
+     * @param initialLimit The limit before any requests have completed.
+     * @param minLimit     The lowest the limit can get.
+     * @param maxLimit     The highest the limit can get.
+     * @return this
+     */
+    public ConcurrencyLimitPolicyBuilder withLimits(int initialLimit, int minLimit, int maxLimit) {
+        checkState(minLimit > 0);
+        checkState(minLimit <= initialLimit && initialLimit <= maxLimit);
+
+        _initialLimit = initialLimit;
+        _minLimit = minLimit;
+        _maxLimit = maxLimit;
+        return this;
+    }
+
+    /**
+     * Set how many times the long term average latency recent requests may take before the limit shrinks.  If never
+     * called, the limit shrinks once requests take more than 1.5 times as long as they usually do.
+     *
+     * @param latencyTolerance The tolerated ratio of recent to average latency, at least 1.
+     * @return this
+     */
+    public ConcurrencyLimitPolicyBuilder withLatencyTolerance(double latencyTolerance) {
+        checkState(latencyTolerance >= 1);
+
+        _latencyTolerance = latencyTolerance;
+        return this;
+    }
+
+    /**
+     * Set how quickly the limit adapts.  Every request moves the limit {@code smoothing} of the way to the limit the
+     * latency of the recent requests calls for.  If never called, it moves a fifth of the way.
+     *
+     * @param smoothing How much of the way to a new limit is taken for every request, between 0 and 1.
+     * @return this
+     */
+    public ConcurrencyLimitPolicyBuilder withSmoothing(double smoothing) {
+        checkState(smoothing > 0 && smoothing <= 1);
+
+        _smoothing = smoothing;
+        return this;
+    }
+
+    /**
+     * Set about how many of the most recent requests the long term average latency is taken over.  If never called,
+     * the average is taken over about the last 600 requests.
+     *
+     * @param windowSize The number of most recent requests to average.
+     * @return this
+     */
+    public ConcurrencyLimitPolicyBuilder withSampleWindow(int windowSize) {
+        checkState(windowSize > 0);
+
+        _windowSize = windowSize;
+        return this;
+    }
+
+    /**
+     * Set how long a request waits for another one to complete once the limit is reached, before it's rejected.  If
+     * never called, requests are rejected right away.
+     *
+     * @param maxQueueTime The longest time to wait for.
+     * @param unit         The unit of time the {@code maxQueueTime} is in.
+     * @return this
+     */
+    public ConcurrencyLimitPolicyBuilder withMaxQueueTime(long maxQueueTime, TimeUnit unit) {
+        checkState(maxQueueTime >= 0);
+        checkNotNull(unit);
+
+        _maxQueueTimeNanos = unit.toNanos(maxQueueTime);
+        return this;
+    }
+
+    /**
+     * Build the {@code ConcurrencyLimitPolicy} specified by this builder.
+     *
+     * @return The {@code ConcurrencyLimitPolicy} that was constructed.
+     */
+    public ConcurrencyLimitPolicy build() {
+        final int initialLimit = _initialLimit;
+        final int minLimit = _minLimit;
+        final int maxLimit = _maxLimit;
+        final double latencyTolerance = _latencyTolerance;
+        final double smoothing = _smoothing;
+        final int windowSize = _windowSize;
+        final long maxQueueTimeNanos = _maxQueueTimeNanos;
+
+        return new ConcurrencyLimitPolicy() {
+            @Override
+            public int getInitialLimit() {
+                return initialLimit;
+            }
+
+            @Override
+            public int getMinLimit() {
+                return minLimit;
+            }
+
+            @Override
+            public int getMaxLimit() {
+                return maxLimit;
+            }
+
+            @Override
+            public double getLatencyTolerance() {
+                return latencyTolerance;
+            }
+
+            @Override
+            public double getSmoothing() {
+                return smoothing;
+            }
+
+            @Override
+            public int getWindowSize() {
+                return windowSize;
+            }
+
+            @Override
+            public long getMaxQueueTime(TimeUnit unit) {
+                return unit.convert(maxQueueTimeNanos, TimeUnit.NANOSECONDS);
+            }
+        };
+    }
+}
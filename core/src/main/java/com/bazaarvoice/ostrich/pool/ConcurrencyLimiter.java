@@ -0,0 +1,194 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.Deadline;
+import com.bazaarvoice.ostrich.metrics.Metrics;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Limits how many requests a {@link ServicePool} has in flight at once, and adapts the limit to the latency of the
+ * requests that complete, see {@link ConcurrencyLimitPolicy}.
+ * <p/>
+ * For every successful request, the ratio of the long term average latency to the latency of the last few requests,
+ * times the tolerance, gives a gradient between 0.5 and 1.  While the gradient is 1, requests take about as long as
+ * usual and the limit moves towards the current limit plus its square root.  Once requests queue up at the service
+ * and take longer, the limit moves towards the current limit times the gradient.  The limit doesn't grow while fewer
+ * than half of it are in flight, since it isn't known yet whether the service could take more.  A request that failed
+ * because the service was overloaded or didn't respond is a drop, which cuts the limit by a fixed ratio right away.
+ * <p/>
+ * The current limit is published as a {@code concurrency-limit} gauge, the number of requests in flight as a
+ * {@code num-in-flight-requests} gauge, and the number of requests that were rejected because the limit was reached
+ * as a {@code num-concurrency-limit-rejections} meter.
+ */
+class ConcurrencyLimiter {
+    /** The number of most recent requests whose latency is compared against the long term average. */
+    @VisibleForTesting
+    static final int SHORT_WINDOW_SIZE = 10;
+
+    /** The ratio that the limit is cut by when a request is dropped. */
+    @VisibleForTesting
+    static final double DROP_RATIO = 0.9;
+
+    private final ConcurrencyLimitPolicy _policy;
+    private final long _maxQueueTimeNanos;
+    private final Meter _numRejections;
+    private final Lock _lock = new ReentrantLock();
+    private final Condition _available = _lock.newCondition();
+
+    private double _limit;
+    private int _numInFlight;
+    private int _numSamples;
+    private double _shortLatencyNanos;
+    private double _longLatencyNanos;
+
+    ConcurrencyLimiter(ConcurrencyLimitPolicy policy, Metrics.InstanceMetrics metrics) {
+        _policy = checkNotNull(policy);
+        _maxQueueTimeNanos = policy.getMaxQueueTime(TimeUnit.NANOSECONDS);
+        _limit = policy.getInitialLimit();
+
+        _numRejections = metrics.meter("num-concurrency-limit-rejections");
+        metrics.gauge("concurrency-limit", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return getLimit();
+            }
+        });
+        metrics.gauge("num-in-flight-requests", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return getNumInFlight();
+            }
+        });
+    }
+
+    /**
+     * Takes a place for a request to go in flight, waiting for another request to complete if the limit is reached,
+     * but no longer than the queue time of the policy or the deadline of the request.  A request that was given a
+     * place must {@link #release} it once it completes.
+     *
+     * @return {@code true} if the request may go in flight, {@code false} if it was rejected.
+     */
+    boolean acquire(Deadline deadline) {
+        long waitNanos = Math.min(_maxQueueTimeNanos, deadline.getRemaining(TimeUnit.NANOSECONDS));
+
+        _lock.lock();
+        try {
+            while (_numInFlight >= (int) _limit) {
+                if (waitNanos <= 0) {
+                    _numRejections.mark();
+                    return false;
+                }
+                waitNanos = _available.awaitNanos(waitNanos);
+            }
+
+            _numInFlight++;
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            _numRejections.mark();
+            return false;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Gives back the place of a request that completed, successfully or not.
+     */
+    void release() {
+        _lock.lock();
+        try {
+            _numInFlight--;
+            _available.signal();
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Records how long a successful request took, before it's released, and adapts the limit to it.
+     */
+    void record(long latencyNanos) {
+        _lock.lock();
+        try {
+            _numSamples++;
+            _shortLatencyNanos = average(_shortLatencyNanos, latencyNanos, SHORT_WINDOW_SIZE);
+            _longLatencyNanos = average(_longLatencyNanos, latencyNanos, _policy.getWindowSize());
+
+            // If the service got a lot faster, let the long term average catch up sooner so the limit can grow.
+            if (_longLatencyNanos > 2 * _shortLatencyNanos) {
+                _longLatencyNanos *= 0.95;
+            }
+
+            double gradient = Math.max(0.5, Math.min(1.0,
+                    _policy.getLatencyTolerance() * _longLatencyNanos / _shortLatencyNanos));
+            double newLimit;
+            if (gradient < 1) {
+                newLimit = _limit * gradient;
+            } else if (_numInFlight >= _limit / 2) {
+                newLimit = _limit + Math.sqrt(_limit);
+            } else {
+                return;
+            }
+
+            newLimit = _limit * (1 - _policy.getSmoothing()) + newLimit * _policy.getSmoothing();
+            newLimit = Math.max(_policy.getMinLimit(), Math.min(_policy.getMaxLimit(), newLimit));
+            if ((int) newLimit > (int) _limit) {
+                _available.signalAll();
+            }
+            _limit = newLimit;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Records that a request failed because the service was overloaded or didn't respond, before it's released, and
+     * cuts the limit.
+     */
+    void recordDrop() {
+        _lock.lock();
+        try {
+            _limit = Math.max(_policy.getMinLimit(), _limit * DROP_RATIO);
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    int getLimit() {
+        _lock.lock();
+        try {
+            return (int) _limit;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    int getNumInFlight() {
+        _lock.lock();
+        try {
+            return _numInFlight;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Adds a sample to an exponential moving average over about {@code windowSize} samples, which is a plain average
+     * until that many samples have been taken.
+     */
+    private double average(double average, long sample, int windowSize) {
+        if (_numSamples <= windowSize) {
+            return average + (sample - average) / _numSamples;
+        }
+        return average + (sample - average) * 2 / (windowSize + 1);
+    }
+}
@@ -0,0 +1,133 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.metrics.Metrics;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.google.common.base.Predicate;
+import com.google.common.collect.Maps;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Limits how many requests a {@link ServicePool} has in flight to each of its end points, so that one slow end point
+ * can't tie up all of the threads making requests.
+ * <p/>
+ * Every end point has a counter of its own that's updated without locking, so requests to different end points never
+ * contend with each other.  End points that are at the limit are saturated, and are skipped when choosing an end point
+ * for a request.
+ * <p/>
+ * The number of requests that were rejected because their end point was saturated is published as a
+ * {@code num-bulkhead-rejections} meter, and the number of end points that are currently saturated as a
+ * {@code num-saturated-end-points} gauge.
+ */
+class EndPointBulkheads {
+    private final int _maxInFlight;
+    private final ConcurrentMap<ServiceEndPoint, AtomicInteger> _inFlight = Maps.newConcurrentMap();
+    private final Meter _numRejections;
+    private final Predicate<ServiceEndPoint> _notSaturatedFilter = new Predicate<ServiceEndPoint>() {
+        @Override
+        public boolean apply(ServiceEndPoint endPoint) {
+            return !isSaturated(endPoint);
+        }
+    };
+
+    EndPointBulkheads(int maxInFlight, Metrics.InstanceMetrics metrics) {
+        checkArgument(maxInFlight > 0);
+        _maxInFlight = maxInFlight;
+
+        _numRejections = metrics.meter("num-bulkhead-rejections");
+        metrics.gauge("num-saturated-end-points", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return getNumSaturated();
+            }
+        });
+    }
+
+    /**
+     * Takes a place for a request to go in flight to an end point.  A request that was given a place must
+     * {@link #release} it once it completes.
+     *
+     * @return The in flight counter of the end point that the place was taken from, which is what has to be released,
+     *         or {@code null} if the end point is saturated.
+     */
+    AtomicInteger tryAcquire(ServiceEndPoint endPoint) {
+        AtomicInteger inFlight = getInFlight(endPoint);
+        while (true) {
+            int current = inFlight.get();
+            if (current >= _maxInFlight) {
+                _numRejections.mark();
+                return null;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return inFlight;
+            }
+        }
+    }
+
+    /**
+     * Gives back the place of a request that completed, successfully or not, to the counter it was taken from.  The
+     * end point may have been removed and added again while the request was in flight, and then its place mustn't
+     * be given back to the end point's new counter.
+     */
+    void release(AtomicInteger inFlight) {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Records that a request was rejected because all of the end points it could have used are saturated.
+     */
+    void recordRejection() {
+        _numRejections.mark();
+    }
+
+    boolean isSaturated(ServiceEndPoint endPoint) {
+        AtomicInteger inFlight = _inFlight.get(endPoint);
+        return inFlight != null && inFlight.get() >= _maxInFlight;
+    }
+
+    int getNumInFlight(ServiceEndPoint endPoint) {
+        AtomicInteger inFlight = _inFlight.get(endPoint);
+        return (inFlight != null) ? inFlight.get() : 0;
+    }
+
+    /**
+     * Returns a filter that only lets end points through that aren't saturated.
+     */
+    Predicate<ServiceEndPoint> notSaturatedFilter() {
+        return _notSaturatedFilter;
+    }
+
+    /**
+     * Forgets about an end point, for example because host discovery removed it.
+     */
+    void remove(ServiceEndPoint endPoint) {
+        _inFlight.remove(endPoint);
+    }
+
+    private AtomicInteger getInFlight(ServiceEndPoint endPoint) {
+        AtomicInteger inFlight = _inFlight.get(endPoint);
+        if (inFlight == null) {
+            AtomicInteger newInFlight = new AtomicInteger();
+            inFlight = _inFlight.putIfAbsent(endPoint, newInFlight);
+            if (inFlight == null) {
+                inFlight = newInFlight;
+            }
+        }
+        return inFlight;
+    }
+
+    private int getNumSaturated() {
+        int count = 0;
+        for (AtomicInteger inFlight : _inFlight.values()) {
+            if (inFlight.get() >= _maxInFlight) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
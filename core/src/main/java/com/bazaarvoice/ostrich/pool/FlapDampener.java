@@ -0,0 +1,183 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.metrics.Metrics;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Maps;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Keeps track of how often the end points of a {@link ServicePool} go bad after being put back into use, and decides
+ * how long healthy end points that flap are quarantined for, see {@link FlapDampeningPolicy}.
+ * <p/>
+ * An end point only counts as flapping when it goes bad while it was in use, so end points that host discovery added
+ * and that haven't passed their first health check yet don't get a score.
+ * <p/>
+ * Each end point's flap score is published as a {@code flap-score.<id>} gauge once it has one.  The number of
+ * quarantines is published as a {@code num-flap-quarantines} meter, and the number of end points that are currently
+ * quarantined as a {@code num-quarantined-end-points} gauge.
+ */
+class FlapDampener {
+    private static final long NOT_QUARANTINED = Long.MIN_VALUE;
+
+    private final FlapDampeningPolicy _policy;
+    private final long _halfLifeNanos;
+    private final long _baseQuarantineTimeNanos;
+    private final long _maxQuarantineTimeNanos;
+    private final Ticker _ticker;
+    private final Metrics.InstanceMetrics _metrics;
+    private final ConcurrentMap<ServiceEndPoint, Flaps> _flaps = Maps.newConcurrentMap();
+    private final Meter _numQuarantines;
+
+    FlapDampener(FlapDampeningPolicy policy, Ticker ticker, Metrics.InstanceMetrics metrics) {
+        _policy = checkNotNull(policy);
+        _halfLifeNanos = policy.getHalfLife(TimeUnit.NANOSECONDS);
+        _baseQuarantineTimeNanos = policy.getBaseQuarantineTime(TimeUnit.NANOSECONDS);
+        _maxQuarantineTimeNanos = policy.getMaxQuarantineTime(TimeUnit.NANOSECONDS);
+        _ticker = checkNotNull(ticker);
+        _metrics = checkNotNull(metrics);
+
+        _numQuarantines = metrics.meter("num-flap-quarantines");
+        metrics.gauge("num-quarantined-end-points", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return getNumQuarantined();
+            }
+        });
+    }
+
+    /**
+     * Records that host discovery added an end point that isn't in use yet.
+     */
+    void recordAdded(ServiceEndPoint endPoint) {
+        getFlaps(endPoint).setInUse(false);
+    }
+
+    /**
+     * Records that an end point was put back into use, so that it counts as flapping if it goes bad again.
+     */
+    void recordAdmitted(ServiceEndPoint endPoint) {
+        getFlaps(endPoint).setInUse(true);
+    }
+
+    /**
+     * Records that an end point went bad, which adds to its flap score if it was in use.
+     */
+    void recordBad(ServiceEndPoint endPoint) {
+        getFlaps(endPoint).wentBad(_ticker.read());
+    }
+
+    /**
+     * Called when a bad end point passed its health check, to decide whether it may be used again.
+     *
+     * @return How much longer the end point is quarantined for, or 0 if it may be used again.
+     */
+    long getRemainingQuarantine(ServiceEndPoint endPoint) {
+        Flaps flaps = _flaps.get(endPoint);
+        return (flaps != null) ? flaps.getRemainingQuarantine(_ticker.read()) : 0;
+    }
+
+    double getScore(ServiceEndPoint endPoint) {
+        Flaps flaps = _flaps.get(endPoint);
+        return (flaps != null) ? flaps.getScore(_ticker.read()) : 0;
+    }
+
+    /**
+     * Forgets about an end point, for example because host discovery removed it.
+     */
+    void remove(ServiceEndPoint endPoint) {
+        if (_flaps.remove(endPoint) != null) {
+            _metrics.remove(MetricRegistry.name("flap-score", endPoint.getId()));
+        }
+    }
+
+    private Flaps getFlaps(final ServiceEndPoint endPoint) {
+        Flaps flaps = _flaps.get(endPoint);
+        if (flaps == null) {
+            Flaps newFlaps = new Flaps();
+            flaps = _flaps.putIfAbsent(endPoint, newFlaps);
+            if (flaps == null) {
+                flaps = newFlaps;
+                _metrics.gauge(MetricRegistry.name("flap-score", endPoint.getId()), new Gauge<Double>() {
+                    @Override
+                    public Double getValue() {
+                        return getScore(endPoint);
+                    }
+                });
+            }
+        }
+        return flaps;
+    }
+
+    private int getNumQuarantined() {
+        long now = _ticker.read();
+        int count = 0;
+        for (Flaps flaps : _flaps.values()) {
+            if (flaps.isQuarantined(now)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private final class Flaps {
+        // End points the pool didn't hear about from host discovery were in use from the start.
+        private boolean _inUse = true;
+        private double _score;
+        private long _scoreNanos;
+        private long _quarantinedUntilNanos = NOT_QUARANTINED;
+
+        synchronized void setInUse(boolean inUse) {
+            _inUse = inUse;
+            _quarantinedUntilNanos = NOT_QUARANTINED;
+        }
+
+        synchronized void wentBad(long now) {
+            if (_inUse) {
+                _inUse = false;
+                _score = getScore(now) + 1;
+                _scoreNanos = now;
+            }
+        }
+
+        synchronized double getScore(long now) {
+            if (_score == 0) {
+                return 0;
+            }
+            return _score * Math.pow(0.5, (double) (now - _scoreNanos) / _halfLifeNanos);
+        }
+
+        synchronized boolean isQuarantined(long now) {
+            return _quarantinedUntilNanos != NOT_QUARANTINED && now - _quarantinedUntilNanos < 0;
+        }
+
+        synchronized long getRemainingQuarantine(long now) {
+            if (_quarantinedUntilNanos != NOT_QUARANTINED) {
+                // Already quarantined, the end point may be used again once it's over.
+                return Math.max(0, _quarantinedUntilNanos - now);
+            }
+
+            double excess = getScore(now) - _policy.getSuppressThreshold();
+            if (excess < 0) {
+                return 0;
+            }
+
+            long quarantineNanos = _baseQuarantineTimeNanos;
+            for (int i = 0; i < (int) excess && quarantineNanos < _maxQuarantineTimeNanos; i++) {
+                quarantineNanos *= 2;
+            }
+            quarantineNanos = Math.min(quarantineNanos, _maxQuarantineTimeNanos);
+
+            _quarantinedUntilNanos = now + quarantineNanos;
+            _numQuarantines.mark();
+            return quarantineNanos;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.bazaarvoice.ostrich.pool;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A policy for holding back end points that keep going bad soon after a {@link ServicePool} started using them again.
+ * <p/>
+ * Every time an end point goes bad after having been healthy its flap score goes up by one, and the score halves every
+ * half life.  Once the score reaches the suppress threshold, an end point that passes its health check is quarantined
+ * rather than used again right away, and is only used again if it still passes its health check once the quarantine
+ * is over.  The quarantine doubles for every point the score is above the threshold, up to a maximum.
+ */
+public interface FlapDampeningPolicy {
+    /**
+     * Returns how long it takes for an end point's flap score to halve.
+     */
+    long getHalfLife(TimeUnit unit);
+
+    /**
+     * Returns the flap score from which healthy end points are quarantined before they're used again.
+     */
+    double getSuppressThreshold();
+
+    /**
+     * Returns how long an end point whose flap score is at the suppress threshold is quarantined for.
+     */
+    long getBaseQuarantineTime(TimeUnit unit);
+
+    /**
+     * Returns the longest time an end point is quarantined for.
+     */
+    long getMaxQuarantineTime(TimeUnit unit);
+}
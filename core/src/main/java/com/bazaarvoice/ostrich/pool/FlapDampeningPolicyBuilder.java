@@ -0,0 +1,98 @@
+package com.bazaarvoice.ostrich.pool;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+public class FlapDampeningPolicyBuilder {
+    private long _halfLifeNanos = TimeUnit.MINUTES.toNanos(5);
+    private double _suppressThreshold = 3;
+    private long _baseQuarantineTimeNanos = TimeUnit.SECONDS.toNanos(10);
+    private long _maxQuarantineTimeNanos = TimeUnit.MINUTES.toNanos(5);
+
+    /**
+     * Set how long it takes for an end point's flap score to halve.  If never called, scores halve every 5 minutes.
+     *
+     * @param halfLife The time it takes for a flap score to halve.
+     * @param unit     The unit of time the {@code halfLife} is in.
+     * @return this
+     */
+    public FlapDampeningPolicyBuilder withHalfLife(long halfLife, TimeUnit unit) {
+        checkState(halfLife > 0);
+        checkNotNull(unit);
+
+        _halfLifeNanos = unit.toNanos(halfLife);
+        return this;
+    }
+
+    /**
+     * Set the flap score from which healthy end points are quarantined before they're used again.  If never called,
+     * end points are quarantined once their score reaches 3.
+     *
+     * @param suppressThreshold The flap score from which end points are quarantined.
+     * @return this
+     */
+    public FlapDampeningPolicyBuilder withSuppressThreshold(double suppressThreshold) {
+        checkState(suppressThreshold > 0);
+
+        _suppressThreshold = suppressThreshold;
+        return this;
+    }
+
+    /**
+     * Set how long end points are quarantined for.  An end point whose flap score is at the suppress threshold is
+     * quarantined for {@code baseQuarantineTime}, twice as long for every point its score is above that, and at most
+     * for {@code maxQuarantineTime}.  If never called, end points are quarantined for 10 seconds at first and at most 5
+     * minutes.
+     *
+     * @param baseQuarantineTime The time an end point at the suppress threshold is quarantined for.
+     * @param maxQuarantineTime  The longest time an end point is quarantined for.
+     * @param unit               The unit of time both values are in.
+     * @return this
+     */
+    public FlapDampeningPolicyBuilder withQuarantineTime(long baseQuarantineTime, long maxQuarantineTime,
+                                                         TimeUnit unit) {
+        checkState(baseQuarantineTime > 0);
+        checkState(maxQuarantineTime >= baseQuarantineTime);
+        checkNotNull(unit);
+
+        _baseQuarantineTimeNanos = unit.toNanos(baseQuarantineTime);
+        _maxQuarantineTimeNanos = unit.toNanos(maxQuarantineTime);
+        return this;
+    }
+
+    /**
+     * Build the {@code FlapDampeningPolicy} specified by this builder.
+     *
+     * @return The {@code FlapDampeningPolicy} that was constructed.
+     */
+    public FlapDampeningPolicy build() {
+        final long halfLifeNanos = _halfLifeNanos;
+        final double suppressThreshold = _suppressThreshold;
+        final long baseQuarantineTimeNanos = _baseQuarantineTimeNanos;
+        final long maxQuarantineTimeNanos = _maxQuarantineTimeNanos;
+
+        return new FlapDampeningPolicy() {
+            @Override
+            public long getHalfLife(TimeUnit unit) {
+                return unit.convert(halfLifeNanos, TimeUnit.NANOSECONDS);
+            }
+
+            @Override
+            public double getSuppressThreshold() {
+                return suppressThreshold;
+            }
+
+            @Override
+            public long getBaseQuarantineTime(TimeUnit unit) {
+                return unit.convert(baseQuarantineTimeNanos, TimeUnit.NANOSECONDS);
+            }
+
+            @Override
+            public long getMaxQuarantineTime(TimeUnit unit) {
+                return unit.convert(maxQuarantineTimeNanos, TimeUnit.NANOSECONDS);
+            }
+        };
+    }
+}
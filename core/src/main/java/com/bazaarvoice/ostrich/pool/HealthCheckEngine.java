@@ -0,0 +1,229 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.metrics.Metrics;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.concurrent.Future;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Runs the health check probes of a {@link ServicePool} on a bounded number of threads of its own, so that probing one
+ * end point that hangs doesn't hold up probing all of the others.
+ * <p/>
+ * Probes that are due wait in a queue, ordered by {@link Probe#getPriority}, until a thread is free to run them.  A
+ * probe that runs longer than the probe timeout has its thread interrupted and is told that it timed out, so that its
+ * end point can be scheduled to be checked again right away.  Note that the thread only becomes available to other
+ * probes once the timed out probe actually returns.
+ * <p/>
+ * The number of probes waiting for a thread is published as a {@code health-check-queue-depth} gauge, and the time
+ * they waited as a {@code health-check-lag} timer.
+ */
+class HealthCheckEngine implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(HealthCheckEngine.class);
+
+    /** How many probes may run at the same time if not configured otherwise. */
+    static final int DEFAULT_MAX_PARALLEL_PROBES = 4;
+
+    /** How long a probe may run for if not configured otherwise. */
+    static final long DEFAULT_PROBE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private final ThreadPoolExecutor _executor;
+    private final ScheduledExecutorService _timer;
+    private final long _probeTimeoutNanos;
+    private final Ticker _ticker;
+    private final AtomicLong _sequence = new AtomicLong();
+    private final Timer _lagTimer;
+    private final Meter _numTimeouts;
+
+    /**
+     * A single health check of an end point.
+     */
+    interface Probe {
+        /**
+         * Probes with a higher priority are run first when more probes are due than there are threads to run them.
+         */
+        long getPriority();
+
+        /**
+         * Performs the health check, blocking until it's done.
+         */
+        void probe();
+
+        /**
+         * Called instead of waiting for {@link #probe} to finish once it has run for longer than the probe timeout.
+         * The thread running the probe has been interrupted by then, but may still be running it.
+         *
+         * @param durationNanos How long the probe had been running for.
+         */
+        void timedOut(long durationNanos);
+    }
+
+    /**
+     * @param serviceName       The name of the service that is health checked, used to name threads.
+     * @param maxParallelProbes The most probes that may run at the same time.
+     * @param probeTimeout      How long a probe may run before it times out, or 0 for no time out.
+     * @param unit              The unit of time the {@code probeTimeout} is in.
+     * @param timer             The executor to time out probes with.
+     * @param ticker            The source of time for probe durations.
+     * @param metrics           The metrics of the service pool.
+     */
+    HealthCheckEngine(String serviceName, int maxParallelProbes, long probeTimeout, TimeUnit unit,
+                      ScheduledExecutorService timer, Ticker ticker, Metrics.InstanceMetrics metrics) {
+        checkNotNull(serviceName);
+        checkArgument(maxParallelProbes > 0);
+        checkArgument(probeTimeout >= 0);
+        checkNotNull(metrics);
+
+        _timer = checkNotNull(timer);
+        _ticker = checkNotNull(ticker);
+        _probeTimeoutNanos = unit.toNanos(probeTimeout);
+
+        // Threads are only started once probes are submitted, and go away again once there haven't been any for a
+        // while, so a pool whose end points are all healthy doesn't hold on to any.
+        _executor = new ThreadPoolExecutor(maxParallelProbes, maxParallelProbes, 60, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder()
+                        .setNameFormat(serviceName + "-HealthProbeThread-%d")
+                        .setDaemon(true)
+                        .build());
+        _executor.allowCoreThreadTimeOut(true);
+
+        _lagTimer = metrics.timer("health-check-lag");
+        _numTimeouts = metrics.meter("num-health-check-timeouts");
+        metrics.gauge("health-check-queue-depth", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return getQueueDepth();
+            }
+        });
+    }
+
+    /**
+     * Queues a probe to be run as soon as a thread is free and no probe with a higher priority is waiting.
+     *
+     * @throws java.util.concurrent.RejectedExecutionException if the engine has been closed.
+     */
+    void submit(Probe probe) {
+        _executor.execute(new ProbeTask(probe, _sequence.incrementAndGet(), _ticker.read()));
+    }
+
+    @VisibleForTesting
+    int getQueueDepth() {
+        return _executor.getQueue().size();
+    }
+
+    /**
+     * Stops running probes, and interrupts the ones that are running.
+     */
+    @Override
+    public void close() {
+        _executor.shutdownNow();
+    }
+
+    private final class ProbeTask implements Runnable, Comparable<ProbeTask> {
+        private static final int QUEUED = 0;
+        private static final int RUNNING = 1;
+        private static final int DONE = 2;
+        private static final int TIMED_OUT = 3;
+
+        private final Probe _probe;
+        private final long _priority;
+        private final long _sequence;
+        private final long _submitNanos;
+        private final AtomicInteger _state = new AtomicInteger(QUEUED);
+        private volatile Thread _thread;
+        private volatile long _startNanos;
+
+        ProbeTask(Probe probe, long sequence, long submitNanos) {
+            _probe = probe;
+            _priority = probe.getPriority();
+            _sequence = sequence;
+            _submitNanos = submitNanos;
+        }
+
+        @Override
+        public void run() {
+            _startNanos = _ticker.read();
+            _lagTimer.update(_startNanos - _submitNanos, TimeUnit.NANOSECONDS);
+            _thread = Thread.currentThread();
+            _state.set(RUNNING);
+
+            Future<?> timeout = scheduleTimeout();
+            try {
+                _probe.probe();
+            } catch (Throwable t) {
+                // Should never happen, but log just in case. Swallow exception so the thread doesn't die.
+                LOG.warn("Health check probe failed.", t);
+            } finally {
+                if (timeout != null) {
+                    timeout.cancel(false);
+                }
+
+                if (!_state.compareAndSet(RUNNING, DONE)) {
+                    // Timed out, make sure the interrupt meant for this probe doesn't leak into the next one.
+                    synchronized (this) {
+                        Thread.interrupted();
+                    }
+                }
+                _thread = null;
+            }
+        }
+
+        private Future<?> scheduleTimeout() {
+            if (_probeTimeoutNanos == 0) {
+                return null;
+            }
+
+            return _timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    timeOut();
+                }
+            }, _probeTimeoutNanos, TimeUnit.NANOSECONDS);
+        }
+
+        private void timeOut() {
+            synchronized (this) {
+                if (!_state.compareAndSet(RUNNING, TIMED_OUT)) {
+                    return;
+                }
+
+                Thread thread = _thread;
+                if (thread != null) {
+                    thread.interrupt();
+                }
+            }
+
+            _numTimeouts.mark();
+            try {
+                _probe.timedOut(_ticker.read() - _startNanos);
+            } catch (Throwable t) {
+                // Should never happen, but log just in case. Swallow exception so the timer thread doesn't die.
+                LOG.warn("Error handling health check probe time out.", t);
+            }
+        }
+
+        @Override
+        public int compareTo(ProbeTask that) {
+            // Highest priority first, then first come first served.
+            int compare = Long.compare(that._priority, _priority);
+            return compare != 0 ? compare : Long.compare(_sequence, that._sequence);
+        }
+    }
+}
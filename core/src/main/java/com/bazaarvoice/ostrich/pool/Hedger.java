@@ -0,0 +1,178 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.metrics.Metrics;
+import com.codahale.metrics.Meter;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Keeps track of when requests of a {@link ServicePool} should be hedged and whether there's budget left to do so, see
+ * {@link HedgingPolicy}.  Requests that may be hedged run their attempts on threads of the hedger's own, so that the
+ * caller can return as soon as either of them completes.  There are at most {@value #MAX_THREADS} of those threads,
+ * and requests that find all of them busy aren't hedged.
+ * <p/>
+ * Hedges are limited to a share of the hedgeable requests by a {@link RequestBudget}, which can't hold more than
+ * {@value #MAX_BUDGET} hedges.
+ * <p/>
+ * The number of hedges is published as a {@code num-hedges} meter, the number of hedges that completed before their
+ * original attempt as a {@code num-hedge-wins} meter, and the number of requests that weren't hedged because the
+ * budget ran out as a {@code num-hedges-over-budget} meter.
+ */
+class Hedger implements Closeable {
+    @VisibleForTesting
+    static final double MAX_BUDGET = 10;
+
+    @VisibleForTesting
+    static final int MAX_THREADS = 64;
+
+    private final HedgingPolicy _policy;
+    private final long _minDelayNanos;
+    private final ExecutorService _executor;
+    private final Meter _numHedges;
+    private final Meter _numHedgeWins;
+    private final Meter _numHedgesOverBudget;
+    private final RequestBudget _budget;
+
+    /** The latency of the most recent requests, in nanoseconds. */
+    private final long[] _window;
+    private int _next;
+    private int _numRequests;
+    private int _numRequestsSinceDelay;
+    private long _delayNanos = -1;
+
+    Hedger(HedgingPolicy policy, String serviceName, Metrics.InstanceMetrics metrics) {
+        _policy = checkNotNull(policy);
+        checkNotNull(serviceName);
+        _minDelayNanos = policy.getMinDelay(TimeUnit.NANOSECONDS);
+        _window = new long[policy.getWindowSize()];
+        _budget = new RequestBudget(policy.getBudgetRatio(), MAX_BUDGET, 0);
+
+        // Threads are only started for requests that may be hedged, and go away again once there haven't been any for
+        // a while.  Attempts that don't find an idle thread are rejected rather than queued.
+        _executor = new ThreadPoolExecutor(0, MAX_THREADS, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(),
+                new ThreadFactoryBuilder()
+                        .setNameFormat(serviceName + "-HedgeThread-%d")
+                        .setDaemon(true)
+                        .build());
+
+        _numHedges = metrics.meter("num-hedges");
+        _numHedgeWins = metrics.meter("num-hedge-wins");
+        _numHedgesOverBudget = metrics.meter("num-hedges-over-budget");
+    }
+
+    /**
+     * Returns the executor that the attempts of requests that may be hedged run on.  It rejects attempts once all of its
+     * threads are busy.
+     */
+    ExecutorService getExecutor() {
+        return _executor;
+    }
+
+    /**
+     * Records how long a successful request took.
+     */
+    synchronized void record(long latencyNanos) {
+        _window[_next] = latencyNanos;
+        _next = (_next + 1) % _window.length;
+        _numRequests = Math.min(_numRequests + 1, _window.length);
+        _numRequestsSinceDelay++;
+    }
+
+    /**
+     * Returns how long to wait for a request to complete before hedging it, or -1 if it shouldn't be hedged because
+     * too few requests have completed yet to know.
+     */
+    synchronized long getDelayNanos() {
+        double percentile = _policy.getDelayPercentile();
+        if (percentile == 0) {
+            return _minDelayNanos;
+        }
+        if (_numRequests < _policy.getMinNumRequests()) {
+            return -1;
+        }
+
+        // Sorting the window for every request would be too expensive, so the percentile is only taken again once a
+        // tenth of the window has been replaced.
+        if (_delayNanos < 0 || _numRequestsSinceDelay >= Math.max(1, _window.length / 10)) {
+            long[] latencies = Arrays.copyOf(_window, _numRequests);
+            Arrays.sort(latencies);
+            int index = (int) Math.ceil(percentile * latencies.length) - 1;
+            _delayNanos = Math.max(_minDelayNanos, latencies[Math.max(0, index)]);
+            _numRequestsSinceDelay = 0;
+        }
+        return _delayNanos;
+    }
+
+    /**
+     * Records that a hedgeable request was made, which adds to the hedge budget.
+     */
+    void recordRequest() {
+        _budget.deposit();
+    }
+
+    /**
+     * Returns whether there's budget left for a hedge, without taking it.  Requests that couldn't be hedged anyway
+     * don't need to leave the caller's thread.  This doesn't count as a request that wasn't hedged because the budget
+     * ran out, since the request may well complete before a hedge is due.
+     */
+    boolean hasBudget() {
+        return _budget.getBalance() >= 1;
+    }
+
+    /**
+     * Takes a hedge from the hedge budget.  A hedge that couldn't be sent after all must be given back with
+     * {@link #cancelHedge}.
+     *
+     * @return {@code true} if there was budget left for the hedge.
+     */
+    boolean tryHedge() {
+        if (!_budget.tryWithdraw()) {
+            recordOverBudget();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Records that a hedge was due but wasn't sent because the hedge budget ran out.
+     */
+    void recordOverBudget() {
+        _numHedgesOverBudget.mark();
+    }
+
+    /**
+     * Records that a hedge that was taken from the hedge budget was sent.
+     */
+    void recordHedge() {
+        _numHedges.mark();
+    }
+
+    /**
+     * Gives back a hedge that was taken from the hedge budget but couldn't be sent.
+     */
+    void cancelHedge() {
+        _budget.refund();
+    }
+
+    /**
+     * Records that a hedge completed before the attempt it hedged.
+     */
+    void recordHedgeWin() {
+        _numHedgeWins.mark();
+    }
+
+    @Override
+    public void close() {
+        _executor.shutdown();
+    }
+}
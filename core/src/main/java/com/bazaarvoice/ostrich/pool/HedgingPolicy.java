@@ -0,0 +1,40 @@
+package com.bazaarvoice.ostrich.pool;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A policy for hedging requests made with a {@link com.bazaarvoice.ostrich.IdempotentServiceCallback}.
+ * <p/>
+ * If such a request hasn't completed within the hedge delay, a second attempt is sent to a different end point, and
+ * whichever attempt completes first provides the result.  The delay is either fixed, or a percentile of the latency of
+ * the most recent requests of the pool.  To keep hedging from piling load onto a pool that is slow across the board,
+ * only a share of requests may be hedged, the hedge budget.
+ */
+public interface HedgingPolicy {
+    /**
+     * Returns the latency percentile of recent requests to wait for before hedging, between 0 and 1, or 0 if the hedge
+     * delay is fixed.
+     */
+    double getDelayPercentile();
+
+    /**
+     * Returns the fixed hedge delay, or the shortest one if the delay is a latency percentile.
+     */
+    long getMinDelay(TimeUnit unit);
+
+    /**
+     * Returns how many of the most recent requests the latency percentile is taken over.
+     */
+    int getWindowSize();
+
+    /**
+     * Returns how many requests need to have completed before the latency percentile is used.  No requests are hedged
+     * until then.
+     */
+    int getMinNumRequests();
+
+    /**
+     * Returns the share of requests that may be hedged, between 0 and 1.
+     */
+    double getBudgetRatio();
+}
@@ -0,0 +1,120 @@
+package com.bazaarvoice.ostrich.pool;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+public class HedgingPolicyBuilder {
+    private double _delayPercentile = 0.95;
+    private long _minDelayNanos;
+    private int _windowSize = 1000;
+    private int _minNumRequests = 100;
+    private double _budgetRatio = 0.05;
+
+    /**
+     * Hedge requests that haven't completed after a fixed delay.
+     *
+     * @param delay The time to wait for before hedging.
+     * @param unit  The unit of time the {@code delay} is in.
+     * @return this
+     */
+    public HedgingPolicyBuilder withFixedDelay(long delay, TimeUnit unit) {
+        checkState(delay >= 0);
+        checkNotNull(unit);
+
+        _delayPercentile = 0;
+        _minDelayNanos = unit.toNanos(delay);
+        return this;
+    }
+
+    /**
+     * Hedge requests that have taken longer than a percentile of the latency of recent requests.  If neither this nor
+     * {@link #withFixedDelay} is called, requests are hedged once they've taken longer than 95% of recent requests.
+     *
+     * @param percentile The latency percentile to wait for, between 0 and 1.
+     * @param minDelay   The shortest time to wait for before hedging.
+     * @param unit       The unit of time the {@code minDelay} is in.
+     * @return this
+     */
+    public HedgingPolicyBuilder withPercentileDelay(double percentile, long minDelay, TimeUnit unit) {
+        checkState(percentile > 0 && percentile <= 1);
+        checkState(minDelay >= 0);
+        checkNotNull(unit);
+
+        _delayPercentile = percentile;
+        _minDelayNanos = unit.toNanos(minDelay);
+        return this;
+    }
+
+    /**
+     * Set how many of the most recent requests the latency percentile is taken over.  If never called, the last 1000
+     * requests are used, and no requests are hedged until 100 have completed.
+     *
+     * @param windowSize     The number of most recent requests to measure.
+     * @param minNumRequests The number of requests that need to have completed before hedging.
+     * @return this
+     */
+    public HedgingPolicyBuilder withSampleWindow(int windowSize, int minNumRequests) {
+        checkState(windowSize > 0);
+        checkState(minNumRequests > 0 && minNumRequests <= windowSize);
+
+        _windowSize = windowSize;
+        _minNumRequests = minNumRequests;
+        return this;
+    }
+
+    /**
+     * Set the share of requests that may be hedged, which is how much extra load hedging may cause at most.  If never
+     * called, 5% of requests may be hedged.
+     *
+     * @param budgetRatio The share of requests that may be hedged, between 0 and 1.
+     * @return this
+     */
+    public HedgingPolicyBuilder withBudget(double budgetRatio) {
+        checkState(budgetRatio > 0 && budgetRatio <= 1);
+
+        _budgetRatio = budgetRatio;
+        return this;
+    }
+
+    /**
+     * Build the {@code HedgingPolicy} specified by this builder.
+     *
+     * @return The {@code HedgingPolicy} that was constructed.
+     */
+    public HedgingPolicy build() {
+        final double delayPercentile = _delayPercentile;
+        final long minDelayNanos = _minDelayNanos;
+        final int windowSize = _windowSize;
+        final int minNumRequests = _minNumRequests;
+        final double budgetRatio = _budgetRatio;
+
+        return new HedgingPolicy() {
+            @Override
+            public double getDelayPercentile() {
+                return delayPercentile;
+            }
+
+            @Override
+            public long getMinDelay(TimeUnit unit) {
+                return unit.convert(minDelayNanos, TimeUnit.NANOSECONDS);
+            }
+
+            @Override
+            public int getWindowSize() {
+                return windowSize;
+            }
+
+            @Override
+            public int getMinNumRequests() {
+                return minNumRequests;
+            }
+
+            @Override
+            public double getBudgetRatio() {
+                return budgetRatio;
+            }
+        };
+    }
+}
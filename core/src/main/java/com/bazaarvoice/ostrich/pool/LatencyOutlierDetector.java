@@ -0,0 +1,276 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.metrics.Metrics;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.google.common.base.Predicate;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Ejects end points of a {@link ServicePool} whose latency is a lot worse than that of the rest of the pool, see
+ * {@link OutlierEjectionPolicy}.
+ * <p/>
+ * The latency of each request is recorded as it completes, and {@link #evaluate} compares the end points every
+ * evaluation interval.  Ejected end points are let back in once their ejection time is up, and start over with no
+ * recorded latencies.  Only end points that have enough recent requests are compared, and nothing is ejected unless
+ * there are at least {@value #MIN_NUM_COMPARED_END_POINTS} of those, as a median of fewer end points doesn't say much.
+ * <p/>
+ * The number of ejections is published as a {@code num-latency-outlier-ejections} meter, and the number of end points
+ * that are currently ejected as a {@code num-ejected-latency-outliers} gauge.
+ */
+class LatencyOutlierDetector {
+    private static final Logger LOG = LoggerFactory.getLogger(LatencyOutlierDetector.class);
+
+    static final int MIN_NUM_COMPARED_END_POINTS = 3;
+
+    private final OutlierEjectionPolicy _policy;
+    private final long _baseEjectionTimeNanos;
+    private final long _maxEjectionTimeNanos;
+    private final Ticker _ticker;
+    private final ConcurrentMap<ServiceEndPoint, Latencies> _latencies = Maps.newConcurrentMap();
+    private final Meter _numEjections;
+
+    private final Predicate<ServiceEndPoint> _notEjectedFilter = new Predicate<ServiceEndPoint>() {
+        @Override
+        public boolean apply(ServiceEndPoint endPoint) {
+            return !isEjected(endPoint);
+        }
+    };
+
+    LatencyOutlierDetector(OutlierEjectionPolicy policy, Ticker ticker, Metrics.InstanceMetrics metrics) {
+        _policy = checkNotNull(policy);
+        _baseEjectionTimeNanos = policy.getBaseEjectionTime(TimeUnit.NANOSECONDS);
+        _maxEjectionTimeNanos = policy.getMaxEjectionTime(TimeUnit.NANOSECONDS);
+        _ticker = checkNotNull(ticker);
+
+        _numEjections = metrics.meter("num-latency-outlier-ejections");
+        metrics.gauge("num-ejected-latency-outliers", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return getNumEjected();
+            }
+        });
+    }
+
+    /**
+     * Records how long a request to an end point took.
+     */
+    void record(ServiceEndPoint endPoint, long latencyNanos) {
+        Latencies latencies = _latencies.get(endPoint);
+        if (latencies == null) {
+            Latencies newLatencies = new Latencies();
+            latencies = _latencies.putIfAbsent(endPoint, newLatencies);
+            if (latencies == null) {
+                latencies = newLatencies;
+            }
+        }
+        latencies.record(latencyNanos, _ticker.read());
+    }
+
+    boolean isEjected(ServiceEndPoint endPoint) {
+        Latencies latencies = _latencies.get(endPoint);
+        return latencies != null && latencies.isEjected(_ticker.read());
+    }
+
+    /**
+     * Returns a filter that only lets through end points that aren't ejected.
+     */
+    Predicate<ServiceEndPoint> notEjectedFilter() {
+        return _notEjectedFilter;
+    }
+
+    /**
+     * Compares the latency of the given end points, and ejects the ones that have been outliers for long enough.
+     */
+    synchronized void evaluate(Iterable<ServiceEndPoint> endPoints) {
+        long now = _ticker.read();
+        int numEndPoints = 0;
+        int numEjected = 0;
+        List<Candidate> candidates = Lists.newArrayList();
+        for (ServiceEndPoint endPoint : endPoints) {
+            numEndPoints++;
+
+            Latencies latencies = _latencies.get(endPoint);
+            if (latencies == null) {
+                continue;
+            }
+            if (latencies.isEjected(now)) {
+                numEjected++;
+                continue;
+            }
+
+            long percentile = latencies.getPercentile();
+            if (percentile >= 0) {
+                candidates.add(new Candidate(endPoint, latencies, percentile));
+            }
+        }
+
+        if (candidates.size() < MIN_NUM_COMPARED_END_POINTS) {
+            return;
+        }
+
+        double median = getMedian(candidates);
+        int maxNumEjected = (int) (_policy.getMaxEjectionRatio() * numEndPoints);
+
+        // The slowest end points are ejected first, in case not all of them can be.
+        Collections.sort(candidates, new Comparator<Candidate>() {
+            @Override
+            public int compare(Candidate left, Candidate right) {
+                return Long.compare(right._percentile, left._percentile);
+            }
+        });
+
+        for (Candidate candidate : candidates) {
+            boolean outlier = candidate._percentile > _policy.getOutlierFactor() * median;
+            if (candidate._latencies.evaluated(outlier, now) && numEjected < maxNumEjected) {
+                long ejectionTimeNanos = candidate._latencies.eject(now);
+                numEjected++;
+                _numEjections.mark();
+                LOG.info("Ejected slow end point for {} ms. End point: {}, latency: {} ms, pool median: {} ms",
+                        TimeUnit.NANOSECONDS.toMillis(ejectionTimeNanos), candidate._endPoint,
+                        TimeUnit.NANOSECONDS.toMillis(candidate._percentile),
+                        TimeUnit.NANOSECONDS.toMillis((long) median));
+            }
+        }
+    }
+
+    /**
+     * Forgets about an end point, for example because host discovery removed it.
+     */
+    void remove(ServiceEndPoint endPoint) {
+        _latencies.remove(endPoint);
+    }
+
+    private int getNumEjected() {
+        final long now = _ticker.read();
+        return Iterables.size(Iterables.filter(_latencies.values(), new Predicate<Latencies>() {
+            @Override
+            public boolean apply(Latencies latencies) {
+                return latencies.isEjected(now);
+            }
+        }));
+    }
+
+    private static double getMedian(List<Candidate> candidates) {
+        long[] percentiles = new long[candidates.size()];
+        for (int i = 0; i < percentiles.length; i++) {
+            percentiles[i] = candidates.get(i)._percentile;
+        }
+        Arrays.sort(percentiles);
+
+        int middle = percentiles.length / 2;
+        return (percentiles.length % 2 == 1)
+                ? percentiles[middle]
+                : (percentiles[middle - 1] + percentiles[middle]) / 2.0;
+    }
+
+    private static final class Candidate {
+        private final ServiceEndPoint _endPoint;
+        private final Latencies _latencies;
+        private final long _percentile;
+
+        Candidate(ServiceEndPoint endPoint, Latencies latencies, long percentile) {
+            _endPoint = endPoint;
+            _latencies = latencies;
+            _percentile = percentile;
+        }
+    }
+
+    private final class Latencies {
+        /** The latency of the most recent requests, in nanoseconds. */
+        private final long[] _window = new long[_policy.getWindowSize()];
+        private int _next;
+        private int _numRequests;
+        private int _numConsecutiveOutlierEvaluations;
+        private int _numEjections;
+        private boolean _ejected;
+        private long _ejectedUntilNanos;
+
+        synchronized void record(long latencyNanos, long now) {
+            if (isEjected(now)) {
+                // A request that was sent before the end point was ejected.
+                return;
+            }
+
+            _window[_next] = latencyNanos;
+            _next = (_next + 1) % _window.length;
+            _numRequests = Math.min(_numRequests + 1, _window.length);
+        }
+
+        synchronized boolean isEjected(long now) {
+            if (_ejected && now - _ejectedUntilNanos >= 0) {
+                // Start over once the ejection is up, so the latencies from before it don't count against the end point.
+                _ejected = false;
+                _numRequests = 0;
+                _next = 0;
+            }
+            return _ejected;
+        }
+
+        /**
+         * Returns the percentile of the recorded latencies, or -1 if there aren't enough of them.
+         */
+        synchronized long getPercentile() {
+            if (_numRequests < _policy.getMinNumRequests()) {
+                return -1;
+            }
+
+            long[] latencies = Arrays.copyOf(_window, _numRequests);
+            Arrays.sort(latencies);
+            int index = (int) Math.ceil(_policy.getPercentile() * latencies.length) - 1;
+            return latencies[Math.max(0, index)];
+        }
+
+        /**
+         * Records the outcome of a comparison.
+         *
+         * @return {@code true} if the end point has been an outlier for long enough to be ejected.
+         */
+        synchronized boolean evaluated(boolean outlier, long now) {
+            if (!outlier) {
+                _numConsecutiveOutlierEvaluations = 0;
+                if (_numEjections > 0 && now - _ejectedUntilNanos >= _maxEjectionTimeNanos) {
+                    // It has behaved for long enough that the next ejection starts over at the base ejection time.
+                    _numEjections = 0;
+                }
+                return false;
+            }
+
+            return ++_numConsecutiveOutlierEvaluations >= _policy.getNumConsecutiveOutlierEvaluations();
+        }
+
+        /**
+         * Ejects the end point, for twice as long as the previous time.
+         *
+         * @return How long the end point is ejected for.
+         */
+        synchronized long eject(long now) {
+            long ejectionTimeNanos = _baseEjectionTimeNanos;
+            for (int i = 0; i < _numEjections && ejectionTimeNanos < _maxEjectionTimeNanos; i++) {
+                ejectionTimeNanos *= 2;
+            }
+            ejectionTimeNanos = Math.min(ejectionTimeNanos, _maxEjectionTimeNanos);
+
+            _numEjections++;
+            _numConsecutiveOutlierEvaluations = 0;
+            _ejected = true;
+            _ejectedUntilNanos = now + ejectionTimeNanos;
+            return ejectionTimeNanos;
+        }
+    }
+}
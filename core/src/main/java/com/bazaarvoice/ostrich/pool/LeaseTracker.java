@@ -0,0 +1,204 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.metrics.Metrics;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Keeps track of when each service handle was checked out of a {@link ServiceCache}, so that handles which are never
+ * checked back in, or are held for a very long time, can be found.
+ * <p/>
+ * Tracking a check out only costs a timestamp and a map entry.  When a maximum lease time is set the stack of the
+ * code that checked the handle out is captured as well, so that it can be reported once the lease expires.
+ * <p/>
+ * For every end point with handles checked out the number of active leases and the age of the longest one are
+ * published as {@code num-active-leases.<id>} and {@code longest-active-lease-millis.<id>} gauges.  They're registered
+ * when the first lease of an end point starts and removed when its last lease ends, so a check out that races with
+ * the removal of its end point can't leave them behind.
+ */
+class LeaseTracker<S> {
+    private static final Logger LOG = LoggerFactory.getLogger(LeaseTracker.class);
+
+    /** The longest that an expired lease can go unnoticed for. */
+    @VisibleForTesting
+    static final long MAX_CHECK_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private final Ticker _ticker;
+    private final long _maxLeaseTimeNanos;
+    private final Metrics.InstanceMetrics _metrics;
+    private final Map<ServiceHandle<S>, Lease> _leases = Maps.newConcurrentMap();
+    /** The number of active leases of every end point that has any, guarded by itself. */
+    private final Map<ServiceEndPoint, Integer> _numLeasesPerEndPoint = Maps.newHashMap();
+    private final Timer _leaseTimer;
+    private final Meter _numExpiredLeases;
+
+    /**
+     * @param ticker           The source of time for lease durations.
+     * @param maxLeaseTime     How long a handle may be checked out before its lease expires, or 0 to never expire.
+     * @param unit             The unit of time the {@code maxLeaseTime} is in.
+     * @param metrics          The metrics of the cache the leases are tracked for.
+     */
+    LeaseTracker(Ticker ticker, long maxLeaseTime, TimeUnit unit, Metrics.InstanceMetrics metrics) {
+        checkArgument(maxLeaseTime >= 0);
+
+        _ticker = checkNotNull(ticker);
+        _maxLeaseTimeNanos = unit.toNanos(maxLeaseTime);
+        _metrics = checkNotNull(metrics);
+        _leaseTimer = _metrics.timer("lease-time");
+        _numExpiredLeases = _metrics.meter("num-expired-leases");
+    }
+
+    /**
+     * Returns whether leases expire at all.  If not there is no need to periodically call {@link #expire}.
+     */
+    boolean isExpiring() {
+        return _maxLeaseTimeNanos > 0;
+    }
+
+    /**
+     * How often {@link #expire} should be called to notice expired leases in a timely manner.
+     */
+    long getCheckIntervalMillis() {
+        return Math.max(1, Math.min(TimeUnit.NANOSECONDS.toMillis(_maxLeaseTimeNanos), MAX_CHECK_INTERVAL_MILLIS));
+    }
+
+    /**
+     * Starts a lease for a handle that was just checked out.
+     */
+    void start(ServiceHandle<S> handle) {
+        Throwable checkOutStack = isExpiring() ? new Throwable("Service handle checked out here") : null;
+        _leases.put(handle, new Lease(_ticker.read(), checkOutStack));
+
+        final ServiceEndPoint endPoint = handle.getEndPoint();
+        synchronized (_numLeasesPerEndPoint) {
+            Integer numLeases = _numLeasesPerEndPoint.get(endPoint);
+            if (numLeases == null) {
+                numLeases = 0;
+                _metrics.gauge(numActiveLeasesName(endPoint), new Gauge<Integer>() {
+                    @Override
+                    public Integer getValue() {
+                        return getNumActiveLeases(endPoint);
+                    }
+                });
+                _metrics.gauge(longestActiveLeaseName(endPoint), new Gauge<Long>() {
+                    @Override
+                    public Long getValue() {
+                        return getLongestActiveLease(endPoint, TimeUnit.MILLISECONDS);
+                    }
+                });
+            }
+            _numLeasesPerEndPoint.put(endPoint, numLeases + 1);
+        }
+    }
+
+    /**
+     * Ends the lease for a handle that is being checked in.
+     *
+     * @return {@code true} if the handle was leased, {@code false} if it wasn't, for example because its lease was
+     *         already ended when it expired.
+     */
+    boolean end(ServiceHandle<S> handle) {
+        Lease lease = _leases.remove(handle);
+        if (lease == null) {
+            return false;
+        }
+
+        ServiceEndPoint endPoint = handle.getEndPoint();
+        synchronized (_numLeasesPerEndPoint) {
+            int numLeases = _numLeasesPerEndPoint.get(endPoint);
+            if (numLeases == 1) {
+                _numLeasesPerEndPoint.remove(endPoint);
+                _metrics.remove(numActiveLeasesName(endPoint));
+                _metrics.remove(longestActiveLeaseName(endPoint));
+            } else {
+                _numLeasesPerEndPoint.put(endPoint, numLeases - 1);
+            }
+        }
+
+        _leaseTimer.update(_ticker.read() - lease._startNanos, TimeUnit.NANOSECONDS);
+        return true;
+    }
+
+    /**
+     * Finds the leases that have been held longer than the maximum lease time and reports each of them, once, along
+     * with the stack of the code that checked out the handle.  Expired leases stay active until {@link #end} is called.
+     *
+     * @return The handles whose leases expired since the last call.
+     */
+    List<ServiceHandle<S>> expire() {
+        List<ServiceHandle<S>> expired = Lists.newArrayList();
+        if (!isExpiring()) {
+            return expired;
+        }
+
+        long now = _ticker.read();
+        for (Map.Entry<ServiceHandle<S>, Lease> entry : _leases.entrySet()) {
+            Lease lease = entry.getValue();
+            long leaseTimeNanos = now - lease._startNanos;
+            if (leaseTimeNanos > _maxLeaseTimeNanos && !lease._reported) {
+                lease._reported = true;
+                expired.add(entry.getKey());
+
+                _numExpiredLeases.mark();
+                LOG.warn("Service handle has been checked out for {} ms, longer than the lease time of {} ms. " +
+                                "End point: {}", TimeUnit.NANOSECONDS.toMillis(leaseTimeNanos),
+                        TimeUnit.NANOSECONDS.toMillis(_maxLeaseTimeNanos), entry.getKey().getEndPoint(),
+                        lease._checkOutStack);
+            }
+        }
+        return expired;
+    }
+
+    int getNumActiveLeases(ServiceEndPoint endPoint) {
+        synchronized (_numLeasesPerEndPoint) {
+            Integer numLeases = _numLeasesPerEndPoint.get(endPoint);
+            return (numLeases != null) ? numLeases : 0;
+        }
+    }
+
+    long getLongestActiveLease(ServiceEndPoint endPoint, TimeUnit unit) {
+        long now = _ticker.read();
+        long longestNanos = 0;
+        for (Map.Entry<ServiceHandle<S>, Lease> entry : _leases.entrySet()) {
+            if (endPoint.equals(entry.getKey().getEndPoint())) {
+                longestNanos = Math.max(longestNanos, now - entry.getValue()._startNanos);
+            }
+        }
+        return unit.convert(longestNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private static String numActiveLeasesName(ServiceEndPoint endPoint) {
+        return MetricRegistry.name("num-active-leases", endPoint.getId());
+    }
+
+    private static String longestActiveLeaseName(ServiceEndPoint endPoint) {
+        return MetricRegistry.name("longest-active-lease-millis", endPoint.getId());
+    }
+
+    private static final class Lease {
+        private final long _startNanos;
+        private final Throwable _checkOutStack;
+        private volatile boolean _reported;
+
+        Lease(long startNanos, Throwable checkOutStack) {
+            _startNanos = startNanos;
+            _checkOutStack = checkOutStack;
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.Priority;
+import com.bazaarvoice.ostrich.exceptions.RequestShedException;
+import com.bazaarvoice.ostrich.metrics.Metrics;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Runs the requests of an {@link AsyncServicePool} on its executor, at most a fixed number at once, queueing the rest
+ * by priority class and shedding those that wait too long, see {@link LoadSheddingPolicy}.
+ * <p/>
+ * Whether the queues are overloaded is decided for all classes together.  When a request waited too long, a request of
+ * the lowest class that has any is shed in its place, so a higher class is only shed once the lower ones are empty.
+ * <p/>
+ * The time requests of each class spend in the queue is published as a {@code queue-time.<class>} timer, and the number
+ * of requests of each class that were shed as a {@code num-shed-requests.<class>} meter.  The number of requests that
+ * are waiting is published as a {@code num-queued-requests} gauge.
+ */
+class LoadShedder {
+    private final Executor _executor;
+    private final Ticker _ticker;
+    private final int _maxConcurrency;
+    private final int _maxQueueSize;
+    private final long _targetQueueDelayNanos;
+    private final long _intervalNanos;
+    private final Map<Priority, ClassQueue> _queues = Maps.newEnumMap(Priority.class);
+
+    private int _numRunning;
+    private int _numQueued;
+    private long _intervalStartNanos;
+    private long _minDelayNanos = Long.MAX_VALUE;
+    private boolean _overloaded;
+
+    LoadShedder(LoadSheddingPolicy policy, Executor executor, Ticker ticker, Metrics.InstanceMetrics metrics) {
+        checkNotNull(policy);
+        _executor = checkNotNull(executor);
+        _ticker = checkNotNull(ticker);
+        _maxConcurrency = policy.getMaxConcurrency();
+        _maxQueueSize = policy.getMaxQueueSize();
+        _targetQueueDelayNanos = policy.getTargetQueueDelay(TimeUnit.NANOSECONDS);
+        _intervalNanos = policy.getInterval(TimeUnit.NANOSECONDS);
+        _intervalStartNanos = ticker.read();
+
+        for (Priority priority : Priority.values()) {
+            String name = priority.name().toLowerCase().replace('_', '-');
+            _queues.put(priority, new ClassQueue(
+                    metrics.timer(MetricRegistry.name("queue-time", name)),
+                    metrics.meter(MetricRegistry.name("num-shed-requests", name))));
+        }
+        metrics.gauge("num-queued-requests", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return getNumQueued();
+            }
+        });
+    }
+
+    /**
+     * Runs a request on the executor once it's its turn.  If the request is shed instead, its future fails with a
+     * {@link RequestShedException}.
+     */
+    void execute(Priority priority, Runnable task, SettableFuture<?> future) {
+        checkNotNull(priority);
+        checkNotNull(task);
+        checkNotNull(future);
+
+        Request request = new Request(task, future, _ticker.read());
+        Request shed = null;
+        synchronized (this) {
+            if (_numQueued >= _maxQueueSize) {
+                // Make room by pushing out the oldest request of the lowest class below this one, or else turn this
+                // one away.
+                shed = pollLowerThan(priority);
+                if (shed == null) {
+                    _queues.get(priority).recordShed();
+                    shed = request;
+                }
+            }
+            if (shed != request) {
+                _queues.get(priority).add(request);
+                _numQueued++;
+            }
+        }
+
+        if (shed != null) {
+            shed.shed("Queue full");
+        }
+        dispatch();
+    }
+
+    /**
+     * Hands as many queued requests to the executor as may run, highest class first.
+     */
+    private void dispatch() {
+        while (true) {
+            List<Request> shed = Lists.newArrayList();
+            Request next;
+            synchronized (this) {
+                next = (_numRunning < _maxConcurrency) ? poll(shed) : null;
+                if (next != null) {
+                    _numRunning++;
+                }
+            }
+
+            for (Request request : shed) {
+                request.shed("Waited too long in queue");
+            }
+            if (next == null) {
+                return;
+            }
+
+            final Request request = next;
+            try {
+                _executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            request.task.run();
+                        } finally {
+                            finished();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    _numRunning--;
+                }
+                request.future.setException(e);
+            }
+        }
+    }
+
+    private void finished() {
+        synchronized (this) {
+            _numRunning--;
+        }
+        dispatch();
+    }
+
+    /**
+     * Takes the next request to run off the queues, highest class first, and adds the requests that are shed to make
+     * up for it having waited too long to {@code shed}.
+     */
+    private Request poll(List<Request> shed) {
+        long now = _ticker.read();
+        while (true) {
+            ClassQueue highest = getHighest();
+            if (highest == null) {
+                return null;
+            }
+
+            // Like CoDel, the queues are overloaded when even the shortest delay over the last interval was above the
+            // target, and then requests that waited more than twice the target are shed instead of a whole interval.
+            long delayNanos = now - highest.peekOldest().enqueuedNanos;
+            if (now - _intervalStartNanos >= _intervalNanos) {
+                _overloaded = _minDelayNanos > _targetQueueDelayNanos;
+                _minDelayNanos = delayNanos;
+                _intervalStartNanos = now;
+            } else {
+                _minDelayNanos = Math.min(_minDelayNanos, delayNanos);
+            }
+
+            // A request that waited too long is made up for by shedding a request of the lowest class that has any, so
+            // that higher classes are only shed once the lower ones are gone.
+            long maxDelayNanos = _overloaded ? 2 * _targetQueueDelayNanos : _intervalNanos;
+            if (delayNanos > maxDelayNanos) {
+                ClassQueue lowest = getLowest();
+                shed.add(removeOldest(lowest, now, true));
+                if (lowest == highest) {
+                    continue;
+                }
+            }
+            return removeOldest(highest, now, false);
+        }
+    }
+
+    private Request pollLowerThan(Priority priority) {
+        Priority[] priorities = Priority.values();
+        for (int i = priorities.length - 1; i > priority.ordinal(); i--) {
+            ClassQueue queue = _queues.get(priorities[i]);
+            if (queue.size() > 0) {
+                return removeOldest(queue, _ticker.read(), true);
+            }
+        }
+        return null;
+    }
+
+    private ClassQueue getHighest() {
+        for (ClassQueue queue : _queues.values()) {
+            if (queue.size() > 0) {
+                return queue;
+            }
+        }
+        return null;
+    }
+
+    private ClassQueue getLowest() {
+        ClassQueue lowest = null;
+        for (ClassQueue queue : _queues.values()) {
+            if (queue.size() > 0) {
+                lowest = queue;
+            }
+        }
+        return lowest;
+    }
+
+    /**
+     * Takes the oldest request off a queue, which has to have one, and records how long it waited.
+     */
+    private Request removeOldest(ClassQueue queue, long now, boolean shed) {
+        Request request = queue.removeOldest();
+        _numQueued--;
+        queue.recordQueueTime(now - request.enqueuedNanos);
+        if (shed) {
+            queue.recordShed();
+        }
+        return request;
+    }
+
+    synchronized int getNumQueued() {
+        return _numQueued;
+    }
+
+    synchronized int getNumRunning() {
+        return _numRunning;
+    }
+
+    private static final class Request {
+        final Runnable task;
+        final SettableFuture<?> future;
+        final long enqueuedNanos;
+
+        Request(Runnable task, SettableFuture<?> future, long enqueuedNanos) {
+            this.task = task;
+            this.future = future;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+
+        void shed(String reason) {
+            future.setException(new RequestShedException(reason));
+        }
+    }
+
+    /** The queue of a priority class. */
+    private static final class ClassQueue {
+        private final Deque<Request> _requests = new ArrayDeque<>();
+        private final Timer _queueTime;
+        private final Meter _numShed;
+
+        ClassQueue(Timer queueTime, Meter numShed) {
+            _queueTime = queueTime;
+            _numShed = numShed;
+        }
+
+        void add(Request request) {
+            _requests.addLast(request);
+        }
+
+        int size() {
+            return _requests.size();
+        }
+
+        Request peekOldest() {
+            return _requests.peekFirst();
+        }
+
+        Request removeOldest() {
+            return _requests.pollFirst();
+        }
+
+        void recordQueueTime(long delayNanos) {
+            _queueTime.update(delayNanos, TimeUnit.NANOSECONDS);
+        }
+
+        void recordShed() {
+            _numShed.mark();
+        }
+    }
+}
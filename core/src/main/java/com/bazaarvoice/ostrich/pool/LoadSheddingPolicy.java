@@ -0,0 +1,36 @@
+package com.bazaarvoice.ostrich.pool;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A policy for bounding the requests an {@link AsyncServicePool} runs at once, and shedding requests once it's
+ * saturated, see {@link com.bazaarvoice.ostrich.PrioritizedServiceCallback}.
+ * <p/>
+ * Requests beyond the maximum concurrency wait in a queue per priority class, and run highest class first.  The queues
+ * are managed together like CoDel: if even the shortest time requests spent in the queues during an interval was above
+ * the target queue delay, they're overloaded, and a request that has waited more than twice the target is too late.
+ * Otherwise only a request that has waited a whole interval is.  For each request that is too late, the oldest request
+ * of the lowest class that has any is shed, so higher classes are only shed once lower ones are empty.  Once the
+ * queues are full, a new request pushes out the oldest request of a lower class, or is shed itself if there isn't one.
+ */
+public interface LoadSheddingPolicy {
+    /**
+     * Returns the most requests that may run at once.
+     */
+    int getMaxConcurrency();
+
+    /**
+     * Returns the most requests that may wait in the queues at once, over all priority classes.
+     */
+    int getMaxQueueSize();
+
+    /**
+     * Returns the time requests may spend in a queue without it being overloaded.
+     */
+    long getTargetQueueDelay(TimeUnit unit);
+
+    /**
+     * Returns how long the time requests spend in a queue has to stay above the target for it to be overloaded.
+     */
+    long getInterval(TimeUnit unit);
+}
@@ -0,0 +1,94 @@
+package com.bazaarvoice.ostrich.pool;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+public class LoadSheddingPolicyBuilder {
+    private int _maxConcurrency = 100;
+    private int _maxQueueSize = 1000;
+    private long _targetQueueDelayNanos = TimeUnit.MILLISECONDS.toNanos(10);
+    private long _intervalNanos = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * Set the most requests that may run at once.  If never called, at most 100 requests run at once.
+     *
+     * @param maxConcurrency The most requests that may run at once.
+     * @return this
+     */
+    public LoadSheddingPolicyBuilder withMaxConcurrency(int maxConcurrency) {
+        checkState(maxConcurrency > 0);
+
+        _maxConcurrency = maxConcurrency;
+        return this;
+    }
+
+    /**
+     * Set the most requests that may wait to run at once, over all priority classes.  If never called, at most 1000
+     * requests wait.
+     *
+     * @param maxQueueSize The most requests that may wait at once.
+     * @return this
+     */
+    public LoadSheddingPolicyBuilder withMaxQueueSize(int maxQueueSize) {
+        checkState(maxQueueSize > 0);
+
+        _maxQueueSize = maxQueueSize;
+        return this;
+    }
+
+    /**
+     * Set the time requests may spend waiting to run without the queue being overloaded, and how long the time they
+     * spend has to stay above that for the queue to be overloaded.  If never called, the target is 10 milliseconds
+     * over an interval of 100 milliseconds.
+     *
+     * @param targetQueueDelay The time requests may spend in the queue.
+     * @param interval         The time the queue delay has to stay above the target for.
+     * @param unit             The unit of time both values are in.
+     * @return this
+     */
+    public LoadSheddingPolicyBuilder withTargetQueueDelay(long targetQueueDelay, long interval, TimeUnit unit) {
+        checkState(targetQueueDelay > 0);
+        checkState(interval >= targetQueueDelay);
+        checkNotNull(unit);
+
+        _targetQueueDelayNanos = unit.toNanos(targetQueueDelay);
+        _intervalNanos = unit.toNanos(interval);
+        return this;
+    }
+
+    /**
+     * Build the {@code LoadSheddingPolicy} specified by this builder.
+     *
+     * @return The {@code LoadSheddingPolicy} that was constructed.
+     */
+    public LoadSheddingPolicy build() {
+        final int maxConcurrency = _maxConcurrency;
+        final int maxQueueSize = _maxQueueSize;
+        final long targetQueueDelayNanos = _targetQueueDelayNanos;
+        final long intervalNanos = _intervalNanos;
+
+        return new LoadSheddingPolicy() {
+            @Override
+            public int getMaxConcurrency() {
+                return maxConcurrency;
+            }
+
+            @Override
+            public int getMaxQueueSize() {
+                return maxQueueSize;
+            }
+
+            @Override
+            public long getTargetQueueDelay(TimeUnit unit) {
+                return unit.convert(targetQueueDelayNanos, TimeUnit.NANOSECONDS);
+            }
+
+            @Override
+            public long getInterval(TimeUnit unit) {
+                return unit.convert(intervalNanos, TimeUnit.NANOSECONDS);
+            }
+        };
+    }
+}
@@ -3,21 +3,29 @@ package com.bazaarvoice.ostrich.pool;
 import com.bazaarvoice.ostrich.MultiThreadedServiceFactory;
 import com.bazaarvoice.ostrich.ServiceEndPoint;
 import com.bazaarvoice.ostrich.ServiceFactory;
+import com.bazaarvoice.ostrich.ValidatingServiceFactory;
+import com.bazaarvoice.ostrich.exceptions.NoCachedInstancesAvailableException;
 import com.bazaarvoice.ostrich.metrics.Metrics;
 import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
 import com.google.common.collect.Maps;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.bazaarvoice.ostrich.pool.ServiceCacheBuilder.buildDefaultExecutor;
 import static com.google.common.base.Preconditions.checkArgument;
@@ -48,6 +56,14 @@ public class MultiThreadedClientServiceCache<S> implements ServiceCache<S> {
     private static final int DEFAULT_CLEANUP_DELAY_SECONDS = 15;
     private static final int DEFAULT_EVICTION_DELAY_SECONDS = (int) MINUTES.toSeconds(3);
 
+    /** The longest that an expired service instance can go without being replaced. */
+    @VisibleForTesting
+    static final long MAX_ROTATION_INTERVAL_MILLIS = SECONDS.toMillis(10);
+
+    /** How often to validate service instances that aren't checked out, when the service factory is able to. */
+    @VisibleForTesting
+    static final long VALIDATION_INTERVAL_SECONDS = 30;
+
     /**
      * We want to be able to perform more than 300 checkOuts and checkIns per second.
      * Thus we would like those methods to use an un-synchronized / non-blocking Map implementation.
@@ -63,14 +79,32 @@ public class MultiThreadedClientServiceCache<S> implements ServiceCache<S> {
     private volatile Map<ServiceEndPoint, HeavyServiceHandle<S>> _instancesPerEndpoint = Maps.newHashMap();
     private volatile boolean _isClosed;
 
+    /**
+     * Draining service handles that have already been replaced in {@code _instancesPerEndpoint} by a newer handle for
+     * the same end point.  Guarded by {@code this}.
+     */
+    private final List<HeavyServiceHandle<S>> _drainingHandles = new LinkedList<>();
+
     private final Metrics.InstanceMetrics _metrics;
     private final Timer _registerTimer;
     private final Timer _evictionTimer;
     private final Counter _serviceCounter;
+    private final Meter _numDrainTimeouts;
+    private final Meter _numAbandonedInstances;
+    private final Meter _numRetiredInstances;
+    private final Meter _numInvalidInstances;
     private final ServiceFactory<S> _serviceFactory;
     private final Future<?> _cleanupFuture;
     private final ScheduledExecutorService _cleanupExecutor;
     private final long _evictionDelayInMilliSeconds;
+    private final long _drainTimeoutInMilliSeconds;
+    private final LeaseTracker<S> _leases;
+    private final boolean _reclaimExpiredLeases;
+    private final Future<?> _leaseFuture;
+    private final long _maxLifetimeInMilliSeconds;
+    private final long _lifetimeJitterInMilliSeconds;
+    private final Future<?> _rotationFuture;
+    private final Future<?> _validationFuture;
 
     /**
      * ServiceHandle that also tracks eviction and freshness status
@@ -78,12 +112,22 @@ public class MultiThreadedClientServiceCache<S> implements ServiceCache<S> {
     private class HeavyServiceHandle<T extends S> extends ServiceHandle<S> {
 
         private final long _sellByDate;
+        private final long _retireAfterDate;
         private volatile long _expireAfterDate = Long.MAX_VALUE;
+        private volatile long _drainDeadline = Long.MAX_VALUE;
+        private volatile boolean _retired;
+        private final AtomicInteger _numCheckedOut = new AtomicInteger();
 
         public HeavyServiceHandle(T service, ServiceEndPoint endPoint) {
             super(service, endPoint);
 
-            _sellByDate = System.currentTimeMillis() + DUP_REGISTRATION_WINDOW_MILLIS;
+            long now = System.currentTimeMillis();
+            _sellByDate = now + DUP_REGISTRATION_WINDOW_MILLIS;
+            // Shorten each lifetime by a random amount so end points whose instances were created together don't all
+            // have them replaced together.
+            _retireAfterDate = _maxLifetimeInMilliSeconds > 0
+                    ? now + _maxLifetimeInMilliSeconds - ThreadLocalRandom.current().nextLong(_lifetimeJitterInMilliSeconds + 1)
+                    : Long.MAX_VALUE;
         }
 
         public boolean isOld() {
@@ -104,6 +148,67 @@ public class MultiThreadedClientServiceCache<S> implements ServiceCache<S> {
                 _expireAfterDate = System.currentTimeMillis() + _evictionDelayInMilliSeconds;
             }
         }
+
+        public boolean isDraining() {
+            return _drainDeadline != Long.MAX_VALUE;
+        }
+
+        public boolean timeToRetire() {
+            return _retireAfterDate != Long.MAX_VALUE && System.currentTimeMillis() > _retireAfterDate;
+        }
+
+        public boolean isRetired() {
+            return _retired;
+        }
+
+        /**
+         * A retired handle has been replaced by a newer one.  It drains like a handle whose end point went away, except
+         * that check outs that raced with the replacement are allowed to use it for up to the eviction delay.
+         */
+        public void flagAsRetired() {
+            _retired = true;
+            if (_drainDeadline == Long.MAX_VALUE) {
+                _drainDeadline = System.currentTimeMillis() + _evictionDelayInMilliSeconds;
+            }
+        }
+
+        public void flagAsDraining() {
+            if (_drainDeadline == Long.MAX_VALUE) {
+                _drainDeadline = System.currentTimeMillis() + _drainTimeoutInMilliSeconds;
+            }
+        }
+
+        /**
+         * A draining handle is done once nobody has it checked out, or once it has been draining for too long.
+         */
+        public boolean isDrained() {
+            return isDraining() && (_numCheckedOut.get() == 0 || System.currentTimeMillis() > _drainDeadline);
+        }
+
+        public void checkedOut() {
+            _numCheckedOut.incrementAndGet();
+        }
+
+        public void checkedIn() {
+            _numCheckedOut.decrementAndGet();
+        }
+
+        public int getNumCheckedOut() {
+            return _numCheckedOut.get();
+        }
+    }
+
+    /**
+     * The handle given out by a single check out of a shared {@code HeavyServiceHandle}, so that each check out can be
+     * tracked on its own.
+     */
+    private class CheckedOutServiceHandle<T extends S> extends ServiceHandle<S> {
+        private final HeavyServiceHandle<S> _serviceHandle;
+
+        public CheckedOutServiceHandle(HeavyServiceHandle<S> serviceHandle) {
+            super(serviceHandle.getService(), serviceHandle.getEndPoint());
+            _serviceHandle = serviceHandle;
+        }
     }
 
     /**
@@ -114,7 +219,27 @@ public class MultiThreadedClientServiceCache<S> implements ServiceCache<S> {
      * @param metricRegistry The metric registry for reporting metrics
      */
     MultiThreadedClientServiceCache(MultiThreadedServiceFactory<S> serviceFactory, MetricRegistry metricRegistry) {
-        this(serviceFactory, buildDefaultExecutor(), DEFAULT_EVICTION_DELAY_SECONDS, DEFAULT_CLEANUP_DELAY_SECONDS, metricRegistry);
+        this(serviceFactory, ServiceCacheBuilder.DEFAULT_DRAIN_TIMEOUT_MILLIS, 0, false, 0, 0, metricRegistry);
+    }
+
+    /**
+     * Builds a {@code MultiThreadedClientServiceCache} with a default executor and cleanup delay.
+     * Used by the builder.
+     *
+     * @param serviceFactory        The service factory for creating service handles
+     * @param drainTimeoutInMillis  how long a draining end point's handle may be used before it's destroyed
+     * @param maxLeaseTimeInMillis  how long a handle may be checked out before it's reported as leaked, 0 for never
+     * @param reclaimExpiredLeases  whether check outs that are reported as leaked stop counting as in use
+     * @param maxLifetimeInMillis   how long a handle may be used before it's replaced, 0 for never
+     * @param lifetimeJitterInMillis the most that a handle's lifetime may be shortened by at random
+     * @param metricRegistry        The metric registry for reporting metrics
+     */
+    MultiThreadedClientServiceCache(MultiThreadedServiceFactory<S> serviceFactory, long drainTimeoutInMillis,
+                                    long maxLeaseTimeInMillis, boolean reclaimExpiredLeases, long maxLifetimeInMillis,
+                                    long lifetimeJitterInMillis, MetricRegistry metricRegistry) {
+        this(serviceFactory, buildDefaultExecutor(), DEFAULT_EVICTION_DELAY_SECONDS, DEFAULT_CLEANUP_DELAY_SECONDS,
+                drainTimeoutInMillis, maxLeaseTimeInMillis, reclaimExpiredLeases, maxLifetimeInMillis,
+                lifetimeJitterInMillis, metricRegistry);
     }
 
     /**
@@ -129,20 +254,76 @@ public class MultiThreadedClientServiceCache<S> implements ServiceCache<S> {
     @VisibleForTesting
     MultiThreadedClientServiceCache(MultiThreadedServiceFactory<S> serviceFactory, ScheduledExecutorService executor,
                                     int evictionDelayInSeconds, int cleanUpDelayInSeconds, MetricRegistry metricRegistry) {
+        this(serviceFactory, executor, evictionDelayInSeconds, cleanUpDelayInSeconds,
+                ServiceCacheBuilder.DEFAULT_DRAIN_TIMEOUT_MILLIS, 0, false, 0, 0, metricRegistry);
+    }
+
+    /**
+     * Builds a {@code MultiThreadedClientServiceCache} with configurable eviction, cleanUp and drain delays, leases and
+     * lifetimes.
+     *
+     * @param serviceFactory         The service factory for creating service handles
+     * @param executor               The executor for creating the eviction list (cache) cleanup thread
+     * @param evictionDelayInSeconds how long to keep evicted handles around
+     * @param cleanUpDelayInSeconds  how long to wait before scheduled cleanup
+     * @param drainTimeoutInMillis   how long a draining end point's handle may be used before it's destroyed
+     * @param maxLeaseTimeInMillis   how long a handle may be checked out before it's reported as leaked, 0 for never
+     * @param reclaimExpiredLeases   whether check outs that are reported as leaked stop counting as in use
+     * @param maxLifetimeInMillis    how long a handle may be used before it's replaced, 0 for never
+     * @param lifetimeJitterInMillis the most that a handle's lifetime may be shortened by at random
+     * @param metricRegistry         The metric registry for reporting metrics
+     */
+    @VisibleForTesting
+    MultiThreadedClientServiceCache(MultiThreadedServiceFactory<S> serviceFactory, ScheduledExecutorService executor,
+                                    int evictionDelayInSeconds, int cleanUpDelayInSeconds, long drainTimeoutInMillis,
+                                    long maxLeaseTimeInMillis, boolean reclaimExpiredLeases, long maxLifetimeInMillis,
+                                    long lifetimeJitterInMillis, MetricRegistry metricRegistry) {
         checkNotNull(serviceFactory);
         checkNotNull(metricRegistry);
         checkArgument(evictionDelayInSeconds >= 0);
         checkArgument(cleanUpDelayInSeconds >= 0);
+        checkArgument(drainTimeoutInMillis >= 0);
+        checkArgument(maxLeaseTimeInMillis >= 0);
+        checkArgument(maxLifetimeInMillis >= 0);
+        checkArgument(lifetimeJitterInMillis >= 0);
+        checkArgument(lifetimeJitterInMillis == 0 || lifetimeJitterInMillis < maxLifetimeInMillis);
 
         _serviceFactory = serviceFactory;
         _cleanupExecutor = executor;
         _evictionDelayInMilliSeconds = SECONDS.toMillis(evictionDelayInSeconds);
+        _drainTimeoutInMilliSeconds = drainTimeoutInMillis;
+        _reclaimExpiredLeases = reclaimExpiredLeases;
+        _maxLifetimeInMilliSeconds = maxLifetimeInMillis;
+        _lifetimeJitterInMilliSeconds = maxLifetimeInMillis > 0 ? lifetimeJitterInMillis : 0;
         _isClosed = false;
 
         _metrics = Metrics.forInstance(metricRegistry, this, serviceFactory.getServiceName());
         _registerTimer = _metrics.timer("register-time");
         _evictionTimer = _metrics.timer("eviction-time");
         _serviceCounter = _metrics.counter("service-counter");
+        _numDrainTimeouts = _metrics.meter("num-drain-timeouts");
+        _numAbandonedInstances = _metrics.meter("num-abandoned-instances");
+        _numRetiredInstances = _metrics.meter("num-retired-instances");
+        _numInvalidInstances = _metrics.meter("num-invalid-instances");
+        _leases = new LeaseTracker<>(Ticker.systemTicker(), maxLeaseTimeInMillis, TimeUnit.MILLISECONDS, _metrics);
+
+        _metrics.gauge("num-draining-end-points", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return getDrainingHandles().size();
+            }
+        });
+
+        _metrics.gauge("num-draining-instances", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                int numCheckedOut = 0;
+                for (HeavyServiceHandle<S> handle : getDrainingHandles()) {
+                    numCheckedOut += handle.getNumCheckedOut();
+                }
+                return numCheckedOut;
+            }
+        });
 
         _cleanupFuture = _cleanupExecutor.scheduleAtFixedRate(
                 new Runnable() {
@@ -154,16 +335,31 @@ public class MultiThreadedClientServiceCache<S> implements ServiceCache<S> {
                         // this code will be synchronized with evict() and doRegister().
                         synchronized (MultiThreadedClientServiceCache.this) {
                             Map<ServiceEndPoint, HeavyServiceHandle<S>> sourceCopy = Maps.newHashMap(_instancesPerEndpoint);
-                            // Purge evicted instances from the copy-on-write map
+                            // Purge evicted and drained instances from the copy-on-write map
                             for (HeavyServiceHandle<S> handle : _instancesPerEndpoint.values()) {
-                                if (handle.timeToEvict()) {
+                                if (handle.timeToEvict() || handle.isDrained()) {
                                     handlesToDelete.add(sourceCopy.remove(handle.getEndPoint()));
                                 }
                             }
                             _instancesPerEndpoint = sourceCopy;
+
+                            for (Iterator<HeavyServiceHandle<S>> it = _drainingHandles.iterator(); it.hasNext(); ) {
+                                HeavyServiceHandle<S> handle = it.next();
+                                if (handle.isDrained()) {
+                                    handlesToDelete.add(handle);
+                                    it.remove();
+                                }
+                            }
                         }
                         // Outside the synchronization loop, schedule the ServiceHandles for deletion
                         for (HeavyServiceHandle<S> handle : handlesToDelete) {
+                            int numCheckedOut = handle.getNumCheckedOut();
+                            if (handle.isDraining() && numCheckedOut > 0) {
+                                _numDrainTimeouts.mark();
+                                _numAbandonedInstances.mark(numCheckedOut);
+                                LOG.warn("Timed out draining end point: {}, destroying service instance that is still " +
+                                        "checked out {} times.", handle.getEndPoint(), numCheckedOut);
+                            }
                             destroyService(handle);
                         }
                         _serviceCounter.dec(handlesToDelete.size());
@@ -174,12 +370,67 @@ public class MultiThreadedClientServiceCache<S> implements ServiceCache<S> {
                 SECONDS.toMillis(cleanUpDelayInSeconds) + 1,
                 SECONDS.toMillis(cleanUpDelayInSeconds) + 1,
                 TimeUnit.MILLISECONDS);
+
+        _leaseFuture = _leases.isExpiring()
+                ? _cleanupExecutor.scheduleAtFixedRate(
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    checkLeases();
+                                } catch (Exception e) {
+                                    // Should never happen, but log just in case. Swallow exception so thread doesn't die.
+                                    LOG.error("ServiceCache lease check failed.", e);
+                                }
+                            }
+                        },
+                        _leases.getCheckIntervalMillis(),
+                        _leases.getCheckIntervalMillis(),
+                        TimeUnit.MILLISECONDS)
+                : null;
+
+        long rotationIntervalMillis = Math.max(1, Math.min(_maxLifetimeInMilliSeconds, MAX_ROTATION_INTERVAL_MILLIS));
+        _rotationFuture = _maxLifetimeInMilliSeconds > 0
+                ? _cleanupExecutor.scheduleAtFixedRate(
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    rotate();
+                                } catch (Exception e) {
+                                    // Should never happen, but log just in case. Swallow exception so thread doesn't die.
+                                    LOG.error("ServiceCache instance rotation failed.", e);
+                                }
+                            }
+                        },
+                        rotationIntervalMillis,
+                        rotationIntervalMillis,
+                        TimeUnit.MILLISECONDS)
+                : null;
+
+        _validationFuture = serviceFactory instanceof ValidatingServiceFactory
+                ? _cleanupExecutor.scheduleAtFixedRate(
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    validate();
+                                } catch (Exception e) {
+                                    // Should never happen, but log just in case. Swallow exception so thread doesn't die.
+                                    LOG.error("ServiceCache validation run failed.", e);
+                                }
+                            }
+                        },
+                        VALIDATION_INTERVAL_SECONDS,
+                        VALIDATION_INTERVAL_SECONDS,
+                        TimeUnit.SECONDS)
+                : null;
     }
 
     /**
-     * Mimics the behavior of a cache check in, actually a NO-OP.
-     * <p/>
-     * Since the {@code MultiThreadedClientServiceCache} does not have multiple service handles for an endPoint
+     * Mimics the behavior of a cache check in.  Since the {@code MultiThreadedClientServiceCache} does not have
+     * multiple service handles for an endPoint, this only keeps track of how many times the handle is checked out so
+     * that a draining end point can be cleaned up as soon as it is no longer used, and how long each check out took.
      *
      * @param handle The service handle that is being checked in.
      * @throws NullPointerException if the handle is null
@@ -187,6 +438,11 @@ public class MultiThreadedClientServiceCache<S> implements ServiceCache<S> {
     @Override
     public void checkIn(ServiceHandle<S> handle) throws Exception {
         checkNotNull(handle);
+
+        // A check out whose lease was already reclaimed doesn't count as in use anymore.
+        if (handle instanceof CheckedOutServiceHandle && _leases.end(handle)) {
+            ((CheckedOutServiceHandle<?>) handle)._serviceHandle.checkedIn();
+        }
     }
 
     /**
@@ -199,24 +455,41 @@ public class MultiThreadedClientServiceCache<S> implements ServiceCache<S> {
      * @return the service handle
      * @throws IllegalStateException if the cache is closed
      * @throws NullPointerException  if endPoint is null
+     * @throws NoCachedInstancesAvailableException if the end point is being drained
      */
     @Override
     public ServiceHandle<S> checkOut(ServiceEndPoint endPoint) throws Exception {
         checkNotNull(endPoint);
         checkState(!_isClosed, "cache is closed");
-        ServiceHandle<S> serviceHandle = _instancesPerEndpoint.get(endPoint);
+        HeavyServiceHandle<S> serviceHandle = _instancesPerEndpoint.get(endPoint);
         if (serviceHandle == null) {
             // This is the non-ideal state, as we now have to call a synchronized
             // method to create the ServiceHandle and update the copy-on-write map.
             //
             // Note this can/will happen when new Endpoints are discovered due to the
             // inherent race conditions in ServicePool and HostDiscovery.
-            return doRegister(endPoint);
+            serviceHandle = doRegister(endPoint);
         }
 
+        // Count the check out before looking at the draining flag, that way the cleanup thread either sees this check
+        // out and waits for it, or we see the flag it acted on and back out.
+        //
         // Note we are not checking if the serviceHandle has been flagged for Eviction, as
         //  there are race conditions between checkOut() and ServiceCache.evict().
-        return serviceHandle;
+        serviceHandle.checkedOut();
+        if (serviceHandle.isRetired()) {
+            // It has just been replaced by a newer handle, use that one instead.
+            serviceHandle.checkedIn();
+            return checkOut(endPoint);
+        }
+        if (serviceHandle.isDraining()) {
+            serviceHandle.checkedIn();
+            throw new NoCachedInstancesAvailableException(String.format("End point is being drained: %s", endPoint));
+        }
+
+        ServiceHandle<S> checkedOut = new CheckedOutServiceHandle<>(serviceHandle);
+        _leases.start(checkedOut);
+        return checkedOut;
     }
 
     /**
@@ -225,15 +498,16 @@ public class MultiThreadedClientServiceCache<S> implements ServiceCache<S> {
      * @param endPoint the end point
      * @return the service handle
      */
-    private ServiceHandle<S> doRegister(ServiceEndPoint endPoint) {
+    private HeavyServiceHandle<S> doRegister(ServiceEndPoint endPoint) {
         checkNotNull(endPoint);
 
         ServiceHandle<S> toDelete = null;
-        ServiceHandle<S> toReturn;
+        HeavyServiceHandle<S> toReturn;
 
         synchronized (this) {
             HeavyServiceHandle<S> existingServiceHandle = _instancesPerEndpoint.get(endPoint);
-            if (existingServiceHandle == null || existingServiceHandle.hasBeenFlaggedForEviction() || existingServiceHandle.isOld()) {
+            if (existingServiceHandle == null || existingServiceHandle.hasBeenFlaggedForEviction()
+                    || existingServiceHandle.isDraining() || existingServiceHandle.isOld()) {
 
                 // If there was not an existingServiceHandle, then make a new one.
                 //
@@ -243,6 +517,10 @@ public class MultiThreadedClientServiceCache<S> implements ServiceCache<S> {
                 //  the "safest" thing to do is to create a new Client for that EndPoint, in case the
                 //  problem was with the "old" client.
                 //
+                // If existingServiceHandle.isDraining() is true, the EndPoint went away and has now come back.  The
+                //  draining handle may still be in use, so rather than destroying it right away, let it finish
+                //  draining on its own.
+                //
                 // If the existingServiceHandle is "new" don't create a new client object due to the
                 //  race condition in HostDiscovery and ServicePool, which can cause a checkOut() to
                 //  occur before its associated ServiceCache.register().
@@ -262,7 +540,11 @@ public class MultiThreadedClientServiceCache<S> implements ServiceCache<S> {
                 sourceCopy.put(endPoint, newServiceHandle);
                 _instancesPerEndpoint = sourceCopy;
 
-                toDelete = existingServiceHandle;
+                if (existingServiceHandle != null && existingServiceHandle.isDraining()) {
+                    _drainingHandles.add(existingServiceHandle);
+                } else {
+                    toDelete = existingServiceHandle;
+                }
                 toReturn = newServiceHandle;
             } else {
                 // The existingServiceHandle was not null, not evicted, and not old, thus we did not recreate it.
@@ -300,13 +582,142 @@ public class MultiThreadedClientServiceCache<S> implements ServiceCache<S> {
 
         // This method is synchronized, as even though we are not swapping the copy-on-write map,
         // we are still modifying its contents a bit.
-        HeavyServiceHandle<?> serviceHandle = _instancesPerEndpoint.get(endPoint);
-        if (serviceHandle != null) {
+        HeavyServiceHandle<S> serviceHandle = _instancesPerEndpoint.get(endPoint);
+        if (serviceHandle != null && serviceHandle.isDraining()) {
+            // The end point may be used again, so set the draining handle aside and let a new one be created.
+            Map<ServiceEndPoint, HeavyServiceHandle<S>> sourceCopy = Maps.newHashMap(_instancesPerEndpoint);
+            sourceCopy.remove(endPoint);
+            _instancesPerEndpoint = sourceCopy;
+            _drainingHandles.add(serviceHandle);
+        } else if (serviceHandle != null) {
             serviceHandle.flagAsEvicted();
         }
         context.stop();
     }
 
+    /**
+     * Stops handing out the service handle for an end point.  The handle is destroyed by the cleanup thread once it is
+     * no longer checked out by anyone, or once the drain timeout has passed.
+     */
+    @Override
+    public synchronized void drain(ServiceEndPoint endPoint) {
+        checkNotNull(endPoint);
+
+        HeavyServiceHandle<S> serviceHandle = _instancesPerEndpoint.get(endPoint);
+        if (serviceHandle != null && !serviceHandle.hasBeenFlaggedForEviction()) {
+            serviceHandle.flagAsDraining();
+        }
+    }
+
+    /**
+     * Reports check outs that have lasted longer than the lease time, and stops counting them as in use if configured
+     * to, so that they don't hold up draining their end point until the drain timeout.
+     */
+    @VisibleForTesting
+    void checkLeases() {
+        for (ServiceHandle<S> handle : _leases.expire()) {
+            if (_reclaimExpiredLeases && _leases.end(handle)) {
+                ((CheckedOutServiceHandle<?>) handle)._serviceHandle.checkedIn();
+                _numAbandonedInstances.mark();
+            }
+        }
+    }
+
+    /**
+     * Replaces the service handles that have outlived their lifetime.  Each replacement is created before the handle it
+     * replaces is taken out of use, so that check outs never have to wait for one to be created.  The old handle is
+     * then destroyed by the cleanup thread once nobody has it checked out anymore.
+     */
+    @VisibleForTesting
+    void rotate() {
+        for (HeavyServiceHandle<S> serviceHandle : _instancesPerEndpoint.values()) {
+            if (!_isClosed && serviceHandle.timeToRetire() && !serviceHandle.hasBeenFlaggedForEviction()
+                    && !serviceHandle.isDraining() && replace(serviceHandle)) {
+                _numRetiredInstances.mark();
+            }
+        }
+    }
+
+    /**
+     * Validates the service handles that nobody has checked out, and replaces the ones that are no longer valid.  Only
+     * the instance is replaced, its end point stays usable.
+     */
+    @VisibleForTesting
+    void validate() {
+        ValidatingServiceFactory<S> validator = (ValidatingServiceFactory<S>) _serviceFactory;
+        for (HeavyServiceHandle<S> serviceHandle : _instancesPerEndpoint.values()) {
+            if (_isClosed || serviceHandle.getNumCheckedOut() > 0 || serviceHandle.hasBeenFlaggedForEviction()
+                    || serviceHandle.isDraining()) {
+                continue;
+            }
+
+            boolean valid;
+            try {
+                valid = validator.isValid(serviceHandle.getEndPoint(), serviceHandle.getService());
+            } catch (Exception e) {
+                LOG.debug("Exception validating service instance. End point: {}", serviceHandle.getEndPoint(), e);
+                valid = false;
+            }
+
+            if (!valid) {
+                _numInvalidInstances.mark();
+                LOG.info("Replacing invalid service instance. End point: {}", serviceHandle.getEndPoint());
+                replace(serviceHandle);
+            }
+        }
+    }
+
+    /**
+     * @return {@code false} if the handle wasn't replaced, either because a new instance couldn't be created or because
+     *         something else happened to the end point in the mean time.
+     */
+    private boolean replace(HeavyServiceHandle<S> oldServiceHandle) {
+        ServiceEndPoint endPoint = oldServiceHandle.getEndPoint();
+
+        // _serviceFactory.create(endPoint) is potentially expensive, so don't hold the lock while doing it.
+        HeavyServiceHandle<S> newServiceHandle;
+        try {
+            newServiceHandle = new HeavyServiceHandle<>(_serviceFactory.create(endPoint), endPoint);
+        } catch (Exception e) {
+            // Keep using the old one, and try again next time around.
+            LOG.warn("Unable to create replacement service instance. End point: {}", endPoint, e);
+            return false;
+        }
+        _serviceCounter.inc();
+
+        boolean replaced = false;
+        synchronized (this) {
+            // Only replace the handle if nothing else has happened to the end point in the mean time.
+            if (!_isClosed && _instancesPerEndpoint.get(endPoint) == oldServiceHandle
+                    && !oldServiceHandle.hasBeenFlaggedForEviction() && !oldServiceHandle.isDraining()) {
+                Map<ServiceEndPoint, HeavyServiceHandle<S>> sourceCopy = Maps.newHashMap(_instancesPerEndpoint);
+                sourceCopy.put(endPoint, newServiceHandle);
+                _instancesPerEndpoint = sourceCopy;
+
+                oldServiceHandle.flagAsRetired();
+                _drainingHandles.add(oldServiceHandle);
+                replaced = true;
+            }
+        }
+
+        if (!replaced) {
+            destroyService(newServiceHandle);
+            _serviceCounter.dec();
+        }
+        return replaced;
+    }
+
+    @VisibleForTesting
+    synchronized List<HeavyServiceHandle<S>> getDrainingHandles() {
+        List<HeavyServiceHandle<S>> handles = new LinkedList<>(_drainingHandles);
+        for (HeavyServiceHandle<S> handle : _instancesPerEndpoint.values()) {
+            if (handle.isDraining()) {
+                handles.add(handle);
+            }
+        }
+        return handles;
+    }
+
     @Override
     public synchronized void close() {
         _isClosed = true;
@@ -314,8 +725,21 @@ public class MultiThreadedClientServiceCache<S> implements ServiceCache<S> {
         for (ServiceHandle<S> serviceHandle : _instancesPerEndpoint.values()) {
             _serviceFactory.destroy(serviceHandle.getEndPoint(), serviceHandle.getService());
         }
+        for (ServiceHandle<S> serviceHandle : _drainingHandles) {
+            _serviceFactory.destroy(serviceHandle.getEndPoint(), serviceHandle.getService());
+        }
         _instancesPerEndpoint = Maps.newHashMap();
+        _drainingHandles.clear();
         _cleanupFuture.cancel(false);
+        if (_leaseFuture != null) {
+            _leaseFuture.cancel(false);
+        }
+        if (_rotationFuture != null) {
+            _rotationFuture.cancel(false);
+        }
+        if (_validationFuture != null) {
+            _validationFuture.cancel(false);
+        }
         _cleanupExecutor.shutdownNow();
         _metrics.close();
     }
@@ -0,0 +1,60 @@
+package com.bazaarvoice.ostrich.pool;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A policy for when a {@link ServicePool} stops sending requests to end points that are a lot slower than the others.
+ * <p/>
+ * The pool keeps the latency of the most recent requests to each end point, and periodically compares a percentile of
+ * each end point's latencies against the median of that percentile across the pool.  End points that are slower than
+ * the median by more than the outlier factor several times in a row are ejected: no requests are sent to them for a
+ * while.  The time an end point is ejected for doubles every time it is ejected again, up to a maximum, and only a
+ * limited share of the pool's end points may be ejected at the same time.
+ */
+public interface OutlierEjectionPolicy {
+    /**
+     * Returns the percentile of each end point's latencies that is compared, between 0 and 1.
+     */
+    double getPercentile();
+
+    /**
+     * Returns how many times slower than the median an end point needs to be to be an outlier.
+     */
+    double getOutlierFactor();
+
+    /**
+     * Returns how many of the most recent requests to an end point its latency percentile is measured over.
+     */
+    int getWindowSize();
+
+    /**
+     * Returns how many requests to an end point there need to be in the window for it to be compared.
+     */
+    int getMinNumRequests();
+
+    /**
+     * Returns how often end points are compared.
+     */
+    long getEvaluationInterval(TimeUnit unit);
+
+    /**
+     * Returns how many comparisons in a row an end point needs to be an outlier in to be ejected.
+     */
+    int getNumConsecutiveOutlierEvaluations();
+
+    /**
+     * Returns how long an end point is ejected for the first time.
+     */
+    long getBaseEjectionTime(TimeUnit unit);
+
+    /**
+     * Returns the longest time an end point is ejected for.  Once an end point hasn't been ejected for this long, the
+     * next ejection is for the base ejection time again.
+     */
+    long getMaxEjectionTime(TimeUnit unit);
+
+    /**
+     * Returns the largest share of the pool's end points that may be ejected at the same time.
+     */
+    double getMaxEjectionRatio();
+}
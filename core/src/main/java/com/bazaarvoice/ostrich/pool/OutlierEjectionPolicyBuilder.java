@@ -0,0 +1,172 @@
+package com.bazaarvoice.ostrich.pool;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+public class OutlierEjectionPolicyBuilder {
+    private double _percentile = 0.99;
+    private double _outlierFactor = 3;
+    private int _windowSize = 100;
+    private int _minNumRequests = 20;
+    private long _evaluationIntervalNanos = TimeUnit.SECONDS.toNanos(10);
+    private int _numConsecutiveOutlierEvaluations = 3;
+    private long _baseEjectionTimeNanos = TimeUnit.SECONDS.toNanos(30);
+    private long _maxEjectionTimeNanos = TimeUnit.MINUTES.toNanos(10);
+    private double _maxEjectionRatio = 0.1;
+
+    /**
+     * Set which latency percentile is compared, and how many times slower than the median of the pool an end point
+     * needs to be to be an outlier.  If never called, end points whose 99th percentile is more than 3 times the median
+     * are outliers.
+     *
+     * @param percentile    The percentile to compare, between 0 and 1.
+     * @param outlierFactor How many times slower than the median an outlier is.
+     * @return this
+     */
+    public OutlierEjectionPolicyBuilder withOutlierThreshold(double percentile, double outlierFactor) {
+        checkState(percentile > 0 && percentile <= 1);
+        checkState(outlierFactor > 1);
+
+        _percentile = percentile;
+        _outlierFactor = outlierFactor;
+        return this;
+    }
+
+    /**
+     * Set how many of the most recent requests to an end point are used to measure its latency.  If never called, the
+     * last 100 requests are used, and end points with fewer than 20 are not compared.
+     *
+     * @param windowSize     The number of most recent requests to measure.
+     * @param minNumRequests The number of requests an end point needs to have to be compared.
+     * @return this
+     */
+    public OutlierEjectionPolicyBuilder withSampleWindow(int windowSize, int minNumRequests) {
+        checkState(windowSize > 0);
+        checkState(minNumRequests > 0 && minNumRequests <= windowSize);
+
+        _windowSize = windowSize;
+        _minNumRequests = minNumRequests;
+        return this;
+    }
+
+    /**
+     * Set how often end points are compared, and how many comparisons in a row an end point needs to be an outlier in
+     * to be ejected.  If never called, end points are compared every 10 seconds and ejected after being an outlier 3
+     * times in a row.
+     *
+     * @param evaluationInterval               The time between comparisons.
+     * @param unit                             The unit of time the {@code evaluationInterval} is in.
+     * @param numConsecutiveOutlierEvaluations The number of comparisons in a row an end point needs to be an outlier in.
+     * @return this
+     */
+    public OutlierEjectionPolicyBuilder withEvaluationInterval(long evaluationInterval, TimeUnit unit,
+                                                               int numConsecutiveOutlierEvaluations) {
+        checkState(evaluationInterval > 0);
+        checkNotNull(unit);
+        checkState(numConsecutiveOutlierEvaluations > 0);
+
+        _evaluationIntervalNanos = unit.toNanos(evaluationInterval);
+        _numConsecutiveOutlierEvaluations = numConsecutiveOutlierEvaluations;
+        return this;
+    }
+
+    /**
+     * Set how long end points are ejected for.  The first ejection lasts for {@code baseEjectionTime}, and each one
+     * after that twice as long as the one before, up to {@code maxEjectionTime}.  If never called, end points are
+     * ejected for 30 seconds at first and at most 10 minutes.
+     *
+     * @param baseEjectionTime The time an end point is ejected for the first time.
+     * @param maxEjectionTime  The longest time an end point is ejected for.
+     * @param unit             The unit of time both values are in.
+     * @return this
+     */
+    public OutlierEjectionPolicyBuilder withEjectionTime(long baseEjectionTime, long maxEjectionTime, TimeUnit unit) {
+        checkState(baseEjectionTime > 0);
+        checkState(maxEjectionTime >= baseEjectionTime);
+        checkNotNull(unit);
+
+        _baseEjectionTimeNanos = unit.toNanos(baseEjectionTime);
+        _maxEjectionTimeNanos = unit.toNanos(maxEjectionTime);
+        return this;
+    }
+
+    /**
+     * Set the largest share of the pool's end points that may be ejected at the same time.  If never called, at most a
+     * tenth of the end points are ejected.
+     *
+     * @param maxEjectionRatio The share of end points that may be ejected, between 0 and 1.
+     * @return this
+     */
+    public OutlierEjectionPolicyBuilder withMaxEjectionRatio(double maxEjectionRatio) {
+        checkState(maxEjectionRatio > 0 && maxEjectionRatio <= 1);
+
+        _maxEjectionRatio = maxEjectionRatio;
+        return this;
+    }
+
+    /**
+     * Build the {@code OutlierEjectionPolicy} specified by this builder.
+     *
+     * @return The {@code OutlierEjectionPolicy} that was constructed.
+     */
+    public OutlierEjectionPolicy build() {
+        final double percentile = _percentile;
+        final double outlierFactor = _outlierFactor;
+        final int windowSize = _windowSize;
+        final int minNumRequests = _minNumRequests;
+        final long evaluationIntervalNanos = _evaluationIntervalNanos;
+        final int numConsecutiveOutlierEvaluations = _numConsecutiveOutlierEvaluations;
+        final long baseEjectionTimeNanos = _baseEjectionTimeNanos;
+        final long maxEjectionTimeNanos = _maxEjectionTimeNanos;
+        final double maxEjectionRatio = _maxEjectionRatio;
+
+        return new OutlierEjectionPolicy() {
+            @Override
+            public double getPercentile() {
+                return percentile;
+            }
+
+            @Override
+            public double getOutlierFactor() {
+                return outlierFactor;
+            }
+
+            @Override
+            public int getWindowSize() {
+                return windowSize;
+            }
+
+            @Override
+            public int getMinNumRequests() {
+                return minNumRequests;
+            }
+
+            @Override
+            public long getEvaluationInterval(TimeUnit unit) {
+                return unit.convert(evaluationIntervalNanos, TimeUnit.NANOSECONDS);
+            }
+
+            @Override
+            public int getNumConsecutiveOutlierEvaluations() {
+                return numConsecutiveOutlierEvaluations;
+            }
+
+            @Override
+            public long getBaseEjectionTime(TimeUnit unit) {
+                return unit.convert(baseEjectionTimeNanos, TimeUnit.NANOSECONDS);
+            }
+
+            @Override
+            public long getMaxEjectionTime(TimeUnit unit) {
+                return unit.convert(maxEjectionTimeNanos, TimeUnit.NANOSECONDS);
+            }
+
+            @Override
+            public double getMaxEjectionRatio() {
+                return maxEjectionRatio;
+            }
+        };
+    }
+}
@@ -0,0 +1,144 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.metrics.Metrics;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Predicate;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Keeps track of the end points of a {@link ServicePool} that said they're overloaded, see
+ * {@link com.bazaarvoice.ostrich.OverloadAwareServiceFactory}, and of how long retries of the pool's requests are held
+ * back because of it.
+ * <p/>
+ * An end point is backed off from for as long as it asked, or {@value #DEFAULT_BACKOFF_MILLIS} milliseconds if it
+ * didn't say, but never longer than {@value #MAX_BACKOFF_MILLIS} milliseconds, so that a misbehaving end point can't
+ * take itself out of use indefinitely.
+ * <p/>
+ * The number of overloaded responses is published as a {@code num-overloaded-responses} meter, and the number of end
+ * points that are currently backed off from as a {@code num-backed-off-end-points} gauge.
+ */
+class OverloadBackoff {
+    @VisibleForTesting
+    static final long DEFAULT_BACKOFF_MILLIS = 1000;
+
+    @VisibleForTesting
+    static final long MAX_BACKOFF_MILLIS = 5 * 60 * 1000;
+
+    private final Ticker _ticker;
+    private final ConcurrentMap<ServiceEndPoint, Long> _backedOffUntilNanos = Maps.newConcurrentMap();
+    private final Meter _numOverloadedResponses;
+    private final Predicate<ServiceEndPoint> _notBackedOffFilter = new Predicate<ServiceEndPoint>() {
+        @Override
+        public boolean apply(ServiceEndPoint endPoint) {
+            return !isBackedOff(endPoint);
+        }
+    };
+    private long _retryNotBeforeNanos;
+    private boolean _holdingRetries;
+
+    OverloadBackoff(Ticker ticker, Metrics.InstanceMetrics metrics) {
+        _ticker = checkNotNull(ticker);
+
+        _numOverloadedResponses = metrics.meter("num-overloaded-responses");
+        metrics.gauge("num-backed-off-end-points", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return getNumBackedOff();
+            }
+        });
+    }
+
+    /**
+     * Records that an end point said it's overloaded, which backs off from it and holds back retries for a while.
+     *
+     * @param backoffMillis How long the end point asked to be backed off from, or 0 if it didn't say.
+     */
+    void recordOverload(ServiceEndPoint endPoint, long backoffMillis) {
+        _numOverloadedResponses.mark();
+
+        long backoffNanos = TimeUnit.MILLISECONDS.toNanos(
+                Math.min((backoffMillis > 0) ? backoffMillis : DEFAULT_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS));
+        long now = _ticker.read();
+        long untilNanos = now + backoffNanos;
+
+        while (true) {
+            Long current = _backedOffUntilNanos.putIfAbsent(endPoint, untilNanos);
+            if (current == null || current - untilNanos >= 0
+                    || _backedOffUntilNanos.replace(endPoint, current, untilNanos)) {
+                break;
+            }
+        }
+
+        synchronized (this) {
+            if (!_holdingRetries || _retryNotBeforeNanos - untilNanos < 0) {
+                _retryNotBeforeNanos = untilNanos;
+                _holdingRetries = true;
+            }
+        }
+    }
+
+    boolean isBackedOff(ServiceEndPoint endPoint) {
+        Long untilNanos = _backedOffUntilNanos.get(endPoint);
+        if (untilNanos == null) {
+            return false;
+        }
+        if (_ticker.read() - untilNanos < 0) {
+            return true;
+        }
+
+        // The back off is over, so forget about it unless the end point said it's overloaded again in the meantime.
+        _backedOffUntilNanos.remove(endPoint, untilNanos);
+        return false;
+    }
+
+    /**
+     * Returns a filter that only lets end points through that aren't backed off from.
+     */
+    Predicate<ServiceEndPoint> notBackedOffFilter() {
+        return _notBackedOffFilter;
+    }
+
+    /**
+     * Returns how much longer retries are held back for, which is 0 once every end point's back off is over.
+     */
+    synchronized long getRetryDelay(TimeUnit unit) {
+        if (!_holdingRetries) {
+            return 0;
+        }
+
+        long remainingNanos = _retryNotBeforeNanos - _ticker.read();
+        if (remainingNanos <= 0) {
+            _holdingRetries = false;
+            return 0;
+        }
+        return unit.convert(remainingNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Forgets about an end point, for example because host discovery removed it.
+     */
+    void remove(ServiceEndPoint endPoint) {
+        _backedOffUntilNanos.remove(endPoint);
+    }
+
+    private int getNumBackedOff() {
+        long now = _ticker.read();
+        int count = 0;
+        for (Map.Entry<ServiceEndPoint, Long> entry : _backedOffUntilNanos.entrySet()) {
+            if (now - entry.getValue() < 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
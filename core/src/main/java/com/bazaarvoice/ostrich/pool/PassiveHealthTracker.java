@@ -0,0 +1,108 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Keeps track of the outcome of the requests that a {@link ServicePool} sends to its end points, so that the health of
+ * an end point can be judged from real traffic rather than only from health checks.
+ * <p/>
+ * A request only counts as evidence that its end point is healthy if it started after the most recent failure of a
+ * request to the same end point was seen.  That way a slow request that was sent before the end point went bad can't
+ * make it look healthy again.  Outcomes are forgotten once an end point hasn't had any traffic for the length of the
+ * window.
+ */
+class PassiveHealthTracker {
+    private static final long NEVER = Long.MIN_VALUE;
+
+    private final Ticker _ticker;
+    private final long _windowNanos;
+    private final LoadingCache<ServiceEndPoint, Outcomes> _outcomes;
+
+    /**
+     * @param ticker The source of time for request outcomes.
+     * @param window How long an end point's outcomes are remembered for, or 0 to not keep track of them.
+     * @param unit   The unit of time the {@code window} is in.
+     */
+    PassiveHealthTracker(Ticker ticker, long window, TimeUnit unit) {
+        checkArgument(window >= 0);
+
+        _ticker = checkNotNull(ticker);
+        _windowNanos = unit.toNanos(window);
+        _outcomes = CacheBuilder.newBuilder()
+                .ticker(_ticker)
+                .expireAfterAccess(window, unit)
+                .build(new CacheLoader<ServiceEndPoint, Outcomes>() {
+                    @Override
+                    public Outcomes load(ServiceEndPoint endPoint) {
+                        return new Outcomes();
+                    }
+                });
+    }
+
+    /**
+     * Returns the time at which a request starts, to be passed to {@link #recordSuccess} once it has succeeded.
+     */
+    long start() {
+        return _ticker.read();
+    }
+
+    /**
+     * Records that a request to an end point succeeded.
+     *
+     * @param startNanos When the request started, as returned by {@link #start}.
+     */
+    void recordSuccess(ServiceEndPoint endPoint, long startNanos) {
+        AtomicLong lastSuccessStart = _outcomes.getUnchecked(endPoint)._lastSuccessStartNanos;
+        long last;
+        do {
+            last = lastSuccessStart.get();
+        } while ((last == NEVER || startNanos - last > 0) && !lastSuccessStart.compareAndSet(last, startNanos));
+    }
+
+    /**
+     * Records that a request to an end point failed in a way that suggests the end point isn't healthy.
+     */
+    void recordFailure(ServiceEndPoint endPoint) {
+        _outcomes.getUnchecked(endPoint)._lastFailureNanos.set(_ticker.read());
+    }
+
+    /**
+     * Returns whether a request to an end point that started after {@code sinceNanos} succeeded, and no request to it
+     * has failed since.
+     */
+    boolean hasSucceededSince(ServiceEndPoint endPoint, long sinceNanos) {
+        Outcomes outcomes = _outcomes.getIfPresent(endPoint);
+        if (outcomes == null) {
+            return false;
+        }
+
+        long lastSuccessStart = outcomes._lastSuccessStartNanos.get();
+        long lastFailure = outcomes._lastFailureNanos.get();
+        return lastSuccessStart != NEVER
+                && lastSuccessStart - sinceNanos > 0
+                && (lastFailure == NEVER || lastSuccessStart - lastFailure > 0);
+    }
+
+    /**
+     * Returns whether a request to an end point succeeded within the window, and no request to it has failed since.
+     */
+    boolean hasRecentSuccess(ServiceEndPoint endPoint) {
+        // Anything that started right at the beginning of the window counts too.
+        return hasSucceededSince(endPoint, _ticker.read() - _windowNanos - 1);
+    }
+
+    private static final class Outcomes {
+        private final AtomicLong _lastSuccessStartNanos = new AtomicLong(NEVER);
+        private final AtomicLong _lastFailureNanos = new AtomicLong(NEVER);
+    }
+}
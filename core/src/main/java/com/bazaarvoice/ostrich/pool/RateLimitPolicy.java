@@ -0,0 +1,30 @@
+package com.bazaarvoice.ostrich.pool;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A policy for limiting the rate at which a {@link ServicePool} sends requests, both to the service as a whole and to
+ * each of its end points.
+ * <p/>
+ * Each limit is a token bucket: it fills up at the limit's rate, can save up at most the burst time's worth of
+ * requests, and every request takes a token out of it.  The limit of each end point is a share of the capacity it
+ * declared when it registered, see {@link com.bazaarvoice.ostrich.ServiceEndPoint#getCapacity}, so that every client
+ * respects that capacity without having to coordinate.  End points that didn't declare a capacity aren't limited.
+ */
+public interface RateLimitPolicy {
+    /**
+     * Returns the most requests per second that may be sent to the service as a whole, or 0 if they're unlimited.
+     */
+    double getMaxRequestsPerSecond();
+
+    /**
+     * Returns the share of the capacity each end point declared that may be used, or 0 if declared capacities are
+     * ignored.
+     */
+    double getEndPointCapacityShare();
+
+    /**
+     * Returns how long unused requests may be saved up for, to allow for bursts.
+     */
+    long getBurstTime(TimeUnit unit);
+}
@@ -0,0 +1,87 @@
+package com.bazaarvoice.ostrich.pool;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+public class RateLimitPolicyBuilder {
+    private double _maxRequestsPerSecond = 0;
+    private double _endPointCapacityShare = 1;
+    private long _burstTimeNanos = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Set the most requests per second that may be sent to the service as a whole.  If never called, only the
+     * requests to each end point are limited.
+     *
+     * @param maxRequestsPerSecond The most requests per second sent to the service.
+     * @return this
+     */
+    public RateLimitPolicyBuilder withMaxRequestsPerSecond(double maxRequestsPerSecond) {
+        checkState(maxRequestsPerSecond > 0);
+
+        _maxRequestsPerSecond = maxRequestsPerSecond;
+        return this;
+    }
+
+    /**
+     * Set the share of the capacity each end point declared that may be used, for example a third if there are three
+     * clients.  A share of 0 ignores declared capacities.  If never called, each end point may be sent as many
+     * requests as it declared it can serve.
+     *
+     * @param share The share of each end point's capacity that may be used.
+     * @return this
+     */
+    public RateLimitPolicyBuilder withEndPointCapacityShare(double share) {
+        checkState(share >= 0 && share <= 1);
+
+        _endPointCapacityShare = share;
+        return this;
+    }
+
+    /**
+     * Set how long unused requests may be saved up for, to allow for bursts.  If never called, a second's worth of
+     * requests may be saved up.
+     *
+     * @param burstTime The time unused requests may be saved up for.
+     * @param unit      The unit of time the {@code burstTime} is in.
+     * @return this
+     */
+    public RateLimitPolicyBuilder withBurstTime(long burstTime, TimeUnit unit) {
+        checkState(burstTime > 0);
+        checkNotNull(unit);
+
+        _burstTimeNanos = unit.toNanos(burstTime);
+        return this;
+    }
+
+    /**
+     * Build the {@code RateLimitPolicy} specified by this builder.
+     *
+     * @return The {@code RateLimitPolicy} that was constructed.
+     */
+    public RateLimitPolicy build() {
+        checkState(_maxRequestsPerSecond > 0 || _endPointCapacityShare > 0);
+
+        final double maxRequestsPerSecond = _maxRequestsPerSecond;
+        final double endPointCapacityShare = _endPointCapacityShare;
+        final long burstTimeNanos = _burstTimeNanos;
+
+        return new RateLimitPolicy() {
+            @Override
+            public double getMaxRequestsPerSecond() {
+                return maxRequestsPerSecond;
+            }
+
+            @Override
+            public double getEndPointCapacityShare() {
+                return endPointCapacityShare;
+            }
+
+            @Override
+            public long getBurstTime(TimeUnit unit) {
+                return unit.convert(burstTimeNanos, TimeUnit.NANOSECONDS);
+            }
+        };
+    }
+}
@@ -0,0 +1,170 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.metrics.Metrics;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.google.common.base.Predicate;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Maps;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Limits the rate at which a {@link ServicePool} sends requests to the service as a whole and to each of its end
+ * points, see {@link RateLimitPolicy}.
+ * <p/>
+ * End points whose limit is used up are skipped when choosing an end point for a request, the same way saturated end
+ * points are.  The limit of an end point is taken from the capacity it declared the first time a request is sent to it.
+ * <p/>
+ * The number of requests that were rejected because a limit was used up is published as a
+ * {@code num-rate-limit-rejections} meter, and the number of end points whose limit is currently used up as a
+ * {@code num-rate-limited-end-points} gauge.
+ */
+class RateLimiter {
+    private final Ticker _ticker;
+    private final double _endPointCapacityShare;
+    private final long _burstNanos;
+    private final TokenBucket _poolBucket;
+    private final ConcurrentMap<ServiceEndPoint, TokenBucket> _endPointBuckets = Maps.newConcurrentMap();
+    private final Meter _numRejections;
+    private final Predicate<ServiceEndPoint> _notExhaustedFilter = new Predicate<ServiceEndPoint>() {
+        @Override
+        public boolean apply(ServiceEndPoint endPoint) {
+            return !isExhausted(endPoint);
+        }
+    };
+
+    RateLimiter(RateLimitPolicy policy, Ticker ticker, Metrics.InstanceMetrics metrics) {
+        checkNotNull(policy);
+        _ticker = checkNotNull(ticker);
+        _endPointCapacityShare = policy.getEndPointCapacityShare();
+        _burstNanos = policy.getBurstTime(TimeUnit.NANOSECONDS);
+        _poolBucket = (policy.getMaxRequestsPerSecond() > 0)
+                ? new TokenBucket(policy.getMaxRequestsPerSecond(), _burstNanos, ticker)
+                : null;
+
+        _numRejections = metrics.meter("num-rate-limit-rejections");
+        metrics.gauge("num-rate-limited-end-points", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return getNumExhausted();
+            }
+        });
+    }
+
+    /**
+     * Takes a token for a request to an end point from both the end point's limit and the pool's.  A request that
+     * isn't sent after all must {@link #refund} the tokens it took.
+     *
+     * @return The permit for the request, which is what has to be refunded, or {@code null} if either limit is used
+     *         up.
+     */
+    Permit tryAcquire(ServiceEndPoint endPoint) {
+        if (_poolBucket != null && !_poolBucket.tryAcquire()) {
+            _numRejections.mark();
+            return null;
+        }
+
+        TokenBucket bucket = getBucket(endPoint);
+        if (bucket != null && !bucket.tryAcquire()) {
+            if (_poolBucket != null) {
+                _poolBucket.refund();
+            }
+            _numRejections.mark();
+            return null;
+        }
+        return new Permit(bucket);
+    }
+
+    /**
+     * Puts back the tokens that were taken for a request that wasn't sent after all, for example because the end point
+     * was saturated.  The end point may have been removed and added again in the meantime, and then its token mustn't
+     * be put back into the end point's new bucket.
+     */
+    void refund(Permit permit) {
+        if (_poolBucket != null) {
+            _poolBucket.refund();
+        }
+        if (permit._endPointBucket != null) {
+            permit._endPointBucket.refund();
+        }
+    }
+
+    /**
+     * Records that a request was rejected because the limits it would have been sent under are all used up.
+     */
+    void recordRejection() {
+        _numRejections.mark();
+    }
+
+    /**
+     * Returns whether the limit of the service as a whole is used up.
+     */
+    boolean isExhausted() {
+        return _poolBucket != null && _poolBucket.isExhausted();
+    }
+
+    boolean isExhausted(ServiceEndPoint endPoint) {
+        TokenBucket bucket = getBucket(endPoint);
+        return bucket != null && bucket.isExhausted();
+    }
+
+    /**
+     * Returns a filter that only lets end points through whose limit isn't used up.
+     */
+    Predicate<ServiceEndPoint> notExhaustedFilter() {
+        return _notExhaustedFilter;
+    }
+
+    /**
+     * Forgets about an end point, for example because host discovery removed it.
+     */
+    void remove(ServiceEndPoint endPoint) {
+        _endPointBuckets.remove(endPoint);
+    }
+
+    /**
+     * Returns the bucket of an end point, or {@code null} if it isn't limited because it didn't declare a capacity.
+     */
+    private TokenBucket getBucket(ServiceEndPoint endPoint) {
+        TokenBucket bucket = _endPointBuckets.get(endPoint);
+        if (bucket == null) {
+            double rate = endPoint.getCapacity() * _endPointCapacityShare;
+            if (rate <= 0) {
+                return null;
+            }
+
+            TokenBucket newBucket = new TokenBucket(rate, _burstNanos, _ticker);
+            bucket = _endPointBuckets.putIfAbsent(endPoint, newBucket);
+            if (bucket == null) {
+                bucket = newBucket;
+            }
+        }
+        return bucket;
+    }
+
+    private int getNumExhausted() {
+        int count = 0;
+        for (TokenBucket bucket : _endPointBuckets.values()) {
+            if (bucket.isExhausted()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * The tokens taken for a request by {@link #tryAcquire}.
+     */
+    static final class Permit {
+        private final TokenBucket _endPointBucket;
+
+        private Permit(TokenBucket endPointBucket) {
+            _endPointBucket = endPointBucket;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.bazaarvoice.ostrich.pool;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A token bucket that limits requests made on top of the regular ones, such as retries or hedges, to a share of the
+ * regular requests of a {@link ServicePool}.
+ * <p/>
+ * Every regular request adds the budget ratio to the balance, and every extra request takes one from it.  The balance
+ * can't grow beyond the capacity, so that a long quiet period doesn't allow a burst of extra requests once the pool
+ * runs into trouble.
+ */
+class RequestBudget {
+    private final double _ratio;
+    private final double _capacity;
+    private double _balance;
+
+    /**
+     * @param ratio          How much every regular request adds to the balance.
+     * @param capacity       The highest the balance can get.
+     * @param initialBalance The balance to start out with.
+     */
+    RequestBudget(double ratio, double capacity, double initialBalance) {
+        checkArgument(ratio > 0);
+        checkArgument(capacity >= 1);
+        checkArgument(initialBalance >= 0 && initialBalance <= capacity);
+
+        _ratio = ratio;
+        _capacity = capacity;
+        _balance = initialBalance;
+    }
+
+    /**
+     * Records a regular request, which adds to the balance.
+     */
+    synchronized void deposit() {
+        _balance = Math.min(_balance + _ratio, _capacity);
+    }
+
+    /**
+     * Takes an extra request from the balance.
+     *
+     * @return {@code true} if there was enough balance left for the extra request.
+     */
+    synchronized boolean tryWithdraw() {
+        if (_balance < 1) {
+            return false;
+        }
+
+        _balance -= 1;
+        return true;
+    }
+
+    /**
+     * Gives back an extra request that was taken from the balance but not made after all.
+     */
+    synchronized void refund() {
+        _balance = Math.min(_balance + 1, _capacity);
+    }
+
+    synchronized double getBalance() {
+        return _balance;
+    }
+}
@@ -72,4 +72,16 @@ public interface ServiceCache<S> extends Closeable {
      * @param endPoint to evict from the cache
      */
     void evict(ServiceEndPoint endPoint);
+
+    /**
+     * Gracefully removes an endPoint from the cache.  Unlike {@link #evict}, which is meant for end points that are
+     * known to be bad, this is meant for end points that are going away but may still be serving requests.  No new
+     * service handles are checked out for the end point, while handles that are already checked out are allowed to
+     * finish up to the cache's drain timeout, after which they are destroyed.
+     * <p/>
+     * Calling {@link #evict} for a draining end point stops the drain, and the end point may then be used again.
+     *
+     * @param endPoint to drain from the cache
+     */
+    void drain(ServiceEndPoint endPoint);
 }
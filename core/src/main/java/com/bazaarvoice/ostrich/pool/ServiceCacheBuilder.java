@@ -7,15 +7,21 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 public class ServiceCacheBuilder<S> {
+    /** How long checked out service instances of a draining end point may be used before they are destroyed. */
+    static final long DEFAULT_DRAIN_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
 
     private ServiceCachingPolicy _cachingPolicy;
     private ServiceFactory<S> _serviceFactory;
     private MetricRegistry _metricRegistry;
+    private long _drainTimeoutMillis = DEFAULT_DRAIN_TIMEOUT_MILLIS;
+    private long _maxLeaseTimeMillis;
+    private boolean _reclaimExpiredLeases;
 
     public ServiceCacheBuilder<S> withCachingPolicy(ServiceCachingPolicy cachingPolicy) {
         _cachingPolicy = cachingPolicy;
@@ -32,17 +38,72 @@ public class ServiceCacheBuilder<S> {
         return this;
     }
 
+    /**
+     * Sets how long service instances that are checked out for an end point that is being drained, because it went
+     * away from host discovery, may continue to be used before the cache destroys them.  If never called, a default of
+     * 30 seconds is used.  A value of 0 destroys them right away.
+     *
+     * @param drainTimeout The time a draining end point's instances may continue to be used.
+     * @param unit         The unit of time the {@code drainTimeout} is in.
+     * @return this
+     */
+    public ServiceCacheBuilder<S> withDrainTimeout(long drainTimeout, TimeUnit unit) {
+        checkArgument(drainTimeout >= 0);
+        checkNotNull(unit);
+
+        _drainTimeoutMillis = unit.toMillis(drainTimeout);
+        return this;
+    }
+
+    /**
+     * Sets how long a service instance may stay checked out of the cache before it is considered leaked.  Leaked
+     * instances are logged along with the stack of the code that checked them out.  If never called, check outs are
+     * still timed but never reported.
+     * <p/>
+     * NOTE: Capturing the stack makes each check out somewhat more expensive.
+     *
+     * @param maxLeaseTime The time an instance may be checked out for.
+     * @param unit         The unit of time the {@code maxLeaseTime} is in.
+     * @return this
+     */
+    public ServiceCacheBuilder<S> withMaxLeaseTime(long maxLeaseTime, TimeUnit unit) {
+        checkArgument(maxLeaseTime > 0);
+        checkNotNull(unit);
+
+        _maxLeaseTimeMillis = Math.max(1, unit.toMillis(maxLeaseTime));
+        return this;
+    }
+
+    /**
+     * Makes the cache take back service instances that were checked out for longer than the
+     * {@link #withMaxLeaseTime max lease time}, instead of only reporting them, so that leaked instances don't
+     * permanently use up room in the cache.  Single threaded instances that are taken back are destroyed, even though
+     * their owner may still be using them.
+     *
+     * @param reclaimExpiredLeases Whether to take back instances whose lease expired.
+     * @return this
+     */
+    public ServiceCacheBuilder<S> withReclaimExpiredLeases(boolean reclaimExpiredLeases) {
+        _reclaimExpiredLeases = reclaimExpiredLeases;
+        return this;
+    }
+
     public ServiceCache<S> build() {
         checkNotNull(_cachingPolicy, "cachingPolicy");
         if (_cachingPolicy.useMultiThreadedClientPolicy()) {
             checkNotNull(_serviceFactory, "serviceFactory");
             checkArgument((_serviceFactory instanceof MultiThreadedServiceFactory), "Please implement MultiThreadedServiceFactory to construct MultiThreadedClientServiceCache");
-            return new MultiThreadedClientServiceCache<>((MultiThreadedServiceFactory<S>) _serviceFactory, _metricRegistry);
+            return new MultiThreadedClientServiceCache<>((MultiThreadedServiceFactory<S>) _serviceFactory,
+                    _drainTimeoutMillis, _maxLeaseTimeMillis, _reclaimExpiredLeases,
+                    Math.max(0, _cachingPolicy.getMaxServiceInstanceLifetime(TimeUnit.MILLISECONDS)),
+                    Math.max(0, _cachingPolicy.getServiceInstanceLifetimeJitter(TimeUnit.MILLISECONDS)),
+                    _metricRegistry);
         }
         else {
             checkNotNull(_serviceFactory, "serviceFactory");
             checkNotNull(_metricRegistry, "metricRegistry");
-            return new SingleThreadedClientServiceCache<>(_cachingPolicy, _serviceFactory, _metricRegistry);
+            return new SingleThreadedClientServiceCache<>(_cachingPolicy, _serviceFactory, _drainTimeoutMillis,
+                    _maxLeaseTimeMillis, _reclaimExpiredLeases, _metricRegistry);
         }
     }
 
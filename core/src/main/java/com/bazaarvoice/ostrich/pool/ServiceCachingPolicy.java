@@ -21,6 +21,19 @@ public interface ServiceCachingPolicy {
      */
     int getMaxNumServiceInstancesPerEndPoint();
 
+    /**
+     * Returns the smallest limit that adaptive sizing may shrink a single end point's number of in-use service
+     * instances to.  When adaptive sizing is enabled, each end point's limit is adjusted periodically between this value
+     * and {@link #getMaxNumServiceInstancesPerEndPoint()} based on observed check out wait times, misses and
+     * utilization.
+     * <p/>
+     * NOTE: A value of 0 indicates that adaptive sizing is disabled, and {@link #getMaxNumServiceInstancesPerEndPoint()}
+     * is used as a fixed limit for every end point.  Adaptive sizing is disabled unless a policy overrides this.
+     */
+    default int getMinNumServiceInstancesPerEndPoint() {
+        return 0;
+    }
+
     /**
      * The amount of time that a service instance is allowed to be idle for before it can be expired from the cache.
      * An instance may still be evicted before this amount of time if the cache is full and needs to make room for a new
@@ -31,6 +44,28 @@ public interface ServiceCachingPolicy {
      */
     long getMaxServiceInstanceIdleTime(TimeUnit unit);
 
+    /**
+     * The amount of time that a service instance may be used for after it was created, before it is retired and
+     * replaced by a new instance.  Replacements are created in the background before the instances they replace are
+     * retired, and instances that are checked out when they expire are retired once they are checked back in.
+     * <p/>
+     * NOTE: A non-positive value indicates service instances are never retired based on their age, which is the case
+     * unless a policy overrides this.
+     */
+    default long getMaxServiceInstanceLifetime(TimeUnit unit) {
+        return 0;
+    }
+
+    /**
+     * The most that any single service instance's lifetime may be shortened by, chosen at random for each instance, so
+     * that instances created at the same time are not all retired at the same time.
+     * <p/>
+     * NOTE: Only used when {@link #getMaxServiceInstanceLifetime} is positive.
+     */
+    default long getServiceInstanceLifetimeJitter(TimeUnit unit) {
+        return 0;
+    }
+
     /**
      * What action to take when it is not possible to allocate a new service instance because the cache is at its limit
      * for service instances.
@@ -3,6 +3,7 @@ package com.bazaarvoice.ostrich.pool;
 import java.util.concurrent.TimeUnit;
 
 import static com.bazaarvoice.ostrich.pool.ServiceCachingPolicy.ExhaustionAction;
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
@@ -17,36 +18,56 @@ public class ServiceCachingPolicyBuilder {
      * Creates a ServiceCachingPolicy configured for multi threaded client strategy,
      * the {@link com.bazaarvoice.ostrich.pool.MultiThreadedClientServiceCache}
      * <p/>
-     * This policy returns true for useMultiThreadedClientPolicy() but throws
-     * {@link java.lang.UnsupportedOperationException} for everything else
+     * This policy returns true for useMultiThreadedClientPolicy() and never retires instances based on their age, but
+     * throws {@link java.lang.UnsupportedOperationException} for everything else
      *
      */
-    private static final ServiceCachingPolicy DEFAULT_MULTI_THREADED_CLIENTS_POLICY = new ServiceCachingPolicy() {
-        @Override
-        public int getMaxNumServiceInstances() {
-            throw new UnsupportedOperationException();
-        }
-
-        @Override
-        public int getMaxNumServiceInstancesPerEndPoint() {
-            throw new UnsupportedOperationException();
-        }
-
-        @Override
-        public long getMaxServiceInstanceIdleTime(TimeUnit unit) {
-            throw new UnsupportedOperationException();
-        }
-
-        @Override
-        public ExhaustionAction getCacheExhaustionAction() {
-            throw new UnsupportedOperationException();
-        }
-
-        @Override
-        public boolean useMultiThreadedClientPolicy() {
-            return true;
-        }
-    };
+    private static final ServiceCachingPolicy DEFAULT_MULTI_THREADED_CLIENTS_POLICY = newMultiThreadedClientPolicy(0, 0);
+
+    private static ServiceCachingPolicy newMultiThreadedClientPolicy(final long maxServiceInstanceLifetimeNanos,
+                                                                     final long serviceInstanceLifetimeJitterNanos) {
+        return new ServiceCachingPolicy() {
+            @Override
+            public int getMaxNumServiceInstances() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public int getMaxNumServiceInstancesPerEndPoint() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public int getMinNumServiceInstancesPerEndPoint() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public long getMaxServiceInstanceIdleTime(TimeUnit unit) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public long getMaxServiceInstanceLifetime(TimeUnit unit) {
+                return unit.convert(maxServiceInstanceLifetimeNanos, TimeUnit.NANOSECONDS);
+            }
+
+            @Override
+            public long getServiceInstanceLifetimeJitter(TimeUnit unit) {
+                return unit.convert(serviceInstanceLifetimeJitterNanos, TimeUnit.NANOSECONDS);
+            }
+
+            @Override
+            public ExhaustionAction getCacheExhaustionAction() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public boolean useMultiThreadedClientPolicy() {
+                return true;
+            }
+        };
+    }
 
     /**
      *
@@ -56,9 +77,28 @@ public class ServiceCachingPolicyBuilder {
         return DEFAULT_MULTI_THREADED_CLIENTS_POLICY;
     }
 
+    /**
+     * Creates a policy for a {@code MultiThreadedClientServiceCache} that replaces each end point's shared service
+     * instance once it gets too old.  See {@link #withMaxServiceInstanceLifetime}.
+     *
+     * @param maxServiceInstanceLifetime     The time an instance may be used for before it is replaced.
+     * @param serviceInstanceLifetimeJitter  The most that an instance's lifetime may be shortened by at random.
+     * @param unit                           The unit of time both values are in.
+     * @return ServiceCachingPolicy configured to build a {@code MultiThreadedClientServiceCache}
+     */
+    public static ServiceCachingPolicy getMultiThreadedClientPolicy(int maxServiceInstanceLifetime,
+                                                                    int serviceInstanceLifetimeJitter, TimeUnit unit) {
+        checkLifetime(maxServiceInstanceLifetime, serviceInstanceLifetimeJitter, unit);
+        return newMultiThreadedClientPolicy(unit.toNanos(maxServiceInstanceLifetime),
+                unit.toNanos(serviceInstanceLifetimeJitter));
+    }
+
     private int _maxNumServiceInstances = -1;
     private int _maxNumServiceInstancesPerEndPoint = -1;
+    private int _minNumServiceInstancesPerEndPoint;
     private long _maxServiceInstanceIdleTimeNanos;
+    private long _maxServiceInstanceLifetimeNanos;
+    private long _serviceInstanceLifetimeJitterNanos;
     private ExhaustionAction _cacheExhaustionAction = ExhaustionAction.GROW;
 
     /**
@@ -91,6 +131,29 @@ public class ServiceCachingPolicyBuilder {
         return this;
     }
 
+    /**
+     * Enable adaptive sizing of the number of cached service instances for each end point in the built policy.  Each
+     * end point starts out limited to {@code maxNumServiceInstancesPerEndPoint} instances, and the limit is then
+     * periodically grown or shrunk, never leaving the range between the two values, based on observed check out wait
+     * times, misses and utilization.  This replaces any previous call to
+     * {@link #withMaxNumServiceInstancesPerEndPoint}.
+     * <p/>
+     * NOTE: The per end point maximum must be less than or equal to the total maximum, unless the total is unbounded.
+     *
+     * @param minNumServiceInstancesPerEndPoint The smallest limit an end point may be shrunk to.
+     * @param maxNumServiceInstancesPerEndPoint The largest limit an end point may be grown to.
+     * @return this
+     */
+    public ServiceCachingPolicyBuilder withAdaptiveNumServiceInstancesPerEndPoint(int minNumServiceInstancesPerEndPoint,
+                                                                                 int maxNumServiceInstancesPerEndPoint) {
+        checkArgument(minNumServiceInstancesPerEndPoint > 0);
+        checkArgument(maxNumServiceInstancesPerEndPoint >= minNumServiceInstancesPerEndPoint);
+
+        _minNumServiceInstancesPerEndPoint = minNumServiceInstancesPerEndPoint;
+        _maxNumServiceInstancesPerEndPoint = maxNumServiceInstancesPerEndPoint;
+        return this;
+    }
+
     /**
      * Set the amount of time a cached instance is allowed to sit idle in the cache before being eligible for
      * expiration.  If never called, cached instances will not expire solely due to idle time.
@@ -107,6 +170,29 @@ public class ServiceCachingPolicyBuilder {
         return this;
     }
 
+    /**
+     * Set the amount of time a cached instance may be used for after it was created before it is retired and replaced
+     * by a new one.  Each instance's lifetime is shortened by a random amount of up to
+     * {@code serviceInstanceLifetimeJitter} so that instances are replaced gradually rather than all at once.  If never
+     * called, cached instances will not be retired due to their age.
+     * <p/>
+     * This is useful to periodically move connections to different back end nodes, for example behind a load balancer,
+     * and to get rid of any state that clients build up over time.
+     *
+     * @param maxServiceInstanceLifetime    The time an instance may be used for before it is replaced.
+     * @param serviceInstanceLifetimeJitter The most that an instance's lifetime may be shortened by at random.
+     * @param unit                          The unit of time both values are in.
+     * @return this
+     */
+    public ServiceCachingPolicyBuilder withMaxServiceInstanceLifetime(int maxServiceInstanceLifetime,
+                                                                      int serviceInstanceLifetimeJitter, TimeUnit unit) {
+        checkLifetime(maxServiceInstanceLifetime, serviceInstanceLifetimeJitter, unit);
+
+        _maxServiceInstanceLifetimeNanos = unit.toNanos(maxServiceInstanceLifetime);
+        _serviceInstanceLifetimeJitterNanos = unit.toNanos(serviceInstanceLifetimeJitter);
+        return this;
+    }
+
     /**
      * Set the {@code ExhaustionAction} for the built caching policy.  If never called, will default to
      * {@code ExhaustionAction.GROW}.
@@ -128,10 +214,15 @@ public class ServiceCachingPolicyBuilder {
      */
     public ServiceCachingPolicy build() {
         checkState(_maxNumServiceInstances == -1 || _maxNumServiceInstancesPerEndPoint <= _maxNumServiceInstances);
+        checkState(_minNumServiceInstancesPerEndPoint == 0
+                || _maxNumServiceInstancesPerEndPoint >= _minNumServiceInstancesPerEndPoint);
 
         final int maxNumServiceInstances = _maxNumServiceInstances;
         final int maxNumServiceInstancesPerEndPoint = _maxNumServiceInstancesPerEndPoint;
+        final int minNumServiceInstancesPerEndPoint = _minNumServiceInstancesPerEndPoint;
         final long maxServiceInstanceIdleTimeNanos = _maxServiceInstanceIdleTimeNanos;
+        final long maxServiceInstanceLifetimeNanos = _maxServiceInstanceLifetimeNanos;
+        final long serviceInstanceLifetimeJitterNanos = _serviceInstanceLifetimeJitterNanos;
         final ExhaustionAction cacheExhaustionAction = _cacheExhaustionAction;
 
         return new ServiceCachingPolicy() {
@@ -145,11 +236,26 @@ public class ServiceCachingPolicyBuilder {
                 return maxNumServiceInstancesPerEndPoint;
             }
 
+            @Override
+            public int getMinNumServiceInstancesPerEndPoint() {
+                return minNumServiceInstancesPerEndPoint;
+            }
+
             @Override
             public long getMaxServiceInstanceIdleTime(TimeUnit unit) {
                 return unit.convert(maxServiceInstanceIdleTimeNanos, TimeUnit.NANOSECONDS);
             }
 
+            @Override
+            public long getMaxServiceInstanceLifetime(TimeUnit unit) {
+                return unit.convert(maxServiceInstanceLifetimeNanos, TimeUnit.NANOSECONDS);
+            }
+
+            @Override
+            public long getServiceInstanceLifetimeJitter(TimeUnit unit) {
+                return unit.convert(serviceInstanceLifetimeJitterNanos, TimeUnit.NANOSECONDS);
+            }
+
             @Override
             public ExhaustionAction getCacheExhaustionAction() {
                 return cacheExhaustionAction;
@@ -161,4 +267,11 @@ public class ServiceCachingPolicyBuilder {
             }
         };
     }
+
+    private static void checkLifetime(int maxServiceInstanceLifetime, int serviceInstanceLifetimeJitter, TimeUnit unit) {
+        checkArgument(maxServiceInstanceLifetime > 0);
+        checkArgument(serviceInstanceLifetimeJitter >= 0);
+        checkArgument(serviceInstanceLifetimeJitter < maxServiceInstanceLifetime);
+        checkNotNull(unit);
+    }
 }
@@ -1,21 +1,33 @@
 package com.bazaarvoice.ostrich.pool;
 
+import com.bazaarvoice.ostrich.AsyncHealthCheckingServiceFactory;
+import com.bazaarvoice.ostrich.CircuitBreakerState;
+import com.bazaarvoice.ostrich.Deadline;
+import com.bazaarvoice.ostrich.DeadlineServiceCallback;
+import com.bazaarvoice.ostrich.DelayingRetryPolicy;
 import com.bazaarvoice.ostrich.HealthCheckResult;
 import com.bazaarvoice.ostrich.HealthCheckResults;
 import com.bazaarvoice.ostrich.HostDiscovery;
+import com.bazaarvoice.ostrich.IdempotentServiceCallback;
 import com.bazaarvoice.ostrich.LoadBalanceAlgorithm;
+import com.bazaarvoice.ostrich.OverloadAwareServiceFactory;
 import com.bazaarvoice.ostrich.PartitionContext;
 import com.bazaarvoice.ostrich.PartitionContextBuilder;
 import com.bazaarvoice.ostrich.RetryPolicy;
 import com.bazaarvoice.ostrich.ServiceCallback;
 import com.bazaarvoice.ostrich.ServiceEndPoint;
 import com.bazaarvoice.ostrich.ServiceFactory;
+import com.bazaarvoice.ostrich.SingleFlightServiceCallback;
 import com.bazaarvoice.ostrich.ServicePoolStatistics;
+import com.bazaarvoice.ostrich.exceptions.ConcurrencyLimitExceededException;
+import com.bazaarvoice.ostrich.exceptions.DeadlineExceededException;
 import com.bazaarvoice.ostrich.exceptions.MaxRetriesException;
 import com.bazaarvoice.ostrich.exceptions.NoAvailableHostsException;
 import com.bazaarvoice.ostrich.exceptions.NoCachedInstancesAvailableException;
 import com.bazaarvoice.ostrich.exceptions.NoSuitableHostsException;
 import com.bazaarvoice.ostrich.exceptions.OnlyBadHostsException;
+import com.bazaarvoice.ostrich.exceptions.RateLimitExceededException;
+import com.bazaarvoice.ostrich.exceptions.ServiceOverloadedException;
 import com.bazaarvoice.ostrich.healthcheck.DefaultHealthCheckResults;
 import com.bazaarvoice.ostrich.healthcheck.HealthCheckRetryDelay;
 import com.bazaarvoice.ostrich.metrics.Metrics;
@@ -27,11 +39,14 @@ import com.codahale.metrics.Timer;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
+import com.google.common.base.Supplier;
 import com.google.common.base.Throwables;
 import com.google.common.base.Ticker;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import org.slf4j.Logger;
@@ -39,15 +54,30 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 import java.util.StringJoiner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
@@ -58,6 +88,12 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
      */
     private static final int HEALTH_CHECK_VERIFY_SECS = 30;
 
+    /**
+     * How long after host discovery removes a healthy end point it may be added back without being health checked, if
+     * not configured otherwise.
+     */
+    static final long DEFAULT_READMISSION_WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
     private final Ticker _ticker;
     private final HostDiscovery _hostDiscovery;
     private final boolean _cleanupHostDiscoveryOnClose;
@@ -70,7 +106,25 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
     private final ServicePoolStatistics _servicePoolStatistics;
     private final ConcurrentMap<ServiceEndPoint, HealthCheck> _badEndPoints;
     private final Predicate<ServiceEndPoint> _badEndPointFilter;
+    private final Predicate<ServiceEndPoint> _validEndPointFilter;
     private final Set<ServiceEndPoint> _recentlyRemovedEndPoints;
+    private final Set<ServiceEndPoint> _recentlyHealthyEndPoints;
+    private final PassiveHealthTracker _passiveHealth;
+    private final CircuitBreakers _circuitBreakers;
+    private final LatencyOutlierDetector _outlierDetector;
+    private final Future<?> _outlierEvaluation;
+    private final double _panicThreshold;
+    private final FlapDampener _flapDampener;
+    private final Hedger _hedger;
+    private final RequestBudget _retryBudget;
+    private final Meter _numRetriesOverBudget;
+    private final ConcurrencyLimiter _concurrencyLimiter;
+    private final EndPointBulkheads _bulkheads;
+    private final RateLimiter _rateLimiter;
+    private final OverloadAwareServiceFactory<S> _overloadAwareServiceFactory;
+    private final OverloadBackoff _overloadBackoff;
+    private final SingleFlight _singleFlight;
+    private final AtomicBoolean _panicking = new AtomicBoolean();
     private final ServiceCache<S> _serviceCache;
     private final Metrics.InstanceMetrics _metrics;
     private final Timer _callbackExecutionTime;
@@ -78,17 +132,139 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
     private final Meter _numExecuteSuccesses;
     private final Meter _numExecuteAttemptFailures;
     private final HealthCheckRetryDelay _healthCheckRetryDelay;
+    private final HealthCheckEngine _healthCheckEngine;
+    private final AsyncHealthCheckingServiceFactory<S> _asyncHealthCheckingServiceFactory;
+    private final long _healthCheckTimeoutNanos;
+    private final Meter _numHealthCheckTimeouts;
+    private final Meter _numReadmittedEndPoints;
+    private final Meter _numSkippedHealthChecks;
 
     ServicePool(Ticker ticker, HostDiscovery hostDiscovery, boolean cleanupHostDiscoveryOnClose,
                 ServiceFactory<S> serviceFactory, ServiceCachingPolicy cachingPolicy,
                 PartitionFilter partitionFilter, LoadBalanceAlgorithm loadBalanceAlgorithm,
                 ScheduledExecutorService healthCheckExecutor, boolean shutdownHealthCheckExecutorOnClose,
                 HealthCheckRetryDelay healthCheckRetryDelay, MetricRegistry metrics) {
+        this(ticker, hostDiscovery, cleanupHostDiscoveryOnClose, serviceFactory,
+                new ServiceCacheBuilder<S>()
+                        .withServiceFactory(serviceFactory)
+                        .withCachingPolicy(checkNotNull(cachingPolicy))
+                        .withMetricRegistry(metrics)
+                        .build(),
+                partitionFilter, loadBalanceAlgorithm, healthCheckExecutor, shutdownHealthCheckExecutorOnClose,
+                healthCheckRetryDelay, metrics);
+    }
+
+    /**
+     * Builds a service pool around a service cache that was already built for it.  The pool takes ownership of the
+     * cache and closes it when the pool is closed.
+     */
+    ServicePool(Ticker ticker, HostDiscovery hostDiscovery, boolean cleanupHostDiscoveryOnClose,
+                ServiceFactory<S> serviceFactory, ServiceCache<S> serviceCache,
+                PartitionFilter partitionFilter, LoadBalanceAlgorithm loadBalanceAlgorithm,
+                ScheduledExecutorService healthCheckExecutor, boolean shutdownHealthCheckExecutorOnClose,
+                HealthCheckRetryDelay healthCheckRetryDelay, MetricRegistry metrics) {
+        this(ticker, hostDiscovery, cleanupHostDiscoveryOnClose, serviceFactory, serviceCache, partitionFilter,
+                loadBalanceAlgorithm, healthCheckExecutor, shutdownHealthCheckExecutorOnClose, healthCheckRetryDelay,
+                HealthCheckEngine.DEFAULT_MAX_PARALLEL_PROBES, HealthCheckEngine.DEFAULT_PROBE_TIMEOUT_MILLIS,
+                DEFAULT_READMISSION_WINDOW_MILLIS, metrics);
+    }
+
+    /**
+     * Builds a service pool around a service cache that was already built for it.  The pool takes ownership of the
+     * cache and closes it when the pool is closed.
+     * <p/>
+     * The health check executor only decides when bad end points are due to be health checked, the health checks
+     * themselves run on up to {@code maxParallelHealthChecks} threads of the pool's own, and are interrupted if they
+     * take longer than {@code healthCheckTimeoutMillis}.  If the service factory is an
+     * {@link AsyncHealthCheckingServiceFactory} the health checks are started by the health check executor instead,
+     * and their results are handled once they complete.
+     * <p/>
+     * End points that host discovery removes while they're healthy, and adds back within
+     * {@code endPointReadmissionWindowMillis}, are used again right away instead of first being health checked.  The
+     * same goes for end points that requests succeeded against within that window.  Bad end points that requests
+     * succeed against after they went bad are considered healthy without being health checked.
+     */
+    ServicePool(Ticker ticker, HostDiscovery hostDiscovery, boolean cleanupHostDiscoveryOnClose,
+                ServiceFactory<S> serviceFactory, ServiceCache<S> serviceCache,
+                PartitionFilter partitionFilter, LoadBalanceAlgorithm loadBalanceAlgorithm,
+                ScheduledExecutorService healthCheckExecutor, boolean shutdownHealthCheckExecutorOnClose,
+                HealthCheckRetryDelay healthCheckRetryDelay, int maxParallelHealthChecks,
+                long healthCheckTimeoutMillis, long endPointReadmissionWindowMillis, MetricRegistry metrics) {
+        this(ticker, hostDiscovery, cleanupHostDiscoveryOnClose, serviceFactory, serviceCache, partitionFilter,
+                loadBalanceAlgorithm, healthCheckExecutor, shutdownHealthCheckExecutorOnClose, healthCheckRetryDelay,
+                maxParallelHealthChecks, healthCheckTimeoutMillis, endPointReadmissionWindowMillis, null, null, 0,
+                null, null, 0, 0, null, 0, null, false, metrics);
+    }
+
+    /**
+     * Builds a service pool around a service cache that was already built for it, see above.
+     * <p/>
+     * If a {@code circuitBreakerPolicy} is given, a request that fails in a retriable way no longer marks its end
+     * point as bad on its own.  Instead each end point has a circuit breaker that stops requests from being sent to it
+     * once enough of them fail, and that sends it a share of requests as trials to find out when it has recovered,
+     * rather than relying on health checks.  End points that host discovery adds are still health checked as usual.
+     * <p/>
+     * If an {@code outlierEjectionPolicy} is given, the latency of requests to each end point is compared against the
+     * rest of the pool on the health check executor, and end points that are consistently slower are not sent any
+     * requests for a while.
+     * <p/>
+     * If fewer than {@code panicThreshold} of the discovered end points are usable, the pool panics: rather than
+     * piling all of the load onto the few end points that are left, it sends requests to every discovered end point
+     * until enough of them are usable again.  A threshold of 0 never panics.
+     * <p/>
+     * If a {@code flapDampeningPolicy} is given, end points that keep going bad soon after being used again are
+     * quarantined for a while after they pass their health check, rather than being used again right away.
+     * <p/>
+     * If a {@code hedgingPolicy} is given, requests made with an {@link IdempotentServiceCallback} that take too long
+     * are sent to a second end point as well, and whichever attempt completes first provides the result.
+     * <p/>
+     * If a {@code retryBudgetRatio} is given, retries are limited to that share of the requests made through the pool,
+     * with at most {@code retryBudgetCapacity} retries saved up, so that retries can't pile onto a service that's
+     * already struggling.  A ratio of 0 doesn't limit retries beyond what the retry policy of each request allows.
+     * <p/>
+     * If a {@code concurrencyLimitPolicy} is given, the number of requests in flight to the service at once is limited,
+     * with a limit that adapts to the latency of the requests.  Requests made while the limit is reached fail with a
+     * {@link ConcurrencyLimitExceededException} unless another request completes within the policy's queue time.
+     * <p/>
+     * If a {@code maxInFlightPerEndPoint} is given, end points with that many requests in flight are saturated and
+     * aren't chosen for requests.  Requests for which all end points are saturated fail with a
+     * {@link ConcurrencyLimitExceededException} right away.  A maximum of 0 doesn't limit the requests per end point.
+     * <p/>
+     * If a {@code rateLimitPolicy} is given, the rate of requests to the service and to each end point is limited, and
+     * end points whose limit is used up aren't chosen for requests.  Requests for which the limits are used up fail
+     * with a {@link RateLimitExceededException} right away.
+     * <p/>
+     * If {@code singleFlight} is set, requests made with a {@link SingleFlightServiceCallback} while a request with the
+     * same key is in flight wait for that request's result rather than calling the service themselves.
+     */
+    ServicePool(Ticker ticker, HostDiscovery hostDiscovery, boolean cleanupHostDiscoveryOnClose,
+                ServiceFactory<S> serviceFactory, ServiceCache<S> serviceCache,
+                PartitionFilter partitionFilter, LoadBalanceAlgorithm loadBalanceAlgorithm,
+                ScheduledExecutorService healthCheckExecutor, boolean shutdownHealthCheckExecutorOnClose,
+                HealthCheckRetryDelay healthCheckRetryDelay, int maxParallelHealthChecks,
+                long healthCheckTimeoutMillis, long endPointReadmissionWindowMillis,
+                CircuitBreakerPolicy circuitBreakerPolicy, OutlierEjectionPolicy outlierEjectionPolicy,
+                double panicThreshold, FlapDampeningPolicy flapDampeningPolicy, HedgingPolicy hedgingPolicy,
+                double retryBudgetRatio, int retryBudgetCapacity, ConcurrencyLimitPolicy concurrencyLimitPolicy,
+                int maxInFlightPerEndPoint, RateLimitPolicy rateLimitPolicy, boolean singleFlight,
+                MetricRegistry metrics) {
+        checkArgument(panicThreshold >= 0 && panicThreshold <= 1);
+        checkArgument(maxInFlightPerEndPoint >= 0);
+        checkArgument(retryBudgetRatio >= 0);
+        checkArgument(retryBudgetRatio == 0 || retryBudgetCapacity >= 1);
+
         _healthCheckRetryDelay = checkNotNull(healthCheckRetryDelay);
         _ticker = checkNotNull(ticker);
         _hostDiscovery = checkNotNull(hostDiscovery);
         _cleanupHostDiscoveryOnClose = cleanupHostDiscoveryOnClose;
         _serviceFactory = checkNotNull(serviceFactory);
+        _asyncHealthCheckingServiceFactory = (serviceFactory instanceof AsyncHealthCheckingServiceFactory)
+                ? (AsyncHealthCheckingServiceFactory<S>) serviceFactory
+                : null;
+        _overloadAwareServiceFactory = (serviceFactory instanceof OverloadAwareServiceFactory)
+                ? (OverloadAwareServiceFactory<S>) serviceFactory
+                : null;
+        _healthCheckTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(healthCheckTimeoutMillis);
         _healthCheckExecutor = checkNotNull(healthCheckExecutor);
         _shutdownHealthCheckExecutorOnClose = shutdownHealthCheckExecutorOnClose;
         _badEndPoints = Maps.newConcurrentMap();
@@ -98,14 +274,16 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
                 .expireAfterWrite(10, TimeUnit.MINUTES)  // TODO: Make this a constant
                 .<ServiceEndPoint, Boolean>build()
                 .asMap());
-        checkNotNull(cachingPolicy);
-        _serviceCache = new ServiceCacheBuilder<S>()
-                .withServiceFactory(serviceFactory)
-                .withCachingPolicy(cachingPolicy)
-                .withMetricRegistry(metrics)
-                .build();
+        _recentlyHealthyEndPoints = Collections.newSetFromMap(CacheBuilder.newBuilder()
+                .ticker(_ticker)
+                .expireAfterWrite(endPointReadmissionWindowMillis, TimeUnit.MILLISECONDS)
+                .<ServiceEndPoint, Boolean>build()
+                .asMap());
+        _passiveHealth = new PassiveHealthTracker(_ticker, endPointReadmissionWindowMillis, TimeUnit.MILLISECONDS);
+        _serviceCache = checkNotNull(serviceCache);
         _partitionFilter = checkNotNull(partitionFilter);
         _loadBalanceAlgorithm = checkNotNull(loadBalanceAlgorithm);
+        _panicThreshold = panicThreshold;
 
         _servicePoolStatistics = new ServicePoolStatistics() {
             @Override
@@ -117,6 +295,11 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
             public int getNumActiveInstances(ServiceEndPoint endPoint) {
                 return _serviceCache.getNumActiveInstances(endPoint);
             }
+
+            @Override
+            public CircuitBreakerState getCircuitBreakerState(ServiceEndPoint endPoint) {
+                return (_circuitBreakers != null) ? _circuitBreakers.getState(endPoint) : CircuitBreakerState.CLOSED;
+            }
         };
 
         // Watch end points as they are removed from host discovery so that we can remove them from our set of bad
@@ -146,6 +329,51 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
         _healthCheckTime = _metrics.timer("health-check-time");
         _numExecuteSuccesses = _metrics.meter("num-execute-successes");
         _numExecuteAttemptFailures = _metrics.meter("num-execute-attempt-failures");
+        _circuitBreakers = (circuitBreakerPolicy != null)
+                ? new CircuitBreakers(circuitBreakerPolicy, _ticker, _metrics)
+                : null;
+        _outlierDetector = (outlierEjectionPolicy != null)
+                ? new LatencyOutlierDetector(outlierEjectionPolicy, _ticker, _metrics)
+                : null;
+        _flapDampener = (flapDampeningPolicy != null)
+                ? new FlapDampener(flapDampeningPolicy, _ticker, _metrics)
+                : null;
+        _hedger = (hedgingPolicy != null)
+                ? new Hedger(hedgingPolicy, _serviceFactory.getServiceName(), _metrics)
+                : null;
+        // The budget starts out full, so that a pool that was just built, or that sees little traffic, can still retry.
+        _retryBudget = (retryBudgetRatio > 0)
+                ? new RequestBudget(retryBudgetRatio, retryBudgetCapacity, retryBudgetCapacity)
+                : null;
+        _numRetriesOverBudget = _metrics.meter("num-retries-over-budget");
+        _concurrencyLimiter = (concurrencyLimitPolicy != null)
+                ? new ConcurrencyLimiter(concurrencyLimitPolicy, _metrics)
+                : null;
+        _bulkheads = (maxInFlightPerEndPoint > 0)
+                ? new EndPointBulkheads(maxInFlightPerEndPoint, _metrics)
+                : null;
+        _rateLimiter = (rateLimitPolicy != null)
+                ? new RateLimiter(rateLimitPolicy, _ticker, _metrics)
+                : null;
+        _overloadBackoff = (_overloadAwareServiceFactory != null)
+                ? new OverloadBackoff(_ticker, _metrics)
+                : null;
+        _singleFlight = singleFlight
+                ? new SingleFlight(_serviceFactory.getServiceName(), _metrics)
+                : null;
+        List<Predicate<ServiceEndPoint>> validEndPointFilters = Lists.newArrayList(_badEndPointFilter);
+        if (_circuitBreakers != null) {
+            validEndPointFilters.add(_circuitBreakers.notOpenFilter());
+        }
+        if (_outlierDetector != null) {
+            validEndPointFilters.add(_outlierDetector.notEjectedFilter());
+        }
+        _validEndPointFilter = Predicates.and(validEndPointFilters);
+        _healthCheckEngine = new HealthCheckEngine(_serviceFactory.getServiceName(), maxParallelHealthChecks,
+                healthCheckTimeoutMillis, TimeUnit.MILLISECONDS, _healthCheckExecutor, _ticker, _metrics);
+        _numHealthCheckTimeouts = _metrics.meter("num-health-check-timeouts");
+        _numReadmittedEndPoints = _metrics.meter("num-readmitted-end-points");
+        _numSkippedHealthChecks = _metrics.meter("num-skipped-health-checks");
         _metrics.gauge("num-valid-end-points", new Gauge<Integer>() {
             @Override
             public Integer getValue() {
@@ -158,6 +386,18 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
                 return getNumBadEndPoints();
             }
         });
+        _metrics.gauge("stale-topology", new Gauge<Boolean>() {
+            @Override
+            public Boolean getValue() {
+                return _hostDiscovery.isStale();
+            }
+        });
+        _metrics.gauge("panic-mode", new Gauge<Boolean>() {
+            @Override
+            public Boolean getValue() {
+                return _panicking.get();
+            }
+        });
 
         // Periodically ensure that health checks for unhealthy endpoints are still running
         _healthCheckExecutor.scheduleAtFixedRate(
@@ -165,6 +405,14 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
                 HEALTH_CHECK_VERIFY_SECS,
                 HEALTH_CHECK_VERIFY_SECS,
                 TimeUnit.SECONDS);
+
+        if (_outlierDetector != null) {
+            long intervalNanos = outlierEjectionPolicy.getEvaluationInterval(TimeUnit.NANOSECONDS);
+            _outlierEvaluation = _healthCheckExecutor.scheduleAtFixedRate(new OutlierEvaluator(),
+                    intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+        } else {
+            _outlierEvaluation = null;
+        }
     }
 
     @Override
@@ -173,6 +421,10 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
             healthCheck.cancel(true);
         }
 
+        if (_outlierEvaluation != null) {
+            _outlierEvaluation.cancel(false);
+        }
+
         _hostDiscovery.removeListener(_hostDiscoveryListener);
         if (_cleanupHostDiscoveryOnClose) {
             try {
@@ -183,6 +435,10 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
         }
 
         _serviceCache.close();
+        _healthCheckEngine.close();
+        if (_hedger != null) {
+            _hedger.close();
+        }
         _metrics.close();
 
         if (_shutdownHealthCheckExecutorOnClose) {
@@ -197,53 +453,264 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
 
     @Override
     public <R> R execute(PartitionContext partitionContext, RetryPolicy retry, ServiceCallback<S, R> callback) {
+        return execute(Deadline.NONE, partitionContext, retry, callback);
+    }
+
+    @Override
+    public <R> R execute(Deadline deadline, RetryPolicy retry, ServiceCallback<S, R> callback) {
+        return execute(deadline, PartitionContextBuilder.empty(), retry, callback);
+    }
+
+    @Override
+    public <R> R execute(final Deadline deadline, final PartitionContext partitionContext, final RetryPolicy retry,
+                         final ServiceCallback<S, R> callback) {
+        checkNotNull(deadline);
+
+        Object singleFlightKey = (_singleFlight != null && callback instanceof SingleFlightServiceCallback)
+                ? ((SingleFlightServiceCallback<?, ?>) callback).getSingleFlightKey()
+                : null;
+        if (singleFlightKey == null) {
+            return executeWithRetries(deadline, partitionContext, retry, callback);
+        }
+
+        return _singleFlight.execute(singleFlightKey, deadline, new Supplier<R>() {
+            @Override
+            public R get() {
+                return executeWithRetries(deadline, partitionContext, retry, callback);
+            }
+        });
+    }
+
+    private <R> R executeWithRetries(Deadline deadline, PartitionContext partitionContext, RetryPolicy retry,
+                                     ServiceCallback<S, R> callback) {
         final long start = _ticker.read();
         int numAttempts = 0;
         Exception lastException = null;
 
+        recordRequest();
         do {
-            Iterable<ServiceEndPoint> allEndPoints = getAllEndPoints();
-            if (Iterables.isEmpty(allEndPoints)) {
+            try {
+                return executeAttempt(deadline, partitionContext, callback, lastException);
+            } catch (ExecutionException e) {
+                lastException = (Exception) e.getCause();
+            }
+        }
+        while (allowRetry(retry, ++numAttempts, TimeUnit.NANOSECONDS.toMillis(_ticker.read() - start), deadline));
+
+        throw retriesExhausted(deadline, lastException);
+    }
+
+    /**
+     * Makes a single attempt at executing a callback against an end point of the pool.
+     * <p/>
+     * NOTE: This method is package private specifically so that {@link AsyncServicePool} can call it, to schedule the
+     * retries of a request itself rather than wait for them.
+     *
+     * @param lastException The exception the previous attempt failed with, or {@code null} for the first attempt.
+     * @throws ExecutionException If the attempt failed in a way that may be retried, with the failure as its cause.
+     */
+    <R> R executeAttempt(Deadline deadline, PartitionContext partitionContext, ServiceCallback<S, R> callback,
+                         Exception lastException) throws ExecutionException {
+        if (deadline.isExpired()) {
+            throw (lastException == null)
+                    ? new DeadlineExceededException(String.format("Deadline passed before calling service %s", getServiceName()))
+                    : new DeadlineExceededException(lastException.getMessage(), lastException);
+        }
+
+        Iterable<ServiceEndPoint> allEndPoints = getAllEndPoints();
+        if (Iterables.isEmpty(allEndPoints)) {
+            throw (lastException == null)
+                    ? new NoAvailableHostsException(String.format("No endpoints discovered for service %s", getServiceName()))
+                    : new NoAvailableHostsException(lastException.getMessage(), lastException);
+        }
+
+        Iterable<ServiceEndPoint> validEndPoints = getRoutableEndPoints(allEndPoints);
+        if (Iterables.isEmpty(validEndPoints)) {
+            throw (lastException == null)
+                    ? new OnlyBadHostsException(String.format("No valid endpoints discovered for service %s, all endpoints: %s", getServiceName(), allEndPoints))
+                    : new OnlyBadHostsException(lastException.getMessage(), lastException);
+        }
+
+        if (_overloadBackoff != null) {
+            // Overloaded end points are still valid, they're just left alone for as long as they asked.
+            validEndPoints = ImmutableList.copyOf(
+                    Iterables.filter(validEndPoints, _overloadBackoff.notBackedOffFilter()));
+            if (Iterables.isEmpty(validEndPoints)) {
+                String message = String.format("All valid endpoints of service %s are overloaded", getServiceName());
                 throw (lastException == null)
-                        ? new NoAvailableHostsException(String.format("No endpoints discovered for service %s", getServiceName()))
-                        : new NoAvailableHostsException(lastException.getMessage(), lastException);
+                        ? new ServiceOverloadedException(message)
+                        : new ServiceOverloadedException(message, lastException);
             }
+        }
 
-            Iterable<ServiceEndPoint> validEndPoints = getValidEndPoints(allEndPoints);
+        if (_bulkheads != null) {
+            // Fail fast rather than wait for an end point if they're all saturated.
+            validEndPoints = ImmutableList.copyOf(Iterables.filter(validEndPoints, _bulkheads.notSaturatedFilter()));
             if (Iterables.isEmpty(validEndPoints)) {
+                _bulkheads.recordRejection();
+                String message = String.format("All valid endpoints of service %s are saturated", getServiceName());
                 throw (lastException == null)
-                        ? new OnlyBadHostsException(String.format("No valid endpoints discovered for service %s, all endpoints: %s", getServiceName(), allEndPoints))
-                        : new OnlyBadHostsException(lastException.getMessage(), lastException);
+                        ? new ConcurrencyLimitExceededException(message)
+                        : new ConcurrencyLimitExceededException(message, lastException);
             }
+        }
 
-            ServiceEndPoint endPoint = chooseEndPoint(validEndPoints, partitionContext);
-            if (endPoint == null) {
+        if (_rateLimiter != null) {
+            // Fail fast rather than wait for tokens if the limits are used up.
+            validEndPoints = ImmutableList.copyOf(Iterables.filter(validEndPoints, _rateLimiter.notExhaustedFilter()));
+            if (_rateLimiter.isExhausted() || Iterables.isEmpty(validEndPoints)) {
+                _rateLimiter.recordRejection();
+                String message = String.format("Rate limit reached for service %s", getServiceName());
                 throw (lastException == null)
-                        ? new NoSuitableHostsException(String.format("No suitable endpoint discovered for service %s from valid endpoints %s", getServiceName(), validEndPoints))
-                        : new NoSuitableHostsException(lastException);
+                        ? new RateLimitExceededException(message)
+                        : new RateLimitExceededException(message, lastException);
             }
+        }
 
-            try {
-                R result = executeOnEndPoint(endPoint, callback);
-                _numExecuteSuccesses.mark();
-                return result;
-            } catch (Exception e) {
-                _numExecuteAttemptFailures.mark();
+        ServiceEndPoint endPoint = chooseEndPoint(validEndPoints, partitionContext);
+        if (endPoint == null) {
+            throw (lastException == null)
+                    ? new NoSuitableHostsException(String.format("No suitable endpoint discovered for service %s from valid endpoints %s", getServiceName(), validEndPoints))
+                    : new NoSuitableHostsException(lastException);
+        }
 
-                // Don't retry if exception is too severe.
-                if (!isRetriableException(e)) {
-                    Throwables.throwIfUnchecked(e);
-                    throw new RuntimeException(e);
-                }
+        if (_circuitBreakers != null && !_circuitBreakers.allowRequest(endPoint)) {
+            // The end point's circuit is half open and this request isn't one of its trials, so send it to an end
+            // point with a closed circuit instead.  If there isn't one, the request might as well be a trial.
+            ServiceEndPoint closedEndPoint = chooseEndPoint(
+                    Iterables.filter(validEndPoints, _circuitBreakers.closedFilter()), partitionContext);
+            if (closedEndPoint != null) {
+                endPoint = closedEndPoint;
+            }
+        }
+
+        try {
+            R result = (_hedger != null && callback instanceof IdempotentServiceCallback)
+                    ? executeHedged(endPoint, validEndPoints, partitionContext, deadline, callback)
+                    : executeOnEndPoint(endPoint, deadline, callback);
+            _numExecuteSuccesses.mark();
+            return result;
+        } catch (DeadlineExceededException e) {
+            throw (lastException == null) ? e : new DeadlineExceededException(e.getMessage(), lastException);
+        } catch (ConcurrencyLimitExceededException e) {
+            // Retrying would only add to the load the limit protects the service from.
+            throw e;
+        } catch (Exception e) {
+            _numExecuteAttemptFailures.mark();
+
+            // Don't retry if exception is too severe.
+            if (!isRetriableException(e)) {
+                Throwables.throwIfUnchecked(e);
+                throw new RuntimeException(e);
+            }
+
+            LOG.info("Retriable exception from end point: {}, {}", endPoint, e.toString());
+            LOG.debug("Exception", e);
+            throw new ExecutionException(e);
+        }
+    }
+
+    /**
+     * Records that a request was made through the pool, which adds to the retry budget.
+     * <p/>
+     * NOTE: This method is package private specifically so that {@link AsyncServicePool} can call it.
+     */
+    void recordRequest() {
+        if (_retryBudget != null) {
+            _retryBudget.deposit();
+        }
+    }
+
+    /**
+     * Decides how long to wait before retrying a request, taking the retry from the retry budget if it's retried.
+     * <p/>
+     * NOTE: This method is package private specifically so that {@link AsyncServicePool} can call it.
+     *
+     * @return How long to wait in milliseconds before retrying the request, or -1 if it can't be tried again.
+     */
+    long getRetryDelayMs(DelayingRetryPolicy retry, int numAttempts, long elapsedTimeMs, Deadline deadline) {
+        if (!tryRetryBudget()) {
+            return -1;
+        }
 
-                LOG.info("Retriable exception from end point: {}, {}", endPoint, e.toString());
-                LOG.debug("Exception", e);
-                lastException = e;
+        long delayMs = retry.getRetryDelayMs(numAttempts, elapsedTimeMs, deadline);
+        if (delayMs >= 0 && _overloadBackoff != null) {
+            delayMs = Math.max(delayMs, _overloadBackoff.getRetryDelay(TimeUnit.MILLISECONDS));
+            if (delayMs >= deadline.getRemaining(TimeUnit.MILLISECONDS)) {
+                delayMs = -1;
             }
         }
-        while (retry.allowRetry(++numAttempts, TimeUnit.NANOSECONDS.toMillis(_ticker.read() - start)));
+        if (delayMs < 0) {
+            refundRetryBudget();
+        }
+        return delayMs;
+    }
+
+    /**
+     * Returns the exception a request fails with once it can't be tried again.
+     * <p/>
+     * NOTE: This method is package private specifically so that {@link AsyncServicePool} can call it.
+     */
+    static RuntimeException retriesExhausted(Deadline deadline, Exception lastException) {
+        if (deadline.isExpired()) {
+            return new DeadlineExceededException(lastException.getMessage(), lastException);
+        }
+        return new MaxRetriesException(lastException);
+    }
+
+    private boolean allowRetry(RetryPolicy retry, int numAttempts, long elapsedTimeMs, Deadline deadline) {
+        // Take the retry from the budget before asking the retry policy, which may sleep before allowing it.
+        if (!tryRetryBudget()) {
+            return false;
+        }
+
+        boolean allowed = (deadline == Deadline.NONE)
+                ? retry.allowRetry(numAttempts, elapsedTimeMs)
+                : retry.allowRetry(numAttempts, elapsedTimeMs, deadline);
+        if (allowed && _overloadBackoff != null) {
+            allowed = awaitOverloadBackoff(deadline);
+        }
+        if (!allowed) {
+            refundRetryBudget();
+        }
+        return allowed;
+    }
+
+    /**
+     * Waits until retries are no longer held back because an end point said it's overloaded.
+     *
+     * @return {@code false} if the deadline would pass first, or the thread was interrupted.
+     */
+    private boolean awaitOverloadBackoff(Deadline deadline) {
+        long delayNanos = _overloadBackoff.getRetryDelay(TimeUnit.NANOSECONDS);
+        if (delayNanos == 0) {
+            return true;
+        }
+        if (delayNanos >= deadline.getRemaining(TimeUnit.NANOSECONDS)) {
+            return false;
+        }
+
+        try {
+            TimeUnit.NANOSECONDS.sleep(delayNanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
 
-        throw new MaxRetriesException(lastException);
+    private boolean tryRetryBudget() {
+        if (_retryBudget != null && !_retryBudget.tryWithdraw()) {
+            _numRetriesOverBudget.mark();
+            return false;
+        }
+        return true;
+    }
+
+    private void refundRetryBudget() {
+        if (_retryBudget != null) {
+            _retryBudget.refund();
+        }
     }
 
     @Override
@@ -269,7 +736,33 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
      * Determine the set of usable {@link ServiceEndPoint}s.
      */
     private Iterable<ServiceEndPoint> getValidEndPoints(Iterable<ServiceEndPoint> endPoints) {
-        return Iterables.filter(endPoints, _badEndPointFilter);
+        return Iterables.filter(endPoints, _validEndPointFilter);
+    }
+
+    /**
+     * Determine the set of {@link ServiceEndPoint}s to send requests to.  Normally those are the usable ones, but when
+     * too few of them are usable the pool panics and sends requests to all of them.
+     */
+    private Iterable<ServiceEndPoint> getRoutableEndPoints(Iterable<ServiceEndPoint> endPoints) {
+        Iterable<ServiceEndPoint> validEndPoints = getValidEndPoints(endPoints);
+        if (_panicThreshold == 0) {
+            return validEndPoints;
+        }
+
+        int numEndPoints = Iterables.size(endPoints);
+        int numValidEndPoints = Iterables.size(validEndPoints);
+        boolean panic = numValidEndPoints < _panicThreshold * numEndPoints;
+        if (_panicking.compareAndSet(!panic, panic)) {
+            if (panic) {
+                LOG.warn("Entering panic mode, sending requests to all end points. Service: {}, valid end points: {} of {}",
+                        getServiceName(), numValidEndPoints, numEndPoints);
+            } else {
+                LOG.info("Leaving panic mode. Service: {}, valid end points: {} of {}",
+                        getServiceName(), numValidEndPoints, numEndPoints);
+            }
+        }
+
+        return panic ? endPoints : validEndPoints;
     }
 
     private ServiceEndPoint chooseEndPoint(Iterable<ServiceEndPoint> endPoints, PartitionContext partitionContext) {
@@ -287,6 +780,117 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
         return endPoint;
     }
 
+    /**
+     * Execute a callback on an end point, and if it hasn't completed within the hedge delay on a second end point as
+     * well.  Whichever attempt completes first provides the result, and the other one is cancelled if it hasn't
+     * started yet, or its result discarded if it has.  If the first attempt to complete fails, the other one still
+     * gets to complete.
+     * <p/>
+     * A request that can't be hedged, because there's no hedge delay yet, no budget left or no other end point to send
+     * the hedge to, or because all of the hedger's threads are busy, runs on the caller's thread like any other.
+     */
+    private <R> R executeHedged(ServiceEndPoint endPoint, Iterable<ServiceEndPoint> validEndPoints,
+                                PartitionContext partitionContext, Deadline deadline, ServiceCallback<S, R> callback)
+            throws Exception {
+        _hedger.recordRequest();
+
+        Predicate<ServiceEndPoint> otherEndPoints = Predicates.not(Predicates.equalTo(endPoint));
+        long delayNanos = _hedger.getDelayNanos();
+        if (delayNanos < 0 || !Iterables.any(validEndPoints, otherEndPoints)) {
+            return executeOnEndPoint(endPoint, deadline, callback);
+        }
+        if (!_hedger.hasBudget()) {
+            // Only count the request against the budget if it ran long enough that it would have been hedged.
+            long start = _ticker.read();
+            try {
+                return executeOnEndPoint(endPoint, deadline, callback);
+            } finally {
+                if (_ticker.read() - start >= delayNanos) {
+                    _hedger.recordOverBudget();
+                }
+            }
+        }
+
+        CompletionService<R> attempts = new ExecutorCompletionService<>(_hedger.getExecutor());
+        Future<R> attempt;
+        try {
+            attempt = attempts.submit(newAttempt(endPoint, deadline, callback));
+        } catch (RejectedExecutionException e) {
+            LOG.debug("No thread left to hedge request on. End point: {}", endPoint);
+            return executeOnEndPoint(endPoint, deadline, callback);
+        }
+        Future<R> hedge = null;
+
+        try {
+            Future<R> completed = attempts.poll(delayNanos, TimeUnit.NANOSECONDS);
+            if (completed == null) {
+                ServiceEndPoint hedgeEndPoint = chooseEndPoint(
+                        Iterables.filter(validEndPoints, otherEndPoints), partitionContext);
+                if (hedgeEndPoint != null && _hedger.tryHedge()) {
+                    try {
+                        hedge = attempts.submit(newAttempt(hedgeEndPoint, deadline, callback));
+                        _hedger.recordHedge();
+                        LOG.debug("Hedging slow request. End point: {}, hedge end point: {}", endPoint, hedgeEndPoint);
+                    } catch (RejectedExecutionException e) {
+                        _hedger.cancelHedge();
+                        LOG.debug("No thread left to hedge request on. End point: {}", endPoint);
+                    }
+                }
+                completed = attempts.take();
+            }
+
+            try {
+                R result = getResult(completed);
+                if (completed == hedge) {
+                    _hedger.recordHedgeWin();
+                }
+                return result;
+            } catch (Exception e) {
+                // A hedge that couldn't be sent because of the concurrency limit doesn't fail the request either.
+                if (hedge == null || !(isRetriableException(e) || e instanceof ConcurrencyLimitExceededException)) {
+                    throw e;
+                }
+
+                // The other attempt may still succeed.
+                completed = attempts.take();
+                R result = getResult(completed);
+                if (completed == hedge) {
+                    _hedger.recordHedgeWin();
+                }
+                return result;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw e;
+        } finally {
+            // Interrupting the losing attempt could make it look like its end point failed, so let it finish.
+            attempt.cancel(false);
+            if (hedge != null) {
+                hedge.cancel(false);
+            }
+        }
+    }
+
+    private <R> Callable<R> newAttempt(final ServiceEndPoint endPoint, final Deadline deadline,
+                                       final ServiceCallback<S, R> callback) {
+        return new Callable<R>() {
+            @Override
+            public R call() throws Exception {
+                return executeOnEndPoint(endPoint, deadline, callback);
+            }
+        };
+    }
+
+    private static <R> R getResult(Future<R> attempt) throws Exception {
+        try {
+            return attempt.get();
+        } catch (ExecutionException e) {
+            Throwables.throwIfInstanceOf(e.getCause(), Exception.class);
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
     /**
      * Execute a callback on a specific end point.
      * <p/>
@@ -294,31 +898,127 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
      */
     <R> R executeOnEndPoint(ServiceEndPoint endPoint, ServiceCallback<S, R> callback)
             throws Exception {
+        return executeOnEndPoint(endPoint, Deadline.NONE, callback);
+    }
+
+    /**
+     * Execute a callback on a specific end point, unless the deadline has passed by the time a service instance would
+     * be checked out.  A {@link DeadlineServiceCallback} is passed the deadline.
+     */
+    @SuppressWarnings("unchecked")
+    <R> R executeOnEndPoint(ServiceEndPoint endPoint, Deadline deadline, ServiceCallback<S, R> callback)
+            throws Exception {
+        if (deadline.isExpired()) {
+            throw new DeadlineExceededException(String.format("Deadline passed before calling end point %s", endPoint));
+        }
+        RateLimiter.Permit permit = null;
+        if (_rateLimiter != null) {
+            permit = _rateLimiter.tryAcquire(endPoint);
+            if (permit == null) {
+                throw new RateLimitExceededException(String.format(
+                        "Rate limit reached for end point %s of service %s", endPoint, getServiceName()));
+            }
+        }
+        AtomicInteger inFlight = null;
+        if (_bulkheads != null) {
+            inFlight = _bulkheads.tryAcquire(endPoint);
+            if (inFlight == null) {
+                if (permit != null) {
+                    _rateLimiter.refund(permit);
+                }
+                throw new ConcurrencyLimitExceededException(String.format(
+                        "End point %s of service %s is saturated", endPoint, getServiceName()));
+            }
+        }
+        if (_concurrencyLimiter != null && !_concurrencyLimiter.acquire(deadline)) {
+            if (inFlight != null) {
+                _bulkheads.release(inFlight);
+            }
+            if (permit != null) {
+                _rateLimiter.refund(permit);
+            }
+            throw new ConcurrencyLimitExceededException(String.format(
+                    "Concurrency limit of %d reached for service %s", _concurrencyLimiter.getLimit(), getServiceName()));
+        }
+
         ServiceHandle<S> handle = null;
+        long start = _passiveHealth.start();
+        long callStart = -1;
 
         try {
             handle = _serviceCache.checkOut(endPoint);
 
+            R result;
             Timer.Context timer = _callbackExecutionTime.time();
+            callStart = _ticker.read();
             try {
-                return callback.call(handle.getService());
+                result = (callback instanceof DeadlineServiceCallback)
+                        ? ((DeadlineServiceCallback<S, R>) callback).call(handle.getService(), deadline)
+                        : callback.call(handle.getService());
             } finally {
                 timer.stop();
+                if (_outlierDetector != null) {
+                    _outlierDetector.record(endPoint, _ticker.read() - callStart);
+                }
+            }
+
+            _passiveHealth.recordSuccess(endPoint, start);
+            if (_hedger != null) {
+                _hedger.record(_ticker.read() - callStart);
+            }
+            if (_concurrencyLimiter != null) {
+                _concurrencyLimiter.record(_ticker.read() - callStart);
+            }
+            if (_circuitBreakers != null) {
+                _circuitBreakers.recordSuccess(endPoint);
             }
+            return result;
         } catch (NoCachedInstancesAvailableException e) {
             LOG.info("Service cache exhausted. End point: {}", endPoint, e);
-            // Don't mark an end point as bad just because there are no cached end points for it.
+            // Don't mark an end point as bad just because there are no cached end points for it.  The request was
+            // never sent, so it doesn't count against the rate limits either.
+            if (permit != null) {
+                _rateLimiter.refund(permit);
+            }
             throw e;
         } catch (Exception e) {
-            if (_serviceFactory.isRetriableException(e)) {
+            long backoffMillis = getOverloadBackoffMillis(e);
+            if (backoffMillis >= 0) {
+                // The end point is busy rather than broken, so back off from it for as long as it asked instead of
+                // marking it bad, which would health check it and throw away its cached service instances.
+                _overloadBackoff.recordOverload(endPoint, backoffMillis);
+                LOG.info("Overloaded end point discovered. End point: {}, {}", endPoint, e.toString());
+            } else if (_serviceFactory.isRetriableException(e)) {
                 // This is a known and supported exception indicating that something went wrong somewhere in the service
                 // layer while trying to communicate with the end point.  These errors are often transient, so we
-                // enqueue a health check for the end point and mark it as unavailable for the time being.
-                markEndPointAsBad(endPoint);
-                LOG.info("Bad end point discovered. End point: {}", endPoint, e);
+                // enqueue a health check for the end point and mark it as unavailable for the time being.  With
+                // circuit breakers that only happens once enough requests to the end point have failed.
+                _passiveHealth.recordFailure(endPoint);
+                if (_circuitBreakers == null) {
+                    markEndPointAsBad(endPoint);
+                    LOG.info("Bad end point discovered. End point: {}", endPoint, e);
+                } else if (_circuitBreakers.recordFailure(endPoint)) {
+                    _serviceCache.evict(endPoint);
+                    LOG.info("Circuit opened for end point. End point: {}", endPoint, e);
+                }
+            }
+            if (_concurrencyLimiter != null) {
+                // A service that's overloaded or failing to respond should get fewer requests at once, whereas an
+                // error the service answered with took as long as any other request.
+                if (backoffMillis >= 0 || _serviceFactory.isRetriableException(e)) {
+                    _concurrencyLimiter.recordDrop();
+                } else if (callStart >= 0) {
+                    _concurrencyLimiter.record(_ticker.read() - callStart);
+                }
             }
             throw e;
         } finally {
+            if (_concurrencyLimiter != null) {
+                _concurrencyLimiter.release();
+            }
+            if (inFlight != null) {
+                _bulkheads.release(inFlight);
+            }
             if (handle != null) {
                 try {
                     _serviceCache.checkIn(handle);
@@ -338,7 +1038,18 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
      * NOTE: This method is package private specifically so that {@link AsyncServicePool} can call it.
      */
     boolean isRetriableException(Exception exception) {
-        return _serviceFactory.isRetriableException(exception);
+        return _serviceFactory.isRetriableException(exception) || getOverloadBackoffMillis(exception) >= 0;
+    }
+
+    /**
+     * Returns how long to back off from an end point that failed with an exception, or -1 if the exception doesn't
+     * mean that it's overloaded.
+     */
+    private long getOverloadBackoffMillis(Exception exception) {
+        if (_overloadAwareServiceFactory == null) {
+            return -1;
+        }
+        return _overloadAwareServiceFactory.getOverloadBackoffMillis(exception);
     }
 
     /**
@@ -405,7 +1116,7 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
 
             if (!result.isHealthy()) {
                 Exception exception = ((FailedHealthCheckResult) result).getException();
-                if (exception == null || isRetriableException(exception)) {
+                if (exception == null || _serviceFactory.isRetriableException(exception)) {
                     LOG.info("Unhealthy end point discovered. End point {}", endPoint);
                     endPoints.remove(endPoint);
                     markEndPointAsBad(endPoint);
@@ -425,13 +1136,46 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
      */
     @VisibleForTesting
     void forceHealthChecks() {
+        List<CompletableFuture<Void>> asyncProbes = Lists.newArrayList();
         for (HealthCheck healthCheck : _badEndPoints.values()) {
-            healthCheck.run();
+            if (_asyncHealthCheckingServiceFactory != null) {
+                asyncProbes.add(healthCheck.probeAsync());
+            } else {
+                healthCheck.probe();
+            }
+        }
+
+        for (CompletableFuture<Void> asyncProbe : asyncProbes) {
+            asyncProbe.join();
         }
     }
 
+    @VisibleForTesting
+    HealthCheckEngine getHealthCheckEngine() {
+        return _healthCheckEngine;
+    }
+
     private synchronized void addEndPoint(ServiceEndPoint endPoint) {
         _recentlyRemovedEndPoints.remove(endPoint);
+
+        if (_recentlyHealthyEndPoints.remove(endPoint) || _passiveHealth.hasRecentSuccess(endPoint)) {
+            // The end point was healthy when host discovery removed it a moment ago, or requests have been succeeding
+            // against it, which most likely means host discovery briefly lost its connection rather than the end point
+            // going away.  Use it again right away, otherwise every end point would be unavailable until it's health
+            // checked.
+            _serviceCache.evict(endPoint);
+            _serviceCache.register(endPoint);
+            if (_flapDampener != null) {
+                _flapDampener.recordAdmitted(endPoint);
+            }
+            _numReadmittedEndPoints.mark();
+            LOG.debug("Recently healthy end point added back to service pool. End point: {}", endPoint);
+            return;
+        }
+
+        if (_flapDampener != null) {
+            _flapDampener.recordAdded(endPoint);
+        }
         markEndPointAsBad(endPoint);
         LOG.debug("End point added to service pool. End point: {}", endPoint);
     }
@@ -444,8 +1188,32 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
         // memory leak in the bad end points set.  Having this time-limited view of the recently removed
         // end points ensures that this memory leak doesn't happen.
         _recentlyRemovedEndPoints.add(endPoint);
-        _badEndPoints.remove(endPoint);
-        _serviceCache.evict(endPoint);
+        boolean circuitClosed = _circuitBreakers == null
+                || _circuitBreakers.getState(endPoint) == CircuitBreakerState.CLOSED;
+        if (_badEndPoints.remove(endPoint) == null && circuitClosed) {
+            _recentlyHealthyEndPoints.add(endPoint);
+        }
+        if (_circuitBreakers != null) {
+            _circuitBreakers.remove(endPoint);
+        }
+        if (_outlierDetector != null) {
+            _outlierDetector.remove(endPoint);
+        }
+        if (_flapDampener != null) {
+            _flapDampener.remove(endPoint);
+        }
+        if (_bulkheads != null) {
+            _bulkheads.remove(endPoint);
+        }
+        if (_rateLimiter != null) {
+            _rateLimiter.remove(endPoint);
+        }
+        if (_overloadBackoff != null) {
+            _overloadBackoff.remove(endPoint);
+        }
+
+        // The end point may still be serving requests that are in flight, so let them finish instead of evicting.
+        _serviceCache.drain(endPoint);
         LOG.debug("End point removed from service pool. End point: {}", endPoint);
     }
 
@@ -455,11 +1223,15 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
             return;
         }
 
+        _recentlyHealthyEndPoints.remove(endPoint);
         _serviceCache.evict(endPoint);
 
         // Only schedule a health check if this is the first time we've seen this end point as bad...
         HealthCheck healthCheck = new HealthCheck(endPoint);
         if (_badEndPoints.putIfAbsent(endPoint, healthCheck) == null) {
+            if (_flapDampener != null) {
+                _flapDampener.recordBad(endPoint);
+            }
             healthCheck.start();
         }
     }
@@ -480,6 +1252,44 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
             exception = e;
         }
 
+        return newHealthCheckResult(endPoint, start, isHealthy, exception);
+    }
+
+    /**
+     * Starts a health check of an end point using the service factory's asynchronous health check.  Like
+     * {@link #checkHealth} the returned future never fails, any exception is reported in the result instead.
+     */
+    @VisibleForTesting
+    CompletableFuture<HealthCheckResult> checkHealthAsync(final ServiceEndPoint endPoint) {
+        final long start = _ticker.read();
+        final CompletableFuture<HealthCheckResult> future = new CompletableFuture<>();
+
+        try {
+            CompletionStage<Boolean> isHealthy = _asyncHealthCheckingServiceFactory.isHealthyAsync(endPoint);
+            checkNotNull(isHealthy, "isHealthyAsync returned null");
+            isHealthy.whenComplete(new BiConsumer<Boolean, Throwable>() {
+                @Override
+                public void accept(Boolean isHealthy, Throwable t) {
+                    if (t instanceof CompletionException && t.getCause() != null) {
+                        t = t.getCause();
+                    }
+
+                    Exception exception = (t == null || t instanceof Exception)
+                            ? (Exception) t
+                            : new ExecutionException(t);
+                    future.complete(newHealthCheckResult(endPoint, start,
+                            exception == null && Boolean.TRUE.equals(isHealthy), exception));
+                }
+            });
+        } catch (Exception e) {
+            future.complete(newHealthCheckResult(endPoint, start, false, e));
+        }
+
+        return future;
+    }
+
+    private HealthCheckResult newHealthCheckResult(ServiceEndPoint endPoint, long start, boolean isHealthy,
+                                                   Exception exception) {
         final long duration = _ticker.read() - start;
         _healthCheckTime.update(duration, TimeUnit.NANOSECONDS);
         return isHealthy
@@ -501,11 +1311,39 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
         }
     }
 
+    /**
+     * Periodically compares the latency of the end points, so that consistently slow ones are ejected.
+     */
     @VisibleForTesting
-    final class HealthCheck implements Runnable {
+    final class OutlierEvaluator implements Runnable {
+        @Override
+        public void run() {
+            try {
+                _outlierDetector.evaluate(getAllEndPoints());
+            } catch (Throwable t) {
+                // Swallow exception so that later evaluations still run.
+                LOG.warn("Error evaluating end point latency outliers", t);
+            }
+        }
+    }
+
+    /**
+     * Health checks a bad end point until it is healthy again.  The health check executor runs it whenever the end
+     * point is due to be checked, which queues a probe with the health check engine.  Probes of end points that were
+     * marked as bad most recently run first, as those are the most likely to have only had a brief problem.
+     * <p/>
+     * With an {@link AsyncHealthCheckingServiceFactory} the executor starts the health check itself instead, and the
+     * result is handled by a callback once the check completes.
+     */
+    @VisibleForTesting
+    final class HealthCheck implements Runnable, HealthCheckEngine.Probe {
         private final ServiceEndPoint _endPoint;
+        private final long _markedBadNanos;
         private final Lock _lock = new ReentrantLock();
         private int _count = 0;
+        private int _attempt = 0;
+        private int _timedOutAttempt = 0;
+        private HealthCheckResult _lastResult;
         private Future<?> _future;
         private boolean _cancelled;
         private boolean _scheduled;
@@ -513,6 +1351,7 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
 
         public HealthCheck(ServiceEndPoint endPoint) {
             _endPoint = endPoint;
+            _markedBadNanos = _ticker.read();
         }
 
         public void start() {
@@ -552,8 +1391,39 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
             }
         }
 
+        /**
+         * Called by the health check executor once the end point is due to be checked.  Stays scheduled until the
+         * probe starts running.
+         */
         @Override
         public void run() {
+            if (_asyncHealthCheckingServiceFactory != null) {
+                probeAsync();
+                return;
+            }
+
+            _lock.lock();
+            try {
+                if (_cancelled || _badEndPoints.get(_endPoint) != this) {
+                    return;
+                }
+
+                _healthCheckEngine.submit(this);
+            } catch (RejectedExecutionException e) {
+                // The pool is closing.
+                _scheduled = false;
+            } finally {
+                _lock.unlock();
+            }
+        }
+
+        @Override
+        public long getPriority() {
+            return _markedBadNanos;
+        }
+
+        @Override
+        public void probe() {
             _lock.lock();
             try {
                 if (_cancelled || _badEndPoints.get(_endPoint) != this) {
@@ -561,7 +1431,20 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
                 }
 
                 _scheduled = false;
+
+                if (_running) {
+                    // An earlier probe timed out and still hasn't returned, don't tie up another thread with this end
+                    // point until it does.
+                    reschedule(_healthCheckRetryDelay.getDelay(_count, _lastResult));
+                    return;
+                }
+
+                if (hasSucceededSinceMarkedBad()) {
+                    return;
+                }
+
                 _running = true;
+                int attempt = ++_attempt;
 
                 // Don't perform health check operation in lock as it could cause deadlock on cancel if
                 // health check stalls.
@@ -571,29 +1454,189 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
                     result = checkHealth(_endPoint);
                 } finally {
                     _lock.lock();
+                    _running = false;
+                }
+
+                // If the probe timed out its result was already handled.
+                if (attempt != _timedOutAttempt) {
+                    handleResult(result);
+                }
+            } finally {
+                _lock.unlock();
+            }
+        }
+
+        @Override
+        public void timedOut(long durationNanos) {
+            _lock.lock();
+            try {
+                if (_cancelled || _badEndPoints.get(_endPoint) != this || !_running) {
+                    return;
                 }
 
-                _count += 1;
+                _timedOutAttempt = _attempt;
+                handleTimeout(durationNanos);
+            } finally {
+                _lock.unlock();
+            }
+        }
 
-                if (result.isHealthy()) {
-                    _serviceCache.register(_endPoint);
-                    _badEndPoints.remove(_endPoint, this);
-                    this.cancel(false);
-                } else {
-                    long delayMillis = _healthCheckRetryDelay.getDelay(_count, result);
+        /**
+         * Starts an asynchronous health check, unless an earlier one is still in progress.  The result is handled by
+         * a callback once the check completes, so no thread waits for it.
+         *
+         * @return A future that is done once the result of the check has been handled.
+         */
+        CompletableFuture<Void> probeAsync() {
+            final int attempt;
+            _lock.lock();
+            try {
+                if (_cancelled || _badEndPoints.get(_endPoint) != this) {
+                    return CompletableFuture.completedFuture(null);
+                }
+
+                _scheduled = false;
+
+                if (_running) {
+                    reschedule(_healthCheckRetryDelay.getDelay(_count, _lastResult));
+                    return CompletableFuture.completedFuture(null);
+                }
+
+                if (hasSucceededSinceMarkedBad()) {
+                    return CompletableFuture.completedFuture(null);
+                }
+
+                _running = true;
+                attempt = ++_attempt;
+            } finally {
+                _lock.unlock();
+            }
 
-                    if (_future != null) {
-                        _future.cancel(false); // In case this Runnable was invoked directly and not by scheduler
+            final Future<?> timeout = scheduleAsyncTimeout(attempt);
+            return checkHealthAsync(_endPoint).thenAccept(new Consumer<HealthCheckResult>() {
+                @Override
+                public void accept(HealthCheckResult result) {
+                    if (timeout != null) {
+                        timeout.cancel(false);
                     }
+                    asyncProbeCompleted(attempt, result);
+                }
+            });
+        }
 
-                    _future = _healthCheckExecutor.schedule(this, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
-                    _scheduled = true;
+        private Future<?> scheduleAsyncTimeout(final int attempt) {
+            if (_healthCheckTimeoutNanos == 0) {
+                return null;
+            }
+
+            final long start = _ticker.read();
+            return _healthCheckExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    asyncProbeTimedOut(attempt, _ticker.read() - start);
                 }
+            }, _healthCheckTimeoutNanos, TimeUnit.NANOSECONDS);
+        }
+
+        private void asyncProbeCompleted(int attempt, HealthCheckResult result) {
+            _lock.lock();
+            try {
+                // If the probe timed out its result was already handled, and another one may have started since.
+                if (attempt != _attempt || attempt == _timedOutAttempt) {
+                    return;
+                }
+
+                _running = false;
+                if (_cancelled || _badEndPoints.get(_endPoint) != this) {
+                    return;
+                }
+
+                handleResult(result);
             } finally {
+                _lock.unlock();
+            }
+        }
+
+        private void asyncProbeTimedOut(int attempt, long durationNanos) {
+            _lock.lock();
+            try {
+                if (attempt != _attempt || !_running) {
+                    return;
+                }
+
+                // Unlike a blocked thread, a check that never completes costs nothing, so don't wait for it before
+                // checking again.
                 _running = false;
+                _timedOutAttempt = attempt;
+                if (_cancelled || _badEndPoints.get(_endPoint) != this) {
+                    return;
+                }
+
+                _numHealthCheckTimeouts.mark();
+                handleTimeout(durationNanos);
+            } finally {
                 _lock.unlock();
             }
         }
+
+        /**
+         * Real traffic, for example from {@link AsyncServicePool#executeOnAll}, may have shown that the end point is
+         * healthy again since it was marked bad.  If so there's no need to health check it, and it's put back in
+         * service right away.
+         */
+        private boolean hasSucceededSinceMarkedBad() {
+            if (!_passiveHealth.hasSucceededSince(_endPoint, _markedBadNanos)) {
+                return false;
+            }
+
+            _numSkippedHealthChecks.mark();
+            LOG.debug("Requests succeeded since end point was marked bad, skipping health check. End point: {}",
+                    _endPoint);
+            handleResult(new SuccessfulHealthCheckResult(_endPoint.getId(), 0));
+            return true;
+        }
+
+        private void handleTimeout(long durationNanos) {
+            LOG.info("Health check timed out after {} ms. End point: {}",
+                    TimeUnit.NANOSECONDS.toMillis(durationNanos), _endPoint);
+            handleResult(new FailedHealthCheckResult(_endPoint.getId(), durationNanos,
+                    new TimeoutException("Health check timed out")));
+        }
+
+        private void handleResult(HealthCheckResult result) {
+            _count += 1;
+            _lastResult = result;
+
+            if (result.isHealthy()) {
+                long quarantineNanos = (_flapDampener != null) ? _flapDampener.getRemainingQuarantine(_endPoint) : 0;
+                if (quarantineNanos > 0) {
+                    // The end point keeps going bad soon after it's used again, so make sure it stays healthy for a
+                    // while first.
+                    LOG.debug("Healthy end point is quarantined for flapping. End point: {}, remaining: {} ms",
+                            _endPoint, TimeUnit.NANOSECONDS.toMillis(quarantineNanos));
+                    reschedule(Math.max(1, TimeUnit.NANOSECONDS.toMillis(quarantineNanos)));
+                    return;
+                }
+
+                _serviceCache.register(_endPoint);
+                _badEndPoints.remove(_endPoint, this);
+                if (_flapDampener != null) {
+                    _flapDampener.recordAdmitted(_endPoint);
+                }
+                this.cancel(false);
+            } else {
+                reschedule(_healthCheckRetryDelay.getDelay(_count, result));
+            }
+        }
+
+        private void reschedule(long delayMillis) {
+            if (_future != null) {
+                _future.cancel(false); // In case this Runnable was invoked directly and not by scheduler
+            }
+
+            _future = _healthCheckExecutor.schedule(this, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+            _scheduled = true;
+        }
     }
 
     private static final class SuccessfulHealthCheckResult implements HealthCheckResult {
@@ -48,6 +48,24 @@ public class ServicePoolBuilder<S> {
     private MetricRegistry _metrics;
     private ExecutorService _asyncExecutor;
     private HealthCheckRetryDelay _healthCheckRetryDelay = DEFAULT_HEALTH_CHECK_RETRY_POLICY;
+    private long _endPointDrainTimeoutMillis = ServiceCacheBuilder.DEFAULT_DRAIN_TIMEOUT_MILLIS;
+    private long _maxLeaseTimeMillis;
+    private boolean _reclaimExpiredLeases;
+    private int _maxParallelHealthChecks = HealthCheckEngine.DEFAULT_MAX_PARALLEL_PROBES;
+    private long _healthCheckTimeoutMillis = HealthCheckEngine.DEFAULT_PROBE_TIMEOUT_MILLIS;
+    private long _endPointReadmissionWindowMillis = ServicePool.DEFAULT_READMISSION_WINDOW_MILLIS;
+    private CircuitBreakerPolicy _circuitBreakerPolicy;
+    private OutlierEjectionPolicy _outlierEjectionPolicy;
+    private double _panicThreshold;
+    private FlapDampeningPolicy _flapDampeningPolicy;
+    private HedgingPolicy _hedgingPolicy;
+    private double _retryBudgetRatio;
+    private int _retryBudgetCapacity;
+    private ConcurrencyLimitPolicy _concurrencyLimitPolicy;
+    private int _maxInFlightPerEndPoint;
+    private LoadSheddingPolicy _loadSheddingPolicy;
+    private RateLimitPolicy _rateLimitPolicy;
+    private boolean _singleFlight;
 
     public static <S> ServicePoolBuilder<S> create(Class<S> serviceType) {
         return new ServicePoolBuilder<>(serviceType);
@@ -126,7 +144,8 @@ public class ServicePoolBuilder<S> {
     }
 
     /**
-     * Adds a {@code ScheduledExecutorService} instance to the builder for use in executing health checks.
+     * Adds a {@code ScheduledExecutorService} instance to the builder for use in scheduling health checks.  The health
+     * checks themselves run on threads of the pool's own, see {@link #withHealthCheckParallelism}.
      * <p/>
      * Adding an executor is optional.  If one isn't specified then one will be created and used automatically.
      *
@@ -246,6 +265,305 @@ public class ServicePoolBuilder<S> {
         return this;
     }
 
+    /**
+     * Sets how many bad end points may be health checked at the same time.  When more are due to be checked, the ones
+     * that were marked as bad most recently are checked first.
+     * <p/>
+     * Setting the parallelism is optional.  If it isn't specified then up to 4 end points are checked at a time.
+     *
+     * @param maxParallelHealthChecks The most health checks that may run at the same time.
+     * @return this
+     */
+    public ServicePoolBuilder<S> withHealthCheckParallelism(int maxParallelHealthChecks) {
+        checkArgument(maxParallelHealthChecks > 0);
+
+        _maxParallelHealthChecks = maxParallelHealthChecks;
+        return this;
+    }
+
+    /**
+     * Sets how long a single health check may take before it is considered failed.  The thread running the health
+     * check is interrupted, and the end point is checked again according to the health check retry policy.
+     * <p/>
+     * Setting a timeout is optional.  If one isn't specified then a default of 10 seconds is used.  A value of 0 lets
+     * health checks run for as long as they take.
+     *
+     * @param healthCheckTimeout The time a health check may take.
+     * @param unit               The unit of time the {@code healthCheckTimeout} is in.
+     * @return this
+     */
+    public ServicePoolBuilder<S> withHealthCheckTimeout(long healthCheckTimeout, TimeUnit unit) {
+        checkArgument(healthCheckTimeout >= 0);
+        checkNotNull(unit);
+
+        _healthCheckTimeoutMillis = unit.toMillis(healthCheckTimeout);
+        return this;
+    }
+
+    /**
+     * Sets how long after host discovery removes an end point that was healthy it may add the end point back without
+     * the end point being health checked first.  When host discovery briefly loses its connection it may remove all of
+     * the end points and then add them back, and this keeps the pool from being unavailable until they've all been
+     * health checked again.  End points that weren't seen before, or that were bad, are always health checked.
+     * <p/>
+     * Setting a readmission window is optional.  If one isn't specified then a default of 5 minutes is used.  A value of
+     * 0 health checks every end point that is added.
+     *
+     * @param readmissionWindow The time within which a removed end point may be added back without a health check.
+     * @param unit              The unit of time the {@code readmissionWindow} is in.
+     * @return this
+     */
+    public ServicePoolBuilder<S> withEndPointReadmissionWindow(long readmissionWindow, TimeUnit unit) {
+        checkArgument(readmissionWindow >= 0);
+        checkNotNull(unit);
+
+        _endPointReadmissionWindowMillis = unit.toMillis(readmissionWindow);
+        return this;
+    }
+
+    /**
+     * Sets a {@code CircuitBreakerPolicy} to use for the end points of the service pool.  Rather than marking an end
+     * point as bad as soon as a request to it fails in a retriable way, the pool only stops sending requests to it once
+     * enough of them have failed, and then sends it a share of requests as trials to find out when it has recovered.
+     * <p/>
+     * Setting a circuit breaker policy is optional.  If one isn't specified then a single retriable failure marks an
+     * end point as bad until it passes a health check.
+     *
+     * @param policy The circuit breaker policy to use.
+     * @return this
+     */
+    public ServicePoolBuilder<S> withCircuitBreaker(CircuitBreakerPolicy policy) {
+        _circuitBreakerPolicy = checkNotNull(policy);
+        return this;
+    }
+
+    /**
+     * Sets an {@code OutlierEjectionPolicy} to use for the end points of the service pool.  The latency of requests to
+     * each end point is periodically compared against the rest of the pool, and end points that are consistently a lot
+     * slower are not sent any requests for a while.  The comparisons run on the health check executor.
+     * <p/>
+     * Setting an outlier ejection policy is optional.  If one isn't specified then slow end points are used like any
+     * other.
+     *
+     * @param policy The outlier ejection policy to use.
+     * @return this
+     */
+    public ServicePoolBuilder<S> withOutlierEjection(OutlierEjectionPolicy policy) {
+        _outlierEjectionPolicy = checkNotNull(policy);
+        return this;
+    }
+
+    /**
+     * Sets the share of discovered end points that need to be usable for the service pool to only send requests to
+     * those.  If fewer of them are usable, for example because a problem with a dependency they share got them all
+     * marked as bad at once, the pool panics and sends requests to all discovered end points instead, so that the few
+     * usable ones don't get overloaded too.  Whether the pool is panicking is published as a {@code panic-mode} gauge.
+     * <p/>
+     * Setting a panic threshold is optional.  If one isn't specified then the pool never panics.
+     *
+     * @param panicThreshold The share of end points that need to be usable, between 0 and 1.
+     * @return this
+     */
+    public ServicePoolBuilder<S> withPanicThreshold(double panicThreshold) {
+        checkArgument(panicThreshold >= 0 && panicThreshold <= 1);
+
+        _panicThreshold = panicThreshold;
+        return this;
+    }
+
+    /**
+     * Sets a {@code FlapDampeningPolicy} to use for the end points of the service pool.  End points that keep going bad
+     * soon after they're used again are quarantined for a while once they pass their health check, rather than being
+     * used again right away, so that a flapping end point doesn't keep failing requests and churning service instances.
+     * <p/>
+     * Setting a flap dampening policy is optional.  If one isn't specified then end points are used again as soon as
+     * they pass their health check.
+     *
+     * @param policy The flap dampening policy to use.
+     * @return this
+     */
+    public ServicePoolBuilder<S> withFlapDampening(FlapDampeningPolicy policy) {
+        _flapDampeningPolicy = checkNotNull(policy);
+        return this;
+    }
+
+    /**
+     * Sets a {@code HedgingPolicy} to use for requests that may be hedged.  A request made with an
+     * {@link com.bazaarvoice.ostrich.IdempotentServiceCallback}, or through a proxy method annotated with
+     * {@link com.bazaarvoice.ostrich.Idempotent}, that hasn't completed within the hedge delay is sent to a second end
+     * point as well, and whichever attempt completes first provides the result.
+     * <p/>
+     * Setting a hedging policy is optional.  If one isn't specified then requests are never hedged.
+     *
+     * @param policy The hedging policy to use.
+     * @return this
+     */
+    public ServicePoolBuilder<S> withHedging(HedgingPolicy policy) {
+        _hedgingPolicy = checkNotNull(policy);
+        return this;
+    }
+
+    /**
+     * Sets a retry budget that's shared by all requests of the service pool.  Every request adds {@code retryRatio} of
+     * a retry to the budget, up to {@code maxRetries}, and every retry takes one from it.  Once the budget runs out,
+     * requests fail with the last exception they ran into rather than being retried, even if their retry policy would
+     * allow it, so that retries can add at most {@code retryRatio} to the load on a service that's already struggling.
+     * The number of retries that were denied is published as a {@code num-retries-over-budget} meter.
+     * <p/>
+     * The budget starts out full.  Setting a retry budget is optional.  If one isn't specified then every request may
+     * retry as much as its retry policy allows.
+     *
+     * @param retryRatio The number of retries every request adds to the budget, for example 0.1 for one in ten.
+     * @param maxRetries The most retries the budget can hold.
+     * @return this
+     */
+    public ServicePoolBuilder<S> withRetryBudget(double retryRatio, int maxRetries) {
+        checkArgument(retryRatio > 0);
+        checkArgument(maxRetries >= 1);
+
+        _retryBudgetRatio = retryRatio;
+        _retryBudgetCapacity = maxRetries;
+        return this;
+    }
+
+    /**
+     * Sets a {@code ConcurrencyLimitPolicy} to use for the service pool.  The number of requests the pool has in flight
+     * at once, including those of an async service pool built from it, is limited, and the limit adapts to the
+     * latency of the service: it grows while requests take as long as usual and shrinks once they start to queue up
+     * at the service.  Requests made while the limit is reached fail with a
+     * {@link com.bazaarvoice.ostrich.exceptions.ConcurrencyLimitExceededException}, unless another request completes
+     * within the policy's queue time.  The current limit is published as a {@code concurrency-limit} gauge.
+     * <p/>
+     * Setting a concurrency limit policy is optional.  If one isn't specified then the number of requests in flight is
+     * only limited by the service caching policy and the threads of the caller.
+     *
+     * @param policy The concurrency limit policy to use.
+     * @return this
+     */
+    public ServicePoolBuilder<S> withConcurrencyLimit(ConcurrencyLimitPolicy policy) {
+        _concurrencyLimitPolicy = checkNotNull(policy);
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of requests the service pool may have in flight to each end point at once.  End points
+     * that have that many requests in flight are saturated, and the load balancer isn't given them to choose from, so
+     * that one slow end point can't tie up all of the threads making requests.  If all end points are saturated,
+     * requests fail right away with a {@link com.bazaarvoice.ostrich.exceptions.ConcurrencyLimitExceededException}.
+     * The number of saturated end points is published as a {@code num-saturated-end-points} gauge.
+     * <p/>
+     * Setting a maximum is optional.  If one isn't specified then the requests per end point are only limited by the
+     * service caching policy, and not at all for a {@link com.bazaarvoice.ostrich.MultiThreadedServiceFactory}.
+     *
+     * @param maxInFlight The maximum number of requests in flight to each end point.
+     * @return this
+     */
+    public ServicePoolBuilder<S> withMaxInFlightPerEndPoint(int maxInFlight) {
+        checkArgument(maxInFlight > 0);
+
+        _maxInFlightPerEndPoint = maxInFlight;
+        return this;
+    }
+
+    /**
+     * Sets a {@code RateLimitPolicy} to use for the service pool.  The rate of requests to the service as a whole is
+     * limited, and so is the rate of requests to each end point that declared its capacity when it registered, see
+     * {@link com.bazaarvoice.ostrich.ServiceEndPointBuilder#withCapacity}.  End points whose limit is used up aren't
+     * chosen for requests, and requests for which the limits are used up fail right away with a
+     * {@link com.bazaarvoice.ostrich.exceptions.RateLimitExceededException}.  The number of end points whose limit is
+     * used up is published as a {@code num-rate-limited-end-points} gauge.
+     * <p/>
+     * Setting a rate limit policy is optional.  If one isn't specified then requests aren't limited by rate, whatever
+     * capacity end points declared.
+     *
+     * @param policy The rate limit policy to use.
+     * @return this
+     */
+    public ServicePoolBuilder<S> withRateLimit(RateLimitPolicy policy) {
+        _rateLimitPolicy = checkNotNull(policy);
+        return this;
+    }
+
+    /**
+     * Coalesces concurrent requests for the same read, so that only one of them is sent to the service and the others
+     * share its result or exception.  This applies to requests made with a
+     * {@link com.bazaarvoice.ostrich.SingleFlightServiceCallback} whose keys are equal, and to calls through a proxy
+     * method annotated with {@code @Idempotent(singleFlight = true)} with equal arguments.  Results aren't kept once
+     * the request completes.  The number of requests that shared the result of another one is published as a
+     * {@code num-coalesced-requests} meter.
+     * <p/>
+     * Enabling single-flight requests is optional.  If it isn't enabled then every request is sent to the service.
+     *
+     * @return this
+     */
+    public ServicePoolBuilder<S> withSingleFlight() {
+        _singleFlight = true;
+        return this;
+    }
+
+    /**
+     * Sets a {@code LoadSheddingPolicy} to use for asynchronous requests.  The policy is not used unless an
+     * asynchronous pool is built with the {@link #buildAsync} method.  At most a fixed number of requests run on the
+     * async executor at once, and the rest are queued by the {@link com.bazaarvoice.ostrich.Priority} of their
+     * {@link com.bazaarvoice.ostrich.PrioritizedServiceCallback}, highest first.  Requests that wait in the queue for
+     * too long, and the lowest priority requests once the queue is full, fail with a
+     * {@link com.bazaarvoice.ostrich.exceptions.RequestShedException}.  The time each priority class waits in the queue
+     * is published as a {@code queue-time.<class>} timer.
+     * <p/>
+     * Setting a load shedding policy is optional.  If one isn't specified then requests are handed to the async
+     * executor right away, whatever their priority.
+     *
+     * @param policy The load shedding policy to use.
+     * @return this
+     */
+    public ServicePoolBuilder<S> withLoadShedding(LoadSheddingPolicy policy) {
+        _loadSheddingPolicy = checkNotNull(policy);
+        return this;
+    }
+
+    /**
+     * Sets how long requests that are in flight to an end point that was removed from host discovery may continue to
+     * use their cached service instances before those instances are destroyed.  No new requests are sent to the end
+     * point while it drains.
+     * <p/>
+     * Setting a drain timeout is optional.  If one isn't specified then a default of 30 seconds is used.  A value of 0
+     * destroys the instances as soon as the end point is removed.
+     *
+     * @param drainTimeout The time in flight requests may take to finish.
+     * @param unit         The unit of time the {@code drainTimeout} is in.
+     * @return this
+     */
+    public ServicePoolBuilder<S> withEndPointDrainTimeout(long drainTimeout, TimeUnit unit) {
+        checkArgument(drainTimeout >= 0);
+        checkNotNull(unit);
+
+        _endPointDrainTimeoutMillis = unit.toMillis(drainTimeout);
+        return this;
+    }
+
+    /**
+     * Sets how long a callback may hold on to a service instance before the instance is considered leaked.  Leaked
+     * instances are logged along with the stack of the code that checked them out, and if {@code reclaim} is set they
+     * are also taken back from the callback so that they don't permanently use up room in the cache.
+     * <p/>
+     * Setting a lease time is optional.  If one isn't specified then service instances are never considered leaked.
+     * Either way the number of checked out instances and the longest current check out for each end point are
+     * published as metrics.
+     *
+     * @param maxLeaseTime The time a service instance may be checked out for.
+     * @param unit         The unit of time the {@code maxLeaseTime} is in.
+     * @param reclaim      Whether to take back instances that were checked out for too long.
+     * @return this
+     */
+    public ServicePoolBuilder<S> withMaxServiceInstanceLeaseTime(long maxLeaseTime, TimeUnit unit, boolean reclaim) {
+        checkArgument(maxLeaseTime > 0);
+        checkNotNull(unit);
+
+        _maxLeaseTimeMillis = Math.max(1, unit.toMillis(maxLeaseTime));
+        _reclaimExpiredLeases = reclaim;
+        return this;
+    }
+
     /**
      * Builds a {@code com.bazaarvoice.ostrich.ServicePool}.
      *
@@ -257,6 +575,12 @@ public class ServicePoolBuilder<S> {
 
     /**
      * Builds a {@code com.bazaarvoice.ostrich.AsyncServicePool}.
+     * <p/>
+     * Requests made with a {@link com.bazaarvoice.ostrich.DelayingRetryPolicy}, such as
+     * {@link com.bazaarvoice.ostrich.retry.RetryNTimes} or {@link com.bazaarvoice.ostrich.retry.ExponentialBackoffRetry},
+     * have their retries scheduled on the health check executor rather than waiting for them on a thread of the async
+     * executor.  Requests still waiting to be retried when the pool is closed fail the way they would once out of
+     * retries.
      *
      * @return The {@code com.bazaarvoice.ostrich.AsyncServicePool} that was constructed.
      */
@@ -273,7 +597,7 @@ public class ServicePoolBuilder<S> {
         }
 
         return new AsyncServicePool<>(Ticker.systemTicker(), pool, true, _asyncExecutor,
-                shutdownAsyncExecutorOnClose, _metrics);
+                shutdownAsyncExecutorOnClose, _healthCheckExecutor, _loadSheddingPolicy, _metrics);
     }
 
     /**
@@ -313,9 +637,23 @@ public class ServicePoolBuilder<S> {
                                 .build());
             }
 
+            ServiceCacheBuilder<S> cacheBuilder = new ServiceCacheBuilder<S>()
+                    .withServiceFactory(_serviceFactory)
+                    .withCachingPolicy(_cachingPolicy)
+                    .withDrainTimeout(_endPointDrainTimeoutMillis, TimeUnit.MILLISECONDS)
+                    .withMetricRegistry(_metrics);
+            if (_maxLeaseTimeMillis > 0) {
+                cacheBuilder.withMaxLeaseTime(_maxLeaseTimeMillis, TimeUnit.MILLISECONDS)
+                        .withReclaimExpiredLeases(_reclaimExpiredLeases);
+            }
+
             ServicePool<S> servicePool = new ServicePool<>(Ticker.systemTicker(), hostDiscovery, _closeHostDiscovery,
-                    _serviceFactory, _cachingPolicy, _partitionFilter, _loadBalanceAlgorithm, _healthCheckExecutor,
-                    shutdownHealthCheckExecutorOnClose, _healthCheckRetryDelay, _metrics);
+                    _serviceFactory, cacheBuilder.build(), _partitionFilter, _loadBalanceAlgorithm,
+                    _healthCheckExecutor, shutdownHealthCheckExecutorOnClose, _healthCheckRetryDelay,
+                    _maxParallelHealthChecks, _healthCheckTimeoutMillis, _endPointReadmissionWindowMillis,
+                    _circuitBreakerPolicy, _outlierEjectionPolicy, _panicThreshold,
+                    _flapDampeningPolicy, _hedgingPolicy, _retryBudgetRatio, _retryBudgetCapacity,
+                    _concurrencyLimitPolicy, _maxInFlightPerEndPoint, _rateLimitPolicy, _singleFlight, _metrics);
 
             _closeHostDiscovery = false;
 
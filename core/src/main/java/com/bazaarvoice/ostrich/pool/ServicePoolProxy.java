@@ -1,9 +1,12 @@
 package com.bazaarvoice.ostrich.pool;
 
+import com.bazaarvoice.ostrich.Idempotent;
+import com.bazaarvoice.ostrich.IdempotentServiceCallback;
 import com.bazaarvoice.ostrich.PartitionContext;
 import com.bazaarvoice.ostrich.RetryPolicy;
 import com.bazaarvoice.ostrich.ServiceCallback;
 import com.bazaarvoice.ostrich.ServicePool;
+import com.bazaarvoice.ostrich.SingleFlightServiceCallback;
 import com.bazaarvoice.ostrich.exceptions.ServiceException;
 import com.google.common.base.Throwables;
 import com.google.common.reflect.AbstractInvocationHandler;
@@ -12,6 +15,7 @@ import java.io.Closeable;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.util.Arrays;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
@@ -63,24 +67,83 @@ class ServicePoolProxy<S> extends AbstractInvocationHandler {
 
         PartitionContext partitionContext = _partitionContextSupplier.forCall(method, args);
 
-        // Delegate the method through to a service provider in the pool.
-        return _servicePool.execute(partitionContext, _retryPolicy, new ServiceCallback<S, Object>() {
-            @Override
-            public Object call(S service) throws ServiceException {
-                try {
-                    return method.invoke(service, args);
-                } catch (IllegalAccessException e) {
-                    throw new RuntimeException(e);
-                } catch (InvocationTargetException e) {
-                    Throwables.throwIfUnchecked(e.getTargetException());
-                    throw new RuntimeException(e.getTargetException());
+        // Delegate the method through to a service provider in the pool.  Idempotent methods may be hedged, and
+        // concurrent calls to the ones that opted in to single-flight with the same arguments may share a request.
+        Idempotent idempotent = method.getAnnotation(Idempotent.class);
+        ServiceCallback<S, Object> callback;
+        if (idempotent != null && idempotent.singleFlight()) {
+            callback = new SingleFlightServiceCallback<S, Object>() {
+                @Override
+                public Object call(S service) throws ServiceException {
+                    return invoke(method, service, args);
                 }
-            }
-        });
+
+                @Override
+                public Object getSingleFlightKey() {
+                    return new CallKey(method, args);
+                }
+            };
+        } else if (idempotent != null) {
+            callback = new IdempotentServiceCallback<S, Object>() {
+                @Override
+                public Object call(S service) throws ServiceException {
+                    return invoke(method, service, args);
+                }
+            };
+        } else {
+            callback = new ServiceCallback<S, Object>() {
+                @Override
+                public Object call(S service) throws ServiceException {
+                    return invoke(method, service, args);
+                }
+            };
+        }
+        return _servicePool.execute(partitionContext, _retryPolicy, callback);
+    }
+
+    private static Object invoke(Method method, Object service, Object[] args) {
+        try {
+            return method.invoke(service, args);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        } catch (InvocationTargetException e) {
+            Throwables.throwIfUnchecked(e.getTargetException());
+            throw new RuntimeException(e.getTargetException());
+        }
     }
 
     @Override
     public String toString() {
         return "ServicePoolProxy[" + _serviceType.getName() + "]";
     }
+
+    /**
+     * Identifies a call to a proxy method by the method and its arguments.  Array arguments are compared by content.
+     */
+    private static final class CallKey {
+        private final Method _method;
+        private final Object[] _args;
+
+        CallKey(Method method, Object[] args) {
+            _method = method;
+            _args = args;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CallKey)) {
+                return false;
+            }
+            CallKey that = (CallKey) o;
+            return _method.equals(that._method) && Arrays.deepEquals(_args, that._args);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * _method.hashCode() + Arrays.deepHashCode(_args);
+        }
+    }
 }
@@ -0,0 +1,86 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.Deadline;
+import com.bazaarvoice.ostrich.exceptions.DeadlineExceededException;
+import com.bazaarvoice.ostrich.metrics.Metrics;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.google.common.base.Supplier;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Coalesces the concurrent requests of a {@link ServicePool} that have the same key, see
+ * {@link com.bazaarvoice.ostrich.SingleFlightServiceCallback}.  Only the first of them is made, and the others wait for
+ * its result.  Waiting requests still give up once their own deadline passes.
+ * <p/>
+ * The number of requests that waited for another request rather than being made is published as a
+ * {@code num-coalesced-requests} meter, and the number of keys with a request in flight as a
+ * {@code num-single-flight-keys} gauge.
+ */
+class SingleFlight {
+    private final String _serviceName;
+    private final ConcurrentMap<Object, SettableFuture<Object>> _inFlight = Maps.newConcurrentMap();
+    private final Meter _numCoalescedRequests;
+
+    SingleFlight(String serviceName, Metrics.InstanceMetrics metrics) {
+        _serviceName = checkNotNull(serviceName);
+
+        _numCoalescedRequests = metrics.meter("num-coalesced-requests");
+        metrics.gauge("num-single-flight-keys", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return _inFlight.size();
+            }
+        });
+    }
+
+    /**
+     * Makes a request, unless a request with the same key is already in flight.  In that case it waits for that
+     * request to complete instead, and returns its result or throws its exception.
+     */
+    @SuppressWarnings("unchecked")
+    <R> R execute(Object key, Deadline deadline, Supplier<R> request) {
+        SettableFuture<Object> future = SettableFuture.create();
+        SettableFuture<Object> inFlight = _inFlight.putIfAbsent(key, future);
+        if (inFlight != null) {
+            _numCoalescedRequests.mark();
+            return (R) await(inFlight, deadline);
+        }
+
+        try {
+            R result = request.get();
+            future.set(result);
+            return result;
+        } catch (Throwable t) {
+            future.setException(t);
+            throw t;
+        } finally {
+            // Requests made from now on don't see this one's result anymore, they're made again.
+            _inFlight.remove(key, future);
+        }
+    }
+
+    private Object await(SettableFuture<Object> inFlight, Deadline deadline) {
+        try {
+            return inFlight.get(deadline.getRemaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new DeadlineExceededException(String.format(
+                    "Deadline passed while waiting for a request in flight to service %s", _serviceName));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -2,13 +2,18 @@ package com.bazaarvoice.ostrich.pool;
 
 import com.bazaarvoice.ostrich.ServiceEndPoint;
 import com.bazaarvoice.ostrich.ServiceFactory;
+import com.bazaarvoice.ostrich.ValidatingServiceFactory;
 import com.bazaarvoice.ostrich.exceptions.NoCachedInstancesAvailableException;
 import com.bazaarvoice.ostrich.metrics.Metrics;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.RatioGauge;
 import com.codahale.metrics.Timer;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
 import com.google.common.collect.MapMaker;
+import com.google.common.collect.Maps;
 import org.apache.commons.pool.BaseKeyedPoolableObjectFactory;
 import org.apache.commons.pool.impl.GenericKeyedObjectPool;
 import org.slf4j.Logger;
@@ -16,12 +21,16 @@ import org.slf4j.LoggerFactory;
 
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static com.bazaarvoice.ostrich.pool.ServiceCacheBuilder.buildDefaultExecutor;
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
@@ -36,14 +45,41 @@ class SingleThreadedClientServiceCache<S> implements ServiceCache<S> {
     @VisibleForTesting
     static final long EVICTION_DURATION_IN_SECONDS = 300;
 
+    /** The longest that an expired service instance can go without being replaced. */
+    @VisibleForTesting
+    static final long MAX_ROTATION_INTERVAL_IN_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    /** How often to validate idle service instances, when the service factory is able to. */
+    @VisibleForTesting
+    static final long VALIDATION_INTERVAL_IN_SECONDS = 30;
+
     private final GenericKeyedObjectPool<ServiceEndPoint, S> _pool;
     private final AtomicLong _revisionNumber = new AtomicLong();
     private final Map<ServiceEndPoint, Long> _invalidRevisions = new MapMaker().weakKeys().makeMap();
     private final Map<ServiceHandle<S>, Long> _checkedOutRevisions = new MapMaker().makeMap();
+    private final Map<ServiceHandle<S>, AdaptiveInstanceSizer.EndPointLimit> _checkedOutLimits = new MapMaker().makeMap();
+    private final ConcurrentMap<ServiceEndPoint, Drain> _drains = Maps.newConcurrentMap();
+    private final Map<S, Lifetime> _lifetimes = new MapMaker().weakKeys().makeMap();
+    private final long _maxLifetimeNanos;
+    private final long _lifetimeJitterNanos;
+    private final LeaseTracker<S> _leases;
+    private final boolean _reclaimExpiredLeases;
+    private final AdaptiveInstanceSizer _sizer;
+    private final ScheduledExecutorService _executor;
+    private final long _drainTimeoutMillis;
     private final Future<?> _evictionFuture;
+    private final Future<?> _sizingFuture;
+    private final Future<?> _leaseFuture;
+    private final Future<?> _rotationFuture;
+    private final Future<?> _validationFuture;
     private volatile boolean _isClosed = false;
     private final Metrics.InstanceMetrics _metrics;
     private final Timer _loadTimer;
+    private final Timer _drainTimer;
+    private final Meter _numDrainTimeouts;
+    private final Meter _numAbandonedInstances;
+    private final Meter _numRetiredInstances;
+    private final Meter _numInvalidInstances;
     private final AtomicLong _requestCount = new AtomicLong();
     private final AtomicLong _missCount = new AtomicLong();
     private final AtomicLong _loadSuccessCount = new AtomicLong();
@@ -60,6 +96,25 @@ class SingleThreadedClientServiceCache<S> implements ServiceCache<S> {
         this(policy, serviceFactory, buildDefaultExecutor(), metrics);
     }
 
+    /**
+     * Builds a basic service cache.
+     *
+     * @param policy               The configuration for this cache.
+     * @param serviceFactory       The factory to fall back to on cache misses.
+     * @param drainTimeoutMillis   How long checked out instances of a draining end point may be used before they are
+     *                             destroyed.
+     * @param maxLeaseTimeMillis   How long an instance may be checked out before it is reported as leaked, or 0 to
+     *                             never report.
+     * @param reclaimExpiredLeases Whether instances that are reported as leaked are also destroyed.
+     * @param metrics              The metric registry.
+     */
+    SingleThreadedClientServiceCache(ServiceCachingPolicy policy, ServiceFactory<S> serviceFactory,
+                                     long drainTimeoutMillis, long maxLeaseTimeMillis, boolean reclaimExpiredLeases,
+                                     MetricRegistry metrics) {
+        this(policy, serviceFactory, buildDefaultExecutor(), drainTimeoutMillis, maxLeaseTimeMillis,
+                reclaimExpiredLeases, metrics);
+    }
+
     /**
      * Builds a basic service cache.
      *
@@ -70,13 +125,63 @@ class SingleThreadedClientServiceCache<S> implements ServiceCache<S> {
     @VisibleForTesting
     SingleThreadedClientServiceCache(ServiceCachingPolicy policy, ServiceFactory<S> serviceFactory, ScheduledExecutorService executor,
                                      MetricRegistry metrics) {
+        this(policy, serviceFactory, executor, ServiceCacheBuilder.DEFAULT_DRAIN_TIMEOUT_MILLIS, 0, false, metrics);
+    }
+
+    /**
+     * Builds a basic service cache.
+     *
+     * @param policy               The configuration for this cache.
+     * @param serviceFactory       The factory to fall back to on cache misses.
+     * @param executor             The executor to use for checking for idle instances to evict, for timing out drains
+     *                             and for checking for expired leases.
+     * @param drainTimeoutMillis   How long checked out instances of a draining end point may be used before they are
+     *                             destroyed.  A value of 0 makes draining the same as evicting.
+     * @param maxLeaseTimeMillis   How long an instance may be checked out before it is reported as leaked, or 0 to
+     *                             never report.
+     * @param reclaimExpiredLeases Whether instances that are reported as leaked are also destroyed.
+     */
+    @VisibleForTesting
+    SingleThreadedClientServiceCache(ServiceCachingPolicy policy, ServiceFactory<S> serviceFactory, ScheduledExecutorService executor,
+                                     long drainTimeoutMillis, long maxLeaseTimeMillis, boolean reclaimExpiredLeases,
+                                     MetricRegistry metrics) {
         checkNotNull(policy);
         checkNotNull(serviceFactory);
         checkNotNull(executor);
+        checkArgument(drainTimeoutMillis >= 0);
+        checkArgument(maxLeaseTimeMillis >= 0);
+
+        _executor = executor;
+        _drainTimeoutMillis = drainTimeoutMillis;
+        _reclaimExpiredLeases = reclaimExpiredLeases;
 
         String serviceName = serviceFactory.getServiceName();
         _metrics = Metrics.forInstance(metrics, this, serviceName);
         _loadTimer = _metrics.timer("load-time");
+        _drainTimer = _metrics.timer("drain-time");
+        _numDrainTimeouts = _metrics.meter("num-drain-timeouts");
+        _numAbandonedInstances = _metrics.meter("num-abandoned-instances");
+        _numRetiredInstances = _metrics.meter("num-retired-instances");
+        _numInvalidInstances = _metrics.meter("num-invalid-instances");
+        _leases = new LeaseTracker<>(Ticker.systemTicker(), maxLeaseTimeMillis, TimeUnit.MILLISECONDS, _metrics);
+
+        _metrics.gauge("num-draining-end-points", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return _drains.size();
+            }
+        });
+
+        _metrics.gauge("num-draining-instances", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                int numInstances = 0;
+                for (ServiceEndPoint endPoint : _drains.keySet()) {
+                    numInstances += getNumCheckedOut(endPoint);
+                }
+                return numInstances;
+            }
+        });
 
         _metrics.gauge("cache-hit-ratio", new RatioGauge() {
             @Override
@@ -131,7 +236,85 @@ class SingleThreadedClientServiceCache<S> implements ServiceCache<S> {
         // Make sure all instances in the pool are checked for staleness during eviction runs.
         poolConfig.numTestsPerEvictionRun = policy.getMaxNumServiceInstances();
 
-        _pool = new GenericKeyedObjectPool<>(new PoolServiceFactory<>(serviceFactory), poolConfig);
+        // Instances past their lifetime fail validation, so eviction runs retire them while they're idle.
+        _maxLifetimeNanos = Math.max(0, policy.getMaxServiceInstanceLifetime(TimeUnit.NANOSECONDS));
+        _lifetimeJitterNanos = _maxLifetimeNanos > 0
+                ? Math.max(0, policy.getServiceInstanceLifetimeJitter(TimeUnit.NANOSECONDS))
+                : 0;
+        checkArgument(_lifetimeJitterNanos == 0 || _lifetimeJitterNanos < _maxLifetimeNanos);
+        poolConfig.testWhileIdle = _maxLifetimeNanos > 0 || serviceFactory instanceof ValidatingServiceFactory;
+
+        _pool = new GenericKeyedObjectPool<>(new PoolServiceFactory(serviceFactory), poolConfig);
+
+        // With adaptive sizing the pool itself is bounded by the ceiling, and the sizer keeps each end point within its
+        // own (possibly lower) limit.
+        if (policy.getMinNumServiceInstancesPerEndPoint() > 0) {
+            _sizer = new AdaptiveInstanceSizer(policy.getMinNumServiceInstancesPerEndPoint(),
+                    policy.getMaxNumServiceInstancesPerEndPoint(), policy.getCacheExhaustionAction(), _metrics);
+            _sizingFuture = executor.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        _sizer.adjust();
+                    } catch (Exception e) {
+                        // Should never happen, but log just in case. Swallow exception so thread doesn't die.
+                        LOG.error("ServiceCache adaptive sizing run failed.", e);
+                    }
+                }
+            }, AdaptiveInstanceSizer.ADJUSTMENT_INTERVAL_IN_SECONDS, AdaptiveInstanceSizer.ADJUSTMENT_INTERVAL_IN_SECONDS,
+                    TimeUnit.SECONDS);
+        } else {
+            _sizer = null;
+            _sizingFuture = null;
+        }
+
+        _leaseFuture = _leases.isExpiring()
+                ? executor.scheduleAtFixedRate(new Runnable() {
+                      @Override
+                      public void run() {
+                          try {
+                              checkLeases();
+                          } catch (Exception e) {
+                              // Should never happen, but log just in case. Swallow exception so thread doesn't die.
+                              LOG.error("ServiceCache lease check failed.", e);
+                          }
+                      }
+                  }, _leases.getCheckIntervalMillis(), _leases.getCheckIntervalMillis(), TimeUnit.MILLISECONDS)
+                : null;
+
+        if (_maxLifetimeNanos > 0) {
+            long rotationIntervalMillis = Math.max(1, Math.min(TimeUnit.NANOSECONDS.toMillis(_maxLifetimeNanos),
+                    MAX_ROTATION_INTERVAL_IN_MILLIS));
+            _rotationFuture = executor.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        rotate();
+                    } catch (Exception e) {
+                        // Should never happen, but log just in case. Swallow exception so thread doesn't die.
+                        LOG.error("ServiceCache instance rotation failed.", e);
+                    }
+                }
+            }, rotationIntervalMillis, rotationIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            _rotationFuture = null;
+        }
+
+        // Eviction runs validate every idle instance, one at a time, and destroy the ones that are invalid.  Instances
+        // are only discarded individually, their end point stays usable.
+        _validationFuture = serviceFactory instanceof ValidatingServiceFactory
+                ? executor.scheduleAtFixedRate(new Runnable() {
+                      @Override
+                      public void run() {
+                          try {
+                              _pool.evict();
+                          } catch (Exception e) {
+                              // Should never happen, but log just in case. Swallow exception so thread doesn't die.
+                              LOG.error("ServiceCache validation run failed.", e);
+                          }
+                      }
+                  }, VALIDATION_INTERVAL_IN_SECONDS, VALIDATION_INTERVAL_IN_SECONDS, TimeUnit.SECONDS)
+                : null;
 
         // Don't schedule eviction if not caching or not expiring stale instances.
         _evictionFuture = (policy.getMaxNumServiceInstances() != 0)
@@ -156,6 +339,11 @@ class SingleThreadedClientServiceCache<S> implements ServiceCache<S> {
         return _pool;
     }
 
+    @VisibleForTesting
+    AdaptiveInstanceSizer getSizer() {
+        return _sizer;
+    }
+
     /**
      * Retrieves a cached service instance for an end point that is not currently checked out.  If no idle cached
      * instance is available and the cache is not full, a new one will be created, added to the cache, and then checked
@@ -164,19 +352,42 @@ class SingleThreadedClientServiceCache<S> implements ServiceCache<S> {
      * @param endPoint The end point to retrieve a cached service instance for.
      * @return A service handle that contains a cached service instance for the requested end point.
      * @throws NoCachedInstancesAvailableException If the cache has reached total maximum capacity, or maximum capacity
-     *         for the requested end point, and no connections that aren't already checked out are available.
+     *         for the requested end point, and no connections that aren't already checked out are available, or if the
+     *         end point is being drained.
      */
     public ServiceHandle<S> checkOut(ServiceEndPoint endPoint) throws Exception {
         checkNotNull(endPoint);
+
+        // Taken before anything else so that an end point that's evicted or drained while this is going on
+        // invalidates the instance, and the limit reserved for it.
+        long revision = _revisionNumber.incrementAndGet();
+
+        if (_drains.containsKey(endPoint)) {
+            throw new NoCachedInstancesAvailableException(String.format("End point is being drained: %s", endPoint));
+        }
+
         _requestCount.incrementAndGet();
 
+        AdaptiveInstanceSizer.EndPointLimit limit = null;
+        if (_sizer != null) {
+            limit = _sizer.acquire(endPoint);
+            if (limit == null) {
+                _missCount.incrementAndGet();
+                throw new NoCachedInstancesAvailableException(String.format("No cached instances available for endpoint: %s", endPoint));
+            }
+        }
+
         try {
-            long revision = _revisionNumber.incrementAndGet();
             S service = _pool.borrowObject(endPoint);
             ServiceHandle<S> handle = new ServiceHandle<>(service, endPoint);
 
             // Remember the revision that we've checked this service out on in case we need to invalidate it later
             _checkedOutRevisions.put(handle, revision);
+            _leases.start(handle);
+            if (limit != null) {
+                _checkedOutLimits.put(handle, limit);
+                limit = null;
+            }
 
             return handle;
         } catch (NoSuchElementException e) {
@@ -185,6 +396,11 @@ class SingleThreadedClientServiceCache<S> implements ServiceCache<S> {
             // This will happen if there are no available connections and there is no room for a new one,
             // or if a newly created connection is not valid.
             throw new NoCachedInstancesAvailableException(String.format("No cached instances available for endpoint: %s", endPoint));
+        } finally {
+            // Only still set if we failed to hand out an instance.
+            if (limit != null) {
+                releaseLimit(endPoint, limit, revision);
+            }
         }
     }
 
@@ -205,11 +421,35 @@ class SingleThreadedClientServiceCache<S> implements ServiceCache<S> {
         // for this particular end point, or the cache is closed, then we shouldn't check it in.
         Long invalidRevision = _invalidRevisions.get(endPoint);
         Long serviceRevision = _checkedOutRevisions.remove(handle);
+        _leases.end(handle);
+        AdaptiveInstanceSizer.EndPointLimit limit = _checkedOutLimits.remove(handle);
 
-        if (_isClosed || (invalidRevision != null && serviceRevision < invalidRevision)) {
-            _pool.invalidateObject(endPoint, service);
-        } else {
-            _pool.returnObject(endPoint, service);
+        try {
+            if (serviceRevision == null) {
+                // The instance was already destroyed because its lease expired or its end point took too long to drain.
+                LOG.debug("Checked in an abandoned service instance. End point: {}", endPoint);
+            } else if (_isClosed || (invalidRevision != null && serviceRevision < invalidRevision)) {
+                _pool.invalidateObject(endPoint, service);
+            } else if (isExpired(service, System.nanoTime())) {
+                // The instance has outlived its lifetime.  A replacement has been, or is being, created in the
+                // background, so retire it instead of making it available again.
+                _pool.invalidateObject(endPoint, service);
+            } else if (limit != null && _pool.getNumIdle(endPoint) + _pool.getNumActive(endPoint) > limit.getTarget()) {
+                // The end point's limit has shrunk, so release the instance instead of keeping it idle.  The instance
+                // being checked in still counts as active.
+                _pool.invalidateObject(endPoint, service);
+            } else {
+                _pool.returnObject(endPoint, service);
+            }
+        } finally {
+            if (limit != null) {
+                releaseLimit(endPoint, limit, serviceRevision);
+            }
+        }
+
+        Drain drain = _drains.get(endPoint);
+        if (drain != null && getNumCheckedOut(endPoint) == 0) {
+            finishDrain(endPoint, drain);
         }
     }
 
@@ -233,6 +473,27 @@ class SingleThreadedClientServiceCache<S> implements ServiceCache<S> {
             _evictionFuture.cancel(false);
         }
 
+        if (_sizingFuture != null) {
+            _sizingFuture.cancel(false);
+        }
+
+        if (_leaseFuture != null) {
+            _leaseFuture.cancel(false);
+        }
+
+        if (_rotationFuture != null) {
+            _rotationFuture.cancel(false);
+        }
+
+        if (_validationFuture != null) {
+            _validationFuture.cancel(false);
+        }
+
+        for (Drain drain : _drains.values()) {
+            drain.cancelTimeout();
+        }
+        _drains.clear();
+
         try {
             _pool.close();
         }
@@ -251,12 +512,275 @@ class SingleThreadedClientServiceCache<S> implements ServiceCache<S> {
     public void evict(ServiceEndPoint endPoint) {
         checkNotNull(endPoint);
 
+        // An end point that is evicted while draining is usable again once it is healthy, so stop draining it.
+        Drain drain = _drains.remove(endPoint);
+        if (drain != null) {
+            drain.cancelTimeout();
+        }
+
         // Mark all service instances created prior to now as invalid so that we don't inadvertently check them back in
         _invalidRevisions.put(endPoint, _revisionNumber.incrementAndGet());
         _pool.clear(endPoint);
+
+        if (_sizer != null) {
+            _sizer.remove(endPoint);
+        }
+    }
+
+    /**
+     * Stops checking out service instances for an end point.  Idle instances are destroyed right away, while checked
+     * out instances are destroyed as they are checked in.  If any are still checked out once the drain timeout has
+     * passed they are destroyed anyway, and later checking them in does nothing.
+     */
+    @Override
+    public void drain(final ServiceEndPoint endPoint) {
+        checkNotNull(endPoint);
+
+        if (_drainTimeoutMillis == 0) {
+            evict(endPoint);
+            return;
+        }
+
+        long revision = _revisionNumber.incrementAndGet();
+        final Drain drain = new Drain(revision);
+        if (_drains.putIfAbsent(endPoint, drain) != null) {
+            // Already draining.
+            return;
+        }
+
+        // Mark all service instances created prior to now as invalid so that they are destroyed as they're checked in.
+        _invalidRevisions.put(endPoint, revision);
+        _pool.clear(endPoint);
+
+        if (_sizer != null) {
+            _sizer.remove(endPoint);
+        }
+
+        drain.setTimeout(_executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    timeOutDrain(endPoint, drain);
+                } catch (Exception e) {
+                    // Should never happen, but log just in case. Swallow exception so thread doesn't die.
+                    LOG.error("ServiceCache drain timeout failed.", e);
+                }
+            }
+        }, _drainTimeoutMillis, TimeUnit.MILLISECONDS));
+
+        if (getNumCheckedOut(endPoint) == 0) {
+            finishDrain(endPoint, drain);
+        }
+    }
+
+    @VisibleForTesting
+    boolean isDraining(ServiceEndPoint endPoint) {
+        return _drains.containsKey(endPoint);
+    }
+
+    /**
+     * Counts the instances of an end point that are checked out.  This can't use the pool's active count because
+     * clearing an end point from the pool resets it.
+     */
+    private int getNumCheckedOut(ServiceEndPoint endPoint) {
+        int numCheckedOut = 0;
+        for (ServiceHandle<S> handle : _checkedOutRevisions.keySet()) {
+            if (endPoint.equals(handle.getEndPoint())) {
+                numCheckedOut++;
+            }
+        }
+        return numCheckedOut;
+    }
+
+    private void finishDrain(ServiceEndPoint endPoint, Drain drain) {
+        if (_drains.remove(endPoint, drain)) {
+            drain.cancelTimeout();
+            _drainTimer.update(System.nanoTime() - drain.getStartNanos(), TimeUnit.NANOSECONDS);
+            LOG.debug("Finished draining end point: {}", endPoint);
+        }
+    }
+
+    private void timeOutDrain(ServiceEndPoint endPoint, Drain drain) {
+        if (!_drains.remove(endPoint, drain)) {
+            return;
+        }
+
+        // Take over any instances that were checked out before the drain started and destroy them.
+        int numAbandoned = 0;
+        for (Map.Entry<ServiceHandle<S>, Long> entry : _checkedOutRevisions.entrySet()) {
+            ServiceHandle<S> handle = entry.getKey();
+            if (endPoint.equals(handle.getEndPoint()) && entry.getValue() < drain.getRevision()
+                    && abandon(handle, entry.getValue())) {
+                numAbandoned++;
+            }
+        }
+
+        _numDrainTimeouts.mark();
+        _drainTimer.update(System.nanoTime() - drain.getStartNanos(), TimeUnit.NANOSECONDS);
+        LOG.warn("Timed out draining end point: {}, destroyed {} service instances that were still checked out.",
+                endPoint, numAbandoned);
+    }
+
+    /**
+     * Reports instances that have been checked out for longer than the lease time, and destroys them if configured to.
+     */
+    @VisibleForTesting
+    void checkLeases() {
+        for (ServiceHandle<S> handle : _leases.expire()) {
+            if (_reclaimExpiredLeases) {
+                Long revision = _checkedOutRevisions.get(handle);
+                if (revision != null) {
+                    abandon(handle, revision);
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes back a checked out instance and destroys it.  Whoever has it checked out will find that it's no longer
+     * known when checking it back in.
+     *
+     * @return {@code false} if the instance was checked in, or already abandoned, in the mean time.
+     */
+    private boolean abandon(ServiceHandle<S> handle, Long revision) {
+        if (!_checkedOutRevisions.remove(handle, revision)) {
+            return false;
+        }
+
+        _leases.end(handle);
+        AdaptiveInstanceSizer.EndPointLimit limit = _checkedOutLimits.remove(handle);
+        if (limit != null) {
+            releaseLimit(handle.getEndPoint(), limit, revision);
+        }
+
+        try {
+            _pool.invalidateObject(handle.getEndPoint(), handle.getService());
+        } catch (Exception e) {
+            LOG.warn("Error destroying abandoned service instance. End point: {}", handle.getEndPoint(), e);
+        }
+
+        _numAbandonedInstances.mark();
+        return true;
+    }
+
+    /**
+     * Releases the limit reserved for an instance.  If the end point was evicted or drained after the instance was
+     * checked out, the limit may have been reserved after the sizer forgot about the end point, so it's forgotten
+     * about again rather than left behind for an end point that's gone.
+     */
+    private void releaseLimit(ServiceEndPoint endPoint, AdaptiveInstanceSizer.EndPointLimit limit, Long revision) {
+        Long invalidRevision = _invalidRevisions.get(endPoint);
+        if (revision != null && invalidRevision != null && revision < invalidRevision) {
+            _sizer.remove(limit);
+        }
+        _sizer.release(limit);
     }
 
-    private class PoolServiceFactory<S> extends BaseKeyedPoolableObjectFactory<ServiceEndPoint, S> {
+    /**
+     * Replaces service instances that have outlived their lifetime.  A replacement is created and added to the pool
+     * first, and only then are the expired idle instances retired, so requests never have to wait for a new instance to
+     * be built.  Expired instances that are checked out are retired as they're checked in.
+     */
+    @VisibleForTesting
+    void rotate() throws Exception {
+        long now = System.nanoTime();
+        boolean anyExpired = false;
+        for (Map.Entry<S, Lifetime> entry : _lifetimes.entrySet()) {
+            Lifetime lifetime = entry.getValue();
+            if (!lifetime.isExpired(now)) {
+                continue;
+            }
+
+            anyExpired = true;
+            ServiceEndPoint endPoint = lifetime.getEndPoint();
+            if (!lifetime.markReplaced() || _isClosed || _drains.containsKey(endPoint)) {
+                continue;
+            }
+
+            // If the end point already has as many idle instances as it may keep then the pool discards the
+            // replacement, which is fine since one of those can be used instead.
+            try {
+                _pool.addObject(endPoint);
+            } catch (Exception e) {
+                // The expired instance is still retired, and a replacement will be created on demand instead.
+                LOG.warn("Unable to create replacement service instance. End point: {}", endPoint, e);
+            }
+        }
+
+        if (anyExpired) {
+            _pool.evict();
+        }
+    }
+
+    private boolean isExpired(S service, long now) {
+        Lifetime lifetime = _lifetimes.get(service);
+        return lifetime != null && lifetime.isExpired(now);
+    }
+
+    /**
+     * When a single service instance should be retired.
+     */
+    private static final class Lifetime {
+        private final ServiceEndPoint _endPoint;
+        private final long _retireAtNanos;
+        private final AtomicBoolean _replaced = new AtomicBoolean();
+
+        Lifetime(ServiceEndPoint endPoint, long retireAtNanos) {
+            _endPoint = endPoint;
+            _retireAtNanos = retireAtNanos;
+        }
+
+        ServiceEndPoint getEndPoint() {
+            return _endPoint;
+        }
+
+        boolean isExpired(long now) {
+            return now - _retireAtNanos >= 0;
+        }
+
+        /** Returns {@code true} the first time it's called, so that each instance is only replaced once. */
+        boolean markReplaced() {
+            return _replaced.compareAndSet(false, true);
+        }
+    }
+
+    /**
+     * The state of a single end point that is being drained.
+     */
+    private static final class Drain {
+        private final long _revision;
+        private final long _startNanos = System.nanoTime();
+        private Future<?> _timeout;
+        private boolean _cancelled;
+
+        Drain(long revision) {
+            _revision = revision;
+        }
+
+        long getRevision() {
+            return _revision;
+        }
+
+        long getStartNanos() {
+            return _startNanos;
+        }
+
+        synchronized void setTimeout(Future<?> timeout) {
+            _timeout = timeout;
+            if (_cancelled && _timeout != null) {
+                _timeout.cancel(false);
+            }
+        }
+
+        synchronized void cancelTimeout() {
+            _cancelled = true;
+            if (_timeout != null) {
+                _timeout.cancel(false);
+            }
+        }
+    }
+
+    private class PoolServiceFactory extends BaseKeyedPoolableObjectFactory<ServiceEndPoint, S> {
         private final ServiceFactory<S> _serviceFactory;
 
         public PoolServiceFactory(ServiceFactory<S> serviceFactory) {
@@ -271,6 +795,14 @@ class SingleThreadedClientServiceCache<S> implements ServiceCache<S> {
             try {
                 S service = _serviceFactory.create(endPoint);
                 _loadSuccessCount.incrementAndGet();
+
+                if (_maxLifetimeNanos > 0) {
+                    // Shorten each lifetime by a random amount so instances created together don't all retire together.
+                    long jitterNanos = _lifetimeJitterNanos > 0
+                            ? ThreadLocalRandom.current().nextLong(_lifetimeJitterNanos + 1)
+                            : 0;
+                    _lifetimes.put(service, new Lifetime(endPoint, System.nanoTime() + _maxLifetimeNanos - jitterNanos));
+                }
                 return service;
             } catch (Exception e) {
                 _loadFailureCount.incrementAndGet();
@@ -280,8 +812,37 @@ class SingleThreadedClientServiceCache<S> implements ServiceCache<S> {
             }
         }
 
+        @Override
+        public boolean validateObject(ServiceEndPoint endPoint, S service) {
+            if (isExpired(service, System.nanoTime())) {
+                return false;
+            }
+
+            if (!(_serviceFactory instanceof ValidatingServiceFactory)) {
+                return true;
+            }
+
+            boolean valid;
+            try {
+                valid = ((ValidatingServiceFactory<S>) _serviceFactory).isValid(endPoint, service);
+            } catch (Exception e) {
+                LOG.debug("Exception validating service instance. End point: {}", endPoint, e);
+                valid = false;
+            }
+
+            if (!valid) {
+                _numInvalidInstances.mark();
+                LOG.info("Discarding invalid idle service instance. End point: {}", endPoint);
+            }
+            return valid;
+        }
+
         @Override
         public void destroyObject(ServiceEndPoint endPoint, S service) throws Exception {
+            Lifetime lifetime = _lifetimes.remove(service);
+            if (lifetime != null && lifetime.isExpired(System.nanoTime())) {
+                _numRetiredInstances.mark();
+            }
             _serviceFactory.destroy(endPoint, service);
         }
     }
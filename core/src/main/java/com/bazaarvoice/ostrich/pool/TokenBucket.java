@@ -0,0 +1,67 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Limits the rate of requests: tokens are added at a fixed rate, up to a maximum, and each request takes one.  The
+ * bucket starts out full.
+ */
+class TokenBucket {
+    private final Ticker _ticker;
+    private final double _tokensPerNano;
+    private final double _maxTokens;
+    private double _tokens;
+    private long _lastRefillNanos;
+
+    /**
+     * @param ratePerSecond The number of tokens added per second.
+     * @param burstNanos    How long tokens may be saved up for.  The bucket holds at least one token either way.
+     */
+    TokenBucket(double ratePerSecond, long burstNanos, Ticker ticker) {
+        checkArgument(ratePerSecond > 0);
+        checkArgument(burstNanos > 0);
+        _ticker = checkNotNull(ticker);
+        _tokensPerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+        _maxTokens = Math.max(1, _tokensPerNano * burstNanos);
+        _tokens = _maxTokens;
+        _lastRefillNanos = ticker.read();
+    }
+
+    /**
+     * Takes a token from the bucket.
+     *
+     * @return {@code true} if there was a token left to take.
+     */
+    synchronized boolean tryAcquire() {
+        refill();
+        if (_tokens < 1) {
+            return false;
+        }
+
+        _tokens--;
+        return true;
+    }
+
+    /**
+     * Puts back a token that was taken for a request that wasn't made after all.
+     */
+    synchronized void refund() {
+        _tokens = Math.min(_maxTokens, _tokens + 1);
+    }
+
+    synchronized boolean isExhausted() {
+        refill();
+        return _tokens < 1;
+    }
+
+    private void refill() {
+        long now = _ticker.read();
+        _tokens = Math.min(_maxTokens, _tokens + (now - _lastRefillNanos) * _tokensPerNano);
+        _lastRefillNanos = now;
+    }
+}
@@ -1,10 +1,13 @@
 package com.bazaarvoice.ostrich.retry;
 
-import com.bazaarvoice.ostrich.RetryPolicy;
+import com.bazaarvoice.ostrich.Deadline;
+import com.bazaarvoice.ostrich.DelayingRetryPolicy;
+
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
-public abstract class SleepingRetry implements RetryPolicy {
+public abstract class SleepingRetry implements DelayingRetryPolicy {
     private final int _maxNumAttempts;
 
     protected SleepingRetry(int maxNumAttempts) {
@@ -14,13 +17,18 @@ public abstract class SleepingRetry implements RetryPolicy {
 
     @Override
     public boolean allowRetry(int numAttempts, long elapsedTimeMs) {
-        checkArgument(numAttempts >= 1);
-        if (numAttempts >= _maxNumAttempts) {
+        return allowRetry(numAttempts, elapsedTimeMs, Deadline.NONE);
+    }
+
+    @Override
+    public boolean allowRetry(int numAttempts, long elapsedTimeMs, Deadline deadline) {
+        long sleepTimeMs = getRetryDelayMs(numAttempts, elapsedTimeMs, deadline);
+        if (sleepTimeMs < 0) {
             return false;
         }
 
         try {
-            Thread.sleep(getSleepTimeMs(numAttempts, elapsedTimeMs));
+            Thread.sleep(sleepTimeMs);
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             return false;
@@ -29,5 +37,20 @@ public abstract class SleepingRetry implements RetryPolicy {
         return true;
     }
 
+    @Override
+    public long getRetryDelayMs(int numAttempts, long elapsedTimeMs, Deadline deadline) {
+        checkArgument(numAttempts >= 1);
+        if (numAttempts >= _maxNumAttempts) {
+            return -1;
+        }
+
+        // Don't bother waiting if the deadline will have passed by the time the operation is retried.
+        long sleepTimeMs = getSleepTimeMs(numAttempts, elapsedTimeMs);
+        if (sleepTimeMs >= deadline.getRemaining(TimeUnit.MILLISECONDS)) {
+            return -1;
+        }
+        return sleepTimeMs;
+    }
+
     protected abstract long getSleepTimeMs(int numAttempts, long elapsedTimeMs);
 }
@@ -0,0 +1,53 @@
+package com.bazaarvoice.ostrich;
+
+import com.google.common.base.Ticker;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class DeadlineTest {
+    private final Ticker _ticker = mock(Ticker.class);
+
+    @Test
+    public void testNoneNeverExpires() {
+        assertFalse(Deadline.NONE.isExpired());
+        assertEquals(Long.MAX_VALUE, Deadline.NONE.getRemaining(TimeUnit.MILLISECONDS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeTimeout() {
+        Deadline.after(-1, TimeUnit.SECONDS, _ticker);
+    }
+
+    @Test
+    public void testRemaining() {
+        Deadline deadline = Deadline.after(10, TimeUnit.SECONDS, _ticker);
+
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(4));
+        assertEquals(6, deadline.getRemaining(TimeUnit.SECONDS));
+        assertFalse(deadline.isExpired());
+    }
+
+    @Test
+    public void testExpired() {
+        Deadline deadline = Deadline.after(10, TimeUnit.SECONDS, _ticker);
+
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(10));
+        assertTrue(deadline.isExpired());
+        assertEquals(0, deadline.getRemaining(TimeUnit.SECONDS));
+
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(20));
+        assertEquals(0, deadline.getRemaining(TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testZeroTimeoutExpiredRightAway() {
+        assertTrue(Deadline.after(0, TimeUnit.SECONDS, _ticker).isExpired());
+    }
+}
@@ -68,6 +68,30 @@ public class ServiceEndPointBuilderTest {
         assertEquals("payload", endPoint.getPayload());
     }
 
+    @Test
+    public void testNoCapacity() {
+        ServiceEndPoint endPoint = new ServiceEndPointBuilder()
+                .withServiceName("service")
+                .withId("id")
+                .build();
+        assertEquals(0, endPoint.getCapacity(), 0);
+    }
+
+    @Test
+    public void testCapacity() {
+        ServiceEndPoint endPoint = new ServiceEndPointBuilder()
+                .withServiceName("service")
+                .withId("id")
+                .withCapacity(100)
+                .build();
+        assertEquals(100, endPoint.getCapacity(), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeCapacity() {
+        new ServiceEndPointBuilder().withCapacity(-1);
+    }
+
     @Test
     public void testInvalidServiceNames() {
         String[] invalidNames = new String[] {"Foo$Bar", "%", "a@b", "!", null, ""};
@@ -0,0 +1,151 @@
+package com.bazaarvoice.ostrich.healthcheck;
+
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ConnectHealthCheckerTest {
+    private final List<Closeable> _closeables = Lists.newArrayList();
+
+    @After
+    public void teardown() throws IOException {
+        for (Closeable closeable : Lists.reverse(_closeables)) {
+            closeable.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroTimeout() {
+        new ConnectHealthChecker(0, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testListeningEndPointIsHealthy() throws IOException {
+        ServerSocket server = newServer(50);
+        ConnectHealthChecker checker = newChecker(10, TimeUnit.SECONDS);
+
+        assertTrue(checker.isHealthy(newEndPoint(server.getLocalPort())));
+    }
+
+    @Test
+    public void testClosedPortIsUnhealthy() throws IOException {
+        ServerSocket server = newServer(50);
+        int port = server.getLocalPort();
+        server.close();
+        ConnectHealthChecker checker = newChecker(10, TimeUnit.SECONDS);
+
+        assertFalse(checker.isHealthy(newEndPoint(port)));
+    }
+
+    @Test
+    public void testUnresponsiveEndPointTimesOut() throws IOException {
+        // Fill up the accept backlog of a server that never accepts, so that further connects go unanswered.
+        ServerSocket server = newServer(1);
+        for (int i = 0; i < 2; i++) {
+            Socket socket = new Socket();
+            socket.connect(server.getLocalSocketAddress(), 1000);
+            _closeables.add(socket);
+        }
+        ConnectHealthChecker checker = newChecker(100, TimeUnit.MILLISECONDS);
+
+        long start = System.nanoTime();
+        assertFalse(checker.isHealthy(newEndPoint(server.getLocalPort())));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    public void testChecksManyEndPointsAtOnce() throws Exception {
+        ServerSocket healthy = newServer(50);
+        ServerSocket closed = newServer(50);
+        int closedPort = closed.getLocalPort();
+        closed.close();
+        ConnectHealthChecker checker = newChecker(10, TimeUnit.SECONDS);
+
+        List<CompletableFuture<Boolean>> healthyResults = Lists.newArrayList();
+        List<CompletableFuture<Boolean>> unhealthyResults = Lists.newArrayList();
+        for (int i = 0; i < 20; i++) {
+            healthyResults.add(checker.isHealthyAsync(newEndPoint(healthy.getLocalPort())));
+            unhealthyResults.add(checker.isHealthyAsync(newEndPoint(closedPort)));
+        }
+
+        for (CompletableFuture<Boolean> result : healthyResults) {
+            assertTrue(result.get(10, TimeUnit.SECONDS));
+        }
+        for (CompletableFuture<Boolean> result : unhealthyResults) {
+            assertFalse(result.get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testInvalidEndPointIdFails() throws Exception {
+        ConnectHealthChecker checker = newChecker(10, TimeUnit.SECONDS);
+        ServiceEndPoint endPoint = mock(ServiceEndPoint.class);
+        when(endPoint.getId()).thenReturn("no-port");
+
+        try {
+            checker.isHealthyAsync(endPoint).get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void testCustomAddressResolver() throws IOException {
+        final ServerSocket server = newServer(50);
+        ConnectHealthChecker checker = new ConnectHealthChecker(new ConnectHealthChecker.AddressResolver() {
+            @Override
+            public InetSocketAddress getAddress(ServiceEndPoint endPoint) {
+                return new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort());
+            }
+        }, 10, TimeUnit.SECONDS);
+        _closeables.add(checker);
+
+        assertTrue(checker.isHealthy(mock(ServiceEndPoint.class)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCheckAfterClose() throws IOException {
+        ServerSocket server = newServer(50);
+        ConnectHealthChecker checker = newChecker(10, TimeUnit.SECONDS);
+        checker.close();
+
+        checker.isHealthyAsync(newEndPoint(server.getLocalPort()));
+    }
+
+    private ServerSocket newServer(int backlog) throws IOException {
+        ServerSocket server = new ServerSocket(0, backlog, InetAddress.getLoopbackAddress());
+        _closeables.add(server);
+        return server;
+    }
+
+    private ConnectHealthChecker newChecker(long timeout, TimeUnit unit) {
+        ConnectHealthChecker checker = new ConnectHealthChecker(timeout, unit);
+        _closeables.add(checker);
+        return checker;
+    }
+
+    private ServiceEndPoint newEndPoint(int port) {
+        ServiceEndPoint endPoint = mock(ServiceEndPoint.class);
+        when(endPoint.getId()).thenReturn(InetAddress.getLoopbackAddress().getHostAddress() + ":" + port);
+        return endPoint;
+    }
+}
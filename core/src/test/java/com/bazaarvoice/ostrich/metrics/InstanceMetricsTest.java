@@ -9,6 +9,7 @@ import org.junit.Test;
 import java.util.Collection;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 
 public class InstanceMetricsTest {
@@ -92,6 +93,25 @@ public class InstanceMetricsTest {
         assertNotRegistered(metrics, "num-instances");
     }
 
+    @Test
+    public void testRemoveUnregistersMetric() {
+        Metrics.InstanceMetrics metrics = newMetrics(INSTANCE_ONE, "serviceName");
+        metrics.counter("counter");
+        metrics.remove("counter");
+
+        assertNotRegistered(metrics, "counter");
+    }
+
+    @Test
+    public void testRemoveKeepsOtherMetrics() {
+        Metrics.InstanceMetrics metrics = newMetrics(INSTANCE_ONE, "serviceName");
+        metrics.counter("counter");
+        metrics.meter("meter");
+        metrics.remove("counter");
+
+        assertNotNull(_registry.getMetrics().get(metrics.name("meter")));
+    }
+
     private Metrics.InstanceMetrics newMetrics(Object instance, String serviceName) {
         Metrics.InstanceMetrics metrics = Metrics.forInstance(_registry, instance, serviceName);
         _created.add(metrics);
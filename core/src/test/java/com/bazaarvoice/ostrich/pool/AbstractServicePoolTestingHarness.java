@@ -1,26 +1,38 @@
 package com.bazaarvoice.ostrich.pool;
 
+import com.bazaarvoice.ostrich.CircuitBreakerState;
+import com.bazaarvoice.ostrich.Deadline;
+import com.bazaarvoice.ostrich.DeadlineServiceCallback;
 import com.bazaarvoice.ostrich.HealthCheckResults;
 import com.bazaarvoice.ostrich.HostDiscovery;
+import com.bazaarvoice.ostrich.IdempotentServiceCallback;
 import com.bazaarvoice.ostrich.LoadBalanceAlgorithm;
 import com.bazaarvoice.ostrich.PartitionContext;
 import com.bazaarvoice.ostrich.RetryPolicy;
 import com.bazaarvoice.ostrich.ServiceCallback;
 import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.ServiceEndPointBuilder;
 import com.bazaarvoice.ostrich.ServiceFactory;
 import com.bazaarvoice.ostrich.ServicePoolStatistics;
+import com.bazaarvoice.ostrich.SingleFlightServiceCallback;
+import com.bazaarvoice.ostrich.exceptions.ConcurrencyLimitExceededException;
+import com.bazaarvoice.ostrich.exceptions.DeadlineExceededException;
 import com.bazaarvoice.ostrich.exceptions.MaxRetriesException;
 import com.bazaarvoice.ostrich.exceptions.NoAvailableHostsException;
 import com.bazaarvoice.ostrich.exceptions.NoSuitableHostsException;
 import com.bazaarvoice.ostrich.exceptions.OnlyBadHostsException;
+import com.bazaarvoice.ostrich.exceptions.RateLimitExceededException;
 import com.bazaarvoice.ostrich.exceptions.ServiceException;
 import com.bazaarvoice.ostrich.healthcheck.FixedHealthCheckRetryDelay;
 import com.bazaarvoice.ostrich.partition.PartitionFilter;
+import com.bazaarvoice.ostrich.retry.RetryNTimes;
 import com.codahale.metrics.MetricRegistry;
 import com.google.common.base.Ticker;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -32,12 +44,15 @@ import org.mockito.stubbing.Answer;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -77,6 +92,8 @@ public abstract class AbstractServicePoolTestingHarness {
     protected ScheduledExecutorService _healthCheckExecutor;
     protected MetricRegistry _registry;
     protected ServicePool<Service> _pool;
+    // Pools built by individual tests register their metrics here, as those of _pool would shadow them in _registry.
+    protected final MetricRegistry _otherPoolRegistry = new MetricRegistry();
 
     protected abstract ServiceCachingPolicy getServiceCachingPolicy();
     protected abstract ServiceFactory<Service> getServiceFactoryMock();
@@ -776,6 +793,403 @@ public abstract class AbstractServicePoolTestingHarness {
         assertTrue(_pool.getBadEndPoints().isEmpty());
     }
 
+    @Test
+    public void testHealthyEndPointAddedBackIsReadmitted() {
+        HostDiscovery.EndPointListener listener = captureEndPointListener();
+
+        // Host discovery loses its connection and then finds all of the end points again.
+        for (ServiceEndPoint endPoint : _hostDiscovery.getHosts()) {
+            listener.onEndPointRemoved(endPoint);
+        }
+        for (ServiceEndPoint endPoint : _hostDiscovery.getHosts()) {
+            listener.onEndPointAdded(endPoint);
+        }
+
+        assertEquals(0, _pool.getNumBadEndPoints());
+        assertEquals(3, _registry.getMeters().get(
+                MetricRegistry.name(ServicePool.class, "Service", "num-readmitted-end-points")).getCount());
+        verify(_serviceFactory, never()).isHealthy(any(ServiceEndPoint.class));
+    }
+
+    @Test
+    public void testBadEndPointAddedBackIsHealthChecked() {
+        when(_hostDiscovery.getHosts()).thenReturn(ImmutableList.of(FOO_ENDPOINT));
+        HostDiscovery.EndPointListener listener = captureEndPointListener();
+
+        try {
+            _pool.execute(NEVER_RETRY, new ServiceCallback<Service, Void>() {
+                @Override
+                public Void call(Service service) throws ServiceException {
+                    throw new ServiceException();
+                }
+            });
+            fail();
+        } catch (MaxRetriesException e) {
+            // Expected
+        }
+
+        listener.onEndPointRemoved(FOO_ENDPOINT);
+        listener.onEndPointAdded(FOO_ENDPOINT);
+
+        assertEquals(1, _pool.getNumBadEndPoints());
+    }
+
+    @Test
+    public void testEndPointAddedBackAfterReadmissionWindowIsHealthChecked() {
+        HostDiscovery.EndPointListener listener = captureEndPointListener();
+
+        listener.onEndPointRemoved(FOO_ENDPOINT);
+        when(_ticker.read()).thenReturn(TimeUnit.MILLISECONDS.toNanos(ServicePool.DEFAULT_READMISSION_WINDOW_MILLIS));
+        listener.onEndPointAdded(FOO_ENDPOINT);
+
+        assertEquals(ImmutableList.of(FOO_ENDPOINT), ImmutableList.copyOf(_pool.getBadEndPoints()));
+    }
+
+    @Test
+    public void testNewEndPointIsHealthChecked() {
+        HostDiscovery.EndPointListener listener = captureEndPointListener();
+
+        listener.onEndPointAdded(FOO_ENDPOINT);
+
+        assertEquals(ImmutableList.of(FOO_ENDPOINT), ImmutableList.copyOf(_pool.getBadEndPoints()));
+    }
+
+    @Test
+    public void testSuccessfulTrafficSkipsHealthCheck() throws Exception {
+        when(_hostDiscovery.getHosts()).thenReturn(ImmutableList.of(FOO_ENDPOINT));
+
+        try {
+            _pool.execute(NEVER_RETRY, new ServiceCallback<Service, Void>() {
+                @Override
+                public Void call(Service service) throws ServiceException {
+                    throw new ServiceException();
+                }
+            });
+            fail();
+        } catch (MaxRetriesException e) {
+            // Expected
+        }
+
+        // A request sent straight to the bad end point succeeds, as AsyncServicePool.executeOnAll would.
+        when(_ticker.read()).thenReturn(1L);
+        _pool.executeOnEndPoint(FOO_ENDPOINT, new ServiceCallback<Service, Void>() {
+            @Override
+            public Void call(Service service) {
+                return null;
+            }
+        });
+
+        _pool.forceHealthChecks();
+
+        assertEquals(0, _pool.getNumBadEndPoints());
+        verify(_serviceFactory, never()).isHealthy(any(ServiceEndPoint.class));
+    }
+
+    @Test
+    public void testTrafficStartedBeforeFailureDoesNotSkipHealthCheck() throws Exception {
+        when(_hostDiscovery.getHosts()).thenReturn(ImmutableList.of(FOO_ENDPOINT));
+
+        // A slow request that started before another one failed...
+        _pool.executeOnEndPoint(FOO_ENDPOINT, new ServiceCallback<Service, Void>() {
+            @Override
+            public Void call(Service service) {
+                when(_ticker.read()).thenReturn(1L);
+                try {
+                    _pool.execute(NEVER_RETRY, new ServiceCallback<Service, Void>() {
+                        @Override
+                        public Void call(Service service) throws ServiceException {
+                            throw new ServiceException();
+                        }
+                    });
+                    fail();
+                } catch (MaxRetriesException e) {
+                    // Expected
+                }
+                return null;
+            }
+        });
+
+        // ...doesn't show that the end point is healthy.
+        _pool.forceHealthChecks();
+
+        assertEquals(1, _pool.getNumBadEndPoints());
+        verify(_serviceFactory).isHealthy(FOO_ENDPOINT);
+    }
+
+    @Test
+    public void testEndPointWithRecentTrafficAddedWithoutHealthCheck() throws Exception {
+        HostDiscovery.EndPointListener listener = captureEndPointListener();
+
+        when(_ticker.read()).thenReturn(1L);
+        _pool.executeOnEndPoint(FOO_ENDPOINT, new ServiceCallback<Service, Void>() {
+            @Override
+            public Void call(Service service) {
+                return null;
+            }
+        });
+        listener.onEndPointAdded(FOO_ENDPOINT);
+
+        assertEquals(0, _pool.getNumBadEndPoints());
+    }
+
+    @Test
+    public void testStaleTopologyGauge() {
+        String name = MetricRegistry.name(ServicePool.class, "Service", "stale-topology");
+        assertEquals(false, _registry.getGauges().get(name).getValue());
+
+        when(_hostDiscovery.isStale()).thenReturn(true);
+        assertEquals(true, _registry.getGauges().get(name).getValue());
+    }
+
+    @Test
+    public void testCircuitBreakerDoesNotMarkEndPointBadOnSingleFailure() {
+        ServicePool<Service> pool = newCircuitBreakerPool(new CircuitBreakerPolicyBuilder()
+                .withConsecutiveFailureThreshold(2)
+                .build());
+
+        try {
+            pool.execute(NEVER_RETRY, new ServiceCallback<Service, Void>() {
+                @Override
+                public Void call(Service service) throws ServiceException {
+                    throw new ServiceException();
+                }
+            });
+            fail();
+        } catch (MaxRetriesException e) {
+            // Expected
+        }
+
+        assertTrue(pool.getBadEndPoints().isEmpty());
+        assertEquals(CircuitBreakerState.CLOSED, pool.getServicePoolStatistics().getCircuitBreakerState(FOO_ENDPOINT));
+        assertSame(FOO_SERVICE, pool.execute(NEVER_RETRY, new ServiceCallback<Service, Service>() {
+            @Override
+            public Service call(Service service) throws ServiceException {
+                return service;
+            }
+        }));
+        pool.close();
+    }
+
+    @Test
+    public void testOpenCircuitRoutesToOtherEndPoints() {
+        ServicePool<Service> pool = newCircuitBreakerPool(new CircuitBreakerPolicyBuilder()
+                .withConsecutiveFailureThreshold(1)
+                .build());
+
+        try {
+            pool.execute(NEVER_RETRY, new ServiceCallback<Service, Void>() {
+                @Override
+                public Void call(Service service) throws ServiceException {
+                    throw new ServiceException();
+                }
+            });
+            fail();
+        } catch (MaxRetriesException e) {
+            // Expected
+        }
+
+        assertTrue(pool.getBadEndPoints().isEmpty());
+        assertEquals(CircuitBreakerState.OPEN, pool.getServicePoolStatistics().getCircuitBreakerState(FOO_ENDPOINT));
+        assertSame(BAR_SERVICE, pool.execute(NEVER_RETRY, new ServiceCallback<Service, Service>() {
+            @Override
+            public Service call(Service service) throws ServiceException {
+                return service;
+            }
+        }));
+        pool.close();
+    }
+
+    @Test
+    public void testHalfOpenCircuitClosedByTrialRequest() {
+        ServicePool<Service> pool = newCircuitBreakerPool(new CircuitBreakerPolicyBuilder()
+                .withConsecutiveFailureThreshold(1)
+                .withOpenDuration(10, TimeUnit.SECONDS)
+                .withHalfOpenTrials(1.0, 1)
+                .build());
+
+        try {
+            pool.execute(NEVER_RETRY, new ServiceCallback<Service, Void>() {
+                @Override
+                public Void call(Service service) throws ServiceException {
+                    throw new ServiceException();
+                }
+            });
+            fail();
+        } catch (MaxRetriesException e) {
+            // Expected
+        }
+
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(10));
+        assertEquals(CircuitBreakerState.HALF_OPEN,
+                pool.getServicePoolStatistics().getCircuitBreakerState(FOO_ENDPOINT));
+
+        // Every request is a trial, so this one goes to FOO and closes its circuit.
+        assertSame(FOO_SERVICE, pool.execute(NEVER_RETRY, new ServiceCallback<Service, Service>() {
+            @Override
+            public Service call(Service service) throws ServiceException {
+                return service;
+            }
+        }));
+        assertEquals(CircuitBreakerState.CLOSED, pool.getServicePoolStatistics().getCircuitBreakerState(FOO_ENDPOINT));
+        verify(_serviceFactory, never()).isHealthy(FOO_ENDPOINT);
+        pool.close();
+    }
+
+    @Test
+    public void testOutlierEjectionScheduledOnHealthCheckExecutor() {
+        ServicePool<Service> pool = newPool(null, new OutlierEjectionPolicyBuilder()
+                .withEvaluationInterval(5, TimeUnit.SECONDS, 3)
+                .build(), 0, null, null);
+
+        verify(_healthCheckExecutor).scheduleAtFixedRate(any(ServicePool.OutlierEvaluator.class),
+                eq(TimeUnit.SECONDS.toNanos(5)), eq(TimeUnit.SECONDS.toNanos(5)), eq(TimeUnit.NANOSECONDS));
+        pool.close();
+    }
+
+    @Test
+    public void testNoOutlierEjectionByDefault() {
+        verify(_healthCheckExecutor, never()).scheduleAtFixedRate(any(ServicePool.OutlierEvaluator.class),
+                anyLong(), anyLong(), any(TimeUnit.class));
+    }
+
+    @Test
+    public void testPanicModeSendsRequestsToBadEndPoints() {
+        ServicePool<Service> pool = newPool(null, null, 0.5, null, null);
+        when(_hostDiscovery.getHosts()).thenReturn(ImmutableList.of(FOO_ENDPOINT, BAR_ENDPOINT));
+        String name = MetricRegistry.name(ServicePool.class, "Service", "panic-mode");
+
+        try {
+            pool.execute(NEVER_RETRY, new ServiceCallback<Service, Void>() {
+                @Override
+                public Void call(Service service) throws ServiceException {
+                    throw new ServiceException();
+                }
+            });
+            fail();
+        } catch (MaxRetriesException e) {
+            // Expected
+        }
+        assertEquals(false, _otherPoolRegistry.getGauges().get(name).getValue());
+
+        // Half of the end points are still usable, which is enough.
+        assertSame(BAR_SERVICE, pool.execute(NEVER_RETRY, new ServiceCallback<Service, Service>() {
+            @Override
+            public Service call(Service service) throws ServiceException {
+                return service;
+            }
+        }));
+        assertEquals(false, _otherPoolRegistry.getGauges().get(name).getValue());
+
+        // Once BAR is bad too, requests are sent to both of them.
+        when(_hostDiscovery.getHosts()).thenReturn(ImmutableList.of(BAR_ENDPOINT, FOO_ENDPOINT, BAZ_ENDPOINT));
+        try {
+            pool.execute(NEVER_RETRY, new ServiceCallback<Service, Void>() {
+                @Override
+                public Void call(Service service) throws ServiceException {
+                    throw new ServiceException();
+                }
+            });
+            fail();
+        } catch (MaxRetriesException e) {
+            // Expected
+        }
+        assertEquals(ImmutableSet.of(FOO_ENDPOINT, BAR_ENDPOINT), pool.getBadEndPoints());
+        assertSame(BAR_SERVICE, pool.execute(NEVER_RETRY, new ServiceCallback<Service, Service>() {
+            @Override
+            public Service call(Service service) throws ServiceException {
+                return service;
+            }
+        }));
+        assertEquals(true, _otherPoolRegistry.getGauges().get(name).getValue());
+        pool.close();
+    }
+
+    @Test
+    public void testNoPanicModeByDefault() {
+        when(_hostDiscovery.getHosts()).thenReturn(ImmutableList.of(FOO_ENDPOINT, BAR_ENDPOINT));
+        ServiceCallback<Service, Void> failure = new ServiceCallback<Service, Void>() {
+            @Override
+            public Void call(Service service) throws ServiceException {
+                throw new ServiceException();
+            }
+        };
+        for (int i = 0; i < 2; i++) {
+            try {
+                _pool.execute(NEVER_RETRY, failure);
+                fail();
+            } catch (MaxRetriesException e) {
+                // Expected
+            }
+        }
+
+        try {
+            _pool.execute(NEVER_RETRY, failure);
+            fail();
+        } catch (OnlyBadHostsException e) {
+            // Expected
+        }
+        assertEquals(false, _registry.getGauges()
+                .get(MetricRegistry.name(ServicePool.class, "Service", "panic-mode")).getValue());
+    }
+
+    @Test
+    public void testFlappingEndPointQuarantined() {
+        ServicePool<Service> pool = newPool(null, null, 0, new FlapDampeningPolicyBuilder()
+                .withSuppressThreshold(1)
+                .withQuarantineTime(10, 60, TimeUnit.SECONDS)
+                .build(), null);
+        when(_hostDiscovery.getHosts()).thenReturn(ImmutableList.of(FOO_ENDPOINT));
+        when(_serviceFactory.isHealthy(FOO_ENDPOINT)).thenReturn(true);
+
+        try {
+            pool.execute(NEVER_RETRY, new ServiceCallback<Service, Void>() {
+                @Override
+                public Void call(Service service) throws ServiceException {
+                    throw new ServiceException();
+                }
+            });
+            fail();
+        } catch (MaxRetriesException e) {
+            // Expected
+        }
+
+        // FOO passes its health check, but went bad while in use so it's quarantined first.
+        pool.forceHealthChecks();
+        assertEquals(ImmutableSet.of(FOO_ENDPOINT), pool.getBadEndPoints());
+        assertEquals(1, _otherPoolRegistry.meter(MetricRegistry.name(ServicePool.class, "Service",
+                "num-flap-quarantines")).getCount());
+
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(10));
+        pool.forceHealthChecks();
+        assertEquals(ImmutableSet.<ServiceEndPoint>of(), pool.getBadEndPoints());
+        pool.close();
+    }
+
+    @Test
+    public void testNewEndPointNotQuarantined() {
+        ServicePool<Service> pool = newPool(null, null, 0, new FlapDampeningPolicyBuilder()
+                .withSuppressThreshold(1)
+                .build(), null);
+        ServiceEndPoint endPoint = mock(ServiceEndPoint.class);
+        when(_serviceFactory.isHealthy(endPoint)).thenReturn(true);
+
+        // An end point that host discovery adds hasn't been in use yet, so it doesn't count as flapping.
+        ArgumentCaptor<HostDiscovery.EndPointListener> listener = ArgumentCaptor.forClass(
+                HostDiscovery.EndPointListener.class);
+        verify(_hostDiscovery, times(2)).addListener(listener.capture());
+        listener.getAllValues().get(1).onEndPointAdded(endPoint);
+        assertEquals(ImmutableSet.of(endPoint), pool.getBadEndPoints());
+
+        pool.forceHealthChecks();
+        assertEquals(ImmutableSet.<ServiceEndPoint>of(), pool.getBadEndPoints());
+        pool.close();
+    }
+
+    @Test
+    public void testCircuitBreakerStateClosedWithoutCircuitBreaker() {
+        assertEquals(CircuitBreakerState.CLOSED, _pool.getServicePoolStatistics().getCircuitBreakerState(FOO_ENDPOINT));
+    }
+
     @Test
     public void testIsHealthyHandlesExceptions() {
         when(_serviceFactory.isHealthy(FOO_ENDPOINT)).thenThrow(new RuntimeException());
@@ -864,9 +1278,636 @@ public abstract class AbstractServicePoolTestingHarness {
     }
 
     @Test
-    public void testValidEndPointCount() {
-        assertEquals(3, _pool.getNumValidEndPoints());
-        assertEquals(0, _pool.getNumBadEndPoints());
+    public void testHangingHealthCheckTimesOut() throws Exception {
+        final CountDownLatch interruptedLatch = new CountDownLatch(1);
+        final CountDownLatch retriedLatch = new CountDownLatch(1);
+        final AtomicBoolean hung = new AtomicBoolean();
+        when(_serviceFactory.isHealthy(FOO_ENDPOINT)).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                if (hung.compareAndSet(false, true)) {
+                    synchronized (this) {
+                        try {
+                            this.wait();
+                        } catch (InterruptedException e) {
+                            interruptedLatch.countDown();
+                        }
+                    }
+                } else {
+                    retriedLatch.countDown();
+                }
+
+                return false;
+            }
+        });
+
+        when(_hostDiscovery.getHosts()).thenReturn(ImmutableList.of(FOO_ENDPOINT));
+
+        ServicePool<Service> pool = new ServicePool<>(_ticker, _hostDiscovery, false, _serviceFactory,
+                new ServiceCacheBuilder<Service>()
+                        .withServiceFactory(_serviceFactory)
+                        .withCachingPolicy(ServiceCachingPolicyBuilder.NO_CACHING)
+                        .withMetricRegistry(_registry)
+                        .build(),
+                _partitionFilter, _loadBalanceAlgorithm, Executors.newScheduledThreadPool(1), true,
+                new FixedHealthCheckRetryDelay(10, TimeUnit.MILLISECONDS), 1, 50,
+                ServicePool.DEFAULT_READMISSION_WINDOW_MILLIS, _registry);
+
+        try {
+            pool.execute(NEVER_RETRY, new ServiceCallback<Service, Void>() {
+                @Override
+                public Void call(Service service) throws ServiceException {
+                    throw new ServiceException();
+                }
+            });
+            fail();
+        } catch (MaxRetriesException e) {
+            // Expected
+        }
+
+        // The hanging health check should be interrupted once it times out, and the end point checked again.
+        assertTrue(interruptedLatch.await(10, TimeUnit.SECONDS));
+        assertTrue(retriedLatch.await(10, TimeUnit.SECONDS));
+        assertEquals(1, pool.getNumBadEndPoints());
+
+        pool.close();
+    }
+
+    @Test
+    public void testSlowIdempotentRequestHedged() throws Exception {
+        ServicePool<Service> pool = newPool(null, null, 0, null, new HedgingPolicyBuilder()
+                .withFixedDelay(0, TimeUnit.MILLISECONDS)
+                .withBudget(1)
+                .build());
+        final CountDownLatch fooLatch = new CountDownLatch(1);
+
+        try {
+            // FOO doesn't respond until the test is done, so the hedge sent to BAR wins.
+            assertSame(BAR_SERVICE, pool.execute(NEVER_RETRY, new IdempotentServiceCallback<Service, Service>() {
+                @Override
+                public Service call(Service service) throws ServiceException {
+                    if (service == FOO_SERVICE) {
+                        Uninterruptibles.awaitUninterruptibly(fooLatch);
+                    }
+                    return service;
+                }
+            }));
+        } finally {
+            fooLatch.countDown();
+        }
+        assertEquals(1, _otherPoolRegistry.meter(MetricRegistry.name(ServicePool.class, "Service", "num-hedges"))
+                .getCount());
+        assertEquals(1, _otherPoolRegistry.meter(MetricRegistry.name(ServicePool.class, "Service", "num-hedge-wins"))
+                .getCount());
+        pool.close();
+    }
+
+    @Test
+    public void testHedgingLimitedByBudget() throws Exception {
+        ServicePool<Service> pool = newPool(null, null, 0, null, new HedgingPolicyBuilder()
+                .withFixedDelay(0, TimeUnit.MILLISECONDS)
+                .withBudget(0.5)
+                .build());
+
+        // Half a hedge isn't enough to hedge the request, so it waits for FOO.
+        assertSame(FOO_SERVICE, pool.execute(NEVER_RETRY, new IdempotentServiceCallback<Service, Service>() {
+            @Override
+            public Service call(Service service) throws ServiceException {
+                Uninterruptibles.sleepUninterruptibly(50, TimeUnit.MILLISECONDS);
+                return service;
+            }
+        }));
+        assertEquals(0, _otherPoolRegistry.meter(MetricRegistry.name(ServicePool.class, "Service", "num-hedges"))
+                .getCount());
+        assertEquals(1, _otherPoolRegistry.meter(MetricRegistry.name(ServicePool.class, "Service",
+                "num-hedges-over-budget")).getCount());
+        pool.close();
+    }
+
+    @Test
+    public void testRequestFasterThanHedgeDelayNotCountedOverBudget() {
+        ServicePool<Service> pool = newPool(null, null, 0, null, new HedgingPolicyBuilder()
+                .withFixedDelay(1, TimeUnit.SECONDS)
+                .withBudget(0.5)
+                .build());
+
+        // The request completes before a hedge would have been due, so running out of budget didn't matter.
+        assertSame(FOO_SERVICE, pool.execute(NEVER_RETRY, new IdempotentServiceCallback<Service, Service>() {
+            @Override
+            public Service call(Service service) throws ServiceException {
+                return service;
+            }
+        }));
+        assertEquals(0, _otherPoolRegistry.meter(MetricRegistry.name(ServicePool.class, "Service",
+                "num-hedges-over-budget")).getCount());
+        pool.close();
+    }
+
+    @Test
+    public void testRequestThatCannotBeHedgedRunsOnCallerThread() {
+        ServicePool<Service> pool = newPool(null, null, 0, null, new HedgingPolicyBuilder()
+                .withFixedDelay(0, TimeUnit.MILLISECONDS)
+                .withBudget(0.5)
+                .build());
+        final Thread caller = Thread.currentThread();
+
+        // Without budget for a hedge there's no reason to leave the caller's thread.
+        assertTrue(pool.execute(NEVER_RETRY, new IdempotentServiceCallback<Service, Boolean>() {
+            @Override
+            public Boolean call(Service service) throws ServiceException {
+                return Thread.currentThread() == caller;
+            }
+        }));
+        pool.close();
+    }
+
+    @Test
+    public void testHedgedRequestUsesOtherAttemptAfterFailure() throws Exception {
+        ServicePool<Service> pool = newPool(null, null, 0, null, new HedgingPolicyBuilder()
+                .withFixedDelay(0, TimeUnit.MILLISECONDS)
+                .withBudget(1)
+                .build());
+        final CountDownLatch barStarted = new CountDownLatch(1);
+        final CountDownLatch fooFailed = new CountDownLatch(1);
+
+        // FOO fails once the hedge to BAR is under way, and BAR succeeds after that.
+        assertSame(BAR_SERVICE, pool.execute(NEVER_RETRY, new IdempotentServiceCallback<Service, Service>() {
+            @Override
+            public Service call(Service service) throws ServiceException {
+                if (service == FOO_SERVICE) {
+                    try {
+                        Uninterruptibles.awaitUninterruptibly(barStarted);
+                        throw new ServiceException();
+                    } finally {
+                        fooFailed.countDown();
+                    }
+                }
+                barStarted.countDown();
+                Uninterruptibles.awaitUninterruptibly(fooFailed);
+                Uninterruptibles.sleepUninterruptibly(50, TimeUnit.MILLISECONDS);
+                return service;
+            }
+        }));
+        pool.close();
+    }
+
+    @Test
+    public void testOtherRequestsNotHedged() {
+        ServicePool<Service> pool = newPool(null, null, 0, null, new HedgingPolicyBuilder()
+                .withFixedDelay(0, TimeUnit.MILLISECONDS)
+                .withBudget(1)
+                .build());
+        final Thread caller = Thread.currentThread();
+
+        // Requests that may not be hedged run on the caller's thread as usual.
+        assertTrue(pool.execute(NEVER_RETRY, new ServiceCallback<Service, Boolean>() {
+            @Override
+            public Boolean call(Service service) throws ServiceException {
+                Uninterruptibles.sleepUninterruptibly(10, TimeUnit.MILLISECONDS);
+                return Thread.currentThread() == caller;
+            }
+        }));
+        assertEquals(0, _otherPoolRegistry.meter(MetricRegistry.name(ServicePool.class, "Service", "num-hedges"))
+                .getCount());
+        pool.close();
+    }
+
+    @Test
+    public void testNotExecutedPastDeadline() {
+        try {
+            _pool.execute(Deadline.after(0, TimeUnit.SECONDS, _ticker), NEVER_RETRY,
+                    new ServiceCallback<Service, Void>() {
+                        @Override
+                        public Void call(Service service) throws ServiceException {
+                            fail();
+                            return null;
+                        }
+                    });
+            fail();
+        } catch (DeadlineExceededException e) {
+            // Expected
+        }
+        verify(_serviceFactory, never()).create(any(ServiceEndPoint.class));
+    }
+
+    @Test
+    public void testNotRetriedPastDeadline() {
+        final AtomicInteger numAttempts = new AtomicInteger();
+        try {
+            _pool.execute(Deadline.after(10, TimeUnit.SECONDS, _ticker), new RetryNTimes(3),
+                    new ServiceCallback<Service, Void>() {
+                        @Override
+                        public Void call(Service service) throws ServiceException {
+                            numAttempts.incrementAndGet();
+                            when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(10));
+                            throw new ServiceException();
+                        }
+                    });
+            fail();
+        } catch (DeadlineExceededException e) {
+            assertTrue(e.getCause() instanceof ServiceException);
+        }
+        assertEquals(1, numAttempts.get());
+    }
+
+    @Test
+    public void testRetriedWithinDeadline() {
+        final AtomicInteger numAttempts = new AtomicInteger();
+        try {
+            _pool.execute(Deadline.after(10, TimeUnit.SECONDS, _ticker), new RetryNTimes(3),
+                    new ServiceCallback<Service, Void>() {
+                        @Override
+                        public Void call(Service service) throws ServiceException {
+                            numAttempts.incrementAndGet();
+                            throw new ServiceException();
+                        }
+                    });
+            fail();
+        } catch (MaxRetriesException e) {
+            // Expected
+        }
+        assertEquals(3, numAttempts.get());
+    }
+
+    @Test
+    public void testDeadlinePassedToCallback() {
+        final Deadline deadline = Deadline.after(10, TimeUnit.SECONDS, _ticker);
+
+        assertSame(deadline, _pool.execute(deadline, NEVER_RETRY, new DeadlineServiceCallback<Service, Deadline>() {
+            @Override
+            public Deadline call(Service service, Deadline callDeadline) throws ServiceException {
+                return callDeadline;
+            }
+        }));
+    }
+
+    @Test
+    public void testRetriesLimitedByBudget() {
+        ServicePool<Service> pool = newRetryBudgetPool(0.1, 1);
+
+        // The first request may use the one retry in the budget.
+        assertEquals(2, (int) pool.execute(new RetryNTimes(3), newFailOnceCallback()));
+
+        // That leaves a tenth of a retry, which isn't enough to retry the second request.
+        try {
+            pool.execute(new RetryNTimes(3), newFailOnceCallback());
+            fail();
+        } catch (MaxRetriesException e) {
+            assertTrue(e.getCause() instanceof ServiceException);
+        }
+        assertEquals(1, _otherPoolRegistry.meter(MetricRegistry.name(ServicePool.class, "Service",
+                "num-retries-over-budget")).getCount());
+        pool.close();
+    }
+
+    @Test
+    public void testRetryBudgetRefilledByRequests() {
+        ServicePool<Service> pool = newRetryBudgetPool(0.5, 1);
+
+        assertEquals(2, (int) pool.execute(new RetryNTimes(3), newFailOnceCallback()));
+        pool.execute(NEVER_RETRY, new ServiceCallback<Service, Void>() {
+            @Override
+            public Void call(Service service) throws ServiceException {
+                return null;
+            }
+        });
+
+        // The two requests put a whole retry back into the budget.
+        assertEquals(2, (int) pool.execute(new RetryNTimes(3), newFailOnceCallback()));
+        assertEquals(0, _otherPoolRegistry.meter(MetricRegistry.name(ServicePool.class, "Service",
+                "num-retries-over-budget")).getCount());
+        pool.close();
+    }
+
+    @Test
+    public void testConcurrencyLimitRejectsRequests() {
+        final ServicePool<Service> pool = newConcurrencyLimitPool(new ConcurrencyLimitPolicyBuilder()
+                .withLimits(1, 1, 1)
+                .build());
+
+        // The outer request takes the only place, so the inner one is rejected rather than retried.
+        pool.execute(NEVER_RETRY, new ServiceCallback<Service, Void>() {
+            @Override
+            public Void call(Service service) throws ServiceException {
+                try {
+                    pool.execute(new RetryNTimes(3), new ServiceCallback<Service, Void>() {
+                        @Override
+                        public Void call(Service service) throws ServiceException {
+                            fail();
+                            return null;
+                        }
+                    });
+                    fail();
+                } catch (ConcurrencyLimitExceededException e) {
+                    // Expected
+                }
+                return null;
+            }
+        });
+
+        assertEquals(1, _otherPoolRegistry.meter(MetricRegistry.name(ServicePool.class, "Service",
+                "num-concurrency-limit-rejections")).getCount());
+        assertEquals(0, pool.getNumBadEndPoints());
+        pool.close();
+    }
+
+    @Test
+    public void testConcurrencyLimitReleasedAfterFailure() {
+        ServicePool<Service> pool = newConcurrencyLimitPool(new ConcurrencyLimitPolicyBuilder()
+                .withLimits(1, 1, 1)
+                .build());
+
+        assertEquals(2, (int) pool.execute(new RetryNTimes(3), newFailOnceCallback()));
+
+        String name = MetricRegistry.name(ServicePool.class, "Service", "num-in-flight-requests");
+        assertEquals(0, _otherPoolRegistry.getGauges().get(name).getValue());
+        pool.close();
+    }
+
+    @Test
+    public void testConcurrencyLimitShrinksOnFailures() {
+        ServicePool<Service> pool = newConcurrencyLimitPool(new ConcurrencyLimitPolicyBuilder()
+                .withLimits(10, 1, 10)
+                .build());
+
+        try {
+            pool.execute(new RetryNTimes(3), new ServiceCallback<Service, Void>() {
+                @Override
+                public Void call(Service service) throws ServiceException {
+                    throw new ServiceException();
+                }
+            });
+            fail();
+        } catch (MaxRetriesException e) {
+            // Expected
+        }
+
+        String name = MetricRegistry.name(ServicePool.class, "Service", "concurrency-limit");
+        assertTrue((Integer) _otherPoolRegistry.getGauges().get(name).getValue() < 10);
+        pool.close();
+    }
+
+    @Test
+    public void testSaturatedEndPointSkipped() {
+        final ServicePool<Service> pool = newBulkheadPool(1);
+
+        // The outer request saturates FOO, so the inner one goes to BAR.
+        Service inner = pool.execute(NEVER_RETRY, new ServiceCallback<Service, Service>() {
+            @Override
+            public Service call(Service service) throws ServiceException {
+                assertSame(FOO_SERVICE, service);
+                return pool.execute(NEVER_RETRY, new ServiceCallback<Service, Service>() {
+                    @Override
+                    public Service call(Service service) throws ServiceException {
+                        return service;
+                    }
+                });
+            }
+        });
+
+        assertSame(BAR_SERVICE, inner);
+        pool.close();
+    }
+
+    @Test
+    public void testAllEndPointsSaturatedFailsFast() {
+        when(_hostDiscovery.getHosts()).thenReturn(ImmutableList.of(FOO_ENDPOINT));
+        final ServicePool<Service> pool = newBulkheadPool(1);
+
+        pool.execute(NEVER_RETRY, new ServiceCallback<Service, Void>() {
+            @Override
+            public Void call(Service service) throws ServiceException {
+                try {
+                    pool.execute(new RetryNTimes(3), new ServiceCallback<Service, Void>() {
+                        @Override
+                        public Void call(Service service) throws ServiceException {
+                            fail();
+                            return null;
+                        }
+                    });
+                    fail();
+                } catch (ConcurrencyLimitExceededException e) {
+                    // Expected
+                }
+                return null;
+            }
+        });
+
+        assertEquals(1, _otherPoolRegistry.meter(MetricRegistry.name(ServicePool.class, "Service",
+                "num-bulkhead-rejections")).getCount());
+        assertEquals(0, pool.getNumBadEndPoints());
+        pool.close();
+    }
+
+    @Test
+    public void testEndPointNotSaturatedAfterRequest() {
+        ServicePool<Service> pool = newBulkheadPool(1);
+
+        assertEquals(2, (int) pool.execute(new RetryNTimes(3), newFailOnceCallback()));
+
+        String name = MetricRegistry.name(ServicePool.class, "Service", "num-saturated-end-points");
+        assertEquals(0, _otherPoolRegistry.getGauges().get(name).getValue());
+        pool.close();
+    }
+
+    @Test
+    public void testRateLimitedPoolFailsFast() {
+        ServicePool<Service> pool = newRateLimitPool(new RateLimitPolicyBuilder()
+                .withMaxRequestsPerSecond(1)
+                .build());
+        pool.execute(NEVER_RETRY, newIdentityCallback());
+
+        try {
+            pool.execute(new RetryNTimes(3), new ServiceCallback<Service, Void>() {
+                @Override
+                public Void call(Service service) throws ServiceException {
+                    fail();
+                    return null;
+                }
+            });
+            fail();
+        } catch (RateLimitExceededException e) {
+            // Expected
+        }
+
+        assertEquals(1, _otherPoolRegistry.meter(MetricRegistry.name(ServicePool.class, "Service",
+                "num-rate-limit-rejections")).getCount());
+        assertEquals(0, pool.getNumBadEndPoints());
+        pool.close();
+    }
+
+    @Test
+    public void testRateLimitRefills() {
+        ServicePool<Service> pool = newRateLimitPool(new RateLimitPolicyBuilder()
+                .withMaxRequestsPerSecond(1)
+                .build());
+        pool.execute(NEVER_RETRY, newIdentityCallback());
+
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(1));
+
+        assertSame(FOO_SERVICE, pool.execute(NEVER_RETRY, newIdentityCallback()));
+        pool.close();
+    }
+
+    @Test
+    public void testEndPointOverCapacitySkipped() {
+        ServiceEndPoint limited = new ServiceEndPointBuilder()
+                .withServiceName(Service.class.getSimpleName())
+                .withId("limited")
+                .withCapacity(2)
+                .build();
+        when(_hostDiscovery.getHosts()).thenReturn(ImmutableList.of(limited, BAR_ENDPOINT));
+        when(_serviceFactory.create(limited)).thenReturn(FOO_SERVICE);
+        ServicePool<Service> pool = newRateLimitPool(new RateLimitPolicyBuilder()
+                .withEndPointCapacityShare(0.5)
+                .build());
+
+        // Half of the declared capacity leaves a single request per second for the limited end point.
+        assertSame(FOO_SERVICE, pool.execute(NEVER_RETRY, newIdentityCallback()));
+        assertSame(BAR_SERVICE, pool.execute(NEVER_RETRY, newIdentityCallback()));
+
+        String name = MetricRegistry.name(ServicePool.class, "Service", "num-rate-limited-end-points");
+        assertEquals(1, _otherPoolRegistry.getGauges().get(name).getValue());
+        pool.close();
+    }
+
+    @Test
+    public void testSingleFlightCoalescesConcurrentRequests() throws Exception {
+        final ServicePool<Service> pool = newPool(null, null, 0, null, null, 0, 0, null, 0, null, true);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger numCalls = new AtomicInteger();
+        final ServiceCallback<Service, Integer> callback = new SingleFlightServiceCallback<Service, Integer>() {
+            @Override
+            public Integer call(Service service) throws ServiceException {
+                Uninterruptibles.awaitUninterruptibly(release);
+                return numCalls.incrementAndGet();
+            }
+
+            @Override
+            public Object getSingleFlightKey() {
+                return "key";
+            }
+        };
+        Callable<Integer> request = new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return pool.execute(NEVER_RETRY, callback);
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            Future<Integer> first = executor.submit(request);
+            Future<Integer> second = executor.submit(request);
+            String name = MetricRegistry.name(ServicePool.class, "Service", "num-coalesced-requests");
+            while (_otherPoolRegistry.meter(name).getCount() == 0) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            assertEquals(1, (int) first.get(10, TimeUnit.SECONDS));
+            assertEquals(1, (int) second.get(10, TimeUnit.SECONDS));
+            assertEquals(1, numCalls.get());
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testSingleFlightRequestMadeAgainOnceCompleted() {
+        ServicePool<Service> pool = newPool(null, null, 0, null, null, 0, 0, null, 0, null, true);
+        final AtomicInteger numCalls = new AtomicInteger();
+        ServiceCallback<Service, Integer> callback = new SingleFlightServiceCallback<Service, Integer>() {
+            @Override
+            public Integer call(Service service) throws ServiceException {
+                return numCalls.incrementAndGet();
+            }
+
+            @Override
+            public Object getSingleFlightKey() {
+                return "key";
+            }
+        };
+
+        assertEquals(1, (int) pool.execute(NEVER_RETRY, callback));
+        assertEquals(2, (int) pool.execute(NEVER_RETRY, callback));
+        pool.close();
+    }
+
+    private ServiceCallback<Service, Service> newIdentityCallback() {
+        return new ServiceCallback<Service, Service>() {
+            @Override
+            public Service call(Service service) throws ServiceException {
+                return service;
+            }
+        };
+    }
+
+    /** Returns a callback that fails its first attempt, and returns the number of attempts once it succeeds. */
+    private ServiceCallback<Service, Integer> newFailOnceCallback() {
+        final AtomicInteger numAttempts = new AtomicInteger();
+        return new ServiceCallback<Service, Integer>() {
+            @Override
+            public Integer call(Service service) throws ServiceException {
+                if (numAttempts.incrementAndGet() == 1) {
+                    throw new ServiceException();
+                }
+                return numAttempts.get();
+            }
+        };
+    }
+
+    private ServicePool<Service> newCircuitBreakerPool(CircuitBreakerPolicy circuitBreakerPolicy) {
+        return newPool(circuitBreakerPolicy, null, 0, null, null);
+    }
+
+    private ServicePool<Service> newRetryBudgetPool(double retryBudgetRatio, int retryBudgetCapacity) {
+        return newPool(null, null, 0, null, null, retryBudgetRatio, retryBudgetCapacity, null, 0, null, false);
+    }
+
+    private ServicePool<Service> newConcurrencyLimitPool(ConcurrencyLimitPolicy concurrencyLimitPolicy) {
+        return newPool(null, null, 0, null, null, 0, 0, concurrencyLimitPolicy, 0, null, false);
+    }
+
+    private ServicePool<Service> newBulkheadPool(int maxInFlightPerEndPoint) {
+        return newPool(null, null, 0, null, null, 0, 0, null, maxInFlightPerEndPoint, null, false);
+    }
+
+    private ServicePool<Service> newRateLimitPool(RateLimitPolicy rateLimitPolicy) {
+        return newPool(null, null, 0, null, null, 0, 0, null, 0, rateLimitPolicy, false);
+    }
+
+    private ServicePool<Service> newPool(CircuitBreakerPolicy circuitBreakerPolicy,
+                                         OutlierEjectionPolicy outlierEjectionPolicy, double panicThreshold,
+                                         FlapDampeningPolicy flapDampeningPolicy, HedgingPolicy hedgingPolicy) {
+        return newPool(circuitBreakerPolicy, outlierEjectionPolicy, panicThreshold, flapDampeningPolicy, hedgingPolicy,
+                0, 0, null, 0, null, false);
+    }
+
+    private ServicePool<Service> newPool(CircuitBreakerPolicy circuitBreakerPolicy,
+                                         OutlierEjectionPolicy outlierEjectionPolicy, double panicThreshold,
+                                         FlapDampeningPolicy flapDampeningPolicy, HedgingPolicy hedgingPolicy,
+                                         double retryBudgetRatio, int retryBudgetCapacity,
+                                         ConcurrencyLimitPolicy concurrencyLimitPolicy, int maxInFlightPerEndPoint,
+                                         RateLimitPolicy rateLimitPolicy, boolean singleFlight) {
+        return new ServicePool<>(_ticker, _hostDiscovery, false, _serviceFactory,
+                new ServiceCacheBuilder<Service>()
+                        .withServiceFactory(_serviceFactory)
+                        .withCachingPolicy(UNLIMITED_CACHING)
+                        .withMetricRegistry(new MetricRegistry())
+                        .build(),
+                _partitionFilter, _loadBalanceAlgorithm, _healthCheckExecutor, false, FixedHealthCheckRetryDelay.ZERO,
+                1, 0, ServicePool.DEFAULT_READMISSION_WINDOW_MILLIS, circuitBreakerPolicy, outlierEjectionPolicy,
+                panicThreshold, flapDampeningPolicy, hedgingPolicy, retryBudgetRatio, retryBudgetCapacity,
+                concurrencyLimitPolicy, maxInFlightPerEndPoint, rateLimitPolicy, singleFlight, _otherPoolRegistry);
+    }
+
+    @Test
+    public void testValidEndPointCount() {
+        assertEquals(3, _pool.getNumValidEndPoints());
+        assertEquals(0, _pool.getNumBadEndPoints());
     }
 
     @Test
@@ -898,6 +1939,13 @@ public abstract class AbstractServicePoolTestingHarness {
         assertEquals(2, _pool.getNumBadEndPoints());
     }
 
+    private HostDiscovery.EndPointListener captureEndPointListener() {
+        ArgumentCaptor<HostDiscovery.EndPointListener> listener = ArgumentCaptor.forClass(
+                HostDiscovery.EndPointListener.class);
+        verify(_hostDiscovery).addListener(listener.capture());
+        return listener.getValue();
+    }
+
     // A dummy interface for testing...
     protected static interface Service {
     }
@@ -0,0 +1,229 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.metrics.Metrics;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class AdaptiveInstanceSizerTest {
+    private static final ServiceEndPoint END_POINT = mock(ServiceEndPoint.class);
+
+    static {
+        when(END_POINT.getId()).thenReturn("end-point");
+    }
+
+    private final MetricRegistry _registry = new MetricRegistry();
+    private final Metrics.InstanceMetrics _metrics = Metrics.forInstance(_registry, this, "service");
+
+    @After
+    public void teardown() {
+        _metrics.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroFloor() {
+        new AdaptiveInstanceSizer(0, 1, ServiceCachingPolicy.ExhaustionAction.FAIL, _metrics);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCeilingBelowFloor() {
+        new AdaptiveInstanceSizer(2, 1, ServiceCachingPolicy.ExhaustionAction.FAIL, _metrics);
+    }
+
+    @Test
+    public void testStartsAtCeiling() {
+        AdaptiveInstanceSizer sizer = newSizer(1, 4, ServiceCachingPolicy.ExhaustionAction.FAIL);
+        assertEquals(4, sizer.getTarget(END_POINT));
+    }
+
+    @Test
+    public void testFailsWhenAtTarget() throws Exception {
+        AdaptiveInstanceSizer sizer = newSizer(1, 1, ServiceCachingPolicy.ExhaustionAction.FAIL);
+        assertNotNull(sizer.acquire(END_POINT));
+        assertNull(sizer.acquire(END_POINT));
+    }
+
+    @Test
+    public void testGrowsPastTargetWhenGrowing() throws Exception {
+        AdaptiveInstanceSizer sizer = newSizer(1, 1, ServiceCachingPolicy.ExhaustionAction.GROW);
+        assertNotNull(sizer.acquire(END_POINT));
+        assertNotNull(sizer.acquire(END_POINT));
+    }
+
+    @Test
+    public void testWaitsWhenAtTarget() throws Exception {
+        final AdaptiveInstanceSizer sizer = newSizer(1, 1, ServiceCachingPolicy.ExhaustionAction.WAIT);
+        AdaptiveInstanceSizer.EndPointLimit limit = sizer.acquire(END_POINT);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<AdaptiveInstanceSizer.EndPointLimit> future = executor.submit(
+                    new Callable<AdaptiveInstanceSizer.EndPointLimit>() {
+                        @Override
+                        public AdaptiveInstanceSizer.EndPointLimit call() throws Exception {
+                            return sizer.acquire(END_POINT);
+                        }
+                    });
+
+            try {
+                future.get(100, TimeUnit.MILLISECONDS);
+                fail();
+            } catch (TimeoutException e) {
+                // Expected, the only slot is still in use.
+            }
+
+            sizer.release(limit);
+            assertSame(limit, future.get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testShrinksWhenUnderUtilized() throws Exception {
+        AdaptiveInstanceSizer sizer = newSizer(1, 4, ServiceCachingPolicy.ExhaustionAction.FAIL);
+        sizer.release(sizer.acquire(END_POINT));
+
+        sizer.adjust();
+        assertEquals(3, sizer.getTarget(END_POINT));
+    }
+
+    @Test
+    public void testDoesNotShrinkBelowFloor() throws Exception {
+        AdaptiveInstanceSizer sizer = newSizer(3, 4, ServiceCachingPolicy.ExhaustionAction.FAIL);
+        sizer.release(sizer.acquire(END_POINT));
+
+        sizer.adjust();
+        sizer.adjust();
+        assertEquals(3, sizer.getTarget(END_POINT));
+    }
+
+    @Test
+    public void testDoesNotShrinkWhenUtilized() throws Exception {
+        AdaptiveInstanceSizer sizer = newSizer(1, 4, ServiceCachingPolicy.ExhaustionAction.FAIL);
+        sizer.acquire(END_POINT);
+        sizer.acquire(END_POINT);
+
+        sizer.adjust();
+        assertEquals(4, sizer.getTarget(END_POINT));
+    }
+
+    @Test
+    public void testGrowsAfterMisses() throws Exception {
+        AdaptiveInstanceSizer sizer = newSizer(1, 8, ServiceCachingPolicy.ExhaustionAction.FAIL);
+        sizer.release(sizer.acquire(END_POINT));
+        for (int i = 0; i < 6; i++) {
+            sizer.adjust();
+        }
+        assertEquals(2, sizer.getTarget(END_POINT));
+
+        sizer.acquire(END_POINT);
+        sizer.acquire(END_POINT);
+        assertNull(sizer.acquire(END_POINT));
+
+        sizer.adjust();
+        assertEquals(3, sizer.getTarget(END_POINT));
+    }
+
+    @Test
+    public void testDoesNotGrowAboveCeiling() throws Exception {
+        AdaptiveInstanceSizer sizer = newSizer(1, 2, ServiceCachingPolicy.ExhaustionAction.GROW);
+        for (int i = 0; i < 5; i++) {
+            sizer.acquire(END_POINT);
+        }
+
+        sizer.adjust();
+        assertEquals(2, sizer.getTarget(END_POINT));
+    }
+
+    @Test
+    public void testPublishesTargetGauge() throws Exception {
+        AdaptiveInstanceSizer sizer = newSizer(1, 4, ServiceCachingPolicy.ExhaustionAction.FAIL);
+        sizer.release(sizer.acquire(END_POINT));
+        sizer.adjust();
+
+        assertEquals(3, getGaugeValue());
+    }
+
+    @Test
+    public void testRemoveStartsOverAtCeiling() throws Exception {
+        AdaptiveInstanceSizer sizer = newSizer(1, 4, ServiceCachingPolicy.ExhaustionAction.FAIL);
+        sizer.release(sizer.acquire(END_POINT));
+        sizer.adjust();
+
+        sizer.remove(END_POINT);
+        assertEquals(4, sizer.getTarget(END_POINT));
+        assertNull(_registry.getGauges().get(gaugeName()));
+    }
+
+    @Test
+    public void testRemoveWhileReservedKeepsGaugeUntilReleased() throws Exception {
+        AdaptiveInstanceSizer sizer = newSizer(1, 4, ServiceCachingPolicy.ExhaustionAction.FAIL);
+        AdaptiveInstanceSizer.EndPointLimit limit = sizer.acquire(END_POINT);
+
+        sizer.remove(END_POINT);
+        assertNotNull(_registry.getGauges().get(gaugeName()));
+
+        sizer.release(limit);
+        assertNull(_registry.getGauges().get(gaugeName()));
+    }
+
+    @Test
+    public void testReservationAfterRemoveStartsOver() throws Exception {
+        AdaptiveInstanceSizer sizer = newSizer(1, 4, ServiceCachingPolicy.ExhaustionAction.FAIL);
+        AdaptiveInstanceSizer.EndPointLimit oldLimit = sizer.acquire(END_POINT);
+        sizer.remove(END_POINT);
+
+        AdaptiveInstanceSizer.EndPointLimit newLimit = sizer.acquire(END_POINT);
+        assertNotSame(oldLimit, newLimit);
+
+        // Releasing the old limit mustn't take the gauge of the new one with it.
+        sizer.release(oldLimit);
+        assertNotNull(_registry.getGauges().get(gaugeName()));
+        sizer.release(newLimit);
+        assertNotNull(_registry.getGauges().get(gaugeName()));
+    }
+
+    @Test
+    public void testRemoveLimitReservedAfterEndPointRemoved() throws Exception {
+        AdaptiveInstanceSizer sizer = newSizer(1, 4, ServiceCachingPolicy.ExhaustionAction.FAIL);
+        sizer.release(sizer.acquire(END_POINT));
+        sizer.remove(END_POINT);
+
+        // A check out that raced with the removal created a new limit, which is forgotten about again.
+        AdaptiveInstanceSizer.EndPointLimit limit = sizer.acquire(END_POINT);
+        sizer.remove(limit);
+        sizer.release(limit);
+
+        assertNull(_registry.getGauges().get(gaugeName()));
+    }
+
+    private AdaptiveInstanceSizer newSizer(int floor, int ceiling, ServiceCachingPolicy.ExhaustionAction action) {
+        return new AdaptiveInstanceSizer(floor, ceiling, action, _metrics);
+    }
+
+    private Object getGaugeValue() {
+        return _registry.getGauges().get(gaugeName()).getValue();
+    }
+
+    private String gaugeName() {
+        return MetricRegistry.name(getClass(), "service", "target-num-instances-per-end-point", "end-point");
+    }
+}
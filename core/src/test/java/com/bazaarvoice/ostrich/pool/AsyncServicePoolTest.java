@@ -1,11 +1,17 @@
 package com.bazaarvoice.ostrich.pool;
 
+import com.bazaarvoice.ostrich.Deadline;
+import com.bazaarvoice.ostrich.DelayingRetryPolicy;
 import com.bazaarvoice.ostrich.PartitionContext;
+import com.bazaarvoice.ostrich.PrioritizedServiceCallback;
+import com.bazaarvoice.ostrich.Priority;
 import com.bazaarvoice.ostrich.RetryPolicy;
 import com.bazaarvoice.ostrich.ServiceCallback;
 import com.bazaarvoice.ostrich.ServiceEndPoint;
 import com.bazaarvoice.ostrich.ServiceEndPointPredicate;
 import com.bazaarvoice.ostrich.exceptions.MaxRetriesException;
+import com.bazaarvoice.ostrich.exceptions.RequestShedException;
+import com.bazaarvoice.ostrich.exceptions.ServiceException;
 import com.codahale.metrics.MetricRegistry;
 import com.google.common.base.Ticker;
 import com.google.common.collect.Lists;
@@ -15,6 +21,7 @@ import com.google.common.util.concurrent.MoreExecutors;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
 import java.io.IOException;
 import java.util.Collection;
@@ -25,15 +32,18 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.same;
 import static org.mockito.Mockito.RETURNS_MOCKS;
 import static org.mockito.Mockito.mock;
@@ -50,6 +60,7 @@ public class AsyncServicePoolTest {
 
     private final Ticker _mockTicker = mock(Ticker.class);
     private final ExecutorService _mockExecutor = mock(ExecutorService.class);
+    private final ScheduledExecutorService _mockRetryExecutor = mock(ScheduledExecutorService.class);
     private final Collection<AsyncServicePool<Service>> _asyncServicePools = Lists.newArrayList();
     private final MetricRegistry _metricRegistry = mock(MetricRegistry.class, RETURNS_MOCKS);
 
@@ -114,6 +125,19 @@ public class AsyncServicePoolTest {
         verify(_mockPool).execute(same(context), same(NEVER_RETRY), same(callback));
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testExecutesDeadlineInPool() {
+        AsyncServicePool<Service> pool = newAsyncPool(MoreExecutors.newDirectExecutorService());
+
+        ServiceCallback<Service, Void> callback = (ServiceCallback<Service, Void>) mock(ServiceCallback.class);
+        PartitionContext context = mock(PartitionContext.class);
+        Deadline deadline = Deadline.after(1, TimeUnit.SECONDS);
+        pool.execute(deadline, context, NEVER_RETRY, callback);
+
+        verify(_mockPool).execute(same(deadline), same(context), same(NEVER_RETRY), same(callback));
+    }
+
     @SuppressWarnings("unchecked")
     @Test
     public void testExecuteAllSubmitsMultipleCallablesToExecutor() {
@@ -374,6 +398,135 @@ public class AsyncServicePoolTest {
         future.get(10, TimeUnit.SECONDS);
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testRetryScheduledWithoutHoldingThread() throws Exception {
+        DelayingRetryPolicy retry = mock(DelayingRetryPolicy.class);
+        ServiceCallback<Service, String> callback = mock(ServiceCallback.class);
+        when(_mockPool.executeAttempt(same(Deadline.NONE), any(PartitionContext.class), same(callback), any()))
+                .thenThrow(new ExecutionException(new ServiceException()))
+                .thenReturn("result");
+        when(_mockPool.getRetryDelayMs(same(retry), eq(1), anyLong(), same(Deadline.NONE))).thenReturn(100L);
+
+        AsyncServicePool<Service> pool = newScheduledRetryAsyncPool();
+        Future<String> future = pool.execute(retry, callback);
+
+        // The first attempt failed, and nothing waits for the retry until it's due.
+        assertFalse(future.isDone());
+        verify(retry, never()).allowRetry(anyInt(), anyLong());
+        ArgumentCaptor<Runnable> retryTask = ArgumentCaptor.forClass(Runnable.class);
+        verify(_mockRetryExecutor).schedule(retryTask.capture(), eq(100L), eq(TimeUnit.MILLISECONDS));
+
+        retryTask.getValue().run();
+
+        assertEquals("result", future.get(10, TimeUnit.SECONDS));
+        verify(_mockPool).recordRequest();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testScheduledRetriesExhausted() throws Exception {
+        DelayingRetryPolicy retry = mock(DelayingRetryPolicy.class);
+        ServiceCallback<Service, String> callback = mock(ServiceCallback.class);
+        when(_mockPool.executeAttempt(any(Deadline.class), any(PartitionContext.class), same(callback), any()))
+                .thenThrow(new ExecutionException(new ServiceException()));
+        when(_mockPool.getRetryDelayMs(same(retry), anyInt(), anyLong(), any(Deadline.class))).thenReturn(-1L);
+
+        AsyncServicePool<Service> pool = newScheduledRetryAsyncPool();
+        Future<String> future = pool.execute(Deadline.after(10, TimeUnit.SECONDS), retry, callback);
+
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof MaxRetriesException);
+        }
+        verify(_mockRetryExecutor, never()).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testCancelledRequestNotRetried() throws Exception {
+        DelayingRetryPolicy retry = mock(DelayingRetryPolicy.class);
+        ServiceCallback<Service, String> callback = mock(ServiceCallback.class);
+        when(_mockPool.executeAttempt(any(Deadline.class), any(PartitionContext.class), same(callback), any()))
+                .thenThrow(new ExecutionException(new ServiceException()));
+        when(_mockPool.getRetryDelayMs(same(retry), anyInt(), anyLong(), any(Deadline.class))).thenReturn(100L);
+
+        AsyncServicePool<Service> pool = newScheduledRetryAsyncPool();
+        Future<String> future = pool.execute(retry, callback);
+        ArgumentCaptor<Runnable> retryTask = ArgumentCaptor.forClass(Runnable.class);
+        verify(_mockRetryExecutor).schedule(retryTask.capture(), anyLong(), any(TimeUnit.class));
+
+        future.cancel(false);
+        retryTask.getValue().run();
+
+        verify(_mockPool, times(1)).executeAttempt(any(Deadline.class), any(PartitionContext.class), same(callback),
+                any());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testCloseFailsRequestWaitingToBeRetried() throws Exception {
+        DelayingRetryPolicy retry = mock(DelayingRetryPolicy.class);
+        ServiceCallback<Service, String> callback = mock(ServiceCallback.class);
+        when(_mockPool.executeAttempt(any(Deadline.class), any(PartitionContext.class), same(callback), any()))
+                .thenThrow(new ExecutionException(new ServiceException()));
+        when(_mockPool.getRetryDelayMs(same(retry), anyInt(), anyLong(), any(Deadline.class))).thenReturn(100L);
+
+        AsyncServicePool<Service> pool = newScheduledRetryAsyncPool();
+        Future<String> future = pool.execute(retry, callback);
+        ArgumentCaptor<Runnable> retryTask = ArgumentCaptor.forClass(Runnable.class);
+        verify(_mockRetryExecutor).schedule(retryTask.capture(), anyLong(), any(TimeUnit.class));
+
+        pool.close();
+
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof MaxRetriesException);
+        }
+
+        // The retry doesn't run once it's due either.
+        retryTask.getValue().run();
+        verify(_mockPool, times(1)).executeAttempt(any(Deadline.class), any(PartitionContext.class), same(callback),
+                any());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testExecuteOnRetryScheduled() throws Exception {
+        when(_mockPool.getAllEndPoints()).thenReturn(Lists.newArrayList(mock(ServiceEndPoint.class)));
+        when(_mockPool.executeOnEndPoint(any(ServiceEndPoint.class), any(ServiceCallback.class)))
+                .thenThrow(RuntimeException.class).thenReturn("result");
+        when(_mockPool.isRetriableException(any(Exception.class))).thenReturn(true);
+
+        DelayingRetryPolicy retry = mock(DelayingRetryPolicy.class);
+        when(retry.getRetryDelayMs(eq(1), anyLong(), same(Deadline.NONE))).thenReturn(50L);
+
+        AsyncServicePool<Service> pool = newScheduledRetryAsyncPool();
+        Collection<Future<String>> futures = pool.executeOnAll(retry, mock(ServiceCallback.class));
+        assertEquals(1, futures.size());
+
+        ArgumentCaptor<Runnable> retryTask = ArgumentCaptor.forClass(Runnable.class);
+        verify(_mockRetryExecutor).schedule(retryTask.capture(), eq(50L), eq(TimeUnit.MILLISECONDS));
+        retryTask.getValue().run();
+
+        assertEquals("result", futures.iterator().next().get(10, TimeUnit.SECONDS));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testOtherRetryPoliciesNotScheduled() throws Exception {
+        ServiceCallback<Service, String> callback = mock(ServiceCallback.class);
+        when(_mockPool.execute(same(NEVER_RETRY), same(callback))).thenReturn("result");
+
+        AsyncServicePool<Service> pool = newScheduledRetryAsyncPool();
+
+        assertEquals("result", pool.execute(NEVER_RETRY, callback).get(10, TimeUnit.SECONDS));
+    }
+
     @Test
     public void testCloseDoesShutdownExecutor() throws IOException {
         AsyncServicePool<Service> pool = newAsyncPool(_mockExecutor, true);
@@ -428,6 +581,58 @@ public class AsyncServicePoolTest {
         verify(_mockPool).getNumBadEndPoints();
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testLoadSheddingExecutesCallbackInPool() throws Exception {
+        AsyncServicePool<Service> pool = newLoadSheddingAsyncPool(MoreExecutors.newDirectExecutorService());
+
+        ServiceCallback<Service, Void> callback = (ServiceCallback<Service, Void>) mock(ServiceCallback.class);
+        Future<Void> future = pool.execute(NEVER_RETRY, callback);
+
+        assertTrue(future.isDone());
+        verify(_mockPool).execute(same(NEVER_RETRY), same(callback));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testLoadSheddingShedsRequestWhenQueueFull() throws Exception {
+        // The mock executor never runs anything, so the first request keeps running.
+        AsyncServicePool<Service> pool = newLoadSheddingAsyncPool(_mockExecutor);
+        pool.execute(NEVER_RETRY, mock(ServiceCallback.class));
+        Future<Object> queued = pool.execute(NEVER_RETRY, mock(ServiceCallback.class));
+
+        Future<Object> shed = pool.execute(NEVER_RETRY, mock(ServiceCallback.class));
+
+        assertFalse(queued.isDone());
+        assertShed(shed);
+        verify(_mockExecutor).execute(any(Runnable.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testLoadSheddingPrioritizedCallbackPushesOutDefault() throws Exception {
+        AsyncServicePool<Service> pool = newLoadSheddingAsyncPool(_mockExecutor);
+        pool.execute(NEVER_RETRY, mock(ServiceCallback.class));
+        Future<Object> queued = pool.execute(NEVER_RETRY, mock(ServiceCallback.class));
+
+        PrioritizedServiceCallback<Service, Object> critical = mock(PrioritizedServiceCallback.class);
+        when(critical.getPriority()).thenReturn(Priority.CRITICAL);
+        Future<Object> future = pool.execute(NEVER_RETRY, critical);
+
+        assertShed(queued);
+        assertFalse(future.isDone());
+    }
+
+    private void assertShed(Future<?> future) throws Exception {
+        assertTrue(future.isDone());
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RequestShedException);
+        }
+    }
+
     private AsyncServicePool<Service> newAsyncPool() {
         return newAsyncPool(_mockExecutor);
     }
@@ -443,6 +648,22 @@ public class AsyncServicePoolTest {
         return pool;
     }
 
+    private AsyncServicePool<Service> newScheduledRetryAsyncPool() {
+        // Use a real executor so that it can actually call into the callback
+        AsyncServicePool<Service> pool = new AsyncServicePool<>(_mockTicker, _mockPool, true,
+                MoreExecutors.newDirectExecutorService(), true, _mockRetryExecutor, _metricRegistry);
+        _asyncServicePools.add(pool);
+        return pool;
+    }
+
+    private AsyncServicePool<Service> newLoadSheddingAsyncPool(ExecutorService executor) {
+        AsyncServicePool<Service> pool = new AsyncServicePool<>(_mockTicker, _mockPool, true, executor, true, null,
+                new LoadSheddingPolicyBuilder().withMaxConcurrency(1).withMaxQueueSize(1).build(),
+                new MetricRegistry());
+        _asyncServicePools.add(pool);
+        return pool;
+    }
+
     private AsyncServicePool<Service> newAsyncPool(ServicePool<Service> pool, boolean shutdownPoolOnClose) {
         AsyncServicePool<Service> asyncPool = new AsyncServicePool<>(_mockTicker, pool, shutdownPoolOnClose,
                 _mockExecutor, true, _metricRegistry);
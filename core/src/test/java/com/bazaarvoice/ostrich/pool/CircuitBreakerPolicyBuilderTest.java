@@ -0,0 +1,81 @@
+package com.bazaarvoice.ostrich.pool;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class CircuitBreakerPolicyBuilderTest {
+    @Test
+    public void testFailureRatioThresholdSet() {
+        CircuitBreakerPolicy policy = new CircuitBreakerPolicyBuilder()
+                .withFailureRatioThreshold(0.25, 40, 8)
+                .build();
+
+        assertEquals(0.25, policy.getFailureRatioThreshold(), 0);
+        assertEquals(40, policy.getWindowSize());
+        assertEquals(8, policy.getMinNumRequests());
+    }
+
+    @Test
+    public void testConsecutiveFailureThresholdSet() {
+        CircuitBreakerPolicy policy = new CircuitBreakerPolicyBuilder()
+                .withConsecutiveFailureThreshold(3)
+                .build();
+
+        assertEquals(3, policy.getConsecutiveFailureThreshold());
+    }
+
+    @Test
+    public void testOpenDurationSet() {
+        CircuitBreakerPolicy policy = new CircuitBreakerPolicyBuilder()
+                .withOpenDuration(2, TimeUnit.SECONDS)
+                .build();
+
+        assertEquals(2000, policy.getOpenDuration(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testHalfOpenTrialsSet() {
+        CircuitBreakerPolicy policy = new CircuitBreakerPolicyBuilder()
+                .withHalfOpenTrials(0.5, 2)
+                .build();
+
+        assertEquals(0.5, policy.getHalfOpenTrialRatio(), 0);
+        assertEquals(2, policy.getNumTrialSuccesses());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testFailureRatioAboveOne() {
+        new CircuitBreakerPolicyBuilder().withFailureRatioThreshold(1.5, 20, 10);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMinNumRequestsLargerThanWindow() {
+        new CircuitBreakerPolicyBuilder().withFailureRatioThreshold(0.5, 10, 11);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNegativeConsecutiveFailureThreshold() {
+        new CircuitBreakerPolicyBuilder().withConsecutiveFailureThreshold(-1);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testZeroOpenDuration() {
+        new CircuitBreakerPolicyBuilder().withOpenDuration(0, TimeUnit.SECONDS);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testZeroHalfOpenTrialRatio() {
+        new CircuitBreakerPolicyBuilder().withHalfOpenTrials(0, 1);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNoThresholds() {
+        new CircuitBreakerPolicyBuilder()
+                .withFailureRatioThreshold(0, 20, 10)
+                .withConsecutiveFailureThreshold(0)
+                .build();
+    }
+}
@@ -0,0 +1,274 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.CircuitBreakerState;
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.metrics.Metrics;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Ticker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CircuitBreakersTest {
+    private static final ServiceEndPoint END_POINT = mock(ServiceEndPoint.class);
+
+    private Ticker _ticker;
+    private FixedRandom _random;
+    private MetricRegistry _registry;
+    private Metrics.InstanceMetrics _metrics;
+
+    @Before
+    public void setup() {
+        _ticker = mock(Ticker.class);
+        _random = new FixedRandom();
+        _registry = new MetricRegistry();
+        _metrics = Metrics.forInstance(_registry, this, "service");
+    }
+
+    @After
+    public void teardown() {
+        _metrics.close();
+    }
+
+    @Test
+    public void testClosedByDefault() {
+        CircuitBreakers breakers = newCircuitBreakers(new CircuitBreakerPolicyBuilder().build());
+
+        assertEquals(CircuitBreakerState.CLOSED, breakers.getState(END_POINT));
+        assertTrue(breakers.allowRequest(END_POINT));
+        assertTrue(breakers.notOpenFilter().apply(END_POINT));
+    }
+
+    @Test
+    public void testSingleFailureDoesNotOpen() {
+        CircuitBreakers breakers = newCircuitBreakers(new CircuitBreakerPolicyBuilder().build());
+
+        assertFalse(breakers.recordFailure(END_POINT));
+        assertEquals(CircuitBreakerState.CLOSED, breakers.getState(END_POINT));
+    }
+
+    @Test
+    public void testConsecutiveFailuresOpen() {
+        CircuitBreakers breakers = newCircuitBreakers(new CircuitBreakerPolicyBuilder()
+                .withFailureRatioThreshold(0, 20, 10)
+                .withConsecutiveFailureThreshold(3)
+                .build());
+
+        assertFalse(breakers.recordFailure(END_POINT));
+        assertFalse(breakers.recordFailure(END_POINT));
+        assertTrue(breakers.recordFailure(END_POINT));
+
+        assertEquals(CircuitBreakerState.OPEN, breakers.getState(END_POINT));
+        assertFalse(breakers.notOpenFilter().apply(END_POINT));
+        assertEquals(1, _registry.meter(MetricRegistry.name(getClass(), "service", "num-circuit-breaker-trips"))
+                .getCount());
+    }
+
+    @Test
+    public void testSuccessResetsConsecutiveFailures() {
+        CircuitBreakers breakers = newCircuitBreakers(new CircuitBreakerPolicyBuilder()
+                .withFailureRatioThreshold(0, 20, 10)
+                .withConsecutiveFailureThreshold(2)
+                .build());
+
+        breakers.recordFailure(END_POINT);
+        breakers.recordSuccess(END_POINT);
+
+        assertFalse(breakers.recordFailure(END_POINT));
+        assertEquals(CircuitBreakerState.CLOSED, breakers.getState(END_POINT));
+    }
+
+    @Test
+    public void testFailureRatioOpens() {
+        CircuitBreakers breakers = newCircuitBreakers(new CircuitBreakerPolicyBuilder()
+                .withFailureRatioThreshold(0.5, 4, 4)
+                .withConsecutiveFailureThreshold(0)
+                .build());
+
+        breakers.recordSuccess(END_POINT);
+        assertFalse(breakers.recordFailure(END_POINT));
+        breakers.recordSuccess(END_POINT);
+
+        // Half of the last 4 requests failed.
+        assertTrue(breakers.recordFailure(END_POINT));
+        assertEquals(CircuitBreakerState.OPEN, breakers.getState(END_POINT));
+    }
+
+    @Test
+    public void testFailureRatioNeedsMinNumRequests() {
+        CircuitBreakers breakers = newCircuitBreakers(new CircuitBreakerPolicyBuilder()
+                .withFailureRatioThreshold(0.5, 4, 4)
+                .withConsecutiveFailureThreshold(0)
+                .build());
+
+        assertFalse(breakers.recordFailure(END_POINT));
+        assertFalse(breakers.recordFailure(END_POINT));
+        assertFalse(breakers.recordFailure(END_POINT));
+        assertEquals(CircuitBreakerState.CLOSED, breakers.getState(END_POINT));
+    }
+
+    @Test
+    public void testFailureRatioOnlyCountsWindow() {
+        CircuitBreakers breakers = newCircuitBreakers(new CircuitBreakerPolicyBuilder()
+                .withFailureRatioThreshold(0.5, 4, 4)
+                .withConsecutiveFailureThreshold(0)
+                .build());
+
+        breakers.recordFailure(END_POINT);
+        breakers.recordSuccess(END_POINT);
+        breakers.recordSuccess(END_POINT);
+        breakers.recordSuccess(END_POINT);
+
+        // The first failure has left the window, so this is only one failure out of the last 4.
+        breakers.recordSuccess(END_POINT);
+        assertFalse(breakers.recordFailure(END_POINT));
+        assertEquals(CircuitBreakerState.CLOSED, breakers.getState(END_POINT));
+    }
+
+    @Test
+    public void testHalfOpenAfterOpenDuration() {
+        CircuitBreakers breakers = newOpenCircuitBreakers(1.0, 1);
+
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(9));
+        assertEquals(CircuitBreakerState.OPEN, breakers.getState(END_POINT));
+
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(10));
+        assertEquals(CircuitBreakerState.HALF_OPEN, breakers.getState(END_POINT));
+        assertTrue(breakers.notOpenFilter().apply(END_POINT));
+        assertFalse(breakers.closedFilter().apply(END_POINT));
+    }
+
+    @Test
+    public void testHalfOpenLetsThroughShareOfRequests() {
+        CircuitBreakers breakers = newOpenCircuitBreakers(0.1, 1);
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(10));
+
+        _random._nextDouble = 0.05;
+        assertTrue(breakers.allowRequest(END_POINT));
+
+        _random._nextDouble = 0.5;
+        assertFalse(breakers.allowRequest(END_POINT));
+    }
+
+    @Test
+    public void testTrialSuccessesClose() {
+        CircuitBreakers breakers = newOpenCircuitBreakers(1.0, 2);
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(10));
+
+        breakers.recordSuccess(END_POINT);
+        assertEquals(CircuitBreakerState.HALF_OPEN, breakers.getState(END_POINT));
+
+        breakers.recordSuccess(END_POINT);
+        assertEquals(CircuitBreakerState.CLOSED, breakers.getState(END_POINT));
+    }
+
+    @Test
+    public void testClosingForgetsEarlierFailures() {
+        CircuitBreakers breakers = newCircuitBreakers(new CircuitBreakerPolicyBuilder()
+                .withFailureRatioThreshold(0.5, 4, 4)
+                .withConsecutiveFailureThreshold(0)
+                .withOpenDuration(10, TimeUnit.SECONDS)
+                .withHalfOpenTrials(1.0, 1)
+                .build());
+        breakers.recordFailure(END_POINT);
+        breakers.recordFailure(END_POINT);
+        breakers.recordFailure(END_POINT);
+        assertTrue(breakers.recordFailure(END_POINT));
+
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(10));
+        breakers.recordSuccess(END_POINT);
+        assertEquals(CircuitBreakerState.CLOSED, breakers.getState(END_POINT));
+
+        // Only 2 requests since the circuit closed, rather than 3 failures out of the last 4.
+        breakers.recordSuccess(END_POINT);
+        assertFalse(breakers.recordFailure(END_POINT));
+    }
+
+    @Test
+    public void testTrialFailureOpensAgain() {
+        CircuitBreakers breakers = newOpenCircuitBreakers(1.0, 2);
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(10));
+        breakers.recordSuccess(END_POINT);
+
+        assertTrue(breakers.recordFailure(END_POINT));
+        assertEquals(CircuitBreakerState.OPEN, breakers.getState(END_POINT));
+
+        // The open duration starts over.
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(19));
+        assertEquals(CircuitBreakerState.OPEN, breakers.getState(END_POINT));
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(20));
+        assertEquals(CircuitBreakerState.HALF_OPEN, breakers.getState(END_POINT));
+    }
+
+    @Test
+    public void testOutcomesWhileOpenIgnored() {
+        CircuitBreakers breakers = newOpenCircuitBreakers(1.0, 1);
+
+        breakers.recordSuccess(END_POINT);
+        assertFalse(breakers.recordFailure(END_POINT));
+        assertEquals(CircuitBreakerState.OPEN, breakers.getState(END_POINT));
+    }
+
+    @Test
+    public void testRemove() {
+        CircuitBreakers breakers = newOpenCircuitBreakers(1.0, 1);
+
+        breakers.remove(END_POINT);
+
+        assertEquals(CircuitBreakerState.CLOSED, breakers.getState(END_POINT));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testGauges() {
+        newOpenCircuitBreakers(1.0, 1);
+        Gauge<Integer> open = _registry.getGauges().get(MetricRegistry.name(getClass(), "service", "num-open-circuits"));
+        Gauge<Integer> halfOpen = _registry.getGauges().get(
+                MetricRegistry.name(getClass(), "service", "num-half-open-circuits"));
+
+        assertEquals(1, (int) open.getValue());
+        assertEquals(0, (int) halfOpen.getValue());
+
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(10));
+        assertEquals(0, (int) open.getValue());
+        assertEquals(1, (int) halfOpen.getValue());
+    }
+
+    private CircuitBreakers newCircuitBreakers(CircuitBreakerPolicy policy) {
+        return new CircuitBreakers(policy, _ticker, _random, _metrics);
+    }
+
+    /**
+     * Creates circuit breakers where the circuit of {@code END_POINT} was opened at time 0, for 10 seconds.
+     */
+    private CircuitBreakers newOpenCircuitBreakers(double halfOpenTrialRatio, int numTrialSuccesses) {
+        CircuitBreakers breakers = newCircuitBreakers(new CircuitBreakerPolicyBuilder()
+                .withConsecutiveFailureThreshold(1)
+                .withOpenDuration(10, TimeUnit.SECONDS)
+                .withHalfOpenTrials(halfOpenTrialRatio, numTrialSuccesses)
+                .build());
+        assertTrue(breakers.recordFailure(END_POINT));
+        return breakers;
+    }
+
+    private static final class FixedRandom extends Random {
+        private static final long serialVersionUID = 1L;
+
+        private double _nextDouble;
+
+        @Override
+        public double nextDouble() {
+            return _nextDouble;
+        }
+    }
+}
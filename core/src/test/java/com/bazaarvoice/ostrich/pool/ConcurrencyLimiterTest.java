@@ -0,0 +1,198 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.Deadline;
+import com.bazaarvoice.ostrich.metrics.Metrics;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConcurrencyLimiterTest {
+    private MetricRegistry _registry;
+    private Metrics.InstanceMetrics _metrics;
+
+    @Before
+    public void setup() {
+        _registry = new MetricRegistry();
+        _metrics = Metrics.forInstance(_registry, this, "service");
+    }
+
+    @After
+    public void teardown() {
+        _metrics.close();
+    }
+
+    @Test
+    public void testRejectedAtLimit() {
+        ConcurrencyLimiter limiter = newLimiter(2, 1, 10);
+
+        assertTrue(limiter.acquire(Deadline.NONE));
+        assertTrue(limiter.acquire(Deadline.NONE));
+        assertFalse(limiter.acquire(Deadline.NONE));
+
+        assertEquals(2, limiter.getNumInFlight());
+        assertEquals(1, _registry.meter(MetricRegistry.name(getClass(), "service", "num-concurrency-limit-rejections"))
+                .getCount());
+    }
+
+    @Test
+    public void testReleaseMakesRoom() {
+        ConcurrencyLimiter limiter = newLimiter(1, 1, 10);
+        assertTrue(limiter.acquire(Deadline.NONE));
+
+        limiter.release();
+
+        assertTrue(limiter.acquire(Deadline.NONE));
+    }
+
+    @Test
+    public void testLimitGauge() {
+        newLimiter(5, 1, 10);
+
+        assertEquals(5, _registry.getGauges().get(MetricRegistry.name(getClass(), "service", "concurrency-limit"))
+                .getValue());
+    }
+
+    @Test
+    public void testLimitGrowsWhileLatencySteady() {
+        ConcurrencyLimiter limiter = newLimiter(4, 1, 100);
+
+        for (int i = 0; i < 20; i++) {
+            completeAtLimit(limiter, 1000);
+        }
+
+        assertTrue(limiter.getLimit() > 4);
+    }
+
+    @Test
+    public void testLimitShrinksWhenLatencyRises() {
+        ConcurrencyLimiter limiter = newLimiter(50, 1, 100);
+        for (int i = 0; i < 100; i++) {
+            completeAtLimit(limiter, 1000);
+        }
+        int limit = limiter.getLimit();
+
+        for (int i = 0; i < 20; i++) {
+            completeAtLimit(limiter, 5000);
+        }
+
+        assertTrue(limiter.getLimit() < limit);
+    }
+
+    @Test
+    public void testLimitDoesNotGrowWhileMostlyUnused() {
+        ConcurrencyLimiter limiter = newLimiter(10, 1, 100);
+
+        for (int i = 0; i < 20; i++) {
+            assertTrue(limiter.acquire(Deadline.NONE));
+            limiter.record(1000);
+            limiter.release();
+        }
+
+        assertEquals(10, limiter.getLimit());
+    }
+
+    @Test
+    public void testLimitShrinksOnDrops() {
+        ConcurrencyLimiter limiter = newLimiter(20, 1, 100);
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.acquire(Deadline.NONE));
+            limiter.recordDrop();
+            limiter.release();
+        }
+
+        assertEquals((int) (20 * Math.pow(ConcurrencyLimiter.DROP_RATIO, 5)), limiter.getLimit());
+    }
+
+    @Test
+    public void testDropsStopAtMinLimit() {
+        ConcurrencyLimiter limiter = newLimiter(4, 2, 6);
+
+        for (int i = 0; i < 50; i++) {
+            assertTrue(limiter.acquire(Deadline.NONE));
+            limiter.recordDrop();
+            limiter.release();
+        }
+
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    public void testLimitStaysWithinRange() {
+        ConcurrencyLimiter limiter = newLimiter(4, 2, 6);
+
+        for (int i = 0; i < 50; i++) {
+            completeAtLimit(limiter, 1000);
+        }
+        assertEquals(6, limiter.getLimit());
+
+        for (int i = 0; i < 50; i++) {
+            completeAtLimit(limiter, 100000);
+        }
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    public void testQueuedRequestGetsReleasedPlace() throws Exception {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(new ConcurrencyLimitPolicyBuilder()
+                .withLimits(1, 1, 1)
+                .withMaxQueueTime(10, TimeUnit.SECONDS)
+                .build(), _metrics);
+        assertTrue(limiter.acquire(Deadline.NONE));
+
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicBoolean acquired = new AtomicBoolean();
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                acquired.set(limiter.acquire(Deadline.NONE));
+                done.countDown();
+            }
+        };
+        thread.start();
+        assertFalse(done.await(50, TimeUnit.MILLISECONDS));
+
+        limiter.release();
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(acquired.get());
+    }
+
+    @Test
+    public void testQueueTimeBoundedByDeadline() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(new ConcurrencyLimitPolicyBuilder()
+                .withLimits(1, 1, 1)
+                .withMaxQueueTime(10, TimeUnit.SECONDS)
+                .build(), _metrics);
+        assertTrue(limiter.acquire(Deadline.NONE));
+
+        assertFalse(limiter.acquire(Deadline.after(0, TimeUnit.MILLISECONDS)));
+    }
+
+    private ConcurrencyLimiter newLimiter(int initialLimit, int minLimit, int maxLimit) {
+        return new ConcurrencyLimiter(new ConcurrencyLimitPolicyBuilder()
+                .withLimits(initialLimit, minLimit, maxLimit)
+                .build(), _metrics);
+    }
+
+    /** Fills the limiter up to its limit, and completes one of the requests with the given latency. */
+    private void completeAtLimit(ConcurrencyLimiter limiter, long latencyNanos) {
+        while (limiter.acquire(Deadline.NONE)) {
+            // Fill up
+        }
+        limiter.record(latencyNanos);
+        int numInFlight = limiter.getNumInFlight();
+        for (int i = 0; i < numInFlight; i++) {
+            limiter.release();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.metrics.Metrics;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class EndPointBulkheadsTest {
+    private static final ServiceEndPoint FOO = mock(ServiceEndPoint.class);
+    private static final ServiceEndPoint BAR = mock(ServiceEndPoint.class);
+
+    private MetricRegistry _registry;
+    private Metrics.InstanceMetrics _metrics;
+    private EndPointBulkheads _bulkheads;
+
+    @Before
+    public void setup() {
+        _registry = new MetricRegistry();
+        _metrics = Metrics.forInstance(_registry, this, "service");
+        _bulkheads = new EndPointBulkheads(2, _metrics);
+    }
+
+    @After
+    public void teardown() {
+        _metrics.close();
+    }
+
+    @Test
+    public void testNotSaturatedByDefault() {
+        assertFalse(_bulkheads.isSaturated(FOO));
+        assertTrue(_bulkheads.notSaturatedFilter().apply(FOO));
+    }
+
+    @Test
+    public void testSaturatedAtMax() {
+        assertNotNull(_bulkheads.tryAcquire(FOO));
+        assertNotNull(_bulkheads.tryAcquire(FOO));
+
+        assertTrue(_bulkheads.isSaturated(FOO));
+        assertFalse(_bulkheads.notSaturatedFilter().apply(FOO));
+        assertNull(_bulkheads.tryAcquire(FOO));
+        assertEquals(1, _registry.meter(MetricRegistry.name(getClass(), "service", "num-bulkhead-rejections"))
+                .getCount());
+        assertEquals(1, _registry.getGauges()
+                .get(MetricRegistry.name(getClass(), "service", "num-saturated-end-points")).getValue());
+    }
+
+    @Test
+    public void testEndPointsLimitedSeparately() {
+        assertNotNull(_bulkheads.tryAcquire(FOO));
+        assertNotNull(_bulkheads.tryAcquire(FOO));
+
+        assertNotNull(_bulkheads.tryAcquire(BAR));
+        assertFalse(_bulkheads.isSaturated(BAR));
+    }
+
+    @Test
+    public void testRelease() {
+        AtomicInteger inFlight = _bulkheads.tryAcquire(FOO);
+        assertNotNull(_bulkheads.tryAcquire(FOO));
+
+        _bulkheads.release(inFlight);
+
+        assertEquals(1, _bulkheads.getNumInFlight(FOO));
+        assertFalse(_bulkheads.isSaturated(FOO));
+        assertNotNull(_bulkheads.tryAcquire(FOO));
+    }
+
+    @Test
+    public void testReleaseAfterRemove() {
+        AtomicInteger inFlight = _bulkheads.tryAcquire(FOO);
+        _bulkheads.remove(FOO);
+
+        _bulkheads.release(inFlight);
+
+        assertEquals(0, _bulkheads.getNumInFlight(FOO));
+    }
+
+    @Test
+    public void testReleaseAfterRemoveAndAddAgain() {
+        AtomicInteger inFlight = _bulkheads.tryAcquire(FOO);
+        _bulkheads.remove(FOO);
+        assertNotNull(_bulkheads.tryAcquire(FOO));
+        assertNotNull(_bulkheads.tryAcquire(FOO));
+
+        _bulkheads.release(inFlight);
+
+        assertEquals(2, _bulkheads.getNumInFlight(FOO));
+        assertTrue(_bulkheads.isSaturated(FOO));
+    }
+}
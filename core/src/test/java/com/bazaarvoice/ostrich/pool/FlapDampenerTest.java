@@ -0,0 +1,166 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.metrics.Metrics;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Ticker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class FlapDampenerTest {
+    private static final ServiceEndPoint FOO = mock(ServiceEndPoint.class);
+
+    private Ticker _ticker;
+    private MetricRegistry _registry;
+    private Metrics.InstanceMetrics _metrics;
+    private FlapDampener _dampener;
+
+    @Before
+    public void setup() {
+        when(FOO.getId()).thenReturn("foo");
+        _ticker = mock(Ticker.class);
+        _registry = new MetricRegistry();
+        _metrics = Metrics.forInstance(_registry, this, "service");
+        _dampener = new FlapDampener(new FlapDampeningPolicyBuilder()
+                .withHalfLife(1, TimeUnit.MINUTES)
+                .withSuppressThreshold(2)
+                .withQuarantineTime(10, 30, TimeUnit.SECONDS)
+                .build(), _ticker, _metrics);
+    }
+
+    @After
+    public void teardown() {
+        _metrics.close();
+    }
+
+    @Test
+    public void testNoScoreByDefault() {
+        assertEquals(0, _dampener.getScore(FOO), 0);
+        assertEquals(0, _dampener.getRemainingQuarantine(FOO));
+    }
+
+    @Test
+    public void testEachFlapAddsToScore() {
+        flap(2);
+
+        assertEquals(2, _dampener.getScore(FOO), 0);
+    }
+
+    @Test
+    public void testGoingBadTwiceCountsOnce() {
+        _dampener.recordBad(FOO);
+        _dampener.recordBad(FOO);
+
+        assertEquals(1, _dampener.getScore(FOO), 0);
+    }
+
+    @Test
+    public void testNewEndPointDoesNotFlap() {
+        _dampener.recordAdded(FOO);
+        _dampener.recordBad(FOO);
+
+        assertEquals(0, _dampener.getScore(FOO), 0);
+    }
+
+    @Test
+    public void testScoreDecays() {
+        flap(2);
+
+        when(_ticker.read()).thenReturn(TimeUnit.MINUTES.toNanos(1));
+        assertEquals(1, _dampener.getScore(FOO), 0.0001);
+        when(_ticker.read()).thenReturn(TimeUnit.MINUTES.toNanos(2));
+        assertEquals(0.5, _dampener.getScore(FOO), 0.0001);
+    }
+
+    @Test
+    public void testNotQuarantinedBelowThreshold() {
+        flap(1);
+
+        assertEquals(0, _dampener.getRemainingQuarantine(FOO));
+    }
+
+    @Test
+    public void testQuarantinedAtThreshold() {
+        flap(2);
+
+        assertEquals(TimeUnit.SECONDS.toNanos(10), _dampener.getRemainingQuarantine(FOO));
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(4));
+        assertEquals(TimeUnit.SECONDS.toNanos(6), _dampener.getRemainingQuarantine(FOO));
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(10));
+        assertEquals(0, _dampener.getRemainingQuarantine(FOO));
+        assertEquals(1, _registry.meter(MetricRegistry.name(getClass(), "service", "num-flap-quarantines"))
+                .getCount());
+    }
+
+    @Test
+    public void testQuarantineDoublesAboveThreshold() {
+        flap(3);
+
+        assertEquals(TimeUnit.SECONDS.toNanos(20), _dampener.getRemainingQuarantine(FOO));
+    }
+
+    @Test
+    public void testQuarantineCapped() {
+        flap(5);
+
+        assertEquals(TimeUnit.SECONDS.toNanos(30), _dampener.getRemainingQuarantine(FOO));
+    }
+
+    @Test
+    public void testAdmittedEndsQuarantine() {
+        flap(2);
+        _dampener.getRemainingQuarantine(FOO);
+
+        _dampener.recordAdmitted(FOO);
+        assertEquals(0, getNumQuarantined());
+
+        // It's quarantined again right away if it's still flapping.
+        _dampener.recordBad(FOO);
+        assertEquals(TimeUnit.SECONDS.toNanos(20), _dampener.getRemainingQuarantine(FOO));
+    }
+
+    @Test
+    public void testGauges() {
+        flap(2);
+        _dampener.getRemainingQuarantine(FOO);
+
+        assertEquals(2.0, _registry.getGauges()
+                .get(MetricRegistry.name(getClass(), "service", "flap-score", "foo")).getValue());
+        assertEquals(1, getNumQuarantined());
+    }
+
+    @Test
+    public void testRemove() {
+        flap(2);
+        _dampener.getRemainingQuarantine(FOO);
+
+        _dampener.remove(FOO);
+
+        assertEquals(0, _dampener.getScore(FOO), 0);
+        assertEquals(0, _dampener.getRemainingQuarantine(FOO));
+        assertEquals(0, getNumQuarantined());
+        assertFalse(_registry.getGauges().containsKey(MetricRegistry.name(getClass(), "service", "flap-score", "foo")));
+    }
+
+    private void flap(int times) {
+        for (int i = 0; i < times; i++) {
+            _dampener.recordBad(FOO);
+            _dampener.recordAdmitted(FOO);
+        }
+        assertTrue(_dampener.getScore(FOO) > 0);
+    }
+
+    private Object getNumQuarantined() {
+        return _registry.getGauges().get(MetricRegistry.name(getClass(), "service", "num-quarantined-end-points"))
+                .getValue();
+    }
+}
@@ -0,0 +1,217 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.metrics.Metrics;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class HealthCheckEngineTest {
+    private final MetricRegistry _registry = new MetricRegistry();
+    private final Metrics.InstanceMetrics _metrics = Metrics.forInstance(_registry, this, "service");
+    private final ScheduledExecutorService _timer = Executors.newSingleThreadScheduledExecutor();
+    private final List<HealthCheckEngine> _engines = Lists.newArrayList();
+
+    @After
+    public void teardown() {
+        for (HealthCheckEngine engine : _engines) {
+            engine.close();
+        }
+        _timer.shutdownNow();
+        _metrics.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroParallelism() {
+        new HealthCheckEngine("service", 0, 0, TimeUnit.MILLISECONDS, _timer, Ticker.systemTicker(), _metrics);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeTimeout() {
+        new HealthCheckEngine("service", 1, -1, TimeUnit.MILLISECONDS, _timer, Ticker.systemTicker(), _metrics);
+    }
+
+    @Test
+    public void testRunsProbe() throws Exception {
+        HealthCheckEngine engine = newEngine(1, 0);
+        TestProbe probe = new TestProbe(0);
+
+        engine.submit(probe);
+
+        assertTrue(probe._done.await(10, TimeUnit.SECONDS));
+        assertFalse(probe._timedOut.get());
+    }
+
+    @Test
+    public void testRunsHighestPriorityFirst() throws Exception {
+        HealthCheckEngine engine = newEngine(1, 0);
+
+        // Hold up the only thread so that the other probes have to wait in the queue.
+        BlockingProbe blocking = new BlockingProbe();
+        engine.submit(blocking);
+        assertTrue(blocking._started.await(10, TimeUnit.SECONDS));
+
+        List<Long> order = Collections.synchronizedList(Lists.<Long>newArrayList());
+        TestProbe low = new TestProbe(1, order);
+        TestProbe high = new TestProbe(3, order);
+        TestProbe middle = new TestProbe(2, order);
+        engine.submit(low);
+        engine.submit(high);
+        engine.submit(middle);
+        assertEquals(3, engine.getQueueDepth());
+        assertEquals(3, _registry.getGauges().get(name("health-check-queue-depth")).getValue());
+
+        blocking._release.countDown();
+        assertTrue(low._done.await(10, TimeUnit.SECONDS));
+        assertEquals(asList(3L, 2L, 1L), order);
+        assertEquals(4, _registry.getTimers().get(name("health-check-lag")).getCount());
+    }
+
+    @Test
+    public void testRunsProbesInParallel() throws Exception {
+        HealthCheckEngine engine = newEngine(2, 0);
+        BlockingProbe first = new BlockingProbe();
+        BlockingProbe second = new BlockingProbe();
+
+        engine.submit(first);
+        engine.submit(second);
+
+        assertTrue(first._started.await(10, TimeUnit.SECONDS));
+        assertTrue(second._started.await(10, TimeUnit.SECONDS));
+        first._release.countDown();
+        second._release.countDown();
+    }
+
+    @Test
+    public void testTimesOutHangingProbe() throws Exception {
+        HealthCheckEngine engine = newEngine(1, 10);
+        BlockingProbe hanging = new BlockingProbe();
+        engine.submit(hanging);
+
+        assertTrue(hanging._timedOutLatch.await(10, TimeUnit.SECONDS));
+        assertTrue(hanging._interrupted.await(10, TimeUnit.SECONDS));
+        assertEquals(1, _registry.getMeters().get(name("num-health-check-timeouts")).getCount());
+
+        // The thread is free again once the hanging probe returned.
+        TestProbe next = new TestProbe(0);
+        engine.submit(next);
+        assertTrue(next._done.await(10, TimeUnit.SECONDS));
+        assertFalse(next._timedOut.get());
+    }
+
+    @Test
+    public void testDoesNotTimeOutFastProbe() throws Exception {
+        HealthCheckEngine engine = newEngine(1, TimeUnit.SECONDS.toMillis(10));
+        TestProbe probe = new TestProbe(0);
+        engine.submit(probe);
+
+        assertTrue(probe._done.await(10, TimeUnit.SECONDS));
+        assertFalse(probe._timedOut.get());
+        assertEquals(0, _registry.getMeters().get(name("num-health-check-timeouts")).getCount());
+    }
+
+    @Test
+    public void testTimeOutNotScheduledWithMockTimer() throws Exception {
+        // A timer that never runs anything, like the ones used by the service pool tests.
+        HealthCheckEngine engine = new HealthCheckEngine("service", 1, 10, TimeUnit.MILLISECONDS,
+                mock(ScheduledExecutorService.class), Ticker.systemTicker(), _metrics);
+        _engines.add(engine);
+        TestProbe probe = new TestProbe(0);
+        engine.submit(probe);
+
+        assertTrue(probe._done.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void testSubmitAfterClose() {
+        HealthCheckEngine engine = newEngine(1, 0);
+        engine.close();
+        engine.submit(new TestProbe(0));
+    }
+
+    private HealthCheckEngine newEngine(int maxParallelProbes, long probeTimeoutMillis) {
+        HealthCheckEngine engine = new HealthCheckEngine("service", maxParallelProbes, probeTimeoutMillis,
+                TimeUnit.MILLISECONDS, _timer, Ticker.systemTicker(), _metrics);
+        _engines.add(engine);
+        return engine;
+    }
+
+    private String name(String metric) {
+        return MetricRegistry.name(getClass(), "service", metric);
+    }
+
+    private static class TestProbe implements HealthCheckEngine.Probe {
+        private final long _priority;
+        private final List<Long> _order;
+        private final CountDownLatch _done = new CountDownLatch(1);
+        private final AtomicBoolean _timedOut = new AtomicBoolean();
+
+        TestProbe(long priority) {
+            this(priority, Lists.<Long>newArrayList());
+        }
+
+        TestProbe(long priority, List<Long> order) {
+            _priority = priority;
+            _order = order;
+        }
+
+        @Override
+        public long getPriority() {
+            return _priority;
+        }
+
+        @Override
+        public void probe() {
+            _order.add(_priority);
+            _done.countDown();
+        }
+
+        @Override
+        public void timedOut(long durationNanos) {
+            _timedOut.set(true);
+        }
+    }
+
+    private static class BlockingProbe implements HealthCheckEngine.Probe {
+        private final CountDownLatch _started = new CountDownLatch(1);
+        private final CountDownLatch _release = new CountDownLatch(1);
+        private final CountDownLatch _interrupted = new CountDownLatch(1);
+        private final CountDownLatch _timedOutLatch = new CountDownLatch(1);
+
+        @Override
+        public long getPriority() {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public void probe() {
+            _started.countDown();
+            try {
+                _release.await();
+            } catch (InterruptedException e) {
+                _interrupted.countDown();
+            }
+        }
+
+        @Override
+        public void timedOut(long durationNanos) {
+            _timedOutLatch.countDown();
+        }
+    }
+}
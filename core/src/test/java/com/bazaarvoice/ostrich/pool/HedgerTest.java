@@ -0,0 +1,148 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.metrics.Metrics;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HedgerTest {
+    private final MetricRegistry _registry = new MetricRegistry();
+    private final Metrics.InstanceMetrics _metrics = Metrics.forInstance(_registry, this, "service");
+    private Hedger _hedger;
+
+    @After
+    public void teardown() {
+        _hedger.close();
+        _metrics.close();
+    }
+
+    @Test
+    public void testFixedDelay() {
+        _hedger = newHedger(new HedgingPolicyBuilder().withFixedDelay(20, TimeUnit.MILLISECONDS));
+
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(20), _hedger.getDelayNanos());
+    }
+
+    @Test
+    public void testNoPercentileDelayUntilEnoughRequests() {
+        _hedger = newHedger(new HedgingPolicyBuilder()
+                .withPercentileDelay(0.9, 0, TimeUnit.MILLISECONDS)
+                .withSampleWindow(10, 5));
+        for (int i = 0; i < 4; i++) {
+            _hedger.record(100);
+        }
+
+        assertEquals(-1, _hedger.getDelayNanos());
+    }
+
+    @Test
+    public void testPercentileDelay() {
+        _hedger = newHedger(new HedgingPolicyBuilder()
+                .withPercentileDelay(0.9, 0, TimeUnit.MILLISECONDS)
+                .withSampleWindow(10, 5));
+        for (int i = 1; i <= 10; i++) {
+            _hedger.record(i * 100);
+        }
+
+        assertEquals(900, _hedger.getDelayNanos());
+    }
+
+    @Test
+    public void testPercentileDelayAtLeastMinDelay() {
+        _hedger = newHedger(new HedgingPolicyBuilder()
+                .withPercentileDelay(0.9, 1, TimeUnit.MICROSECONDS)
+                .withSampleWindow(10, 5));
+        for (int i = 1; i <= 10; i++) {
+            _hedger.record(i * 10);
+        }
+
+        assertEquals(1000, _hedger.getDelayNanos());
+    }
+
+    @Test
+    public void testPercentileDelayFollowsRecentRequests() {
+        _hedger = newHedger(new HedgingPolicyBuilder()
+                .withPercentileDelay(0.5, 0, TimeUnit.MILLISECONDS)
+                .withSampleWindow(10, 5));
+        for (int i = 0; i < 10; i++) {
+            _hedger.record(100);
+        }
+        assertEquals(100, _hedger.getDelayNanos());
+
+        for (int i = 0; i < 10; i++) {
+            _hedger.record(500);
+        }
+        assertEquals(500, _hedger.getDelayNanos());
+    }
+
+    @Test
+    public void testNoHedgesWithoutBudget() {
+        _hedger = newHedger(new HedgingPolicyBuilder().withBudget(0.5));
+        _hedger.recordRequest();
+
+        assertFalse(_hedger.tryHedge());
+        assertEquals(1, _registry.meter(MetricRegistry.name(getClass(), "service", "num-hedges-over-budget"))
+                .getCount());
+    }
+
+    @Test
+    public void testHedgesTakeFromBudget() {
+        _hedger = newHedger(new HedgingPolicyBuilder().withBudget(0.5));
+        for (int i = 0; i < 4; i++) {
+            _hedger.recordRequest();
+        }
+
+        assertTrue(_hedger.tryHedge());
+        assertTrue(_hedger.tryHedge());
+        assertFalse(_hedger.tryHedge());
+    }
+
+    @Test
+    public void testHasBudget() {
+        _hedger = newHedger(new HedgingPolicyBuilder().withBudget(0.5));
+        _hedger.recordRequest();
+        assertFalse(_hedger.hasBudget());
+        assertEquals(0, _registry.meter(MetricRegistry.name(getClass(), "service", "num-hedges-over-budget"))
+                .getCount());
+
+        _hedger.recordRequest();
+        assertTrue(_hedger.hasBudget());
+        assertTrue(_hedger.tryHedge());
+        assertFalse(_hedger.hasBudget());
+    }
+
+    @Test
+    public void testCancelledHedgeGivenBack() {
+        _hedger = newHedger(new HedgingPolicyBuilder().withBudget(1));
+        _hedger.recordRequest();
+        assertTrue(_hedger.tryHedge());
+
+        _hedger.cancelHedge();
+
+        assertTrue(_hedger.tryHedge());
+        assertEquals(0, _registry.meter(MetricRegistry.name(getClass(), "service", "num-hedges")).getCount());
+    }
+
+    @Test
+    public void testBudgetCapped() {
+        _hedger = newHedger(new HedgingPolicyBuilder().withBudget(1));
+        for (int i = 0; i < 100; i++) {
+            _hedger.recordRequest();
+        }
+
+        for (int i = 0; i < Hedger.MAX_BUDGET; i++) {
+            assertTrue(_hedger.tryHedge());
+        }
+        assertFalse(_hedger.tryHedge());
+    }
+
+    private Hedger newHedger(HedgingPolicyBuilder builder) {
+        return new Hedger(builder.build(), "service", _metrics);
+    }
+}
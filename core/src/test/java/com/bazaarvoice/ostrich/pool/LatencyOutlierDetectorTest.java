@@ -0,0 +1,247 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.metrics.Metrics;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class LatencyOutlierDetectorTest {
+    private static final ServiceEndPoint SLOW = mock(ServiceEndPoint.class);
+    private static final ServiceEndPoint FOO = mock(ServiceEndPoint.class);
+    private static final ServiceEndPoint BAR = mock(ServiceEndPoint.class);
+    private static final ServiceEndPoint BAZ = mock(ServiceEndPoint.class);
+    private static final List<ServiceEndPoint> END_POINTS = ImmutableList.of(SLOW, FOO, BAR, BAZ);
+
+    private Ticker _ticker;
+    private MetricRegistry _registry;
+    private Metrics.InstanceMetrics _metrics;
+    private LatencyOutlierDetector _detector;
+
+    @Before
+    public void setup() {
+        _ticker = mock(Ticker.class);
+        _registry = new MetricRegistry();
+        _metrics = Metrics.forInstance(_registry, this, "service");
+        _detector = new LatencyOutlierDetector(new OutlierEjectionPolicyBuilder()
+                .withOutlierThreshold(0.9, 3)
+                .withSampleWindow(10, 5)
+                .withEvaluationInterval(10, TimeUnit.SECONDS, 2)
+                .withEjectionTime(30, 100, TimeUnit.SECONDS)
+                .withMaxEjectionRatio(0.5)
+                .build(), _ticker, _metrics);
+    }
+
+    @After
+    public void teardown() {
+        _metrics.close();
+    }
+
+    @Test
+    public void testNotEjectedByDefault() {
+        assertFalse(_detector.isEjected(SLOW));
+        assertTrue(_detector.notEjectedFilter().apply(SLOW));
+    }
+
+    @Test
+    public void testSingleOutlierEvaluationDoesNotEject() {
+        recordLatencies();
+
+        _detector.evaluate(END_POINTS);
+
+        assertFalse(_detector.isEjected(SLOW));
+    }
+
+    @Test
+    public void testConsistentOutlierEjected() {
+        recordLatencies();
+
+        _detector.evaluate(END_POINTS);
+        _detector.evaluate(END_POINTS);
+
+        assertTrue(_detector.isEjected(SLOW));
+        assertFalse(_detector.notEjectedFilter().apply(SLOW));
+        assertFalse(_detector.isEjected(FOO));
+        assertEquals(1, _registry.meter(MetricRegistry.name(getClass(), "service", "num-latency-outlier-ejections"))
+                .getCount());
+        assertEquals(1, _registry.getGauges()
+                .get(MetricRegistry.name(getClass(), "service", "num-ejected-latency-outliers")).getValue());
+    }
+
+    @Test
+    public void testOutlierThatRecoversNotEjected() {
+        recordLatencies();
+        _detector.evaluate(END_POINTS);
+
+        for (int i = 0; i < 10; i++) {
+            _detector.record(SLOW, 10);
+        }
+        _detector.evaluate(END_POINTS);
+        recordLatencies();
+        _detector.evaluate(END_POINTS);
+
+        assertFalse(_detector.isEjected(SLOW));
+    }
+
+    @Test
+    public void testEjectionTimeDoubles() {
+        ejectSlow();
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(29));
+        assertTrue(_detector.isEjected(SLOW));
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(30));
+        assertFalse(_detector.isEjected(SLOW));
+
+        ejectSlow();
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(89));
+        assertTrue(_detector.isEjected(SLOW));
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(90));
+        assertFalse(_detector.isEjected(SLOW));
+
+        // Capped at the maximum ejection time.
+        ejectSlow();
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(189));
+        assertTrue(_detector.isEjected(SLOW));
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(190));
+        assertFalse(_detector.isEjected(SLOW));
+    }
+
+    @Test
+    public void testEjectionTimeResetsAfterBehaving() {
+        ejectSlow();
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(130));
+        recordFastLatencies(SLOW, FOO, BAR, BAZ);
+        _detector.evaluate(END_POINTS);
+
+        ejectSlow();
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(160));
+        assertFalse(_detector.isEjected(SLOW));
+    }
+
+    @Test
+    public void testSeveralOutliersEjected() {
+        ServiceEndPoint slower = mock(ServiceEndPoint.class);
+        ServiceEndPoint slowest = mock(ServiceEndPoint.class);
+        List<ServiceEndPoint> endPoints = ImmutableList.of(SLOW, slower, slowest, FOO, BAR, BAZ);
+        for (int i = 0; i < 10; i++) {
+            _detector.record(SLOW, 1000);
+            _detector.record(slower, 2000);
+            _detector.record(slowest, 3000);
+        }
+        recordFastLatencies(FOO, BAR, BAZ);
+
+        _detector.evaluate(endPoints);
+        _detector.evaluate(endPoints);
+
+        // The median is 505, so only end points slower than 1515 are outliers.
+        assertTrue(_detector.isEjected(slowest));
+        assertTrue(_detector.isEjected(slower));
+        assertFalse(_detector.isEjected(SLOW));
+    }
+
+    @Test
+    public void testMaxEjectionRatioLimitsEjections() {
+        LatencyOutlierDetector detector = new LatencyOutlierDetector(new OutlierEjectionPolicyBuilder()
+                .withOutlierThreshold(0.9, 3)
+                .withSampleWindow(10, 5)
+                .withEvaluationInterval(10, TimeUnit.SECONDS, 1)
+                .withMaxEjectionRatio(0.2)
+                .build(), _ticker, Metrics.forInstance(new MetricRegistry(), this, "service"));
+        ServiceEndPoint slower = mock(ServiceEndPoint.class);
+        List<ServiceEndPoint> endPoints = ImmutableList.of(SLOW, slower, FOO, BAR, BAZ);
+        for (int i = 0; i < 10; i++) {
+            detector.record(SLOW, 1000);
+            detector.record(slower, 2000);
+            detector.record(FOO, 10);
+            detector.record(BAR, 10);
+            detector.record(BAZ, 10);
+        }
+
+        detector.evaluate(endPoints);
+
+        // Only one of the 5 end points may be ejected, the slowest one.
+        assertTrue(detector.isEjected(slower));
+        assertFalse(detector.isEjected(SLOW));
+    }
+
+    @Test
+    public void testTooFewRequestsNotCompared() {
+        for (int i = 0; i < 4; i++) {
+            _detector.record(SLOW, 1000);
+        }
+        recordFastLatencies(FOO, BAR, BAZ);
+
+        _detector.evaluate(END_POINTS);
+        _detector.evaluate(END_POINTS);
+
+        assertFalse(_detector.isEjected(SLOW));
+    }
+
+    @Test
+    public void testTooFewEndPointsNotCompared() {
+        for (int i = 0; i < 10; i++) {
+            _detector.record(SLOW, 1000);
+        }
+        recordFastLatencies(FOO);
+
+        _detector.evaluate(ImmutableList.of(SLOW, FOO));
+        _detector.evaluate(ImmutableList.of(SLOW, FOO));
+
+        assertFalse(_detector.isEjected(SLOW));
+    }
+
+    @Test
+    public void testLatenciesForgottenAfterEjection() {
+        ejectSlow();
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(30));
+        assertFalse(_detector.isEjected(SLOW));
+
+        // Not enough requests since the ejection ended to be compared.
+        _detector.evaluate(END_POINTS);
+        _detector.evaluate(END_POINTS);
+        assertFalse(_detector.isEjected(SLOW));
+    }
+
+    @Test
+    public void testRemove() {
+        ejectSlow();
+
+        _detector.remove(SLOW);
+
+        assertFalse(_detector.isEjected(SLOW));
+    }
+
+    private void recordLatencies() {
+        for (int i = 0; i < 10; i++) {
+            _detector.record(SLOW, 1000);
+        }
+        recordFastLatencies(FOO, BAR, BAZ);
+    }
+
+    private void recordFastLatencies(ServiceEndPoint... endPoints) {
+        for (ServiceEndPoint endPoint : endPoints) {
+            for (int i = 0; i < 10; i++) {
+                _detector.record(endPoint, 10);
+            }
+        }
+    }
+
+    /** Ejects the slow end point at the current time. */
+    private void ejectSlow() {
+        recordLatencies();
+        _detector.evaluate(END_POINTS);
+        _detector.evaluate(END_POINTS);
+        assertTrue(_detector.isEjected(SLOW));
+    }
+}
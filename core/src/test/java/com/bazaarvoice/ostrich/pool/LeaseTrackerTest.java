@@ -0,0 +1,194 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.metrics.Metrics;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Ticker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class LeaseTrackerTest {
+    private static final ServiceEndPoint END_POINT = mock(ServiceEndPoint.class);
+
+    static {
+        when(END_POINT.getId()).thenReturn("end-point");
+    }
+
+    private final MetricRegistry _registry = new MetricRegistry();
+    private final Metrics.InstanceMetrics _metrics = Metrics.forInstance(_registry, this, "service");
+    private Ticker _ticker;
+
+    @Before
+    public void setup() {
+        _ticker = mock(Ticker.class);
+    }
+
+    @After
+    public void teardown() {
+        _metrics.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeLeaseTime() {
+        new LeaseTracker<Service>(_ticker, -1, TimeUnit.SECONDS, _metrics);
+    }
+
+    @Test
+    public void testZeroLeaseTimeNeverExpires() {
+        LeaseTracker<Service> leases = newTracker(0);
+        leases.start(newHandle());
+        advance(TimeUnit.DAYS.toNanos(1));
+
+        assertFalse(leases.isExpiring());
+        assertTrue(leases.expire().isEmpty());
+    }
+
+    @Test
+    public void testCheckIntervalIsBounded() {
+        assertEquals(10, newTracker(10).getCheckIntervalMillis());
+        assertEquals(LeaseTracker.MAX_CHECK_INTERVAL_MILLIS, newTracker(TimeUnit.MINUTES.toMillis(5)).getCheckIntervalMillis());
+    }
+
+    @Test
+    public void testEndReturnsWhetherLeased() {
+        LeaseTracker<Service> leases = newTracker(0);
+        ServiceHandle<Service> handle = newHandle();
+
+        assertFalse(leases.end(handle));
+        leases.start(handle);
+        assertTrue(leases.end(handle));
+        assertFalse(leases.end(handle));
+    }
+
+    @Test
+    public void testExpiresLongLease() {
+        LeaseTracker<Service> leases = newTracker(100);
+        ServiceHandle<Service> handle = newHandle();
+        leases.start(handle);
+
+        advance(TimeUnit.MILLISECONDS.toNanos(100));
+        assertTrue(leases.expire().isEmpty());
+
+        advance(TimeUnit.MILLISECONDS.toNanos(1));
+        assertEquals(singletonList(handle), leases.expire());
+    }
+
+    @Test
+    public void testReportsExpiredLeaseOnce() {
+        LeaseTracker<Service> leases = newTracker(100);
+        leases.start(newHandle());
+
+        advance(TimeUnit.SECONDS.toNanos(1));
+        assertEquals(1, leases.expire().size());
+        assertEquals(0, leases.expire().size());
+        assertEquals(1, _registry.getMeters().get(name("num-expired-leases")).getCount());
+    }
+
+    @Test
+    public void testExpiredLeaseStaysActive() {
+        LeaseTracker<Service> leases = newTracker(100);
+        ServiceHandle<Service> handle = newHandle();
+        leases.start(handle);
+
+        advance(TimeUnit.SECONDS.toNanos(1));
+        leases.expire();
+
+        assertEquals(1, leases.getNumActiveLeases(END_POINT));
+        assertTrue(leases.end(handle));
+    }
+
+    @Test
+    public void testEndedLeaseDoesNotExpire() {
+        LeaseTracker<Service> leases = newTracker(100);
+        ServiceHandle<Service> handle = newHandle();
+        leases.start(handle);
+        leases.end(handle);
+
+        advance(TimeUnit.SECONDS.toNanos(1));
+        assertTrue(leases.expire().isEmpty());
+    }
+
+    @Test
+    public void testEndUpdatesLeaseTimer() {
+        LeaseTracker<Service> leases = newTracker(0);
+        ServiceHandle<Service> handle = newHandle();
+        leases.start(handle);
+        advance(TimeUnit.MILLISECONDS.toNanos(5));
+        leases.end(handle);
+
+        assertEquals(1, _registry.getTimers().get(name("lease-time")).getCount());
+    }
+
+    @Test
+    public void testPublishesLeaseGauges() {
+        LeaseTracker<Service> leases = newTracker(0);
+        leases.start(newHandle());
+        advance(TimeUnit.MILLISECONDS.toNanos(20));
+        leases.start(newHandle());
+        advance(TimeUnit.MILLISECONDS.toNanos(10));
+
+        assertEquals(2, _registry.getGauges().get(name("num-active-leases.end-point")).getValue());
+        assertEquals(30L, _registry.getGauges().get(name("longest-active-lease-millis.end-point")).getValue());
+    }
+
+    @Test
+    public void testLeaseGaugesPublishedPerEndPoint() {
+        LeaseTracker<Service> leases = newTracker(0);
+        leases.start(newHandle());
+        ServiceEndPoint other = mock(ServiceEndPoint.class);
+        when(other.getId()).thenReturn("other");
+        leases.start(new ServiceHandle<>(mock(Service.class), other));
+
+        assertEquals(1, _registry.getGauges().get(name("num-active-leases.end-point")).getValue());
+        assertEquals(1, _registry.getGauges().get(name("num-active-leases.other")).getValue());
+    }
+
+    @Test
+    public void testLeaseGaugesRemovedWithLastLease() {
+        LeaseTracker<Service> leases = newTracker(0);
+        ServiceHandle<Service> handle1 = newHandle();
+        ServiceHandle<Service> handle2 = newHandle();
+        leases.start(handle1);
+        leases.start(handle2);
+
+        leases.end(handle1);
+        assertEquals(1, _registry.getGauges().get(name("num-active-leases.end-point")).getValue());
+
+        leases.end(handle2);
+        assertNull(_registry.getGauges().get(name("num-active-leases.end-point")));
+        assertNull(_registry.getGauges().get(name("longest-active-lease-millis.end-point")));
+
+        leases.start(newHandle());
+        assertEquals(1, _registry.getGauges().get(name("num-active-leases.end-point")).getValue());
+    }
+
+    private LeaseTracker<Service> newTracker(long maxLeaseTimeMillis) {
+        return new LeaseTracker<>(_ticker, maxLeaseTimeMillis, TimeUnit.MILLISECONDS, _metrics);
+    }
+
+    private ServiceHandle<Service> newHandle() {
+        return new ServiceHandle<>(mock(Service.class), END_POINT);
+    }
+
+    private void advance(long nanos) {
+        long now = _ticker.read();
+        when(_ticker.read()).thenReturn(now + nanos);
+    }
+
+    private String name(String metric) {
+        return MetricRegistry.name(getClass(), "service", metric);
+    }
+
+    private interface Service {}
+}
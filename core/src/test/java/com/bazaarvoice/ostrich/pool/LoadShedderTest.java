@@ -0,0 +1,268 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.Priority;
+import com.bazaarvoice.ostrich.exceptions.RequestShedException;
+import com.bazaarvoice.ostrich.metrics.Metrics;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class LoadShedderTest {
+    private Ticker _ticker;
+    private MetricRegistry _registry;
+    private Metrics.InstanceMetrics _metrics;
+    private List<Runnable> _started;
+    private List<String> _ran;
+    private LoadShedder _shedder;
+
+    @Before
+    public void setup() {
+        _ticker = mock(Ticker.class);
+        _registry = new MetricRegistry();
+        _metrics = Metrics.forInstance(_registry, this, "service");
+        _started = Lists.newArrayList();
+        _ran = Lists.newArrayList();
+        _shedder = new LoadShedder(new LoadSheddingPolicyBuilder()
+                .withMaxConcurrency(1)
+                .withMaxQueueSize(2)
+                .withTargetQueueDelay(10, 100, TimeUnit.MILLISECONDS)
+                .build(), new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                _started.add(command);
+            }
+        }, _ticker, _metrics);
+    }
+
+    @After
+    public void teardown() {
+        _metrics.close();
+    }
+
+    @Test
+    public void testRunsRightAwayWhenNotSaturated() {
+        _shedder.execute(Priority.DEFAULT, task("a"), SettableFuture.create());
+
+        assertEquals(1, _started.size());
+        assertEquals(1, _shedder.getNumRunning());
+        assertEquals(0, _shedder.getNumQueued());
+    }
+
+    @Test
+    public void testQueuedRequestsRunHighestClassFirst() {
+        _shedder.execute(Priority.DEFAULT, task("running"), SettableFuture.create());
+        _shedder.execute(Priority.BEST_EFFORT, task("best-effort"), SettableFuture.create());
+        _shedder.execute(Priority.CRITICAL, task("critical"), SettableFuture.create());
+        assertEquals(2, _shedder.getNumQueued());
+
+        runNext();
+        runNext();
+        runNext();
+
+        assertEquals(Lists.newArrayList("running", "critical", "best-effort"), _ran);
+        assertEquals(0, _shedder.getNumRunning());
+    }
+
+    @Test
+    public void testFullQueuePushesOutLowerClass() throws Exception {
+        SettableFuture<Object> bestEffort = SettableFuture.create();
+        _shedder.execute(Priority.DEFAULT, task("running"), SettableFuture.create());
+        _shedder.execute(Priority.BEST_EFFORT, task("best-effort"), bestEffort);
+        _shedder.execute(Priority.DEFAULT, task("default"), SettableFuture.create());
+
+        _shedder.execute(Priority.CRITICAL, task("critical"), SettableFuture.create());
+
+        assertShed(bestEffort);
+        assertEquals(2, _shedder.getNumQueued());
+        assertEquals(1, getNumShed("best-effort"));
+    }
+
+    @Test
+    public void testFullQueueShedsNewRequestOfLowestClass() throws Exception {
+        SettableFuture<Object> future = SettableFuture.create();
+        _shedder.execute(Priority.DEFAULT, task("running"), SettableFuture.create());
+        _shedder.execute(Priority.DEFAULT, task("a"), SettableFuture.create());
+        _shedder.execute(Priority.DEFAULT, task("b"), SettableFuture.create());
+
+        _shedder.execute(Priority.DEFAULT, task("c"), future);
+
+        assertShed(future);
+        assertEquals(2, _shedder.getNumQueued());
+        assertEquals(1, getNumShed("default"));
+    }
+
+    @Test
+    public void testRequestWaitingAnIntervalShed() throws Exception {
+        SettableFuture<Object> future = SettableFuture.create();
+        _shedder.execute(Priority.DEFAULT, task("running"), SettableFuture.create());
+        _shedder.execute(Priority.DEFAULT, task("stale"), future);
+
+        when(_ticker.read()).thenReturn(TimeUnit.MILLISECONDS.toNanos(101));
+        runNext();
+
+        assertShed(future);
+        assertEquals(Lists.newArrayList("running"), _ran);
+    }
+
+    @Test
+    public void testOverloadedQueueShedsAfterTwiceTheTarget() throws Exception {
+        SettableFuture<Object> future = SettableFuture.create();
+        _shedder.execute(Priority.DEFAULT, task("running"), SettableFuture.create());
+        _shedder.execute(Priority.DEFAULT, task("a"), SettableFuture.create());
+        when(_ticker.read()).thenReturn(TimeUnit.MILLISECONDS.toNanos(50));
+        runNext();
+        _shedder.execute(Priority.DEFAULT, task("b"), SettableFuture.create());
+
+        // The first request didn't have to wait, so the queue isn't overloaded yet and a wait under an interval is
+        // fine.
+        when(_ticker.read()).thenReturn(TimeUnit.MILLISECONDS.toNanos(100));
+        runNext();
+        when(_ticker.read()).thenReturn(TimeUnit.MILLISECONDS.toNanos(120));
+        _shedder.execute(Priority.DEFAULT, task("c"), future);
+
+        // Every request waited longer than the target during the last interval.
+        when(_ticker.read()).thenReturn(TimeUnit.MILLISECONDS.toNanos(200));
+        runNext();
+
+        assertShed(future);
+        assertEquals(Lists.newArrayList("running", "a", "b"), _ran);
+    }
+
+    @Test
+    public void testLowerClassShedForLateHigherClass() throws Exception {
+        SettableFuture<Object> bestEffort = SettableFuture.create();
+        SettableFuture<Object> critical = SettableFuture.create();
+        _shedder.execute(Priority.DEFAULT, task("running"), SettableFuture.create());
+        _shedder.execute(Priority.BEST_EFFORT, task("best-effort"), bestEffort);
+        _shedder.execute(Priority.CRITICAL, task("critical"), critical);
+
+        when(_ticker.read()).thenReturn(TimeUnit.MILLISECONDS.toNanos(101));
+        runNext();
+        runNext();
+
+        assertShed(bestEffort);
+        assertFalse(critical.isDone());
+        assertEquals(Lists.newArrayList("running", "critical"), _ran);
+        assertEquals(1, getNumShed("best-effort"));
+        assertEquals(0, getNumShed("critical"));
+    }
+
+    @Test
+    public void testOverloadDecidedAcrossClasses() throws Exception {
+        SettableFuture<Object> critical = SettableFuture.create();
+        _shedder.execute(Priority.DEFAULT, task("running"), SettableFuture.create());
+        _shedder.execute(Priority.BEST_EFFORT, task("a"), SettableFuture.create());
+        when(_ticker.read()).thenReturn(TimeUnit.MILLISECONDS.toNanos(50));
+        runNext();
+        _shedder.execute(Priority.BEST_EFFORT, task("b"), SettableFuture.create());
+        when(_ticker.read()).thenReturn(TimeUnit.MILLISECONDS.toNanos(100));
+        runNext();
+        when(_ticker.read()).thenReturn(TimeUnit.MILLISECONDS.toNanos(120));
+        _shedder.execute(Priority.CRITICAL, task("critical"), critical);
+
+        // Best effort requests kept the queues above the target, so the critical request is late after twice the
+        // target even though it's the first of its class.
+        when(_ticker.read()).thenReturn(TimeUnit.MILLISECONDS.toNanos(200));
+        runNext();
+
+        assertShed(critical);
+        assertEquals(1, getNumShed("critical"));
+    }
+
+    @Test
+    public void testPushedOutRequestQueueTimeRecorded() {
+        _shedder.execute(Priority.DEFAULT, task("running"), SettableFuture.create());
+        _shedder.execute(Priority.BEST_EFFORT, task("best-effort"), SettableFuture.create());
+        _shedder.execute(Priority.DEFAULT, task("default"), SettableFuture.create());
+
+        when(_ticker.read()).thenReturn(TimeUnit.MILLISECONDS.toNanos(5));
+        _shedder.execute(Priority.CRITICAL, task("critical"), SettableFuture.create());
+
+        Timer bestEffort = _registry.timer(MetricRegistry.name(getClass(), "service", "queue-time", "best-effort"));
+        assertEquals(1, bestEffort.getCount());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(5), bestEffort.getSnapshot().getMax());
+    }
+
+    @Test
+    public void testQueueTimeRecordedPerClass() {
+        _shedder.execute(Priority.DEFAULT, task("running"), SettableFuture.create());
+        _shedder.execute(Priority.CRITICAL, task("critical"), SettableFuture.create());
+
+        when(_ticker.read()).thenReturn(TimeUnit.MILLISECONDS.toNanos(5));
+        runNext();
+
+        Timer critical = _registry.timer(MetricRegistry.name(getClass(), "service", "queue-time", "critical"));
+        assertEquals(1, critical.getCount());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(5), critical.getSnapshot().getMax());
+        Timer defaults = _registry.timer(MetricRegistry.name(getClass(), "service", "queue-time", "default"));
+        assertEquals(1, defaults.getCount());
+        assertEquals(0, defaults.getSnapshot().getMax());
+    }
+
+    @Test
+    public void testRejectedRequestFails() throws Exception {
+        SettableFuture<Object> future = SettableFuture.create();
+        LoadShedder shedder = new LoadShedder(new LoadSheddingPolicyBuilder().build(), new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        }, _ticker, Metrics.forInstance(new MetricRegistry(), this, "service"));
+
+        shedder.execute(Priority.DEFAULT, task("a"), future);
+
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        assertEquals(0, shedder.getNumRunning());
+    }
+
+    private Runnable task(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                _ran.add(name);
+            }
+        };
+    }
+
+    private void runNext() {
+        assertFalse(_started.isEmpty());
+        _started.remove(0).run();
+    }
+
+    private long getNumShed(String priority) {
+        return _registry.meter(MetricRegistry.name(getClass(), "service", "num-shed-requests", priority)).getCount();
+    }
+
+    private void assertShed(SettableFuture<?> future) throws Exception {
+        assertTrue(future.isDone());
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RequestShedException);
+        }
+    }
+}
@@ -2,6 +2,8 @@ package com.bazaarvoice.ostrich.pool;
 
 import com.bazaarvoice.ostrich.MultiThreadedServiceFactory;
 import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.ValidatingServiceFactory;
+import com.bazaarvoice.ostrich.exceptions.NoCachedInstancesAvailableException;
 import com.codahale.metrics.MetricRegistry;
 import com.google.common.collect.Lists;
 import org.junit.After;
@@ -10,6 +12,7 @@ import org.junit.Test;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotSame;
@@ -19,6 +22,7 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -248,6 +252,174 @@ public class MultiThreadedClientServiceCacheTest {
         verify(_factory, timeout(100).times(1)).destroy(_endPoint, service);
     }
 
+    @Test (expected = NoCachedInstancesAvailableException.class)
+    public void testDrainingEndPointRefusesCheckOut()
+            throws Exception {
+        MultiThreadedClientServiceCache<Service> cache = newCache(0);
+
+        cache.checkOut(_endPoint);
+        cache.drain(_endPoint);
+        cache.checkOut(_endPoint);
+    }
+
+    @Test
+    public void testDrainedEndPointDestroyedWhenNotCheckedOut()
+            throws Exception {
+        MultiThreadedClientServiceCache<Service> cache = newCache(0);
+        ServiceHandle<Service> handle = cache.checkOut(_endPoint);
+        cache.checkIn(handle);
+        cache.drain(_endPoint);
+
+        verify(_factory, timeout(100).times(1)).destroy(_endPoint, handle.getService());
+    }
+
+    @Test
+    public void testDrainingEndPointDestroyedOnceCheckedIn()
+            throws Exception {
+        MultiThreadedClientServiceCache<Service> cache = newCache(0);
+        ServiceHandle<Service> handle = cache.checkOut(_endPoint);
+        cache.drain(_endPoint);
+
+        Thread.sleep(50);
+        verify(_factory, never()).destroy(_endPoint, handle.getService());
+        assertEquals(1, cache.getDrainingHandles().size());
+
+        cache.checkIn(handle);
+        verify(_factory, timeout(100).times(1)).destroy(_endPoint, handle.getService());
+    }
+
+    @Test
+    public void testDrainTimeoutDestroysCheckedOutEndPoint()
+            throws Exception {
+        MultiThreadedClientServiceCache<Service> cache = newCache(0, 0);
+        ServiceHandle<Service> handle = cache.checkOut(_endPoint);
+        cache.drain(_endPoint);
+
+        verify(_factory, timeout(100).times(1)).destroy(_endPoint, handle.getService());
+    }
+
+    @Test
+    public void testEvictStopsDrain()
+            throws Exception {
+        MultiThreadedClientServiceCache<Service> cache = newCache(0);
+        ServiceHandle<Service> handle1 = cache.checkOut(_endPoint);
+        cache.drain(_endPoint);
+        cache.evict(_endPoint);
+
+        ServiceHandle<Service> handle2 = cache.checkOut(_endPoint);
+        assertNotSame(handle1.getService(), handle2.getService());
+        verify(_factory, never()).destroy(_endPoint, handle1.getService());
+
+        cache.checkIn(handle1);
+        verify(_factory, timeout(100).times(1)).destroy(_endPoint, handle1.getService());
+        verify(_factory, never()).destroy(_endPoint, handle2.getService());
+    }
+
+    @Test
+    public void testCheckOutsGetTheirOwnHandles()
+            throws Exception {
+        MultiThreadedClientServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle1 = cache.checkOut(_endPoint);
+        ServiceHandle<Service> handle2 = cache.checkOut(_endPoint);
+
+        assertNotSame(handle1, handle2);
+        assertSame(handle1.getService(), handle2.getService());
+    }
+
+    @Test
+    public void testExpiredLeaseReclaimedDoesNotHoldUpDrain()
+            throws Exception {
+        MultiThreadedClientServiceCache<Service> cache = new MultiThreadedClientServiceCache<>(_factory,
+                ServiceCacheBuilder.buildDefaultExecutor(), 0, 0, TimeUnit.MINUTES.toMillis(1), 1, true, 0, 0, _metricRegistry);
+        _caches.add(cache);
+
+        ServiceHandle<Service> handle = cache.checkOut(_endPoint);
+        cache.drain(_endPoint);
+        Thread.sleep(10);
+        cache.checkLeases();
+
+        verify(_factory, timeout(100).times(1)).destroy(_endPoint, handle.getService());
+    }
+
+    @Test
+    public void testRotationReplacesExpiredInstance()
+            throws Exception {
+        MultiThreadedClientServiceCache<Service> cache = newLifetimeCache(10);
+        ServiceHandle<Service> handle1 = cache.checkOut(_endPoint);
+        Thread.sleep(20);
+        cache.rotate();
+
+        ServiceHandle<Service> handle2 = cache.checkOut(_endPoint);
+        assertNotSame(handle1.getService(), handle2.getService());
+        verify(_factory, never()).destroy(_endPoint, handle1.getService());
+
+        // The old instance is destroyed once it's no longer checked out.
+        cache.checkIn(handle1);
+        verify(_factory, timeout(100).times(1)).destroy(_endPoint, handle1.getService());
+        verify(_factory, never()).destroy(_endPoint, handle2.getService());
+    }
+
+    @Test
+    public void testUnexpiredInstanceNotRotated()
+            throws Exception {
+        MultiThreadedClientServiceCache<Service> cache = newLifetimeCache(TimeUnit.MINUTES.toMillis(1));
+        ServiceHandle<Service> handle1 = cache.checkOut(_endPoint);
+        cache.rotate();
+
+        assertSame(handle1.getService(), cache.checkOut(_endPoint).getService());
+    }
+
+    @Test
+    public void testRotationSkipsDrainingInstance()
+            throws Exception {
+        MultiThreadedClientServiceCache<Service> cache = newLifetimeCache(10);
+        cache.checkOut(_endPoint);
+        cache.drain(_endPoint);
+        Thread.sleep(20);
+        cache.rotate();
+
+        verify(_factory, times(1)).create(_endPoint);
+    }
+
+    @Test
+    public void testInvalidInstanceReplaced()
+            throws Exception {
+        ValidatingMultiThreadedServiceFactory factory = useValidatingFactory();
+        MultiThreadedClientServiceCache<Service> cache = newCache(0);
+        ServiceHandle<Service> handle1 = cache.checkOut(_endPoint);
+        cache.checkIn(handle1);
+        when(factory.isValid(_endPoint, handle1.getService())).thenReturn(false);
+        cache.validate();
+
+        ServiceHandle<Service> handle2 = cache.checkOut(_endPoint);
+        assertNotSame(handle1.getService(), handle2.getService());
+        verify(factory, timeout(100).times(1)).destroy(_endPoint, handle1.getService());
+    }
+
+    @Test
+    public void testValidInstanceKept()
+            throws Exception {
+        ValidatingMultiThreadedServiceFactory factory = useValidatingFactory();
+        MultiThreadedClientServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle1 = cache.checkOut(_endPoint);
+        cache.checkIn(handle1);
+        when(factory.isValid(_endPoint, handle1.getService())).thenReturn(true);
+        cache.validate();
+
+        assertSame(handle1.getService(), cache.checkOut(_endPoint).getService());
+    }
+
+    @Test
+    public void testCheckedOutInstanceNotValidated()
+            throws Exception {
+        ValidatingMultiThreadedServiceFactory factory = useValidatingFactory();
+        MultiThreadedClientServiceCache<Service> cache = newCache();
+        cache.checkOut(_endPoint);
+        cache.validate();
+
+        verify(factory, never()).isValid(any(ServiceEndPoint.class), any(Service.class));
+    }
+
     @Test (expected = NullPointerException.class)
     public void testNumIdleNullEndPoint() {
         MultiThreadedClientServiceCache<Service> cache = newCache();
@@ -297,6 +469,20 @@ public class MultiThreadedClientServiceCacheTest {
         cache.close();
     }
 
+    private ValidatingMultiThreadedServiceFactory useValidatingFactory() {
+        ValidatingMultiThreadedServiceFactory factory = mock(ValidatingMultiThreadedServiceFactory.class);
+        when(factory.getServiceName()).thenReturn(Service.class.getSimpleName());
+        when(factory.create(any(ServiceEndPoint.class))).thenAnswer(new Answer<Service>() {
+            @Override
+            public Service answer(InvocationOnMock invocation)
+                    throws Throwable {
+                return mock(Service.class);
+            }
+        });
+        _factory = factory;
+        return factory;
+    }
+
     private MultiThreadedClientServiceCache<Service> newCache() {
         return newCache(1);
     }
@@ -307,6 +493,20 @@ public class MultiThreadedClientServiceCacheTest {
         return cache;
     }
 
+    private MultiThreadedClientServiceCache<Service> newCache(int ttl, long drainTimeoutInMillis) {
+        MultiThreadedClientServiceCache<Service> cache = new MultiThreadedClientServiceCache<>(_factory, ServiceCacheBuilder.buildDefaultExecutor(), ttl, ttl, drainTimeoutInMillis, 0, false, 0, 0, _metricRegistry);
+        _caches.add(cache);
+        return cache;
+    }
+
+    private MultiThreadedClientServiceCache<Service> newLifetimeCache(long maxLifetimeInMillis) {
+        MultiThreadedClientServiceCache<Service> cache = new MultiThreadedClientServiceCache<>(_factory,
+                ServiceCacheBuilder.buildDefaultExecutor(), 60, 0, TimeUnit.MINUTES.toMillis(1), 0, false,
+                maxLifetimeInMillis, 0, _metricRegistry);
+        _caches.add(cache);
+        return cache;
+    }
+
     private ServiceEndPoint newEndPoint(String id, String name) {
         ServiceEndPoint endPoint = mock(ServiceEndPoint.class);
         when(endPoint.getId()).thenReturn(id);
@@ -317,4 +517,8 @@ public class MultiThreadedClientServiceCacheTest {
 
     public static interface Service {
     }
+
+    private interface ValidatingMultiThreadedServiceFactory
+            extends MultiThreadedServiceFactory<Service>, ValidatingServiceFactory<Service> {
+    }
 }
@@ -0,0 +1,128 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.metrics.Metrics;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Ticker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class OverloadBackoffTest {
+    private static final ServiceEndPoint FOO = mock(ServiceEndPoint.class);
+    private static final ServiceEndPoint BAR = mock(ServiceEndPoint.class);
+
+    private Ticker _ticker;
+    private MetricRegistry _registry;
+    private Metrics.InstanceMetrics _metrics;
+    private OverloadBackoff _backoff;
+
+    @Before
+    public void setup() {
+        _ticker = mock(Ticker.class);
+        _registry = new MetricRegistry();
+        _metrics = Metrics.forInstance(_registry, this, "service");
+        _backoff = new OverloadBackoff(_ticker, _metrics);
+    }
+
+    @After
+    public void teardown() {
+        _metrics.close();
+    }
+
+    @Test
+    public void testNotBackedOffByDefault() {
+        assertFalse(_backoff.isBackedOff(FOO));
+        assertTrue(_backoff.notBackedOffFilter().apply(FOO));
+        assertEquals(0, _backoff.getRetryDelay(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testBackedOffForRequestedTime() {
+        _backoff.recordOverload(FOO, 100);
+
+        assertTrue(_backoff.isBackedOff(FOO));
+        assertFalse(_backoff.notBackedOffFilter().apply(FOO));
+        assertFalse(_backoff.isBackedOff(BAR));
+
+        setTime(99);
+        assertTrue(_backoff.isBackedOff(FOO));
+        setTime(100);
+        assertFalse(_backoff.isBackedOff(FOO));
+    }
+
+    @Test
+    public void testDefaultBackoff() {
+        _backoff.recordOverload(FOO, 0);
+
+        setTime(OverloadBackoff.DEFAULT_BACKOFF_MILLIS - 1);
+        assertTrue(_backoff.isBackedOff(FOO));
+        setTime(OverloadBackoff.DEFAULT_BACKOFF_MILLIS);
+        assertFalse(_backoff.isBackedOff(FOO));
+    }
+
+    @Test
+    public void testBackoffCapped() {
+        _backoff.recordOverload(FOO, Long.MAX_VALUE);
+
+        setTime(OverloadBackoff.MAX_BACKOFF_MILLIS - 1);
+        assertTrue(_backoff.isBackedOff(FOO));
+        setTime(OverloadBackoff.MAX_BACKOFF_MILLIS);
+        assertFalse(_backoff.isBackedOff(FOO));
+    }
+
+    @Test
+    public void testShorterBackoffDoesNotShortenLongerOne() {
+        _backoff.recordOverload(FOO, 100);
+        _backoff.recordOverload(FOO, 10);
+
+        setTime(50);
+        assertTrue(_backoff.isBackedOff(FOO));
+    }
+
+    @Test
+    public void testRetryDelay() {
+        _backoff.recordOverload(FOO, 100);
+        _backoff.recordOverload(BAR, 50);
+
+        assertEquals(100, _backoff.getRetryDelay(TimeUnit.MILLISECONDS));
+        setTime(60);
+        assertEquals(40, _backoff.getRetryDelay(TimeUnit.MILLISECONDS));
+        setTime(100);
+        assertEquals(0, _backoff.getRetryDelay(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testMetrics() {
+        _backoff.recordOverload(FOO, 100);
+        _backoff.recordOverload(BAR, 50);
+
+        assertEquals(2, _registry.meter(MetricRegistry.name(getClass(), "service", "num-overloaded-responses"))
+                .getCount());
+        String name = MetricRegistry.name(getClass(), "service", "num-backed-off-end-points");
+        assertEquals(2, _registry.getGauges().get(name).getValue());
+        setTime(50);
+        assertEquals(1, _registry.getGauges().get(name).getValue());
+    }
+
+    @Test
+    public void testRemove() {
+        _backoff.recordOverload(FOO, 100);
+
+        _backoff.remove(FOO);
+
+        assertFalse(_backoff.isBackedOff(FOO));
+    }
+
+    private void setTime(long millis) {
+        when(_ticker.read()).thenReturn(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+}
@@ -0,0 +1,109 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.google.common.base.Ticker;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class PassiveHealthTrackerTest {
+    private static final ServiceEndPoint END_POINT = mock(ServiceEndPoint.class);
+
+    private Ticker _ticker;
+    private PassiveHealthTracker _tracker;
+
+    @Before
+    public void setup() {
+        _ticker = mock(Ticker.class);
+        when(_ticker.read()).thenReturn(TimeUnit.HOURS.toNanos(1));
+        _tracker = new PassiveHealthTracker(_ticker, 1, TimeUnit.MINUTES);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeWindow() {
+        new PassiveHealthTracker(_ticker, -1, TimeUnit.MINUTES);
+    }
+
+    @Test
+    public void testNoTraffic() {
+        assertFalse(_tracker.hasRecentSuccess(END_POINT));
+        assertFalse(_tracker.hasSucceededSince(END_POINT, 0));
+    }
+
+    @Test
+    public void testSuccess() {
+        long start = _tracker.start();
+        advance(TimeUnit.MILLISECONDS.toNanos(10));
+        _tracker.recordSuccess(END_POINT, start);
+
+        assertTrue(_tracker.hasRecentSuccess(END_POINT));
+        assertTrue(_tracker.hasSucceededSince(END_POINT, start - 1));
+        assertFalse(_tracker.hasSucceededSince(END_POINT, start));
+    }
+
+    @Test
+    public void testFailureAfterSuccess() {
+        _tracker.recordSuccess(END_POINT, _tracker.start());
+        advance(1);
+        _tracker.recordFailure(END_POINT);
+
+        assertFalse(_tracker.hasRecentSuccess(END_POINT));
+    }
+
+    @Test
+    public void testRequestStartedBeforeFailureDoesNotCount() {
+        long start = _tracker.start();
+        advance(1);
+        _tracker.recordFailure(END_POINT);
+        advance(1);
+        _tracker.recordSuccess(END_POINT, start);
+
+        assertFalse(_tracker.hasRecentSuccess(END_POINT));
+    }
+
+    @Test
+    public void testRequestStartedAfterFailureCounts() {
+        _tracker.recordFailure(END_POINT);
+        advance(1);
+        _tracker.recordSuccess(END_POINT, _tracker.start());
+
+        assertTrue(_tracker.hasRecentSuccess(END_POINT));
+    }
+
+    @Test
+    public void testOlderSuccessDoesNotReplaceNewer() {
+        long older = _tracker.start();
+        advance(2);
+        _tracker.recordSuccess(END_POINT, _tracker.start());
+        _tracker.recordSuccess(END_POINT, older);
+
+        assertTrue(_tracker.hasSucceededSince(END_POINT, older + 1));
+    }
+
+    @Test
+    public void testSuccessOutsideWindow() {
+        _tracker.recordSuccess(END_POINT, _tracker.start());
+        advance(TimeUnit.MINUTES.toNanos(1) + 1);
+
+        assertFalse(_tracker.hasRecentSuccess(END_POINT));
+    }
+
+    @Test
+    public void testZeroWindowTracksNothing() {
+        PassiveHealthTracker tracker = new PassiveHealthTracker(_ticker, 0, TimeUnit.MINUTES);
+        tracker.recordSuccess(END_POINT, tracker.start() + 1);
+
+        assertFalse(tracker.hasSucceededSince(END_POINT, 0));
+    }
+
+    private void advance(long nanos) {
+        long now = _ticker.read();
+        when(_ticker.read()).thenReturn(now + nanos);
+    }
+}
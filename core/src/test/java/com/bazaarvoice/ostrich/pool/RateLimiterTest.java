@@ -0,0 +1,177 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.metrics.Metrics;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Ticker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RateLimiterTest {
+    private static final ServiceEndPoint LIMITED = mock(ServiceEndPoint.class);
+    private static final ServiceEndPoint UNLIMITED = mock(ServiceEndPoint.class);
+
+    static {
+        when(LIMITED.getCapacity()).thenReturn(4.0);
+    }
+
+    private Ticker _ticker;
+    private MetricRegistry _registry;
+    private Metrics.InstanceMetrics _metrics;
+
+    @Before
+    public void setup() {
+        _ticker = mock(Ticker.class);
+        _registry = new MetricRegistry();
+        _metrics = Metrics.forInstance(_registry, this, "service");
+    }
+
+    @After
+    public void teardown() {
+        _metrics.close();
+    }
+
+    @Test
+    public void testEndPointLimitedToShareOfCapacity() {
+        RateLimiter limiter = newLimiter(new RateLimitPolicyBuilder().withEndPointCapacityShare(0.5).build());
+
+        assertNotNull(limiter.tryAcquire(LIMITED));
+        assertNotNull(limiter.tryAcquire(LIMITED));
+        assertNull(limiter.tryAcquire(LIMITED));
+
+        assertTrue(limiter.isExhausted(LIMITED));
+        assertFalse(limiter.notExhaustedFilter().apply(LIMITED));
+        assertEquals(1, _registry.meter(MetricRegistry.name(getClass(), "service", "num-rate-limit-rejections"))
+                .getCount());
+        assertEquals(1, _registry.getGauges()
+                .get(MetricRegistry.name(getClass(), "service", "num-rate-limited-end-points")).getValue());
+    }
+
+    @Test
+    public void testEndPointWithoutCapacityNotLimited() {
+        RateLimiter limiter = newLimiter(new RateLimitPolicyBuilder().build());
+
+        for (int i = 0; i < 100; i++) {
+            assertNotNull(limiter.tryAcquire(UNLIMITED));
+        }
+        assertFalse(limiter.isExhausted(UNLIMITED));
+    }
+
+    @Test
+    public void testCapacityIgnoredWithoutShare() {
+        RateLimiter limiter = newLimiter(new RateLimitPolicyBuilder()
+                .withMaxRequestsPerSecond(100)
+                .withEndPointCapacityShare(0)
+                .build());
+
+        for (int i = 0; i < 10; i++) {
+            assertNotNull(limiter.tryAcquire(LIMITED));
+        }
+    }
+
+    @Test
+    public void testPoolLimit() {
+        RateLimiter limiter = newLimiter(new RateLimitPolicyBuilder().withMaxRequestsPerSecond(2).build());
+
+        assertNotNull(limiter.tryAcquire(UNLIMITED));
+        assertNotNull(limiter.tryAcquire(UNLIMITED));
+
+        assertTrue(limiter.isExhausted());
+        assertNull(limiter.tryAcquire(UNLIMITED));
+    }
+
+    @Test
+    public void testPoolTokenRefundedWhenEndPointLimited() {
+        RateLimiter limiter = newLimiter(new RateLimitPolicyBuilder()
+                .withMaxRequestsPerSecond(5)
+                .withEndPointCapacityShare(0.25)
+                .build());
+        assertNotNull(limiter.tryAcquire(LIMITED));
+        assertNull(limiter.tryAcquire(LIMITED));
+
+        for (int i = 0; i < 4; i++) {
+            assertNotNull(limiter.tryAcquire(UNLIMITED));
+        }
+        assertTrue(limiter.isExhausted());
+    }
+
+    @Test
+    public void testRefund() {
+        RateLimiter limiter = newLimiter(new RateLimitPolicyBuilder()
+                .withMaxRequestsPerSecond(1)
+                .withEndPointCapacityShare(0.25)
+                .build());
+        RateLimiter.Permit permit = limiter.tryAcquire(LIMITED);
+        assertNotNull(permit);
+        assertTrue(limiter.isExhausted());
+        assertTrue(limiter.isExhausted(LIMITED));
+
+        limiter.refund(permit);
+
+        assertFalse(limiter.isExhausted());
+        assertFalse(limiter.isExhausted(LIMITED));
+        assertNotNull(limiter.tryAcquire(LIMITED));
+    }
+
+    @Test
+    public void testRefundAfterRemove() {
+        RateLimiter limiter = newLimiter(new RateLimitPolicyBuilder()
+                .withMaxRequestsPerSecond(1)
+                .withEndPointCapacityShare(0.25)
+                .build());
+        RateLimiter.Permit permit = limiter.tryAcquire(LIMITED);
+        limiter.remove(LIMITED);
+
+        limiter.refund(permit);
+
+        assertFalse(limiter.isExhausted());
+    }
+
+    @Test
+    public void testRefundAfterReAdd() {
+        RateLimiter limiter = newLimiter(new RateLimitPolicyBuilder().withEndPointCapacityShare(0.25).build());
+        RateLimiter.Permit permit = limiter.tryAcquire(LIMITED);
+        limiter.remove(LIMITED);
+        assertNotNull(limiter.tryAcquire(LIMITED));
+
+        // The token goes back to the bucket it was taken from, not to the bucket of the end point that was added again.
+        limiter.refund(permit);
+
+        assertTrue(limiter.isExhausted(LIMITED));
+    }
+
+    @Test
+    public void testLimitRefills() {
+        RateLimiter limiter = newLimiter(new RateLimitPolicyBuilder().withEndPointCapacityShare(0.25).build());
+        limiter.tryAcquire(LIMITED);
+
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(1));
+
+        assertNotNull(limiter.tryAcquire(LIMITED));
+    }
+
+    @Test
+    public void testRemove() {
+        RateLimiter limiter = newLimiter(new RateLimitPolicyBuilder().withEndPointCapacityShare(0.25).build());
+        limiter.tryAcquire(LIMITED);
+
+        limiter.remove(LIMITED);
+
+        assertFalse(limiter.isExhausted(LIMITED));
+    }
+
+    private RateLimiter newLimiter(RateLimitPolicy policy) {
+        return new RateLimiter(policy, _ticker, _metrics);
+    }
+}
@@ -0,0 +1,58 @@
+package com.bazaarvoice.ostrich.pool;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RequestBudgetTest {
+    @Test
+    public void testStartsWithInitialBalance() {
+        RequestBudget budget = new RequestBudget(0.1, 10, 2);
+
+        assertTrue(budget.tryWithdraw());
+        assertTrue(budget.tryWithdraw());
+        assertFalse(budget.tryWithdraw());
+    }
+
+    @Test
+    public void testDepositsAddRatio() {
+        RequestBudget budget = new RequestBudget(0.25, 10, 0);
+
+        for (int i = 0; i < 3; i++) {
+            budget.deposit();
+            assertFalse(budget.tryWithdraw());
+        }
+        budget.deposit();
+
+        assertTrue(budget.tryWithdraw());
+        assertEquals(0, budget.getBalance(), 0.001);
+    }
+
+    @Test
+    public void testBalanceCappedAtCapacity() {
+        RequestBudget budget = new RequestBudget(1, 2, 0);
+
+        for (int i = 0; i < 5; i++) {
+            budget.deposit();
+        }
+
+        assertEquals(2, budget.getBalance(), 0.001);
+    }
+
+    @Test
+    public void testRefund() {
+        RequestBudget budget = new RequestBudget(0.1, 2, 1);
+
+        assertTrue(budget.tryWithdraw());
+        budget.refund();
+
+        assertEquals(1, budget.getBalance(), 0.001);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInitialBalanceAboveCapacity() {
+        new RequestBudget(0.1, 2, 3);
+    }
+}
@@ -5,6 +5,7 @@ import org.junit.Test;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class ServiceCachingPolicyBuilderTest {
     @Test
@@ -45,6 +46,23 @@ public class ServiceCachingPolicyBuilderTest {
         assertEquals(1, builder.build().getMaxNumServiceInstancesPerEndPoint());
     }
     
+    @Test
+    public void testAdaptiveNumServiceInstancesPerEndPointSet() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+        builder.withAdaptiveNumServiceInstancesPerEndPoint(2, 5);
+
+        ServiceCachingPolicy cachingPolicy = builder.build();
+        assertEquals(2, cachingPolicy.getMinNumServiceInstancesPerEndPoint());
+        assertEquals(5, cachingPolicy.getMaxNumServiceInstancesPerEndPoint());
+    }
+
+    @Test
+    public void testAdaptiveNumServiceInstancesPerEndPointDisabledByDefault() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+
+        assertEquals(0, builder.build().getMinNumServiceInstancesPerEndPoint());
+    }
+
     @Test
     public void testMinIdleTimeBeforeEvictionSet() {
         ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
@@ -71,6 +89,26 @@ public class ServiceCachingPolicyBuilderTest {
         builder.withMaxNumServiceInstancesPerEndPoint(-1);
     }
 
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMinAdaptiveNumServiceInstancesPerEndPoint() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+        builder.withAdaptiveNumServiceInstancesPerEndPoint(0, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMaxAdaptiveNumServiceInstancesPerEndPoint() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+        builder.withAdaptiveNumServiceInstancesPerEndPoint(2, 1);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testAdaptiveNumServiceInstancesPerEndPointReducedBelowMin() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+        builder.withAdaptiveNumServiceInstancesPerEndPoint(2, 5);
+        builder.withMaxNumServiceInstancesPerEndPoint(1);
+        builder.build();
+    }
+
     @Test(expected = IllegalStateException.class)
     public void testInvalidMaxServiceInstanceIdleTime() {
         ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
@@ -100,4 +138,46 @@ public class ServiceCachingPolicyBuilderTest {
         ServiceCachingPolicy cachingPolicy = ServiceCachingPolicyBuilder.getMultiThreadedClientPolicy();
         assertEquals(ServiceCachingPolicy.ExhaustionAction.GROW, cachingPolicy.getCacheExhaustionAction());
     }
+
+    @Test (expected = UnsupportedOperationException.class)
+    public void testUseMultiThreadedClientPolicyWithMinNumServiceInstancesPerEndPoint() {
+        ServiceCachingPolicy cachingPolicy = ServiceCachingPolicyBuilder.getMultiThreadedClientPolicy();
+        assertEquals(1, cachingPolicy.getMinNumServiceInstancesPerEndPoint());
+    }
+
+    @Test
+    public void testMaxServiceInstanceLifetime() {
+        ServiceCachingPolicy cachingPolicy = new ServiceCachingPolicyBuilder()
+                .withMaxServiceInstanceLifetime(10, 2, TimeUnit.MINUTES)
+                .build();
+        assertEquals(10, cachingPolicy.getMaxServiceInstanceLifetime(TimeUnit.MINUTES));
+        assertEquals(2, cachingPolicy.getServiceInstanceLifetimeJitter(TimeUnit.MINUTES));
+    }
+
+    @Test
+    public void testNoMaxServiceInstanceLifetimeByDefault() {
+        ServiceCachingPolicy cachingPolicy = new ServiceCachingPolicyBuilder().build();
+        assertEquals(0, cachingPolicy.getMaxServiceInstanceLifetime(TimeUnit.MILLISECONDS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMaxServiceInstanceLifetime() {
+        new ServiceCachingPolicyBuilder().withMaxServiceInstanceLifetime(0, 0, TimeUnit.MINUTES);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testServiceInstanceLifetimeJitterNotBelowLifetime() {
+        new ServiceCachingPolicyBuilder().withMaxServiceInstanceLifetime(10, 10, TimeUnit.MINUTES);
+    }
+
+    @Test
+    public void testUseMultiThreadedClientPolicyWithMaxServiceInstanceLifetime() {
+        assertEquals(0, ServiceCachingPolicyBuilder.getMultiThreadedClientPolicy()
+                .getMaxServiceInstanceLifetime(TimeUnit.MINUTES));
+
+        ServiceCachingPolicy cachingPolicy = ServiceCachingPolicyBuilder.getMultiThreadedClientPolicy(10, 2, TimeUnit.MINUTES);
+        assertTrue(cachingPolicy.useMultiThreadedClientPolicy());
+        assertEquals(10, cachingPolicy.getMaxServiceInstanceLifetime(TimeUnit.MINUTES));
+        assertEquals(2, cachingPolicy.getServiceInstanceLifetimeJitter(TimeUnit.MINUTES));
+    }
 }
@@ -0,0 +1,220 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.AsyncHealthCheckingServiceFactory;
+import com.bazaarvoice.ostrich.HostDiscovery;
+import com.bazaarvoice.ostrich.LoadBalanceAlgorithm;
+import com.bazaarvoice.ostrich.PartitionContext;
+import com.bazaarvoice.ostrich.RetryPolicy;
+import com.bazaarvoice.ostrich.ServiceCallback;
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.ServicePoolStatistics;
+import com.bazaarvoice.ostrich.exceptions.MaxRetriesException;
+import com.bazaarvoice.ostrich.exceptions.ServiceException;
+import com.bazaarvoice.ostrich.healthcheck.FixedHealthCheckRetryDelay;
+import com.bazaarvoice.ostrich.partition.PartitionFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ServicePoolAsyncHealthCheckTest {
+    private static final ServiceEndPoint FOO_ENDPOINT = mock(ServiceEndPoint.class);
+    private static final RetryPolicy NEVER_RETRY = mock(RetryPolicy.class);
+    private static final long HEALTH_CHECK_TIMEOUT_MILLIS = 1000;
+
+    static {
+        when(FOO_ENDPOINT.getId()).thenReturn("foo");
+    }
+
+    private AsyncHealthCheckingServiceFactory<Service> _serviceFactory;
+    private ScheduledExecutorService _healthCheckExecutor;
+    private MetricRegistry _registry;
+    private ServicePool<Service> _pool;
+
+    @SuppressWarnings("unchecked")
+    @Before
+    public void setup() {
+        HostDiscovery hostDiscovery = mock(HostDiscovery.class);
+        when(hostDiscovery.getHosts()).thenReturn(ImmutableList.of(FOO_ENDPOINT));
+
+        PartitionFilter partitionFilter = mock(PartitionFilter.class);
+        when(partitionFilter.filter(any(Iterable.class), any(PartitionContext.class)))
+                .thenAnswer(new Answer<Object>() {
+                    @Override
+                    public Object answer(InvocationOnMock invocation) {
+                        return invocation.getArguments()[0];
+                    }
+                });
+
+        LoadBalanceAlgorithm loadBalanceAlgorithm = mock(LoadBalanceAlgorithm.class);
+        when(loadBalanceAlgorithm.choose(any(Iterable.class), any(ServicePoolStatistics.class)))
+                .thenAnswer(new Answer<ServiceEndPoint>() {
+                    @Override
+                    public ServiceEndPoint answer(InvocationOnMock invocation) {
+                        return Iterables.getFirst((Iterable<ServiceEndPoint>) invocation.getArguments()[0], null);
+                    }
+                });
+
+        _serviceFactory = mock(AsyncHealthCheckingServiceFactory.class);
+        when(_serviceFactory.getServiceName()).thenReturn(Service.class.getSimpleName());
+        when(_serviceFactory.create(FOO_ENDPOINT)).thenReturn(mock(Service.class));
+        when(_serviceFactory.isRetriableException(any(Exception.class))).thenReturn(true);
+
+        _healthCheckExecutor = mock(ScheduledExecutorService.class);
+        _registry = new MetricRegistry();
+
+        _pool = new ServicePool<>(mock(Ticker.class), hostDiscovery, false, _serviceFactory,
+                new ServiceCacheBuilder<Service>()
+                        .withServiceFactory(_serviceFactory)
+                        .withCachingPolicy(ServiceCachingPolicyBuilder.NO_CACHING)
+                        .withMetricRegistry(_registry)
+                        .build(),
+                partitionFilter, loadBalanceAlgorithm, _healthCheckExecutor, true,
+                new FixedHealthCheckRetryDelay(100, TimeUnit.MILLISECONDS), 1, HEALTH_CHECK_TIMEOUT_MILLIS,
+                ServicePool.DEFAULT_READMISSION_WINDOW_MILLIS, _registry);
+    }
+
+    @After
+    public void teardown() {
+        _pool.close();
+    }
+
+    @Test
+    public void testHealthyEndPointUsedAgain() {
+        when(_serviceFactory.isHealthyAsync(FOO_ENDPOINT)).thenReturn(CompletableFuture.completedFuture(true));
+        markFooAsBad();
+
+        _pool.forceHealthChecks();
+
+        assertEquals(0, _pool.getNumBadEndPoints());
+        verify(_serviceFactory, never()).isHealthy(any(ServiceEndPoint.class));
+    }
+
+    @Test
+    public void testUnhealthyEndPointRescheduled() {
+        when(_serviceFactory.isHealthyAsync(FOO_ENDPOINT)).thenReturn(CompletableFuture.completedFuture(false));
+        markFooAsBad();
+
+        _pool.forceHealthChecks();
+
+        assertEquals(1, _pool.getNumBadEndPoints());
+        verify(_healthCheckExecutor).schedule(any(ServicePool.HealthCheck.class), eq(100L), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testFailedHealthCheckIsUnhealthy() {
+        CompletableFuture<Boolean> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new RuntimeException());
+        when(_serviceFactory.isHealthyAsync(FOO_ENDPOINT)).thenReturn(failed);
+        markFooAsBad();
+
+        _pool.forceHealthChecks();
+
+        assertEquals(1, _pool.getNumBadEndPoints());
+    }
+
+    @Test
+    public void testThrowingHealthCheckIsUnhealthy() {
+        when(_serviceFactory.isHealthyAsync(FOO_ENDPOINT)).thenThrow(new RuntimeException());
+        markFooAsBad();
+
+        _pool.forceHealthChecks();
+
+        assertEquals(1, _pool.getNumBadEndPoints());
+    }
+
+    @Test
+    public void testResultHandledOnCompletion() {
+        CompletableFuture<Boolean> healthy = new CompletableFuture<>();
+        when(_serviceFactory.isHealthyAsync(FOO_ENDPOINT)).thenReturn(healthy);
+        markFooAsBad();
+
+        // The health check executor starts the check itself, rather than waiting for it on another thread.
+        ServicePool<Service>.HealthCheck healthCheck = captureHealthCheck();
+        healthCheck.run();
+        assertEquals(1, _pool.getNumBadEndPoints());
+
+        healthy.complete(true);
+        assertEquals(0, _pool.getNumBadEndPoints());
+    }
+
+    @Test
+    public void testTimedOutHealthCheckRescheduledAndLateResultIgnored() {
+        CompletableFuture<Boolean> healthy = new CompletableFuture<>();
+        when(_serviceFactory.isHealthyAsync(FOO_ENDPOINT)).thenReturn(healthy);
+        markFooAsBad();
+
+        ServicePool<Service>.HealthCheck healthCheck = captureHealthCheck();
+        healthCheck.run();
+
+        ArgumentCaptor<Runnable> timeout = ArgumentCaptor.forClass(Runnable.class);
+        verify(_healthCheckExecutor).schedule(timeout.capture(),
+                eq(TimeUnit.MILLISECONDS.toNanos(HEALTH_CHECK_TIMEOUT_MILLIS)), eq(TimeUnit.NANOSECONDS));
+        timeout.getValue().run();
+
+        assertEquals(1, _registry.getMeters().get(
+                MetricRegistry.name(ServicePool.class, "Service", "num-health-check-timeouts")).getCount());
+        verify(_healthCheckExecutor).schedule(same(healthCheck), eq(100L), eq(TimeUnit.MILLISECONDS));
+
+        // The check that timed out completing doesn't count.
+        healthy.complete(true);
+        assertEquals(1, _pool.getNumBadEndPoints());
+    }
+
+    @Test
+    public void testNoOverlappingHealthChecks() {
+        when(_serviceFactory.isHealthyAsync(FOO_ENDPOINT)).thenReturn(new CompletableFuture<Boolean>());
+        markFooAsBad();
+
+        ServicePool<Service>.HealthCheck healthCheck = captureHealthCheck();
+        healthCheck.run();
+        healthCheck.run();
+
+        verify(_serviceFactory, times(1)).isHealthyAsync(FOO_ENDPOINT);
+    }
+
+    private void markFooAsBad() {
+        try {
+            _pool.execute(NEVER_RETRY, new ServiceCallback<Service, Void>() {
+                @Override
+                public Void call(Service service) throws ServiceException {
+                    throw new ServiceException();
+                }
+            });
+            fail();
+        } catch (MaxRetriesException e) {
+            // Expected
+        }
+        assertEquals(1, _pool.getNumBadEndPoints());
+    }
+
+    private ServicePool<Service>.HealthCheck captureHealthCheck() {
+        @SuppressWarnings("unchecked") ArgumentCaptor<ServicePool<Service>.HealthCheck> healthCheck =
+                (ArgumentCaptor) ArgumentCaptor.forClass(ServicePool.HealthCheck.class);
+        verify(_healthCheckExecutor).submit(healthCheck.capture());
+        return healthCheck.getValue();
+    }
+
+    private interface Service {}
+}
@@ -16,6 +16,7 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertSame;
@@ -72,6 +73,76 @@ public class ServicePoolBuilderTest {
         ServicePoolBuilder.create(Service.class).withHealthCheckExecutor(null);
     }
 
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroHealthCheckParallelism() {
+        ServicePoolBuilder.create(Service.class).withHealthCheckParallelism(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeHealthCheckTimeout() {
+        ServicePoolBuilder.create(Service.class).withHealthCheckTimeout(-1, TimeUnit.SECONDS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeEndPointReadmissionWindow() {
+        ServicePoolBuilder.create(Service.class).withEndPointReadmissionWindow(-1, TimeUnit.SECONDS);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullCircuitBreakerPolicy() {
+        ServicePoolBuilder.create(Service.class).withCircuitBreaker(null);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullOutlierEjectionPolicy() {
+        ServicePoolBuilder.create(Service.class).withOutlierEjection(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPanicThresholdAboveOne() {
+        ServicePoolBuilder.create(Service.class).withPanicThreshold(1.5);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullFlapDampeningPolicy() {
+        ServicePoolBuilder.create(Service.class).withFlapDampening(null);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullHedgingPolicy() {
+        ServicePoolBuilder.create(Service.class).withHedging(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroRetryBudgetRatio() {
+        ServicePoolBuilder.create(Service.class).withRetryBudget(0, 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroMaxRetriesInBudget() {
+        ServicePoolBuilder.create(Service.class).withRetryBudget(0.1, 0);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullConcurrencyLimitPolicy() {
+        ServicePoolBuilder.create(Service.class).withConcurrencyLimit(null);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullRateLimitPolicy() {
+        ServicePoolBuilder.create(Service.class).withRateLimit(null);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullLoadSheddingPolicy() {
+        ServicePoolBuilder.create(Service.class).withLoadShedding(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroMaxInFlightPerEndPoint() {
+        ServicePoolBuilder.create(Service.class).withMaxInFlightPerEndPoint(0);
+    }
+
     @Test(expected = NullPointerException.class)
     public void testNullAsyncExecutor() {
         ServicePoolBuilder.create(Service.class).withAsyncExecutor(null);
@@ -0,0 +1,248 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.Deadline;
+import com.bazaarvoice.ostrich.DelayingRetryPolicy;
+import com.bazaarvoice.ostrich.HostDiscovery;
+import com.bazaarvoice.ostrich.LoadBalanceAlgorithm;
+import com.bazaarvoice.ostrich.OverloadAwareServiceFactory;
+import com.bazaarvoice.ostrich.PartitionContext;
+import com.bazaarvoice.ostrich.RetryPolicy;
+import com.bazaarvoice.ostrich.ServiceCallback;
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.ServicePoolStatistics;
+import com.bazaarvoice.ostrich.exceptions.MaxRetriesException;
+import com.bazaarvoice.ostrich.exceptions.ServiceException;
+import com.bazaarvoice.ostrich.exceptions.ServiceOverloadedException;
+import com.bazaarvoice.ostrich.healthcheck.FixedHealthCheckRetryDelay;
+import com.bazaarvoice.ostrich.partition.PartitionFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ServicePoolOverloadTest {
+    private static final ServiceEndPoint FOO_ENDPOINT = mock(ServiceEndPoint.class);
+    private static final ServiceEndPoint BAR_ENDPOINT = mock(ServiceEndPoint.class);
+    private static final Service FOO_SERVICE = mock(Service.class);
+    private static final Service BAR_SERVICE = mock(Service.class);
+    private static final RetryPolicy NEVER_RETRY = mock(RetryPolicy.class);
+    private static final long BACKOFF_MILLIS = 10;
+
+    static {
+        when(FOO_ENDPOINT.getId()).thenReturn("foo");
+        when(BAR_ENDPOINT.getId()).thenReturn("bar");
+    }
+
+    private Ticker _ticker;
+    private OverloadAwareServiceFactory<Service> _serviceFactory;
+    private ScheduledExecutorService _healthCheckExecutor;
+    private MetricRegistry _registry;
+    private ServicePool<Service> _pool;
+
+    @SuppressWarnings("unchecked")
+    @Before
+    public void setup() {
+        _ticker = mock(Ticker.class);
+
+        HostDiscovery hostDiscovery = mock(HostDiscovery.class);
+        when(hostDiscovery.getHosts()).thenReturn(ImmutableList.of(FOO_ENDPOINT, BAR_ENDPOINT));
+
+        PartitionFilter partitionFilter = mock(PartitionFilter.class);
+        when(partitionFilter.filter(any(Iterable.class), any(PartitionContext.class)))
+                .thenAnswer(new Answer<Object>() {
+                    @Override
+                    public Object answer(InvocationOnMock invocation) {
+                        return invocation.getArguments()[0];
+                    }
+                });
+
+        LoadBalanceAlgorithm loadBalanceAlgorithm = mock(LoadBalanceAlgorithm.class);
+        when(loadBalanceAlgorithm.choose(any(Iterable.class), any(ServicePoolStatistics.class)))
+                .thenAnswer(new Answer<ServiceEndPoint>() {
+                    @Override
+                    public ServiceEndPoint answer(InvocationOnMock invocation) {
+                        return Iterables.getFirst((Iterable<ServiceEndPoint>) invocation.getArguments()[0], null);
+                    }
+                });
+
+        _serviceFactory = mock(OverloadAwareServiceFactory.class);
+        when(_serviceFactory.getServiceName()).thenReturn(Service.class.getSimpleName());
+        when(_serviceFactory.create(FOO_ENDPOINT)).thenReturn(FOO_SERVICE);
+        when(_serviceFactory.create(BAR_ENDPOINT)).thenReturn(BAR_SERVICE);
+        when(_serviceFactory.isRetriableException(any(Exception.class))).thenReturn(true);
+        when(_serviceFactory.getOverloadBackoffMillis(any(Exception.class))).thenReturn(-1L);
+        when(_serviceFactory.getOverloadBackoffMillis(any(OverloadedException.class))).thenReturn(BACKOFF_MILLIS);
+
+        _healthCheckExecutor = mock(ScheduledExecutorService.class);
+        _registry = new MetricRegistry();
+
+        _pool = new ServicePool<>(_ticker, hostDiscovery, false, _serviceFactory,
+                new ServiceCacheBuilder<Service>()
+                        .withServiceFactory(_serviceFactory)
+                        .withCachingPolicy(ServiceCachingPolicyBuilder.NO_CACHING)
+                        .withMetricRegistry(_registry)
+                        .build(),
+                partitionFilter, loadBalanceAlgorithm, _healthCheckExecutor, true, FixedHealthCheckRetryDelay.ZERO,
+                _registry);
+    }
+
+    @After
+    public void teardown() {
+        _pool.close();
+    }
+
+    @Test
+    public void testOverloadedEndPointNotMarkedBad() {
+        overload(FOO_SERVICE);
+
+        assertEquals(0, _pool.getNumBadEndPoints());
+        verify(_healthCheckExecutor, never()).submit(any(Runnable.class));
+        assertEquals(1, _registry.meter(MetricRegistry.name(ServicePool.class, "Service", "num-overloaded-responses"))
+                .getCount());
+    }
+
+    @Test
+    public void testOverloadedEndPointBackedOff() {
+        overload(FOO_SERVICE);
+
+        assertSame(BAR_SERVICE, _pool.execute(NEVER_RETRY, newIdentityCallback()));
+        String name = MetricRegistry.name(ServicePool.class, "Service", "num-backed-off-end-points");
+        assertEquals(1, _registry.getGauges().get(name).getValue());
+    }
+
+    @Test
+    public void testOverloadedEndPointUsedAgainAfterBackoff() {
+        overload(FOO_SERVICE);
+
+        when(_ticker.read()).thenReturn(TimeUnit.MILLISECONDS.toNanos(BACKOFF_MILLIS));
+
+        assertSame(FOO_SERVICE, _pool.execute(NEVER_RETRY, newIdentityCallback()));
+    }
+
+    @Test
+    public void testAllEndPointsOverloadedFailsFast() {
+        overload(FOO_SERVICE);
+        overload(BAR_SERVICE);
+
+        try {
+            _pool.execute(NEVER_RETRY, newIdentityCallback());
+            fail();
+        } catch (ServiceOverloadedException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testOverloadRetriedOnOtherEndPoint() {
+        RetryPolicy retry = mock(RetryPolicy.class);
+        when(retry.allowRetry(anyInt(), anyLong())).thenReturn(true);
+
+        Service service = _pool.execute(retry, new ServiceCallback<Service, Service>() {
+            @Override
+            public Service call(Service service) throws ServiceException {
+                if (service == FOO_SERVICE) {
+                    throw new OverloadedException();
+                }
+                return service;
+            }
+        });
+
+        assertSame(BAR_SERVICE, service);
+    }
+
+    @Test
+    public void testOverloadRetriedWhenNotRetriable() {
+        when(_serviceFactory.isRetriableException(any(Exception.class))).thenReturn(false);
+
+        try {
+            _pool.execute(NEVER_RETRY, newOverloadingCallback(FOO_SERVICE));
+            fail();
+        } catch (MaxRetriesException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testFailureStillMarksEndPointBad() {
+        try {
+            _pool.execute(NEVER_RETRY, new ServiceCallback<Service, Void>() {
+                @Override
+                public Void call(Service service) throws ServiceException {
+                    throw new ServiceException();
+                }
+            });
+            fail();
+        } catch (MaxRetriesException e) {
+            // Expected
+        }
+
+        assertEquals(1, _pool.getNumBadEndPoints());
+    }
+
+    @Test
+    public void testRetriesHeldBackDuringBackoff() {
+        DelayingRetryPolicy retry = mock(DelayingRetryPolicy.class);
+        when(retry.getRetryDelayMs(anyInt(), anyLong(), any(Deadline.class))).thenReturn(1L);
+        overload(FOO_SERVICE);
+
+        assertEquals(BACKOFF_MILLIS, _pool.getRetryDelayMs(retry, 1, 0, Deadline.NONE));
+
+        when(_ticker.read()).thenReturn(TimeUnit.MILLISECONDS.toNanos(BACKOFF_MILLIS));
+        assertEquals(1, _pool.getRetryDelayMs(retry, 1, 0, Deadline.NONE));
+    }
+
+    private void overload(Service service) {
+        try {
+            _pool.execute(NEVER_RETRY, newOverloadingCallback(service));
+            fail();
+        } catch (MaxRetriesException e) {
+            // Expected
+        }
+    }
+
+    /** Returns a callback that fails because the service is overloaded when it's given a specific service. */
+    private ServiceCallback<Service, Service> newOverloadingCallback(final Service overloaded) {
+        return new ServiceCallback<Service, Service>() {
+            @Override
+            public Service call(Service service) throws ServiceException {
+                assertSame(overloaded, service);
+                throw new OverloadedException();
+            }
+        };
+    }
+
+    private ServiceCallback<Service, Service> newIdentityCallback() {
+        return new ServiceCallback<Service, Service>() {
+            @Override
+            public Service call(Service service) throws ServiceException {
+                return service;
+            }
+        };
+    }
+
+    private static class OverloadedException extends ServiceException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private interface Service {
+    }
+}
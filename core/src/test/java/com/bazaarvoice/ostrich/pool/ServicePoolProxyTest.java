@@ -1,8 +1,11 @@
 package com.bazaarvoice.ostrich.pool;
 
+import com.bazaarvoice.ostrich.Idempotent;
+import com.bazaarvoice.ostrich.IdempotentServiceCallback;
 import com.bazaarvoice.ostrich.PartitionContext;
 import com.bazaarvoice.ostrich.RetryPolicy;
 import com.bazaarvoice.ostrich.ServiceCallback;
+import com.bazaarvoice.ostrich.SingleFlightServiceCallback;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
@@ -10,14 +13,18 @@ import org.mockito.ArgumentCaptor;
 import java.io.Closeable;
 import java.io.IOException;
 import java.lang.reflect.Method;
+import java.util.List;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.same;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -34,6 +41,7 @@ public class ServicePoolProxyTest {
     public void setup() {
         when(SUPPLIER.forCall(any(Method.class), any(Object[].class))).thenReturn(CONTEXT);
         when(SUPPLIER.forCall(any(Method.class))).thenReturn(CONTEXT);
+        when(SUPPLIER.forCall(any(Method.class), any(), any())).thenReturn(CONTEXT);
     }
 
     @Test
@@ -75,6 +83,51 @@ public class ServicePoolProxyTest {
         verify(_pool).close();
     }
 
+    @Test
+    public void testIdempotentMethodMayBeHedged() {
+        when(FOO_SERVICE.get()).thenReturn("foo");
+        Service service = ServicePoolProxy.create(Service.class, NEVER_RETRY, _pool, SUPPLIER, false);
+        service.get();
+
+        @SuppressWarnings("unchecked") ArgumentCaptor<ServiceCallback<Service, ?>> captor =
+                (ArgumentCaptor) ArgumentCaptor.forClass(ServiceCallback.class);
+        verify(_pool).execute(same(CONTEXT), same(NEVER_RETRY), captor.capture());
+        assertTrue(captor.getValue() instanceof IdempotentServiceCallback);
+        assertFalse(captor.getValue() instanceof SingleFlightServiceCallback);
+        assertEquals("foo", captor.getValue().call(FOO_SERVICE));
+    }
+
+    @Test
+    public void testOtherMethodsNotHedged() {
+        Service service = ServicePoolProxy.create(Service.class, NEVER_RETRY, _pool, SUPPLIER, false);
+        service.close();
+
+        @SuppressWarnings("unchecked") ArgumentCaptor<ServiceCallback<Service, ?>> captor =
+                (ArgumentCaptor) ArgumentCaptor.forClass(ServiceCallback.class);
+        verify(_pool).execute(same(CONTEXT), same(NEVER_RETRY), captor.capture());
+        assertFalse(captor.getValue() instanceof IdempotentServiceCallback);
+    }
+
+    @Test
+    public void testSingleFlightCallsWithSameArgumentsShareKey() {
+        Service service = ServicePoolProxy.create(Service.class, NEVER_RETRY, _pool, SUPPLIER, false);
+        service.lookup("foo", new int[] {1, 2});
+        service.lookup("foo", new int[] {1, 2});
+        service.lookup("foo", new int[] {1, 3});
+        service.get();
+
+        @SuppressWarnings("unchecked") ArgumentCaptor<ServiceCallback<Service, ?>> captor =
+                (ArgumentCaptor) ArgumentCaptor.forClass(ServiceCallback.class);
+        verify(_pool, times(4)).execute(same(CONTEXT), same(NEVER_RETRY), captor.capture());
+        List<ServiceCallback<Service, ?>> callbacks = captor.getAllValues();
+        Object key = ((SingleFlightServiceCallback<?, ?>) callbacks.get(0)).getSingleFlightKey();
+        assertEquals(key, ((SingleFlightServiceCallback<?, ?>) callbacks.get(1)).getSingleFlightKey());
+        assertEquals(key.hashCode(), ((SingleFlightServiceCallback<?, ?>) callbacks.get(1)).getSingleFlightKey()
+                .hashCode());
+        assertNotEquals(key, ((SingleFlightServiceCallback<?, ?>) callbacks.get(2)).getSingleFlightKey());
+        assertFalse(callbacks.get(3) instanceof SingleFlightServiceCallback);
+    }
+
     @Test
     public void testGetServicePool() {
         ServicePoolProxy<Service> proxy = new ServicePoolProxy<Service>(Service.class, NEVER_RETRY, _pool, SUPPLIER, false);
@@ -84,5 +137,11 @@ public class ServicePoolProxyTest {
 
     private static interface Service {
         void close();
+
+        @Idempotent
+        String get();
+
+        @Idempotent(singleFlight = true)
+        String lookup(String id, int[] fields);
     }
 }
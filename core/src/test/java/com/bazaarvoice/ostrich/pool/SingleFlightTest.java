@@ -0,0 +1,189 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.Deadline;
+import com.bazaarvoice.ostrich.exceptions.DeadlineExceededException;
+import com.bazaarvoice.ostrich.metrics.Metrics;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Supplier;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class SingleFlightTest {
+    private MetricRegistry _registry;
+    private Metrics.InstanceMetrics _metrics;
+    private SingleFlight _singleFlight;
+    private ExecutorService _executor;
+    private CountDownLatch _release;
+    private AtomicInteger _numRequests;
+
+    @Before
+    public void setup() {
+        _registry = new MetricRegistry();
+        _metrics = Metrics.forInstance(_registry, this, "service");
+        _singleFlight = new SingleFlight("service", _metrics);
+        _executor = Executors.newCachedThreadPool();
+        _release = new CountDownLatch(1);
+        _numRequests = new AtomicInteger();
+    }
+
+    @After
+    public void teardown() {
+        _release.countDown();
+        _executor.shutdownNow();
+        _metrics.close();
+    }
+
+    @Test
+    public void testConcurrentRequestsShareResult() throws Exception {
+        Future<String> first = submit("key", newBlockingRequest("foo"));
+        awaitInFlight();
+        Future<String> second = submit("key", newBlockingRequest("bar"));
+        awaitCoalesced(1);
+
+        _release.countDown();
+
+        assertEquals("foo", first.get(10, TimeUnit.SECONDS));
+        assertEquals("foo", second.get(10, TimeUnit.SECONDS));
+        assertEquals(1, _numRequests.get());
+    }
+
+    @Test
+    public void testConcurrentRequestsShareException() throws Exception {
+        final RuntimeException exception = new RuntimeException();
+        Future<String> first = submit("key", new Supplier<String>() {
+            @Override
+            public String get() {
+                newBlockingRequest("foo").get();
+                throw exception;
+            }
+        });
+        awaitInFlight();
+        Future<String> second = submit("key", newBlockingRequest("bar"));
+        awaitCoalesced(1);
+
+        _release.countDown();
+
+        assertSame(exception, getException(first));
+        assertSame(exception, getException(second));
+        assertEquals(1, _numRequests.get());
+    }
+
+    @Test
+    public void testDifferentKeysNotCoalesced() throws Exception {
+        Future<String> first = submit("foo", newBlockingRequest("foo"));
+
+        assertEquals("bar", _singleFlight.execute("bar", Deadline.NONE, newRequest("bar")));
+
+        _release.countDown();
+        assertEquals("foo", first.get(10, TimeUnit.SECONDS));
+        assertEquals(2, _numRequests.get());
+    }
+
+    @Test
+    public void testRequestMadeAgainOnceCompleted() {
+        assertEquals("foo", _singleFlight.execute("key", Deadline.NONE, newRequest("foo")));
+        assertEquals("bar", _singleFlight.execute("key", Deadline.NONE, newRequest("bar")));
+        assertEquals(2, _numRequests.get());
+    }
+
+    @Test
+    public void testWaitingRequestGivesUpAtDeadline() throws Exception {
+        Future<String> first = submit("key", newBlockingRequest("foo"));
+        awaitInFlight();
+
+        try {
+            _singleFlight.execute("key", Deadline.after(10, TimeUnit.MILLISECONDS), newRequest("bar"));
+            fail();
+        } catch (DeadlineExceededException e) {
+            // Expected
+        }
+
+        _release.countDown();
+        assertEquals("foo", first.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testInFlightKeysGauge() throws Exception {
+        String name = MetricRegistry.name(getClass(), "service", "num-single-flight-keys");
+        Future<String> first = submit("key", newBlockingRequest("foo"));
+        awaitInFlight();
+
+        assertEquals(1, _registry.getGauges().get(name).getValue());
+
+        _release.countDown();
+        first.get(10, TimeUnit.SECONDS);
+        assertEquals(0, _registry.getGauges().get(name).getValue());
+    }
+
+    private Future<String> submit(final Object key, final Supplier<String> request) {
+        return _executor.submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return _singleFlight.execute(key, Deadline.NONE, request);
+            }
+        });
+    }
+
+    private Supplier<String> newRequest(final String result) {
+        return new Supplier<String>() {
+            @Override
+            public String get() {
+                _numRequests.incrementAndGet();
+                return result;
+            }
+        };
+    }
+
+    /** Returns a request that doesn't complete until {@code _release} is counted down. */
+    private Supplier<String> newBlockingRequest(final String result) {
+        return new Supplier<String>() {
+            @Override
+            public String get() {
+                _numRequests.incrementAndGet();
+                try {
+                    _release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return result;
+            }
+        };
+    }
+
+    private void awaitInFlight() throws InterruptedException {
+        while (_numRequests.get() == 0) {
+            Thread.sleep(1);
+        }
+    }
+
+    private void awaitCoalesced(long numCoalesced) throws InterruptedException {
+        String name = MetricRegistry.name(getClass(), "service", "num-coalesced-requests");
+        while (_registry.meter(name).getCount() < numCoalesced) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static Throwable getException(Future<?> future) throws Exception {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail();
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.bazaarvoice.ostrich.pool;
 
 import com.bazaarvoice.ostrich.ServiceEndPoint;
 import com.bazaarvoice.ostrich.ServiceFactory;
+import com.bazaarvoice.ostrich.ValidatingServiceFactory;
 import com.bazaarvoice.ostrich.exceptions.NoCachedInstancesAvailableException;
 import com.codahale.metrics.MetricRegistry;
 import com.google.common.collect.Lists;
@@ -10,6 +11,7 @@ import org.apache.commons.pool.impl.GenericKeyedObjectPool;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
@@ -27,7 +29,9 @@ import java.util.concurrent.TimeoutException;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -327,6 +331,258 @@ public class SingleThreadedClientServiceCacheTest {
         verify(_factory, times(1)).destroy(invalidEndPoint, service);
     }
 
+    @Test(expected = NoCachedInstancesAvailableException.class)
+    public void testDrainingEndPointRefusesCheckOut() throws Exception {
+        SingleThreadedClientServiceCache<Service> cache = newCache();
+
+        cache.checkOut(END_POINT);
+        cache.drain(END_POINT);
+        cache.checkOut(END_POINT);
+    }
+
+    @Test
+    public void testDrainDestroysIdleInstances() throws Exception {
+        SingleThreadedClientServiceCache<Service> cache = newCache();
+
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
+        cache.drain(END_POINT);
+
+        verify(_factory).destroy(END_POINT, handle.getService());
+        assertFalse(cache.isDraining(END_POINT));
+    }
+
+    @Test
+    public void testDrainDestroysCheckedOutInstanceOnCheckIn() throws Exception {
+        SingleThreadedClientServiceCache<Service> cache = newCache();
+
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.drain(END_POINT);
+        assertTrue(cache.isDraining(END_POINT));
+        verify(_factory, never()).destroy(END_POINT, handle.getService());
+
+        cache.checkIn(handle);
+        verify(_factory).destroy(END_POINT, handle.getService());
+        assertFalse(cache.isDraining(END_POINT));
+    }
+
+    @Test
+    public void testDrainTimeoutDestroysCheckedOutInstances() throws Exception {
+        ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+        SingleThreadedClientServiceCache<Service> cache = newCache(executor);
+
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.drain(END_POINT);
+
+        ArgumentCaptor<Runnable> timeout = ArgumentCaptor.forClass(Runnable.class);
+        verify(executor).schedule(timeout.capture(), eq(ServiceCacheBuilder.DEFAULT_DRAIN_TIMEOUT_MILLIS),
+                eq(TimeUnit.MILLISECONDS));
+        timeout.getValue().run();
+
+        verify(_factory).destroy(END_POINT, handle.getService());
+        assertFalse(cache.isDraining(END_POINT));
+        assertEquals(0, cache.getNumActiveInstances(END_POINT));
+
+        // Checking in the abandoned instance must not destroy it a second time.
+        cache.checkIn(handle);
+        verify(_factory, times(1)).destroy(END_POINT, handle.getService());
+        assertEquals(0, cache.getNumIdleInstances(END_POINT));
+    }
+
+    @Test
+    public void testEvictStopsDrain() throws Exception {
+        SingleThreadedClientServiceCache<Service> cache = newCache();
+
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.drain(END_POINT);
+        cache.evict(END_POINT);
+        cache.checkIn(handle);
+
+        assertFalse(cache.isDraining(END_POINT));
+        assertNotSame(handle.getService(), cache.checkOut(END_POINT).getService());
+    }
+
+    @Test
+    public void testZeroDrainTimeoutEvicts() throws Exception {
+        SingleThreadedClientServiceCache<Service> cache = new SingleThreadedClientServiceCache<>(_cachingPolicy,
+                _factory, 0, 0, false, _registry);
+        _caches.add(cache);
+
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.drain(END_POINT);
+
+        assertFalse(cache.isDraining(END_POINT));
+        cache.checkIn(handle);
+        verify(_factory).destroy(END_POINT, handle.getService());
+    }
+
+    @Test
+    public void testExpiredLeaseReclaimed() throws Exception {
+        SingleThreadedClientServiceCache<Service> cache = newCache(mock(ScheduledExecutorService.class), 1, true);
+
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        Thread.sleep(10);
+        cache.checkLeases();
+
+        verify(_factory).destroy(END_POINT, handle.getService());
+        assertEquals(0, cache.getNumActiveInstances(END_POINT));
+
+        // The end point's room in the cache is available again, and checking in the reclaimed instance does nothing.
+        assertNotSame(handle.getService(), cache.checkOut(END_POINT).getService());
+        cache.checkIn(handle);
+        verify(_factory, times(1)).destroy(END_POINT, handle.getService());
+    }
+
+    @Test
+    public void testExpiredLeaseNotReclaimedByDefault() throws Exception {
+        SingleThreadedClientServiceCache<Service> cache = newCache(mock(ScheduledExecutorService.class), 1, false);
+
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        Thread.sleep(10);
+        cache.checkLeases();
+        cache.checkIn(handle);
+
+        verify(_factory, never()).destroy(END_POINT, handle.getService());
+        assertEquals(1, cache.getNumIdleInstances(END_POINT));
+    }
+
+    @Test
+    public void testSchedulesLeaseCheckWhenLeaseTimeSet() {
+        ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+        newCache(executor, 100, false);
+
+        verify(executor).scheduleAtFixedRate(any(Runnable.class), eq(100L), eq(100L), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testSchedulesRotationWhenLifetimeSet() {
+        when(_cachingPolicy.getMaxServiceInstanceLifetime(TimeUnit.NANOSECONDS)).thenReturn(TimeUnit.MILLISECONDS.toNanos(100));
+
+        ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+        newCache(executor);
+
+        verify(executor).scheduleAtFixedRate(any(Runnable.class), eq(100L), eq(100L), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testRotationReplacesExpiredIdleInstance() throws Exception {
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(2);
+        when(_cachingPolicy.getMaxServiceInstanceLifetime(TimeUnit.NANOSECONDS)).thenReturn(TimeUnit.MILLISECONDS.toNanos(50));
+        SingleThreadedClientServiceCache<Service> cache = newCache(mock(ScheduledExecutorService.class));
+
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
+        Thread.sleep(60);
+        cache.rotate();
+
+        verify(_factory).destroy(END_POINT, handle.getService());
+        verify(_factory, times(2)).create(END_POINT);
+        assertEquals(1, cache.getNumIdleInstances(END_POINT));
+
+        // The replacement is already there, so checking out doesn't create anything.
+        assertNotSame(handle.getService(), cache.checkOut(END_POINT).getService());
+        verify(_factory, times(2)).create(END_POINT);
+    }
+
+    @Test
+    public void testExpiredCheckedOutInstanceRetiredOnCheckIn() throws Exception {
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(2);
+        when(_cachingPolicy.getMaxServiceInstanceLifetime(TimeUnit.NANOSECONDS)).thenReturn(TimeUnit.MILLISECONDS.toNanos(50));
+        SingleThreadedClientServiceCache<Service> cache = newCache(mock(ScheduledExecutorService.class));
+
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        Thread.sleep(60);
+        cache.rotate();
+
+        verify(_factory, times(2)).create(END_POINT);
+        verify(_factory, never()).destroy(END_POINT, handle.getService());
+
+        cache.checkIn(handle);
+        verify(_factory).destroy(END_POINT, handle.getService());
+        assertEquals(1, cache.getNumIdleInstances(END_POINT));
+    }
+
+    @Test
+    public void testUnexpiredInstanceNotRotated() throws Exception {
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(2);
+        when(_cachingPolicy.getMaxServiceInstanceLifetime(TimeUnit.NANOSECONDS)).thenReturn(TimeUnit.MINUTES.toNanos(1));
+        SingleThreadedClientServiceCache<Service> cache = newCache(mock(ScheduledExecutorService.class));
+
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
+        cache.rotate();
+
+        verify(_factory, times(1)).create(END_POINT);
+        assertSame(handle.getService(), cache.checkOut(END_POINT).getService());
+    }
+
+    @Test
+    public void testSchedulesValidationForValidatingFactory() {
+        useValidatingFactory();
+
+        ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+        newCache(executor);
+
+        verify(executor).scheduleAtFixedRate(any(Runnable.class),
+                eq(SingleThreadedClientServiceCache.VALIDATION_INTERVAL_IN_SECONDS),
+                eq(SingleThreadedClientServiceCache.VALIDATION_INTERVAL_IN_SECONDS), eq(TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testInvalidIdleInstanceDiscarded() throws Exception {
+        ValidatingServiceFactory<Service> factory = useValidatingFactory();
+        SingleThreadedClientServiceCache<Service> cache = newCache(mock(ScheduledExecutorService.class));
+
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
+        when(factory.isValid(END_POINT, handle.getService())).thenReturn(false);
+        cache.getPool().evict();
+
+        verify(factory).destroy(END_POINT, handle.getService());
+        assertEquals(0, cache.getNumIdleInstances(END_POINT));
+
+        // Only the instance was discarded, the end point is still usable.
+        assertNotSame(handle.getService(), cache.checkOut(END_POINT).getService());
+    }
+
+    @Test
+    public void testValidIdleInstanceKept() throws Exception {
+        ValidatingServiceFactory<Service> factory = useValidatingFactory();
+        SingleThreadedClientServiceCache<Service> cache = newCache(mock(ScheduledExecutorService.class));
+
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
+        when(factory.isValid(END_POINT, handle.getService())).thenReturn(true);
+        cache.getPool().evict();
+
+        verify(factory, never()).destroy(END_POINT, handle.getService());
+        assertSame(handle.getService(), cache.checkOut(END_POINT).getService());
+    }
+
+    @Test
+    public void testIdleInstanceFailingValidationDiscarded() throws Exception {
+        ValidatingServiceFactory<Service> factory = useValidatingFactory();
+        SingleThreadedClientServiceCache<Service> cache = newCache(mock(ScheduledExecutorService.class));
+
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
+        when(factory.isValid(END_POINT, handle.getService())).thenThrow(new RuntimeException());
+        cache.getPool().evict();
+
+        verify(factory).destroy(END_POINT, handle.getService());
+    }
+
+    @Test
+    public void testCheckedOutInstanceNotValidated() throws Exception {
+        ValidatingServiceFactory<Service> factory = useValidatingFactory();
+        SingleThreadedClientServiceCache<Service> cache = newCache(mock(ScheduledExecutorService.class));
+
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.getPool().evict();
+
+        verify(factory, never()).isValid(any(ServiceEndPoint.class), any(Service.class));
+    }
+
     @Test(expected = NoCachedInstancesAvailableException.class)
     public void testFailCacheExhaustionAction() throws Exception {
         when(_cachingPolicy.getCacheExhaustionAction()).thenReturn(ServiceCachingPolicy.ExhaustionAction.FAIL);
@@ -439,6 +695,103 @@ public class SingleThreadedClientServiceCacheTest {
                 eq(TimeUnit.SECONDS));
     }
 
+    @Test
+    public void testSchedulesPeriodicSizingAdjustmentWhenAdaptive() {
+        when(_cachingPolicy.getMinNumServiceInstancesPerEndPoint()).thenReturn(1);
+        ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+
+        newCache(executor);
+        verify(executor).scheduleAtFixedRate(
+                any(Runnable.class),
+                eq(AdaptiveInstanceSizer.ADJUSTMENT_INTERVAL_IN_SECONDS),
+                eq(AdaptiveInstanceSizer.ADJUSTMENT_INTERVAL_IN_SECONDS),
+                eq(TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testNoSizerWhenNotAdaptive() {
+        assertNull(newCache().getSizer());
+    }
+
+    @Test
+    public void testAdaptiveCheckOutFailsAtShrunkLimit() throws Exception {
+        when(_cachingPolicy.getMinNumServiceInstancesPerEndPoint()).thenReturn(1);
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(4);
+
+        SingleThreadedClientServiceCache<Service> cache = newCache();
+        cache.checkIn(cache.checkOut(END_POINT));
+        shrinkToFloor(cache);
+
+        cache.checkOut(END_POINT);
+        try {
+            cache.checkOut(END_POINT);
+            fail();
+        } catch (NoCachedInstancesAvailableException e) {
+            // Expected, the end point's limit shrunk to one.
+        }
+    }
+
+    @Test
+    public void testAdaptiveCheckInReleasesInstancesAboveLimit() throws Exception {
+        when(_cachingPolicy.getMinNumServiceInstancesPerEndPoint()).thenReturn(1);
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(4);
+
+        SingleThreadedClientServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle1 = cache.checkOut(END_POINT);
+        ServiceHandle<Service> handle2 = cache.checkOut(END_POINT);
+        cache.checkIn(handle1);
+        cache.checkIn(handle2);
+        shrinkToFloor(cache);
+
+        // One instance is still idle, which is all the shrunk limit allows, so this one is released.
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
+
+        assertEquals(1, cache.getNumIdleInstances(END_POINT));
+        verify(_factory).destroy(END_POINT, handle.getService());
+    }
+
+    @Test
+    public void testAdaptiveCheckInCountsCheckedOutInstances() throws Exception {
+        when(_cachingPolicy.getMinNumServiceInstancesPerEndPoint()).thenReturn(1);
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(4);
+        when(_cachingPolicy.getCacheExhaustionAction()).thenReturn(ServiceCachingPolicy.ExhaustionAction.GROW);
+
+        SingleThreadedClientServiceCache<Service> cache = newCache();
+        cache.checkIn(cache.checkOut(END_POINT));
+        shrinkToFloor(cache);
+        ServiceHandle<Service> handle1 = cache.checkOut(END_POINT);
+        ServiceHandle<Service> handle2 = cache.checkOut(END_POINT);
+        ServiceHandle<Service> handle3 = cache.checkOut(END_POINT);
+
+        // The instances that are still checked out already use up the shrunk limit, so this one isn't kept idle.
+        cache.checkIn(handle1);
+
+        assertEquals(0, cache.getNumIdleInstances(END_POINT));
+        verify(_factory).destroy(END_POINT, handle1.getService());
+
+        cache.checkIn(handle2);
+        cache.checkIn(handle3);
+        assertEquals(1, cache.getNumIdleInstances(END_POINT));
+    }
+
+    @Test
+    public void testAdaptiveLimitReleasedWhenCreateFails() throws Exception {
+        when(_cachingPolicy.getMinNumServiceInstancesPerEndPoint()).thenReturn(1);
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(1);
+        when(_factory.create(any(ServiceEndPoint.class))).thenThrow(new RuntimeException()).thenReturn(mock(Service.class));
+
+        SingleThreadedClientServiceCache<Service> cache = newCache();
+        try {
+            cache.checkOut(END_POINT);
+            fail();
+        } catch (RuntimeException e) {
+            // Expected
+        }
+
+        assertNotNull(cache.checkOut(END_POINT));
+    }
+
     @Test(expected = NullPointerException.class)
     public void testNumIdleNullEndPoint() {
         SingleThreadedClientServiceCache<Service> cache = newCache();
@@ -544,6 +897,26 @@ public class SingleThreadedClientServiceCacheTest {
         cache.close();
     }
 
+    private void shrinkToFloor(SingleThreadedClientServiceCache<Service> cache) {
+        for (int i = 0; i < 10; i++) {
+            cache.getSizer().adjust();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private ValidatingServiceFactory<Service> useValidatingFactory() {
+        ValidatingServiceFactory<Service> factory = mock(ValidatingServiceFactory.class);
+        when(factory.getServiceName()).thenReturn(Service.class.getSimpleName());
+        when(factory.create(any(ServiceEndPoint.class))).thenAnswer(new Answer<Service>() {
+            @Override
+            public Service answer(InvocationOnMock invocation) throws Throwable {
+                return mock(Service.class);
+            }
+        });
+        _factory = factory;
+        return factory;
+    }
+
     private SingleThreadedClientServiceCache<Service> newCache() {
         SingleThreadedClientServiceCache<Service> cache = new SingleThreadedClientServiceCache<>(_cachingPolicy, _factory, _registry);
         _caches.add(cache);
@@ -556,5 +929,14 @@ public class SingleThreadedClientServiceCacheTest {
         return cache;
     }
 
+    private SingleThreadedClientServiceCache<Service> newCache(ScheduledExecutorService executor,
+                                                              long maxLeaseTimeMillis, boolean reclaimExpiredLeases) {
+        SingleThreadedClientServiceCache<Service> cache = new SingleThreadedClientServiceCache<>(_cachingPolicy, _factory,
+                executor, ServiceCacheBuilder.DEFAULT_DRAIN_TIMEOUT_MILLIS, maxLeaseTimeMillis, reclaimExpiredLeases,
+                _registry);
+        _caches.add(cache);
+        return cache;
+    }
+
     public static interface Service {}
 }
@@ -0,0 +1,77 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.google.common.base.Ticker;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TokenBucketTest {
+    private Ticker _ticker;
+
+    @Before
+    public void setup() {
+        _ticker = mock(Ticker.class);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroRate() {
+        new TokenBucket(0, TimeUnit.SECONDS.toNanos(1), _ticker);
+    }
+
+    @Test
+    public void testStartsFull() {
+        TokenBucket bucket = new TokenBucket(2, TimeUnit.SECONDS.toNanos(1), _ticker);
+
+        assertTrue(bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+        assertTrue(bucket.isExhausted());
+    }
+
+    @Test
+    public void testRefillsAtRate() {
+        TokenBucket bucket = new TokenBucket(2, TimeUnit.SECONDS.toNanos(1), _ticker);
+        bucket.tryAcquire();
+        bucket.tryAcquire();
+
+        when(_ticker.read()).thenReturn(TimeUnit.MILLISECONDS.toNanos(499));
+        assertFalse(bucket.tryAcquire());
+        when(_ticker.read()).thenReturn(TimeUnit.MILLISECONDS.toNanos(500));
+        assertTrue(bucket.tryAcquire());
+    }
+
+    @Test
+    public void testSavesUpAtMostBurst() {
+        TokenBucket bucket = new TokenBucket(2, TimeUnit.SECONDS.toNanos(1), _ticker);
+
+        when(_ticker.read()).thenReturn(TimeUnit.MINUTES.toNanos(1));
+
+        assertTrue(bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    public void testHoldsAtLeastOneToken() {
+        TokenBucket bucket = new TokenBucket(0.1, TimeUnit.SECONDS.toNanos(1), _ticker);
+
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    public void testRefund() {
+        TokenBucket bucket = new TokenBucket(1, TimeUnit.SECONDS.toNanos(1), _ticker);
+        bucket.tryAcquire();
+
+        bucket.refund();
+
+        assertTrue(bucket.tryAcquire());
+    }
+}
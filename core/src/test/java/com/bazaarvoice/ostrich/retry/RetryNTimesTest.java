@@ -1,6 +1,8 @@
 package com.bazaarvoice.ostrich.retry;
 
+import com.bazaarvoice.ostrich.Deadline;
 import com.bazaarvoice.ostrich.RetryPolicy;
+import com.google.common.base.Ticker;
 import org.junit.Test;
 
 import java.util.Random;
@@ -9,6 +11,7 @@ import java.util.concurrent.TimeUnit;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
 
 public class RetryNTimesTest {
     @Test(expected = IllegalArgumentException.class)
@@ -59,6 +62,42 @@ public class RetryNTimesTest {
         assertFalse(retry.allowRetry(2, 0));
     }
 
+    @Test
+    public void testRetryWithinDeadline() {
+        RetryPolicy retry = new RetryNTimes(2, 10, TimeUnit.MILLISECONDS);
+        assertTrue(retry.allowRetry(1, 0, Deadline.after(1, TimeUnit.SECONDS)));
+    }
+
+    @Test
+    public void testNoSleepPastDeadline() {
+        Ticker ticker = mock(Ticker.class);
+        RetryPolicy retry = new RetryNTimes(2, 1, TimeUnit.SECONDS);
+
+        // The deadline would have passed by the time the operation is retried.
+        assertFalse(retry.allowRetry(1, 0, Deadline.after(500, TimeUnit.MILLISECONDS, ticker)));
+    }
+
+    @Test
+    public void testNoRetryAfterDeadline() {
+        RetryPolicy retry = new RetryNTimes(2);
+        assertFalse(retry.allowRetry(1, 0, Deadline.after(0, TimeUnit.MILLISECONDS)));
+    }
+
+    @Test
+    public void testRetryDelay() {
+        RetryNTimes retry = new RetryNTimes(3, 100, TimeUnit.MILLISECONDS);
+        assertEquals(100, retry.getRetryDelayMs(1, 0, Deadline.NONE));
+        assertEquals(100, retry.getRetryDelayMs(2, 0, Deadline.NONE));
+        assertEquals(-1, retry.getRetryDelayMs(3, 0, Deadline.NONE));
+    }
+
+    @Test
+    public void testNoRetryDelayPastDeadline() {
+        Ticker ticker = mock(Ticker.class);
+        RetryNTimes retry = new RetryNTimes(2, 1, TimeUnit.SECONDS);
+        assertEquals(-1, retry.getRetryDelayMs(1, 0, Deadline.after(500, TimeUnit.MILLISECONDS, ticker)));
+    }
+
     @Test
     public void testRetryRandomTimes() {
         Random rnd = new Random();
@@ -15,14 +15,22 @@ import com.google.common.collect.ConcurrentHashMultiset;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multiset;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
 import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.KeeperException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -31,6 +39,12 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * The <code>HostDiscovery</code> class encapsulates a ZooKeeper backed NodeDiscovery which watches a specific service
  * path in ZooKeeper and will monitor which end points are known to exist.  As end pionts come and go the results of
  * calling the {@link #getHosts} method change.
+ * <p/>
+ * While the connection to ZooKeeper is suspended or lost, end points that node discovery reports as removed are kept
+ * for up to a grace period, since it's much more likely that ZooKeeper can't be reached than that they all went away.
+ * This keeps service pools from tearing down healthy end points and their cached service instances because of a
+ * problem with ZooKeeper.  Once the connection is back each of these removals is checked against ZooKeeper, and only
+ * applied if the end point really is gone.  If the grace period runs out first the removal is applied anyway.
  */
 public class ZooKeeperHostDiscovery implements HostDiscovery {
     private static final Logger LOG = LoggerFactory.getLogger(ZooKeeperHostDiscovery.class);
@@ -44,31 +58,70 @@ public class ZooKeeperHostDiscovery implements HostDiscovery {
     @VisibleForTesting
     static final String ROOT_SERVICES_PATH = "/ostrich";
 
+    /** How long removals are held back while ZooKeeper can't be reached, if not configured otherwise. */
+    public static final long DEFAULT_REMOVAL_GRACE_PERIOD_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
     private final NodeDiscovery<ServiceEndPoint> _nodeDiscovery;
     private final Multiset<ServiceEndPoint> _endPoints;
     private final Set<EndPointListener> _listeners;
+    private final CuratorFramework _curator;
+    private final ConnectionStateListener _connectionStateListener;
+    private final ScheduledExecutorService _executor;
+    private final long _removalGracePeriodMillis;
+    private final Map<String, ServiceEndPoint> _pendingRemovals = Maps.newConcurrentMap();
+    private volatile boolean _connected = true;
 
     private final Metrics.InstanceMetrics _metrics;
     private final Counter _numListeners;
     private final Meter _numZooKeeperAdds;
     private final Meter _numZooKeeperRemoves;
     private final Meter _numZooKeeperChanges;
+    private final Meter _numDeferredRemoves;
+    private final Meter _numCancelledRemoves;
 
     public ZooKeeperHostDiscovery(CuratorFramework curator, String serviceName, MetricRegistry metrics) {
-        this(new NodeDiscoveryFactory(), curator, serviceName, metrics);
+        this(curator, serviceName, DEFAULT_REMOVAL_GRACE_PERIOD_MILLIS, TimeUnit.MILLISECONDS, metrics);
+    }
+
+    /**
+     * @param curator              The connection to ZooKeeper.
+     * @param serviceName          The name of the service to discover end points of.
+     * @param removalGracePeriod   How long to keep end points that are removed while ZooKeeper can't be reached, or 0
+     *                             to remove them right away.
+     * @param unit                 The unit of time the {@code removalGracePeriod} is in.
+     * @param metrics              The registry to publish metrics to.
+     */
+    public ZooKeeperHostDiscovery(CuratorFramework curator, String serviceName, long removalGracePeriod,
+                                  TimeUnit unit, MetricRegistry metrics) {
+        this(new NodeDiscoveryFactory(), curator, serviceName, removalGracePeriod, unit, newExecutor(serviceName),
+                metrics);
+    }
+
+    @VisibleForTesting
+    ZooKeeperHostDiscovery(NodeDiscoveryFactory factory, CuratorFramework curator, String serviceName,
+                           MetricRegistry metrics) {
+        this(factory, curator, serviceName, 0, TimeUnit.MILLISECONDS, newExecutor(serviceName), metrics);
     }
 
     @VisibleForTesting
     ZooKeeperHostDiscovery(NodeDiscoveryFactory factory, CuratorFramework curator, String serviceName,
+                           long removalGracePeriod, TimeUnit unit, ScheduledExecutorService executor,
                            MetricRegistry metrics) {
         checkNotNull(factory);
         checkNotNull(curator);
         checkNotNull(serviceName);
         checkArgument(!"".equals(serviceName));
+        checkArgument(removalGracePeriod >= 0);
+        checkNotNull(unit);
+        checkNotNull(executor);
         checkNotNull(metrics);
 
         String servicePath = makeServicePath(serviceName);
 
+        _curator = curator;
+        _executor = executor;
+        _removalGracePeriodMillis = unit.toMillis(removalGracePeriod);
+
         _listeners = Collections.newSetFromMap(Maps.newConcurrentMap());
         _endPoints = ConcurrentHashMultiset.create();
 
@@ -77,8 +130,7 @@ public class ZooKeeperHostDiscovery implements HostDiscovery {
                 servicePath,
                 new NodeDiscovery.NodeDataParser<ServiceEndPoint>() {
                     public ServiceEndPoint parse(String path, byte[] nodeData) {
-                        String json = new String(nodeData, Charsets.UTF_8);
-                        return ServiceEndPointJsonCodec.fromJson(json);
+                        return parseEndPoint(nodeData);
                     }
                 }
         );
@@ -97,6 +149,30 @@ public class ZooKeeperHostDiscovery implements HostDiscovery {
         _numZooKeeperAdds = _metrics.meter("num-zookeeper-adds");
         _numZooKeeperRemoves = _metrics.meter("num-zookeeper-removes");
         _numZooKeeperChanges = _metrics.meter("num-zookeeper-changes");
+        _numDeferredRemoves = _metrics.meter("num-deferred-removes");
+        _numCancelledRemoves = _metrics.meter("num-cancelled-removes");
+        _metrics.gauge("num-pending-removes", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return _pendingRemovals.size();
+            }
+        });
+        _metrics.gauge("stale-topology", new Gauge<Boolean>() {
+            @Override
+            public Boolean getValue() {
+                return isStale();
+            }
+        });
+
+        _connectionStateListener = new ConnectionStateListener() {
+            @Override
+            public void stateChanged(CuratorFramework client, ConnectionState newState) {
+                onConnectionStateChanged(newState);
+            }
+        };
+        if (_removalGracePeriodMillis > 0) {
+            _curator.getConnectionStateListenable().addListener(_connectionStateListener);
+        }
 
         // wait to start node discovery until all fields are initialized.
         _nodeDiscovery.start();
@@ -107,6 +183,15 @@ public class ZooKeeperHostDiscovery implements HostDiscovery {
         return Iterables.unmodifiableIterable(_endPoints.elementSet());
     }
 
+    /**
+     * Returns {@code true} while the connection to ZooKeeper is down, or removals that happened while it was down
+     * haven't been checked yet.
+     */
+    @Override
+    public boolean isStale() {
+        return !_connected || !_pendingRemovals.isEmpty();
+    }
+
     @Override
     public void addListener(EndPointListener listener) {
         _listeners.add(listener);
@@ -121,8 +206,13 @@ public class ZooKeeperHostDiscovery implements HostDiscovery {
 
     @Override
     public void close() throws IOException {
+        if (_removalGracePeriodMillis > 0) {
+            _curator.getConnectionStateListenable().removeListener(_connectionStateListener);
+        }
+        _executor.shutdownNow();
         _nodeDiscovery.close();
         _endPoints.clear();
+        _pendingRemovals.clear();
         _metrics.close();
     }
 
@@ -142,6 +232,96 @@ public class ZooKeeperHostDiscovery implements HostDiscovery {
         }
     }
 
+    @VisibleForTesting
+    void onConnectionStateChanged(ConnectionState newState) {
+        switch (newState) {
+            case SUSPENDED:
+            case LOST:
+                if (_connected) {
+                    LOG.warn("Lost connection to ZooKeeper, holding back end point removals for up to {} ms.",
+                            _removalGracePeriodMillis);
+                }
+                _connected = false;
+                break;
+            case CONNECTED:
+            case RECONNECTED:
+                _connected = true;
+
+                // Checking the removals talks to ZooKeeper, so don't hold up Curator's event thread with it.
+                _executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        checkPendingRemovals();
+                    }
+                });
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Applies the removals that were held back while ZooKeeper couldn't be reached for end points that really are
+     * gone, and forgets about the ones for end points that are still registered.  An end point whose path now holds a
+     * different registration, for example because it registered again with a new payload, is gone as well.
+     */
+    @VisibleForTesting
+    void checkPendingRemovals() {
+        for (Map.Entry<String, ServiceEndPoint> entry : _pendingRemovals.entrySet()) {
+            String path = entry.getKey();
+            ServiceEndPoint endPoint = entry.getValue();
+            ServiceEndPoint registered;
+            try {
+                registered = parseEndPoint(_curator.getData().forPath(path));
+            } catch (KeeperException.NoNodeException e) {
+                registered = null;
+            } catch (Exception e) {
+                // Try again once the connection is back, or give up when the grace period runs out.
+                LOG.warn("Unable to check whether end point {} is still registered.", endPoint, e);
+                continue;
+            }
+
+            if (endPoint.equals(registered)) {
+                if (_pendingRemovals.remove(path, endPoint)) {
+                    _numCancelledRemoves.mark();
+                }
+            } else {
+                applyPendingRemoval(path, endPoint);
+            }
+        }
+    }
+
+    /**
+     * Removes an end point whose removal was held back, if it hasn't been applied or cancelled yet.
+     */
+    @VisibleForTesting
+    void applyPendingRemoval(String path) {
+        ServiceEndPoint endPoint = _pendingRemovals.get(path);
+        if (endPoint != null) {
+            applyPendingRemoval(path, endPoint);
+        }
+    }
+
+    private void applyPendingRemoval(String path, ServiceEndPoint endPoint) {
+        if (_pendingRemovals.remove(path, endPoint)) {
+            removeServiceEndPoint(endPoint);
+        }
+    }
+
+    private void deferRemoval(final String path, ServiceEndPoint endPoint) {
+        if (_pendingRemovals.put(path, endPoint) != null) {
+            return;
+        }
+
+        _numDeferredRemoves.mark();
+        _executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                applyPendingRemoval(path);
+            }
+        }, _removalGracePeriodMillis, TimeUnit.MILLISECONDS);
+    }
+
     private void fireAddEvent(ServiceEndPoint endPoint) {
         for (EndPointListener listener : _listeners) {
             listener.onEndPointAdded(endPoint);
@@ -154,6 +334,18 @@ public class ZooKeeperHostDiscovery implements HostDiscovery {
         }
     }
 
+    private static ServiceEndPoint parseEndPoint(byte[] nodeData) {
+        String json = new String(nodeData, Charsets.UTF_8);
+        return ServiceEndPointJsonCodec.fromJson(json);
+    }
+
+    private static ScheduledExecutorService newExecutor(String serviceName) {
+        return Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat(serviceName + "-HostDiscoveryThread-%d")
+                .setDaemon(true)
+                .build());
+    }
+
     /**
      * Construct the path in ZooKeeper to where a service's children live.
      * @param serviceName The name of the service to get the ZooKeeper path for.
@@ -172,12 +364,30 @@ public class ZooKeeperHostDiscovery implements HostDiscovery {
         @Override
         public void onNodeAdded(String path, ServiceEndPoint node) {
             _numZooKeeperAdds.mark();
+
+            ServiceEndPoint pending = _pendingRemovals.get(path);
+            if (pending != null) {
+                if (pending.equals(node) && _pendingRemovals.remove(path, node)) {
+                    // Removed while ZooKeeper couldn't be reached, but it's still there.  It was never removed from
+                    // the end points, so there's nothing to add.
+                    _numCancelledRemoves.mark();
+                    return;
+                }
+
+                // A different registration took the path's place, so the end point that was there really is gone.
+                applyPendingRemoval(path, pending);
+            }
             addServiceEndPoint(node);
         }
 
         @Override
         public void onNodeRemoved(String path, ServiceEndPoint node) {
             _numZooKeeperRemoves.mark();
+
+            if (!_connected && _removalGracePeriodMillis > 0) {
+                deferRemoval(path, node);
+                return;
+            }
             removeServiceEndPoint(node);
         }
 
@@ -10,6 +10,11 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.io.Closeables;
 import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.GetDataBuilder;
+import org.apache.curator.framework.listen.Listenable;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
+import org.apache.zookeeper.KeeperException;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -19,9 +24,14 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
 import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.same;
 import static org.mockito.Mockito.doAnswer;
@@ -247,6 +257,175 @@ public class ZooKeeperHostDiscoveryTest {
         assertEquals(1, endPointListener2.getNumRemoves());
     }
 
+    @Test
+    public void testRemovalWhileConnectedApplied() throws Exception {
+        GracefulDiscovery graceful = new GracefulDiscovery();
+        CountingListener endPointListener = new CountingListener();
+        graceful._discovery.addListener(endPointListener);
+
+        graceful._listener.onNodeAdded("path", FOO);
+        graceful._listener.onNodeRemoved("path", FOO);
+
+        assertEquals(1, endPointListener.getNumRemoves());
+        assertFalse(graceful._discovery.isStale());
+        graceful._discovery.close();
+    }
+
+    @Test
+    public void testRemovalWhileDisconnectedDeferred() throws Exception {
+        GracefulDiscovery graceful = new GracefulDiscovery();
+        CountingListener endPointListener = new CountingListener();
+        graceful._discovery.addListener(endPointListener);
+
+        graceful._listener.onNodeAdded("path", FOO);
+        graceful._discovery.onConnectionStateChanged(ConnectionState.LOST);
+        graceful._listener.onNodeRemoved("path", FOO);
+
+        assertEquals(0, endPointListener.getNumRemoves());
+        assertEquals(ImmutableList.of(FOO), ImmutableList.copyOf(graceful._discovery.getHosts()));
+        assertTrue(graceful._discovery.isStale());
+        verify(graceful._executor).schedule(any(Runnable.class), eq(TimeUnit.MINUTES.toMillis(1)),
+                eq(TimeUnit.MILLISECONDS));
+        graceful._discovery.close();
+    }
+
+    @Test
+    public void testDeferredRemovalAppliedAfterGracePeriod() throws Exception {
+        GracefulDiscovery graceful = new GracefulDiscovery();
+        CountingListener endPointListener = new CountingListener();
+        graceful._discovery.addListener(endPointListener);
+
+        graceful._listener.onNodeAdded("path", FOO);
+        graceful._discovery.onConnectionStateChanged(ConnectionState.SUSPENDED);
+        graceful._listener.onNodeRemoved("path", FOO);
+        graceful._discovery.applyPendingRemoval("path");
+
+        assertEquals(1, endPointListener.getNumRemoves());
+        assertTrue(Iterables.isEmpty(graceful._discovery.getHosts()));
+        graceful._discovery.close();
+    }
+
+    @Test
+    public void testDeferredRemovalCancelledWhenAddedBack() throws Exception {
+        GracefulDiscovery graceful = new GracefulDiscovery();
+        CountingListener endPointListener = new CountingListener();
+        graceful._discovery.addListener(endPointListener);
+
+        graceful._listener.onNodeAdded("path", FOO);
+        graceful._discovery.onConnectionStateChanged(ConnectionState.LOST);
+        graceful._listener.onNodeRemoved("path", FOO);
+        graceful._discovery.onConnectionStateChanged(ConnectionState.RECONNECTED);
+        graceful._listener.onNodeAdded("path", FOO);
+
+        // Neither the removal nor the add is seen by listeners, and a later removal isn't held up by the old one.
+        assertEquals(1, endPointListener.getNumAdds());
+        assertEquals(0, endPointListener.getNumRemoves());
+        assertFalse(graceful._discovery.isStale());
+        graceful._listener.onNodeRemoved("path", FOO);
+        assertEquals(1, endPointListener.getNumRemoves());
+        graceful._discovery.close();
+    }
+
+    @Test
+    public void testDeferredRemovalOfRegisteredEndPointCancelledOnReconnect() throws Exception {
+        GracefulDiscovery graceful = new GracefulDiscovery();
+        CountingListener endPointListener = new CountingListener();
+        graceful._discovery.addListener(endPointListener);
+        when(graceful._getData.forPath("path")).thenReturn(toData(FOO));
+
+        graceful._listener.onNodeAdded("path", FOO);
+        graceful._discovery.onConnectionStateChanged(ConnectionState.LOST);
+        graceful._listener.onNodeRemoved("path", FOO);
+        graceful._discovery.onConnectionStateChanged(ConnectionState.RECONNECTED);
+        graceful._discovery.checkPendingRemovals();
+
+        assertEquals(0, endPointListener.getNumRemoves());
+        assertEquals(ImmutableList.of(FOO), ImmutableList.copyOf(graceful._discovery.getHosts()));
+        assertFalse(graceful._discovery.isStale());
+        graceful._discovery.close();
+    }
+
+    @Test
+    public void testDeferredRemovalOfUnregisteredEndPointAppliedOnReconnect() throws Exception {
+        GracefulDiscovery graceful = new GracefulDiscovery();
+        CountingListener endPointListener = new CountingListener();
+        graceful._discovery.addListener(endPointListener);
+        when(graceful._getData.forPath("path")).thenThrow(new KeeperException.NoNodeException());
+
+        graceful._listener.onNodeAdded("path", FOO);
+        graceful._discovery.onConnectionStateChanged(ConnectionState.LOST);
+        graceful._listener.onNodeRemoved("path", FOO);
+        graceful._discovery.onConnectionStateChanged(ConnectionState.RECONNECTED);
+        graceful._discovery.checkPendingRemovals();
+
+        assertEquals(1, endPointListener.getNumRemoves());
+        assertTrue(Iterables.isEmpty(graceful._discovery.getHosts()));
+        graceful._discovery.close();
+    }
+
+    @Test
+    public void testDeferredRemovalAppliedWhenReregisteredWithNewPayload() throws Exception {
+        GracefulDiscovery graceful = new GracefulDiscovery();
+        CountingListener endPointListener = new CountingListener();
+        graceful._discovery.addListener(endPointListener);
+        ServiceEndPoint updated = newFooWithPayload("updated");
+
+        graceful._listener.onNodeAdded("path", FOO);
+        graceful._discovery.onConnectionStateChanged(ConnectionState.LOST);
+        graceful._listener.onNodeRemoved("path", FOO);
+        graceful._discovery.onConnectionStateChanged(ConnectionState.RECONNECTED);
+        graceful._listener.onNodeAdded("path", updated);
+
+        assertEquals(1, endPointListener.getNumRemoves());
+        assertEquals(ImmutableList.of(updated), ImmutableList.copyOf(graceful._discovery.getHosts()));
+        assertFalse(graceful._discovery.isStale());
+        graceful._discovery.close();
+    }
+
+    @Test
+    public void testDeferredRemovalOfReregisteredEndPointAppliedOnReconnect() throws Exception {
+        GracefulDiscovery graceful = new GracefulDiscovery();
+        CountingListener endPointListener = new CountingListener();
+        graceful._discovery.addListener(endPointListener);
+        when(graceful._getData.forPath("path")).thenReturn(toData(newFooWithPayload("updated")));
+
+        graceful._listener.onNodeAdded("path", FOO);
+        graceful._discovery.onConnectionStateChanged(ConnectionState.LOST);
+        graceful._listener.onNodeRemoved("path", FOO);
+        graceful._discovery.onConnectionStateChanged(ConnectionState.RECONNECTED);
+        graceful._discovery.checkPendingRemovals();
+
+        assertEquals(1, endPointListener.getNumRemoves());
+        assertTrue(Iterables.isEmpty(graceful._discovery.getHosts()));
+        assertFalse(graceful._discovery.isStale());
+        graceful._discovery.close();
+    }
+
+    @Test
+    public void testZeroGracePeriodDoesNotWatchConnection() throws Exception {
+        // The discovery created in setup has no grace period.
+        CountingListener endPointListener = new CountingListener();
+        _discovery.addListener(endPointListener);
+
+        _discovery.onConnectionStateChanged(ConnectionState.LOST);
+        addNode("path", FOO);
+        removeNode("path", FOO);
+
+        assertEquals(1, endPointListener.getNumRemoves());
+    }
+
+    private static ServiceEndPoint newFooWithPayload(String payload) {
+        return new ServiceEndPointBuilder()
+                .withServiceName(FOO.getServiceName())
+                .withId(FOO.getId())
+                .withPayload(payload)
+                .build();
+    }
+
+    private static byte[] toData(ServiceEndPoint endPoint) {
+        return ServiceEndPointJsonCodec.toJson(endPoint).getBytes(Charsets.UTF_8);
+    }
+
     private void addNode(String path, ServiceEndPoint endPoint) {
         _listener.onNodeAdded(path, endPoint);
     }
@@ -255,6 +434,36 @@ public class ZooKeeperHostDiscoveryTest {
         _listener.onNodeRemoved(path, endPoint);
     }
 
+    /** A host discovery with a grace period for removals while ZooKeeper can't be reached. */
+    private final class GracefulDiscovery {
+        private final ScheduledExecutorService _executor = mock(ScheduledExecutorService.class);
+        private final GetDataBuilder _getData = mock(GetDataBuilder.class);
+        private final ZooKeeperHostDiscovery _discovery;
+        private final NodeDiscovery.NodeListener<ServiceEndPoint> _listener;
+
+        @SuppressWarnings("unchecked")
+        GracefulDiscovery() {
+            ZooKeeperHostDiscovery.NodeDiscoveryFactory factory = mock(ZooKeeperHostDiscovery.NodeDiscoveryFactory.class);
+            NodeDiscovery<ServiceEndPoint> nodeDiscovery = mock(NodeDiscovery.class);
+            when(factory.create(Matchers.<CuratorFramework>any(), anyString(),
+                    Matchers.<NodeDiscovery.NodeDataParser<ServiceEndPoint>>any())).thenReturn(nodeDiscovery);
+
+            CuratorFramework curator = mock(CuratorFramework.class);
+            Listenable<ConnectionStateListener> listenable = mock(Listenable.class);
+            when(curator.getConnectionStateListenable()).thenReturn(listenable);
+            when(curator.getData()).thenReturn(_getData);
+
+            _discovery = new ZooKeeperHostDiscovery(factory, curator, FOO.getServiceName(), 1, TimeUnit.MINUTES,
+                    _executor, new MetricRegistry());
+            verify(listenable).addListener(any(ConnectionStateListener.class));
+
+            ArgumentCaptor<NodeDiscovery.NodeListener<ServiceEndPoint>> listenerCaptor =
+                    (ArgumentCaptor) ArgumentCaptor.forClass(NodeDiscovery.NodeListener.class);
+            verify(nodeDiscovery).addListener(listenerCaptor.capture());
+            _listener = listenerCaptor.getValue();
+        }
+    }
+
     private static final class CountingListener implements ZooKeeperHostDiscovery.EndPointListener {
         private int _numAdds;
         private int _numRemoves;
@@ -31,6 +31,9 @@ import static com.google.common.base.Preconditions.checkState;
 
 /**
  * A <code>ServiceRegistry</code> implementation that uses ZooKeeper as its backing data store.
+ * <p/>
+ * End points are registered along with the capacity they declared, if any, so that clients can limit the rate of
+ * requests they send to them.
  */
 public class ZooKeeperServiceRegistry implements ServiceRegistry
 {
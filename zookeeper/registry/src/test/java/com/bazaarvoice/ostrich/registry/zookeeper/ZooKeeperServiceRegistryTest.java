@@ -134,6 +134,21 @@ public class ZooKeeperServiceRegistryTest {
         verify(node, never()).close(anyLong(), any(TimeUnit.class));
     }
 
+    @Test
+    public void testRegisterWithCapacity() throws Exception {
+        ServiceEndPoint endPoint = new ServiceEndPointBuilder()
+                .withServiceName(FOO.getServiceName())
+                .withId(FOO.getId())
+                .withCapacity(100)
+                .build();
+
+        _registry.register(endPoint);
+
+        ArgumentCaptor<byte[]> dataCaptor = ArgumentCaptor.forClass(byte[].class);
+        verify(_nodeFactory).create(eq(FOO_PATH), dataCaptor.capture());
+        assertEquals(100, ServiceEndPointJsonCodec.fromJson(new String(dataCaptor.getValue())).getCapacity(), 0);
+    }
+
     @Test
     public void testDuplicateRegister() throws Exception {
         PersistentEphemeralNode firstNode = mock(PersistentEphemeralNode.class);